@@ -0,0 +1,259 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is used to calculate the heuristic estimated-cost-to-goal using
+ * landmarks (the ALT heuristic: A*, Landmarks, Triangle inequality). <br>
+ *
+ * A few landmark nodes are picked spread out around the edges of the graph
+ * and the cheapest path costs from each landmark to every node, and from every
+ * node to each landmark, are stored. By the triangle inequality, for a
+ * landmark L the cost from a node to the goal is at least
+ * <pre>d(L, goal) - d(L, node)  and  d(node, L) - d(goal, L)</pre>
+ * and the estimate is the largest of these bounds over all landmarks. This is
+ * usually far tighter than the distance as the crow flies. <br>
+ *
+ * The bounds stay valid if edge costs go up after the tables were made
+ * (e.g. congestion or closed roads), just less tight, so unlike a contraction
+ * hierarchy the tables can be kept while costs change. They must be remade if
+ * any edge cost drops below the cost it had when they were made. <br>
+ *
+ * The tables are stored as floats, rounded down, in one array per direction
+ * with the landmarks of each node next to each other. A bound subtracts one
+ * entry from another, so the entry subtracted is rounded back up first. They can be saved to
+ * disk and loaded again for the same graph (see save() and load()).
+ */
+public class AshLandmarks implements AstarHeuristic {
+	private static final int FILE_MAGIC = 0x414c5447; // "ALTG"
+	private static final int FILE_VERSION = 1;
+
+	private final CsrGraph graph;
+	private final int nbrLandmarks;
+	// Landmark number to node index
+	private final int[] landmarks;
+	// [node index * nbrLandmarks + landmark number] to cost from the landmark to the node (infinite if unreachable)
+	private final float[] fromLandmark;
+	// [node index * nbrLandmarks + landmark number] to cost from the node to the landmark (infinite if unreachable)
+	private final float[] toLandmark;
+	// Signature of the graph the tables were made for
+	private final long signature;
+
+	private AshLandmarks(CsrGraph graph, long signature, int[] landmarks, float[] fromLandmark, float[] toLandmark) {
+		this.graph = graph;
+		this.signature = signature;
+		this.landmarks = landmarks;
+		this.nbrLandmarks = landmarks.length;
+		this.fromLandmark = fromLandmark;
+		this.toLandmark = toLandmark;
+	}
+
+	/**
+	 * Pick landmarks and make the cost tables for a graph. <br>
+	 * Landmarks are picked by farthest point selection: each new landmark is
+	 * the node farthest from the landmarks picked so far.
+	 *
+	 * @param graph the graph
+	 * @param nbrLandmarks number of landmarks to use
+	 * @return the heuristic
+	 */
+	public static AshLandmarks build(CsrGraph graph, int nbrLandmarks){
+		int n = graph.getNbrNodes();
+		SearchWorkspace ws = new SearchWorkspace(n);
+		float[] fromLandmark = new float[n * nbrLandmarks];
+		float[] toLandmark = new float[n * nbrLandmarks];
+		int[] landmarks = new int[nbrLandmarks];
+		// Smallest cost from any landmark picked so far, per node
+		double[] nearest = new double[n];
+		Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+		// Start the selection from the farthest node from some node with edges
+		int seed = 0;
+		while(seed < n && graph.offsets[seed] == graph.offsets[seed + 1])
+			seed++;
+		if(seed == n)
+			return new AshLandmarks(graph, graph.getSignature(), new int[0], new float[0], new float[0]);
+		shortestPaths(graph, ws, seed, true);
+		int next = farthest(graph, ws, null);
+		int count = 0;
+		while(count < nbrLandmarks && next >= 0){
+			landmarks[count] = next;
+			shortestPaths(graph, ws, next, true);
+			for(int v = 0; v < n; v++){
+				double c = ws.getCost(v);
+				fromLandmark[v * nbrLandmarks + count] = roundDown(c);
+				nearest[v] = Math.min(nearest[v], c);
+			}
+			shortestPaths(graph, ws, next, false);
+			for(int v = 0; v < n; v++)
+				toLandmark[v * nbrLandmarks + count] = roundDown(ws.getCost(v));
+			count++;
+			next = farthest(graph, null, nearest);
+		}
+		if(count < nbrLandmarks){
+			// Fewer nodes than landmarks asked for; repack the tables
+			float[] from = new float[n * count];
+			float[] to = new float[n * count];
+			for(int v = 0; v < n; v++){
+				System.arraycopy(fromLandmark, v * nbrLandmarks, from, v * count, count);
+				System.arraycopy(toLandmark, v * nbrLandmarks, to, v * count, count);
+			}
+			return new AshLandmarks(graph, graph.getSignature(), Arrays.copyOf(landmarks, count), from, to);
+		}
+		return new AshLandmarks(graph, graph.getSignature(), landmarks, fromLandmark, toLandmark);
+	}
+
+	/**
+	 * @return the node indices of the landmarks
+	 */
+	public int[] getLandmarks(){
+		return landmarks.clone();
+	}
+
+	/**
+	 * @param graph a graph
+	 * @return true if the tables were made for this graph (same nodes, edges and costs)
+	 */
+	public boolean matches(CsrGraph graph){
+		return graph.getNbrNodes() * nbrLandmarks == fromLandmark.length && graph.getSignature() == signature;
+	}
+
+	/**
+	 * Estimate the cost between the node and the target.
+	 */
+	public double getCost(GraphNode node, GraphNode target) {
+		int v = graph.indexOf(node.id());
+		int t = graph.indexOf(target.id());
+		return (v < 0 || t < 0) ? 0 : getCost(graph, v, t);
+	}
+
+	/**
+	 * Estimate the cost between the node and the target, given as node
+	 * indices of the graph the tables were made for.
+	 */
+	@Override
+	public double getCost(CsrGraph graph, int node, int target) {
+		double best = 0;
+		int v = node * nbrLandmarks;
+		int t = target * nbrLandmarks;
+		for(int l = 0; l < nbrLandmarks; l++){
+			// The entries are rounded down, so the cost subtracted is taken as the next float up, which is at least
+			// the cost the entry was rounded from.
+			// Infinite entries (unreachable) give no bound; the subtractions then give NaN or infinity, skipped here
+			double forward = fromLandmark[t + l] - (double) Math.nextUp(fromLandmark[v + l]);
+			double backward = toLandmark[v + l] - (double) Math.nextUp(toLandmark[t + l]);
+			if(forward > best && forward < Double.POSITIVE_INFINITY)
+				best = forward;
+			if(backward > best && backward < Double.POSITIVE_INFINITY)
+				best = backward;
+		}
+		return best;
+	}
+
+	/**
+	 * Save the tables to a file.
+	 * @param file the file to write
+	 * @throws IOException if the file can't be written
+	 */
+	public void save(File file) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeLong(signature);
+			out.writeInt(graph.getNbrNodes());
+			out.writeInt(nbrLandmarks);
+			for(int l : landmarks)
+				out.writeInt(l);
+			for(float c : fromLandmark)
+				out.writeFloat(c);
+			for(float c : toLandmark)
+				out.writeFloat(c);
+		}
+	}
+
+	/**
+	 * Load tables saved with save().
+	 * @param file the file to read
+	 * @param graph the graph the tables are for
+	 * @return the heuristic, or null if the file is not for this graph (e.g. the map has changed)
+	 * @throws IOException if the file can't be read
+	 */
+	public static AshLandmarks load(File file, CsrGraph graph) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+			if(in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION)
+				return null;
+			long signature = in.readLong();
+			int n = in.readInt();
+			int nbrLandmarks = in.readInt();
+			if(n != graph.getNbrNodes() || signature != graph.getSignature() || nbrLandmarks < 0)
+				return null;
+			int[] landmarks = new int[nbrLandmarks];
+			for(int l = 0; l < nbrLandmarks; l++)
+				landmarks[l] = in.readInt();
+			float[] fromLandmark = new float[n * nbrLandmarks];
+			for(int i = 0; i < fromLandmark.length; i++)
+				fromLandmark[i] = in.readFloat();
+			float[] toLandmark = new float[n * nbrLandmarks];
+			for(int i = 0; i < toLandmark.length; i++)
+				toLandmark[i] = in.readFloat();
+			return new AshLandmarks(graph, signature, landmarks, fromLandmark, toLandmark);
+		}
+	}
+
+	// Nearest float not above the cost; getCost() takes the float after it where it needs the cost rounded up
+	private static float roundDown(double c){
+		float f = (float) c;
+		return (f > c) ? Math.nextDown(f) : f;
+	}
+
+	// Node with edges farthest from the last search (if ws given) or with the largest finite cost in costs
+	private static int farthest(CsrGraph graph, SearchWorkspace ws, double[] costs){
+		int best = -1;
+		double bestCost = 0;
+		for(int v = 0; v < graph.getNbrNodes(); v++){
+			if(graph.offsets[v] == graph.offsets[v + 1] && graph.inOffsets[v] == graph.inOffsets[v + 1])
+				continue;
+			double c = (ws != null) ? ws.getCost(v) : costs[v];
+			if(c > bestCost && c < Double.POSITIVE_INFINITY){
+				best = v;
+				bestCost = c;
+			}
+		}
+		return best;
+	}
+
+	// Dijkstra from (forward) or to (backward) the node over the whole graph; costs are left in the workspace
+	private static void shortestPaths(CsrGraph graph, SearchWorkspace ws, int node, boolean forward){
+		int[] offsets = forward ? graph.offsets : graph.inOffsets;
+		int[] ends = forward ? graph.targets : graph.inSources;
+		double[] costs = graph.costs;
+		ws.begin();
+		IndexedHeap queue = ws.heap;
+		ws.setCost(node, 0.0, node);
+		queue.insertOrDecrease(node, 0.0);
+		while(!queue.isEmpty()){
+			int next = queue.poll();
+			ws.settle(next);
+			double costToNext = ws.cost[next];
+			for(int k = offsets[next]; k < offsets[next + 1]; k++){
+				int end = ends[k];
+				double c = costToNext + costs[forward ? k : graph.inEdges[k]];
+				if(!ws.isSettled(end) && ws.getCost(end) > c){
+					ws.setCost(end, c, next);
+					queue.insertOrDecrease(end, c);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+/**
+ * This class is used to calculate the heuristic estimated-cost-to-goal for 
+ * graphs whose edge costs are travel times. <br>
+ * 
+ * Node x and y are taken to be longitude and latitude in degrees. The 
+ * estimated cost to goal is the great circle (haversine) distance between the 
+ * current node and the goal, in metres, divided by the highest speed allowed 
+ * anywhere in the graph, in metres per second. <br>
+ * 
+ * As long as every edge costs at least its own great circle length divided 
+ * by that speed, the estimate never overestimates and is consistent, so A* 
+ * finds the cheapest path without revisiting nodes. <br>
+ */
+public class AshTravelTime implements AstarHeuristic {
+
+	/**
+	 * Earth radius in metres used for distances (WGS84 equatorial radius).
+	 * Edge costs must use the same radius for the estimate to stay a lower bound.
+	 */
+	public static final double EARTH_RADIUS = 6378137.0;
+
+	private static final double D2R = Math.PI / 180;
+
+	private final double maxSpeed;
+
+	/**
+	 * Create the heuristic.
+	 * @param maxSpeed highest speed on any edge of the graph, in m/s
+	 */
+	public AshTravelTime(double maxSpeed) {
+		this.maxSpeed = maxSpeed;
+	}
+
+	/**
+	 * Great circle distance between 2 points in metres.
+	 * @param lon1 longitude of the first point in degrees
+	 * @param lat1 latitude of the first point in degrees
+	 * @param lon2 longitude of the second point in degrees
+	 * @param lat2 latitude of the second point in degrees
+	 */
+	public static double getDistance(double lon1, double lat1, double lon2, double lat2) {
+		double sinDLat = Math.sin((lat2 - lat1) * D2R / 2);
+		double sinDLon = Math.sin((lon2 - lon1) * D2R / 2);
+		double a = sinDLat * sinDLat + Math.cos(lat1 * D2R) * Math.cos(lat2 * D2R) * sinDLon * sinDLon;
+		return EARTH_RADIUS * 2 * Math.asin(Math.sqrt(a));
+	}
+
+	/**
+	 * Estimate the cost between the node and the target.
+	 */
+	public double getCost(GraphNode node, GraphNode target) {
+		return getDistance(node.x, node.y, target.x, target.y) / maxSpeed;
+	}
+
+	/**
+	 * Estimate the cost between the node and the target, using the 
+	 * coordinates held by the CSR graph.
+	 */
+	@Override
+	public double getCost(CsrGraph graph, int node, int target) {
+		return getDistance(graph.xs[node], graph.ys[node], graph.xs[target], graph.ys[target]) / maxSpeed;
+	}
+
+}
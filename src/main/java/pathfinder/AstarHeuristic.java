@@ -15,6 +15,7 @@ package pathfinder;
  * 
  * @see		AshCrowFlight
  * @see		AshManhattan
+ * @see		AshTravelTime
  * 
  * @author Peter Lager
  */
@@ -24,5 +25,14 @@ public interface AstarHeuristic {
 	 * Estimate the cost between the node and the target.
 	 */
 	public double getCost(GraphNode node, GraphNode target);
-	
+
+	/**
+	 * Estimate the cost between the node and the target, given as node
+	 * indices of a CSR graph. Used by the CSR graph searches; override
+	 * to avoid going through the GraphNode objects.
+	 */
+	public default double getCost(CsrGraph graph, int node, int target) {
+		return getCost(graph.getNode(node), graph.getNode(target));
+	}
+
 }
@@ -0,0 +1,462 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+import java.util.Arrays;
+
+/**
+ * A smaller copy of a CSR graph for searching, with every chain of nodes
+ * that only pass traffic through merged into a single edge. <br>
+ *
+ * Road maps have many nodes that only give a road its shape: they join 2
+ * neighbours, either one way (one edge in, one edge out) or both ways (edges
+ * in and out to the same 2 neighbours). Such a node can't be a turning
+ * point of a cheapest path, so the core graph leaves it out. Each chain of
+ * them between 2 kept nodes becomes one core edge costing the sum of its
+ * edges. Nodes with no edges are left out too. A cycle of pass-through nodes
+ * keeps one of them. <br>
+ *
+ * Searches run on the core graph (see getCore()), and findPath() turns
+ * their paths back into paths of the full graph. A start or target left out
+ * of the core is joined to the kept nodes at the ends of its chain, so every
+ * node of the full graph can still be routed from and to. <br>
+ *
+ * The chains remember their edges, so core edge costs can be brought up to
+ * date after full graph costs change (see updateCosts()). Waits at the end
+ * of edges (see EdgeDelay) are only kept for the last edge of each chain,
+ * so nodes with waits must be kept (see the keep argument of the
+ * constructor). <br>
+ */
+public class ChainContraction {
+
+	private final CsrGraph graph;
+	private final CsrGraph core;
+	// Node index to core node index, -1 if left out of the core
+	private final int[] toCore;
+	// Core node index to node index
+	private final int[] toFull;
+	// Core edge index to index of the first edge of its chain in chainEdges; chainOffsets[nbrCoreEdges] == chainEdges.length
+	private final int[] chainOffsets;
+	// The edges of each chain in order
+	private final int[] chainEdges;
+	// Edge index to the core edge whose chain holds it, -1 if none (e.g. a chain looping back to where it started)
+	private final int[] coreEdgeOf;
+
+	/**
+	 * Merge the chains of pass-through nodes of a graph.
+	 * @param graph the graph
+	 * @param keep node index to whether the node must be kept, or null
+	 */
+	public ChainContraction(CsrGraph graph, boolean[] keep) {
+		this.graph = graph;
+		int n = graph.getNbrNodes();
+		boolean[] kept = new boolean[n];
+		boolean[] inner = new boolean[n];
+		for(int v = 0; v < n; v++){
+			boolean hasEdges = graph.offsets[v + 1] > graph.offsets[v] || graph.inOffsets[v + 1] > graph.inOffsets[v];
+			inner[v] = hasEdges && (keep == null || !keep[v]) && isPassThrough(v);
+			kept[v] = hasEdges && !inner[v];
+		}
+		// Keep a node of each cycle no kept node leads into
+		boolean[] covered = new boolean[n];
+		ContractionHierarchy.IntStack edges = new ContractionHierarchy.IntStack();
+		for(int pass = 0; pass < 2; pass++){
+			for(int v = 0; v < n; v++){
+				if(pass == 1 && inner[v] && !covered[v]){
+					inner[v] = false;
+					kept[v] = true;
+				}
+				else if(pass == 1 || !kept[v])
+					continue;
+				for(int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++){
+					edges.clear();
+					walk(v, e, kept, edges);
+					for(int i = 0; i < edges.size - 1; i++)
+						covered[graph.targets[edges.items[i]]] = true;
+				}
+			}
+		}
+
+		// The core graph: kept nodes, and an edge for each chain between 2 of them
+		toCore = new int[n];
+		Graph coreGraph = new Graph();
+		int nbrKept = 0;
+		for(int v = 0; v < n; v++){
+			toCore[v] = kept[v] ? nbrKept++ : -1;
+			if(kept[v])
+				coreGraph.addNode(graph.nodes[v]);
+		}
+		toFull = new int[nbrKept];
+		coreEdgeOf = new int[graph.getNbrEdges()];
+		Arrays.fill(coreEdgeOf, -1);
+		ContractionHierarchy.IntStack offsets = new ContractionHierarchy.IntStack();
+		ContractionHierarchy.IntStack all = new ContractionHierarchy.IntStack();
+		ContractionHierarchy.IntStack ends = new ContractionHierarchy.IntStack();
+		for(int v = 0; v < n; v++){
+			if(!kept[v])
+				continue;
+			toFull[toCore[v]] = v;
+			for(int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++){
+				edges.clear();
+				int end = walk(v, e, kept, edges);
+				if(end == v)
+					continue;	// a loop is never part of a cheapest path
+				offsets.push(all.size);
+				double cost = 0;
+				for(int i = 0; i < edges.size; i++){
+					coreEdgeOf[edges.items[i]] = offsets.size - 1;
+					cost += graph.costs[edges.items[i]];
+					all.push(edges.items[i]);
+				}
+				ends.push(toCore[end]);
+				coreGraph.addEdge(graph.ids[v], graph.ids[end], cost);
+			}
+		}
+		offsets.push(all.size);
+		chainOffsets = offsets.toArray();
+		chainEdges = all.toArray();
+		core = new CsrGraph(coreGraph);
+		// Core nodes are in the same (ID) order as the full graph's, each with its edges in the order added
+		for(int k = 0; k < ends.size; k++){
+			if(core.targets[k] != ends.items[k])
+				throw new IllegalStateException("Core graph edges out of order");
+		}
+	}
+
+	/*
+	 * One edge in and one edge out to different neighbours, or edges in and
+	 * out to the same 2 neighbours, and no loops.
+	 */
+	private boolean isPassThrough(int v){
+		int first = graph.offsets[v], outs = graph.offsets[v + 1] - first;
+		int firstIn = graph.inOffsets[v], ins = graph.inOffsets[v + 1] - firstIn;
+		if(outs != ins || outs < 1 || outs > 2)
+			return false;
+		int a = graph.targets[first], b = graph.inSources[firstIn];
+		if(a == v || b == v)
+			return false;
+		if(outs == 1)
+			return a != b;
+		int a2 = graph.targets[first + 1], b2 = graph.inSources[firstIn + 1];
+		return a != a2 && ((a == b && a2 == b2) || (a == b2 && a2 == b));
+	}
+
+	/*
+	 * Follow an edge and then the chain of pass-through nodes after it to
+	 * the next kept node, adding the edges followed. Returns the kept node.
+	 */
+	private int walk(int from, int edge, boolean[] kept, ContractionHierarchy.IntStack edges){
+		edges.push(edge);
+		int prev = from, v = graph.targets[edge];
+		while(!kept[v]){
+			int next = nextEdge(v, prev);
+			edges.push(next);
+			prev = v;
+			v = graph.targets[next];
+		}
+		return v;
+	}
+
+	// The edge leaving a pass-through node other than back to where it was entered from
+	private int nextEdge(int v, int prev){
+		int e = graph.offsets[v];
+		return (graph.targets[e] != prev) ? e : e + 1;
+	}
+
+	// The edge arriving at a pass-through node other than from where it is left to
+	private int prevInEdge(int v, int next){
+		int k = graph.inOffsets[v];
+		return (graph.inSources[k] != next) ? k : k + 1;
+	}
+
+	/**
+	 * @return the graph the chains were merged in
+	 */
+	public CsrGraph getGraph(){
+		return graph;
+	}
+
+	/**
+	 * @return the graph of kept nodes and merged chains, for searches to run on
+	 */
+	public CsrGraph getCore(){
+		return core;
+	}
+
+	/**
+	 * @param node node index
+	 * @return the core node index of the node, or -1 if it was left out
+	 */
+	public int toCore(int node){
+		return toCore[node];
+	}
+
+	/**
+	 * @param coreNode core node index
+	 * @return the node index of the core node
+	 */
+	public int toFull(int coreNode){
+		return toFull[coreNode];
+	}
+
+	/**
+	 * @param edge edge index
+	 * @return index of the core edge whose chain holds the edge, or -1
+	 */
+	public int getCoreEdge(int edge){
+		return coreEdgeOf[edge];
+	}
+
+	/**
+	 * @param coreEdge core edge index
+	 * @return the edge index of the last edge of the core edge's chain
+	 */
+	public int getLastEdge(int coreEdge){
+		return chainEdges[chainOffsets[coreEdge + 1] - 1];
+	}
+
+	/**
+	 * Bring the cost of every core edge up to date with the costs of its chain.
+	 */
+	public void updateCosts(){
+		for(int k = 0; k < core.getNbrEdges(); k++)
+			updateCoreCost(k);
+	}
+
+	/**
+	 * Bring the cost of the core edge holding an edge up to date after the
+	 * edge's cost changed.
+	 * @param edge edge index
+	 */
+	public void updateCost(int edge){
+		if(coreEdgeOf[edge] >= 0)
+			updateCoreCost(coreEdgeOf[edge]);
+	}
+
+	private void updateCoreCost(int coreEdge){
+		double cost = 0;
+		for(int i = chainOffsets[coreEdge]; i < chainOffsets[coreEdge + 1]; i++)
+			cost += graph.costs[chainEdges[i]];
+		core.costs[coreEdge] = cost;
+	}
+
+	/**
+	 * Make the waits of the core edges from the waits of the full graph's
+	 * edges: the wait at the end of a chain is the wait at the end of its
+	 * last edge.
+	 * @param delay the waits at the end of the full graph's edges
+	 * @return the waits at the end of the core edges
+	 */
+	public EdgeDelay getCoreDelay(EdgeDelay delay){
+		return (coreEdge, arrival) -> delay.getDelay(getLastEdge(coreEdge), arrival);
+	}
+
+	/**
+	 * Find the cheapest path between 2 nodes of the full graph with a search
+	 * of the core graph.
+	 * @param search a search of the core graph
+	 * @param start index of the start node
+	 * @param target index of the target node
+	 * @return node indices of the full path from start to target, or null if there is no path
+	 */
+	public int[] findPath(CsrGraphSearch search, int start, int target){
+		return findPath(search, null, start, target, 0);
+	}
+
+	/**
+	 * Find the path between 2 nodes of the full graph that arrives soonest
+	 * with a time-dependent search of the core graph.
+	 * @param search a search of the core graph, with waits made by getCoreDelay()
+	 * @param delay the waits at the end of the full graph's edges
+	 * @param start index of the start node
+	 * @param target index of the target node
+	 * @param departure time of leaving the start node
+	 * @return node indices of the full path from start to target, or null if there is no path
+	 */
+	public int[] findPath(GraphSearch_TimeDependent search, EdgeDelay delay, int start, int target, double departure){
+		return findPath((CsrGraphSearch) search, delay, start, target, departure);
+	}
+
+	private int[] findPath(CsrGraphSearch search, EdgeDelay delay, int start, int target, double departure){
+		if(start == target)
+			return new int[] { start };
+		Ends from = starts(start, target, delay, departure);
+		Ends to = targets(target);
+		int[] corePath = null;
+		double coreCost = Double.POSITIVE_INFINITY;
+		if(from.size > 0 && to.size > 0){
+			int[] s = Arrays.copyOf(from.nodes, from.size), t = Arrays.copyOf(to.nodes, to.size);
+			double[] sc = Arrays.copyOf(from.costs, from.size), tc = Arrays.copyOf(to.costs, to.size);
+			corePath = (delay == null) ? search.findPath(s, sc, t, tc)
+					: ((GraphSearch_TimeDependent) search).findPath(s, sc, t, tc, departure);
+			coreCost = search.getPathCost();
+		}
+		// A target further along the start's own chain may be reached without leaving it
+		if(from.direct < coreCost)
+			return along(start, from.directEdge, target);
+		if(corePath == null)
+			return null;
+
+		ContractionHierarchy.IntStack path = new ContractionHierarchy.IntStack();
+		if(toCore[start] < 0){
+			int e = from.edgeOf(corePath[0]);
+			path.push(start);
+			for(int v = start, prev = -1; ; ){
+				prev = v;
+				v = graph.targets[e];
+				if(toCore[v] >= 0)
+					break;
+				path.push(v);
+				e = nextEdge(v, prev);
+			}
+		}
+		path.push(toFull[corePath[0]]);
+		for(int i = 1; i < corePath.length; i++){
+			// The cheapest of the chains between the 2 core nodes
+			int best = -1;
+			for(int k = core.offsets[corePath[i - 1]]; k < core.offsets[corePath[i - 1] + 1]; k++){
+				if(core.targets[k] == corePath[i] && (best < 0 || core.costs[k] < core.costs[best]))
+					best = k;
+			}
+			for(int j = chainOffsets[best]; j < chainOffsets[best + 1]; j++)
+				path.push(graph.targets[chainEdges[j]]);
+		}
+		if(toCore[target] < 0){
+			// Walk back from the target to the core node the path ends at, then add those nodes in reverse
+			int k = to.edgeOf(corePath[corePath.length - 1]);
+			int mark = path.size;
+			path.push(target);
+			for(int v = target, next = -1; ; ){
+				next = v;
+				v = graph.inSources[k];
+				if(toCore[v] >= 0)
+					break;
+				path.push(v);
+				k = prevInEdge(v, next);
+			}
+			for(int i = mark, j = path.size - 1; i < j; i++, j--){
+				int swap = path.items[i];
+				path.items[i] = path.items[j];
+				path.items[j] = swap;
+			}
+		}
+		return path.toArray();
+	}
+
+	/*
+	 * The core nodes a path from a node can enter the core at: itself if
+	 * kept, else the kept node at the end of each direction of its chain,
+	 * with the cost (time, waits included if delay is given) of getting
+	 * there. Also notes the cost of reaching the target directly along the
+	 * chain (see along()).
+	 */
+	private Ends starts(int start, int target, EdgeDelay delay, double departure){
+		Ends ends = new Ends();
+		if(toCore[start] >= 0){
+			ends.add(toCore[start], 0, -1);
+			return ends;
+		}
+		for(int first = graph.offsets[start]; first < graph.offsets[start + 1]; first++){
+			double cost = 0;
+			int prev = start, v = start, e = first;
+			while(true){
+				cost += graph.costs[e];
+				prev = v;
+				v = graph.targets[e];
+				if(toCore[v] >= 0)
+					break;
+				if(v == target && cost < ends.direct){
+					ends.direct = cost;
+					ends.directEdge = first;
+				}
+				if(v == start)
+					break;	// round a cycle without kept nodes
+				e = nextEdge(v, prev);
+			}
+			if(toCore[v] >= 0 && cost < Double.POSITIVE_INFINITY){
+				if(delay != null)
+					cost += delay.getDelay(e, departure + cost);
+				ends.add(toCore[v], cost, first);
+			}
+		}
+		return ends;
+	}
+
+	/*
+	 * The core nodes a path to a node can leave the core at, with the cost
+	 * of getting from each to the node.
+	 */
+	private Ends targets(int target){
+		Ends ends = new Ends();
+		if(toCore[target] >= 0){
+			ends.add(toCore[target], 0, -1);
+			return ends;
+		}
+		for(int first = graph.inOffsets[target]; first < graph.inOffsets[target + 1]; first++){
+			double cost = 0;
+			int next = target, v = target, k = first;
+			while(true){
+				cost += graph.costs[graph.inEdges[k]];
+				next = v;
+				v = graph.inSources[k];
+				if(toCore[v] >= 0 || v == target)
+					break;
+				k = prevInEdge(v, next);
+			}
+			if(toCore[v] >= 0 && cost < Double.POSITIVE_INFINITY)
+				ends.add(toCore[v], cost, first);
+		}
+		return ends;
+	}
+
+	// The path from a node left out of the core along its chain to the target, which must be on it
+	private int[] along(int start, int edge, int target){
+		ContractionHierarchy.IntStack path = new ContractionHierarchy.IntStack();
+		path.push(start);
+		for(int v = start, prev = -1, e = edge; v != target; e = nextEdge(v, prev)){
+			prev = v;
+			v = graph.targets[e];
+			path.push(v);
+		}
+		return path.toArray();
+	}
+
+	/*
+	 * Up to 2 core nodes with the cost of reaching them and the first edge
+	 * (or incoming edge) of the chain walked, keeping the cheaper if a node
+	 * is reached both ways.
+	 */
+	private static final class Ends {
+		final int[] nodes = new int[2];
+		final double[] costs = new double[2];
+		final int[] edges = new int[2];
+		int size = 0;
+		double direct = Double.POSITIVE_INFINITY;	// cost of reaching the target directly along the chain
+		int directEdge = -1;
+
+		void add(int node, double cost, int edge){
+			for(int i = 0; i < size; i++){
+				if(nodes[i] == node){
+					if(cost < costs[i]){
+						costs[i] = cost;
+						edges[i] = edge;
+					}
+					return;
+				}
+			}
+			nodes[size] = node;
+			costs[size] = cost;
+			edges[size++] = edge;
+		}
+
+		int edgeOf(int node){
+			for(int i = 0; i < size; i++){
+				if(nodes[i] == node)
+					return edges[i];
+			}
+			return -1;
+		}
+	}
+}
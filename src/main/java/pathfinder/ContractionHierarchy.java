@@ -0,0 +1,446 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A contraction hierarchy for a CsrGraph, searched with GraphSearch_CH. <br>
+ *
+ * Preprocessing (build()) removes ("contracts") the nodes of the graph one at
+ * a time, least important first. Whenever removing a node v would lengthen the
+ * cheapest path between two of its remaining neighbours u and w, a shortcut
+ * edge u->w is added with the cost of u->v->w. Whether the shortcut is needed
+ * is decided by a witness search: a small Dijkstra search from u that avoids v.
+ * The order nodes are contracted in is their rank. <br>
+ *
+ * A query then only ever needs to follow edges to higher ranked nodes, forward
+ * from the start and backward from the target, which settles a few hundred
+ * nodes even on large road networks. Shortcuts remember the 2 edges they
+ * replace so found paths can be unpacked into the original nodes. <br>
+ *
+ * Preprocessing is slow, so the hierarchy can be saved to disk and loaded
+ * again for the same graph (see save() and load()). It is only valid for the
+ * edge costs it was built with. <br>
+ */
+public class ContractionHierarchy {
+	private static final int FILE_MAGIC = 0x43485047; // "CHPG"
+	private static final int FILE_VERSION = 1;
+
+	// Witness searches give up (and so add the shortcut) after settling this many nodes
+	private static final int WITNESS_SETTLE_LIMIT = 500;
+
+	final int nbrNodes;
+	// Node index to rank (order of contraction)
+	final int[] rank;
+	// Edges of the hierarchy: the original edges and the shortcuts
+	final int[] edgeFrom;
+	final int[] edgeTo;
+	final double[] edgeCost;
+	// Shortcut edge index to the 2 edges it replaces (from -> middle, middle -> to); -1 for original edges
+	final int[] edgeFirst;
+	final int[] edgeSecond;
+	// Node index to edges leaving it to a higher ranked node (upEdges[upOffsets[i] .. upOffsets[i+1]-1])
+	final int[] upOffsets;
+	final int[] upEdges;
+	// Node index to edges arriving at it from a higher ranked node (for the backward search)
+	final int[] downOffsets;
+	final int[] downEdges;
+	// Signature of the graph the hierarchy was built for
+	final long signature;
+
+	private ContractionHierarchy(long signature, int[] rank, int nbrEdges, int[] edgeFrom, int[] edgeTo,
+			double[] edgeCost, int[] edgeFirst, int[] edgeSecond) {
+		this.signature = signature;
+		this.nbrNodes = rank.length;
+		this.rank = rank;
+		this.edgeFrom = Arrays.copyOf(edgeFrom, nbrEdges);
+		this.edgeTo = Arrays.copyOf(edgeTo, nbrEdges);
+		this.edgeCost = Arrays.copyOf(edgeCost, nbrEdges);
+		this.edgeFirst = Arrays.copyOf(edgeFirst, nbrEdges);
+		this.edgeSecond = Arrays.copyOf(edgeSecond, nbrEdges);
+		// Split the edges into upward edges by start node and downward edges by end node
+		upOffsets = new int[nbrNodes + 1];
+		downOffsets = new int[nbrNodes + 1];
+		for(int e = 0; e < nbrEdges; e++){
+			if(rank[edgeFrom[e]] < rank[edgeTo[e]])
+				upOffsets[edgeFrom[e] + 1]++;
+			else
+				downOffsets[edgeTo[e] + 1]++;
+		}
+		for(int i = 0; i < nbrNodes; i++){
+			upOffsets[i + 1] += upOffsets[i];
+			downOffsets[i + 1] += downOffsets[i];
+		}
+		upEdges = new int[upOffsets[nbrNodes]];
+		downEdges = new int[downOffsets[nbrNodes]];
+		int[] upFill = Arrays.copyOf(upOffsets, nbrNodes);
+		int[] downFill = Arrays.copyOf(downOffsets, nbrNodes);
+		for(int e = 0; e < nbrEdges; e++){
+			if(rank[edgeFrom[e]] < rank[edgeTo[e]])
+				upEdges[upFill[edgeFrom[e]]++] = e;
+			else
+				downEdges[downFill[edgeTo[e]]++] = e;
+		}
+	}
+
+	/**
+	 * @return the number of edges in the hierarchy, including shortcuts
+	 */
+	public int getNbrEdges(){
+		return edgeFrom.length;
+	}
+
+	/**
+	 * @param graph a graph
+	 * @return true if the hierarchy was built for this graph (same nodes, edges and costs)
+	 */
+	public boolean matches(CsrGraph graph){
+		return graph.getNbrNodes() == nbrNodes && graph.getSignature() == signature;
+	}
+
+	/**
+	 * Append the original nodes an edge of the hierarchy stands for, 
+	 * excluding its start node, to a path.
+	 * @param edge edge index
+	 * @param path the path so far, added to
+	 * @param stack scratch space for shortcuts still to unpack
+	 */
+	void unpack(int edge, IntStack path, IntStack stack){
+		stack.clear();
+		stack.push(edge);
+		while(!stack.isEmpty()){
+			int e = stack.pop();
+			if(edgeFirst[e] < 0)
+				path.push(edgeTo[e]);
+			else {
+				// Second half goes on the stack first so the first half is unpacked first
+				stack.push(edgeSecond[e]);
+				stack.push(edgeFirst[e]);
+			}
+		}
+	}
+
+	/**
+	 * Contract the graph.
+	 * @param graph the graph
+	 * @return the hierarchy
+	 */
+	public static ContractionHierarchy build(CsrGraph graph){
+		return new Builder(graph).build();
+	}
+
+	/**
+	 * Save the hierarchy to a file.
+	 * @param file the file to write
+	 * @throws IOException if the file can't be written
+	 */
+	public void save(File file) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeLong(signature);
+			out.writeInt(nbrNodes);
+			out.writeInt(edgeFrom.length);
+			for(int r : rank)
+				out.writeInt(r);
+			for(int e = 0; e < edgeFrom.length; e++){
+				out.writeInt(edgeFrom[e]);
+				out.writeInt(edgeTo[e]);
+				out.writeDouble(edgeCost[e]);
+				out.writeInt(edgeFirst[e]);
+				out.writeInt(edgeSecond[e]);
+			}
+		}
+	}
+
+	/**
+	 * Load a hierarchy saved with save().
+	 * @param file the file to read
+	 * @param graph the graph the hierarchy is for
+	 * @return the hierarchy, or null if the file is not a hierarchy for this graph (e.g. the map has changed)
+	 * @throws IOException if the file can't be read
+	 */
+	public static ContractionHierarchy load(File file, CsrGraph graph) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+			if(in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION)
+				return null;
+			long signature = in.readLong();
+			int nbrNodes = in.readInt();
+			int nbrEdges = in.readInt();
+			if(nbrNodes != graph.getNbrNodes() || signature != graph.getSignature() || nbrEdges < 0)
+				return null;
+			int[] rank = new int[nbrNodes];
+			for(int i = 0; i < nbrNodes; i++)
+				rank[i] = in.readInt();
+			int[] from = new int[nbrEdges];
+			int[] to = new int[nbrEdges];
+			double[] cost = new double[nbrEdges];
+			int[] first = new int[nbrEdges];
+			int[] second = new int[nbrEdges];
+			for(int e = 0; e < nbrEdges; e++){
+				from[e] = in.readInt();
+				to[e] = in.readInt();
+				cost[e] = in.readDouble();
+				first[e] = in.readInt();
+				second[e] = in.readInt();
+			}
+			return new ContractionHierarchy(signature, rank, nbrEdges, from, to, cost, first, second);
+		}
+	}
+
+	/**
+	 * A growable stack of ints.
+	 */
+	static final class IntStack {
+		int[] items = new int[64];
+		int size = 0;
+
+		void push(int i){
+			if(size == items.length)
+				items = Arrays.copyOf(items, size * 2);
+			items[size++] = i;
+		}
+
+		int pop(){
+			return items[--size];
+		}
+
+		boolean isEmpty(){
+			return size == 0;
+		}
+
+		void clear(){
+			size = 0;
+		}
+
+		int[] toArray(){
+			return Arrays.copyOf(items, size);
+		}
+	}
+
+	/**
+	 * Contracts the graph. The remaining graph is held as lists of edge
+	 * indices per node, which grow as shortcuts are added.
+	 */
+	private static final class Builder {
+		private final CsrGraph graph;
+		private final int n;
+		private int m = 0;
+		private int[] from, to, first, second;
+		private double[] cost;
+		private final int[][] out, in;	// node index to indices of edges leaving / arriving
+		private final int[] outSize, inSize;
+		private final boolean[] contracted;
+		private final int[] deletedNeighbours;	// node index to number of its neighbours contracted so far
+		private final SearchWorkspace witness;
+		private final int[] targetMark;	// node index to stamp of the last contraction it was a target of
+		private int stamp = 0;
+
+		Builder(CsrGraph graph) {
+			this.graph = graph;
+			n = graph.getNbrNodes();
+			int capacity = Math.max(16, graph.getNbrEdges() * 2);
+			from = new int[capacity];
+			to = new int[capacity];
+			cost = new double[capacity];
+			first = new int[capacity];
+			second = new int[capacity];
+			out = new int[n][];
+			in = new int[n][];
+			outSize = new int[n];
+			inSize = new int[n];
+			contracted = new boolean[n];
+			deletedNeighbours = new int[n];
+			witness = new SearchWorkspace(n);
+			targetMark = new int[n];
+			for(int i = 0; i < n; i++){
+				for(int e = graph.offsets[i]; e < graph.offsets[i + 1]; e++){
+					if(graph.targets[e] != i)
+						addEdge(i, graph.targets[e], graph.costs[e], -1, -1);
+				}
+			}
+		}
+
+		ContractionHierarchy build(){
+			int[] rank = new int[n];
+			IndexedHeap order = new IndexedHeap(n);
+			for(int v = 0; v < n; v++)
+				order.update(v, priority(v));
+			int next = 0;
+			while(!order.isEmpty()){
+				int v = order.poll();
+				// Priorities go stale as neighbours are contracted, so check this one is still the least important
+				double p = priority(v);
+				if(!order.isEmpty() && p > order.peekKey()){
+					order.update(v, p);
+					continue;
+				}
+				contract(v, false);
+				contracted[v] = true;
+				rank[v] = next++;
+				for(int k = 0; k < outSize[v]; k++)
+					neighbourContracted(to[out[v][k]]);
+				for(int k = 0; k < inSize[v]; k++)
+					neighbourContracted(from[in[v][k]]);
+			}
+			return new ContractionHierarchy(graph.getSignature(), rank, m, from, to, cost, first, second);
+		}
+
+		private void neighbourContracted(int x){
+			if(!contracted[x]){
+				// Drop the edges to contracted nodes so the remaining graph stays small
+				outSize[x] = prune(out[x], outSize[x], to);
+				inSize[x] = prune(in[x], inSize[x], from);
+				// Its priority is brought up to date lazily, when it next reaches the front of the queue
+				deletedNeighbours[x]++;
+			}
+		}
+
+		// Edge difference (shortcuts added less edges removed) plus contracted neighbours, to spread contraction evenly
+		private double priority(int v){
+			int removed = 0;
+			for(int k = 0; k < outSize[v]; k++)
+				if(!contracted[to[out[v][k]]])
+					removed++;
+			for(int k = 0; k < inSize[v]; k++)
+				if(!contracted[from[in[v][k]]])
+					removed++;
+			return contract(v, true) - removed + deletedNeighbours[v];
+		}
+
+		/**
+		 * Add the shortcuts needed to remove v from the remaining graph.
+		 * @param v node to contract
+		 * @param simulate only count the shortcuts, don't add them
+		 * @return the number of shortcuts
+		 */
+		private int contract(int v, boolean simulate){
+			int shortcuts = 0;
+			double maxOut = 0;
+			int targets = 0;
+			stamp++;
+			for(int k = 0; k < outSize[v]; k++){
+				int e = out[v][k];
+				if(!contracted[to[e]]){
+					maxOut = Math.max(maxOut, cost[e]);
+					targetMark[to[e]] = stamp;
+					targets++;
+				}
+			}
+			if(targets == 0)
+				return 0;
+			for(int ki = 0; ki < inSize[v]; ki++){
+				int eIn = in[v][ki];
+				int u = from[eIn];
+				if(contracted[u])
+					continue;
+				witnessSearch(u, v, cost[eIn] + maxOut, (targetMark[u] == stamp) ? targets - 1 : targets);
+				// Adding shortcuts appends to out[v]/in[v] only for edges of v's neighbours, so sizes here are stable
+				for(int ko = 0; ko < outSize[v]; ko++){
+					int eOut = out[v][ko];
+					int w = to[eOut];
+					if(contracted[w] || w == u)
+						continue;
+					double viaV = cost[eIn] + cost[eOut];
+					if(witness.getCost(w) > viaV){
+						shortcuts++;
+						if(!simulate)
+							addEdge(u, w, viaV, eIn, eOut);
+					}
+				}
+			}
+			return shortcuts;
+		}
+
+		// Dijkstra from u over the remaining graph without v, up to the given cost or until the targets are settled
+		private void witnessSearch(int u, int v, double maxCost, int targets){
+			witness.begin();
+			IndexedHeap queue = witness.heap;
+			witness.setCost(u, 0.0, u);
+			queue.insertOrDecrease(u, 0.0);
+			int settled = 0;
+			while(!queue.isEmpty() && settled < WITNESS_SETTLE_LIMIT && targets > 0){
+				int x = queue.poll();
+				double cx = witness.cost[x];
+				if(cx > maxCost)
+					break;
+				witness.settle(x);
+				settled++;
+				if(targetMark[x] == stamp && x != u)
+					targets--;
+				for(int k = 0; k < outSize[x]; k++){
+					int e = out[x][k];
+					int y = to[e];
+					if(y == v || contracted[y] || witness.isSettled(y))
+						continue;
+					double c = cx + cost[e];
+					if(witness.getCost(y) > c){
+						witness.setCost(y, c, x);
+						queue.insertOrDecrease(y, c);
+					}
+				}
+			}
+		}
+
+		// Add an edge, or lower the cost of the existing edge between the same nodes
+		private void addEdge(int u, int w, double c, int e1, int e2){
+			for(int k = 0; k < outSize[u]; k++){
+				int e = out[u][k];
+				if(to[e] == w){
+					if(c < cost[e]){
+						cost[e] = c;
+						first[e] = e1;
+						second[e] = e2;
+					}
+					return;
+				}
+			}
+			if(m == from.length){
+				int capacity = m * 2;
+				from = Arrays.copyOf(from, capacity);
+				to = Arrays.copyOf(to, capacity);
+				cost = Arrays.copyOf(cost, capacity);
+				first = Arrays.copyOf(first, capacity);
+				second = Arrays.copyOf(second, capacity);
+			}
+			from[m] = u;
+			to[m] = w;
+			cost[m] = c;
+			first[m] = e1;
+			second[m] = e2;
+			append(out, outSize, u, m);
+			append(in, inSize, w, m);
+			m++;
+		}
+
+		// Removes the edges whose other end (given by ends) is contracted from the list, returning its new size
+		private int prune(int[] list, int size, int[] ends){
+			int kept = 0;
+			for(int k = 0; k < size; k++){
+				if(!contracted[ends[list[k]]])
+					list[kept++] = list[k];
+			}
+			return kept;
+		}
+
+		private static void append(int[][] lists, int[] sizes, int node, int edge){
+			int[] list = lists[node];
+			if(list == null)
+				list = lists[node] = new int[4];
+			else if(sizes[node] == list.length)
+				list = lists[node] = Arrays.copyOf(list, list.length * 2);
+			list[sizes[node]++] = edge;
+		}
+	}
+}
@@ -0,0 +1,317 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * A frozen copy of a Graph in compressed sparse row (CSR) form, for fast
+ * searching. <br>
+ *
+ * Nodes are given dense index numbers 0 .. n-1 in ascending ID order. The
+ * edges leaving node i are numbered offsets[i] .. offsets[i+1]-1, with their
+ * end node index and cost held in the targets and costs arrays. So relaxing
+ * the edges of a node is a walk over two primitive arrays instead of hash
+ * lookups and linked list iteration. <br>
+ *
+ * The edges arriving at each node are indexed the same way (inOffsets,
+ * inSources), for searching backward from a target. They refer to the forward
+ * edge index for the cost, so a cost change is seen in both directions. <br>
+ *
+ * Build it from the Graph once the graph is complete (i.e. after compact()).
+ * Later changes to the Graph are not seen by this copy, except for edge costs
+ * changed through setCost(). <br>
+ *
+ * @see		Graph
+ */
+public class CsrGraph {
+	// Node index to node ID (ascending, so IDs are found with a binary search)
+	final long[] ids;
+	// Node index to node
+	final GraphNode[] nodes;
+	// Node index to position, copied out of the nodes for heuristics
+	final double[] xs, ys, zs;
+	// Node index to index of its first edge; offsets[nbrNodes] == nbrEdges
+	final int[] offsets;
+	// Edge index to index of the node the edge goes to
+	final int[] targets;
+	// Edge index to cost of traversing the edge
+	final double[] costs;
+	// Reverse adjacency: node index to index of its first incoming edge; inOffsets[nbrNodes] == nbrEdges
+	final int[] inOffsets;
+	// Incoming edge index to index of the node the edge comes from
+	final int[] inSources;
+	// Incoming edge index to (forward) edge index
+	final int[] inEdges;
+
+	/**
+	 * Create a CSR copy of the graph.
+	 * @param graph the graph to copy
+	 */
+	public CsrGraph(Graph graph) {
+		GraphNode[] all = graph.getNodeArray();
+		Arrays.sort(all);
+		int n = all.length;
+		nodes = all;
+		ids = new long[n];
+		xs = new double[n];
+		ys = new double[n];
+		zs = new double[n];
+		for(int i = 0; i < n; i++){
+			GraphNode node = all[i];
+			ids[i] = node.id();
+			xs[i] = node.x();
+			ys[i] = node.y();
+			zs[i] = node.z();
+		}
+		offsets = new int[n + 1];
+		for(int i = 0; i < n; i++){
+			LinkedList<GraphEdge> edges = graph.getEdgeList(all[i]);
+			offsets[i + 1] = offsets[i] + ((edges == null) ? 0 : edges.size());
+		}
+		targets = new int[offsets[n]];
+		costs = new double[offsets[n]];
+		for(int i = 0; i < n; i++){
+			LinkedList<GraphEdge> edges = graph.getEdgeList(all[i]);
+			if(edges == null)
+				continue;
+			int e = offsets[i];
+			for(GraphEdge edge : edges){
+				targets[e] = indexOf(edge.to().id());
+				costs[e] = edge.getCost();
+				e++;
+			}
+		}
+		int[][] in = reverse(offsets, targets);
+		inOffsets = in[0];
+		inSources = in[1];
+		inEdges = in[2];
+	}
+
+	/**
+	 * Create a graph from its arrays, e.g. as saved from another graph's
+	 * getters. The arrays are kept, not copied, and the nodes are made from
+	 * the IDs and positions. <br>
+	 * @param ids node index to node ID, ascending
+	 * @param xs node index to x position
+	 * @param ys node index to y position
+	 * @param zs node index to z position
+	 * @param offsets node index to index of its first edge, followed by the number of edges
+	 * @param targets edge index to index of the node the edge goes to
+	 * @param costs edge index to cost
+	 */
+	public CsrGraph(long[] ids, double[] xs, double[] ys, double[] zs, int[] offsets, int[] targets, double[] costs) {
+		int n = ids.length;
+		if(xs.length != n || ys.length != n || zs.length != n || offsets.length != n + 1
+				|| offsets[n] != targets.length || costs.length != targets.length)
+			throw new IllegalArgumentException("Graph arrays don't match in size");
+		nodes = new GraphNode[n];
+		for(int i = 0; i < n; i++){
+			if(i > 0 && ids[i] <= ids[i - 1])
+				throw new IllegalArgumentException("Node IDs are not ascending");
+			if(offsets[i + 1] < offsets[i])
+				throw new IllegalArgumentException("Edge offsets are not ascending");
+			nodes[i] = new GraphNode(ids[i], xs[i], ys[i], zs[i]);
+		}
+		for(int target : targets){
+			if(target < 0 || target >= n)
+				throw new IllegalArgumentException("Edge to a node that doesn't exist");
+		}
+		this.ids = ids;
+		this.xs = xs;
+		this.ys = ys;
+		this.zs = zs;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.costs = costs;
+		int[][] in = reverse(offsets, targets);
+		inOffsets = in[0];
+		inSources = in[1];
+		inEdges = in[2];
+	}
+
+	/*
+	 * Reverse adjacency by counting sort of the edges on their end node:
+	 * inOffsets, inSources and inEdges.
+	 */
+	private static int[][] reverse(int[] offsets, int[] targets){
+		int n = offsets.length - 1;
+		int[] inOffsets = new int[n + 1];
+		for(int e = 0; e < targets.length; e++)
+			inOffsets[targets[e] + 1]++;
+		for(int i = 0; i < n; i++)
+			inOffsets[i + 1] += inOffsets[i];
+		int[] inSources = new int[targets.length];
+		int[] inEdges = new int[targets.length];
+		int[] fill = Arrays.copyOf(inOffsets, n);
+		for(int i = 0; i < n; i++){
+			for(int e = offsets[i]; e < offsets[i + 1]; e++){
+				int k = fill[targets[e]]++;
+				inSources[k] = i;
+				inEdges[k] = e;
+			}
+		}
+		return new int[][] { inOffsets, inSources, inEdges };
+	}
+
+	/**
+	 * Get the index number of the node with a given ID.
+	 * @param id the node ID
+	 * @return the node index or -1 if there is no such node
+	 */
+	public int indexOf(long id){
+		int i = Arrays.binarySearch(ids, id);
+		return (i >= 0) ? i : -1;
+	}
+
+	/**
+	 * @param index node index
+	 * @return the node with this index
+	 */
+	public GraphNode getNode(int index){
+		return nodes[index];
+	}
+
+	/**
+	 * @param index node index
+	 * @return the ID of the node with this index
+	 */
+	public long getId(int index){
+		return ids[index];
+	}
+
+	/**
+	 * @return the number of nodes in the graph
+	 */
+	public int getNbrNodes(){
+		return nodes.length;
+	}
+
+	/**
+	 * @return the number of edges in the graph
+	 */
+	public int getNbrEdges(){
+		return targets.length;
+	}
+
+	/**
+	 * @param index node index
+	 * @return the index of the first edge leaving the node
+	 */
+	public int firstEdge(int index){
+		return offsets[index];
+	}
+
+	/**
+	 * @param index node index
+	 * @return one past the index of the last edge leaving the node
+	 */
+	public int endEdge(int index){
+		return offsets[index + 1];
+	}
+
+	/**
+	 * @param index node index
+	 * @return the index of the first edge arriving at the node (see getInSource())
+	 */
+	public int firstInEdge(int index){
+		return inOffsets[index];
+	}
+
+	/**
+	 * @param index node index
+	 * @return one past the index of the last edge arriving at the node
+	 */
+	public int endInEdge(int index){
+		return inOffsets[index + 1];
+	}
+
+	/**
+	 * @param inEdge incoming edge index
+	 * @return the index of the node the edge comes from
+	 */
+	public int getInSource(int inEdge){
+		return inSources[inEdge];
+	}
+
+	/**
+	 * @param inEdge incoming edge index
+	 * @return the (forward) edge index of the edge, e.g. for getCost()
+	 */
+	public int getInEdge(int inEdge){
+		return inEdges[inEdge];
+	}
+
+	/**
+	 * @param edge edge index
+	 * @return the index of the node the edge goes to
+	 */
+	public int getTarget(int edge){
+		return targets[edge];
+	}
+
+	/**
+	 * @param edge edge index
+	 * @return the cost of traversing the edge
+	 */
+	public double getCost(int edge){
+		return costs[edge];
+	}
+
+	/**
+	 * Change the cost of traversing an edge. <br>
+	 * Must not be called while a search is running on this graph.
+	 * @param edge edge index
+	 * @param cost the new cost
+	 */
+	public void setCost(int edge, double cost){
+		costs[edge] = cost;
+	}
+
+	/**
+	 * Get the index of the edge between 2 nodes.
+	 * @param from index of the from node
+	 * @param to index of the to node
+	 * @return the edge index or -1 if there is no such edge
+	 */
+	public int getEdge(int from, int to){
+		for(int e = offsets[from]; e < offsets[from + 1]; e++){
+			if(targets[e] == to)
+				return e;
+		}
+		return -1;
+	}
+
+	/**
+	 * A hash of the node IDs, edges and edge costs, for checking that data 
+	 * prepared for this graph and saved to disk (e.g. a ContractionHierarchy) 
+	 * still matches it.
+	 * @return the signature
+	 */
+	public long getSignature(){
+		long h = 1125899906842597L;
+		h = 31 * h + nodes.length;
+		h = 31 * h + targets.length;
+		for(long id : ids)
+			h = 31 * h + id;
+		for(int i = 0; i < offsets.length; i++)
+			h = 31 * h + offsets[i];
+		for(int e = 0; e < targets.length; e++){
+			h = 31 * h + targets[e];
+			h = 31 * h + Double.doubleToLongBits(costs[e]);
+		}
+		return h;
+	}
+
+	/**
+	 * Make a GraphEdge for an edge, e.g. to report examined edges.
+	 * @param from index of the node the edge leaves
+	 * @param edge edge index
+	 */
+	GraphEdge makeEdge(int from, int edge){
+		return new GraphEdge(nodes[from], nodes[targets[edge]], costs[edge]);
+	}
+}
@@ -0,0 +1,224 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+import java.util.LinkedList;
+
+/**
+ * Base class for searches that run on a CsrGraph. <br>
+ * 
+ * Searches work on node indices and return the path as an array of node 
+ * indices (see findPath()). All other search state is kept in a workspace 
+ * that is reused between searches, so a search allocates nothing but the path 
+ * it returns. Each thread gets its own workspace, so one search object can be 
+ * shared by several threads. <br>
+ * 
+ * The IGraphSearch methods are kept for compatibility; the route and examined 
+ * edges they report are those of the last search(startID, targetID) made by 
+ * the calling thread.
+ */
+public abstract class CsrGraphSearch implements IGraphSearch {
+
+	protected final CsrGraph graph;
+
+	private final ThreadLocal<SearchWorkspace> workspaces;
+
+	protected CsrGraphSearch(CsrGraph graph) {
+		this.graph = graph;
+		final int nbrNodes = graph.getNbrNodes();
+		workspaces = ThreadLocal.withInitial(() -> new SearchWorkspace(nbrNodes));
+	}
+
+	/**
+	 * @return the graph being searched
+	 */
+	public CsrGraph getGraph(){
+		return graph;
+	}
+
+	/**
+	 * Find the cheapest path between 2 nodes.
+	 * @param start index of the start node
+	 * @param target index of the target node
+	 * @return node indices of the path from start to target, or null if there is no path
+	 */
+	public int[] findPath(int start, int target){
+		SearchWorkspace ws = workspaces.get();
+		ws.begin();
+		return search(ws, start, target, false);
+	}
+
+	/**
+	 * Find the cheapest path from any of several start nodes to any of 
+	 * several target nodes, where leaving from each start and arriving at 
+	 * each target adds a cost of its own (e.g. to reach a start from a 
+	 * position part way along an edge, see ChainContraction). <br>
+	 * This runs a search for each start and target pair; searches that can 
+	 * start from several nodes at once override it.
+	 * @param starts indices of the start nodes
+	 * @param startCosts cost of leaving from each start node
+	 * @param targets indices of the target nodes
+	 * @param targetCosts cost of arriving at each target node
+	 * @return node indices of the cheapest path, from one of the starts to 
+	 * one of the targets, or null if there is no path
+	 */
+	public int[] findPath(int[] starts, double[] startCosts, int[] targets, double[] targetCosts){
+		int[] best = null;
+		double bestCost = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < starts.length; i++){
+			for(int j = 0; j < targets.length; j++){
+				int[] path = findPath(starts[i], targets[j]);
+				double cost = (path == null) ? Double.POSITIVE_INFINITY 
+						: startCosts[i] + costOf(path) + targetCosts[j];
+				if(cost < bestCost){
+					best = path;
+					bestCost = cost;
+				}
+			}
+		}
+		workspaces.get().pathCost = bestCost;
+		return best;
+	}
+
+	/**
+	 * @return the cost of the path found by the calling thread's last 
+	 * findPath() from several starts to several targets (start and target 
+	 * costs included), infinity if none was found
+	 */
+	public double getPathCost(){
+		return workspaces.get().pathCost;
+	}
+
+	// Sum of the cheapest edge costs between the nodes of a path
+	double costOf(int[] path){
+		double cost = 0;
+		for(int i = 1; i < path.length; i++){
+			double edgeCost = Double.POSITIVE_INFINITY;
+			for(int e = graph.offsets[path[i - 1]]; e < graph.offsets[path[i - 1] + 1]; e++){
+				if(graph.targets[e] == path[i])
+					edgeCost = Math.min(edgeCost, graph.costs[e]);
+			}
+			cost += edgeCost;
+		}
+		return cost;
+	}
+
+	/**
+	 * @return the calling thread's workspace, for searches other than findPath()
+	 */
+	SearchWorkspace workspace(){
+		return workspaces.get();
+	}
+
+	/**
+	 * The search itself. <br>
+	 * Starts from a fresh workspace (see SearchWorkspace.begin()).
+	 * @param ws workspace for this search
+	 * @param start index of the start node
+	 * @param target index of the target node
+	 * @param remember whether to remember the examined edges in the workspace
+	 * @return node indices of the path from start to target, or null if there is no path
+	 */
+	protected abstract int[] search(SearchWorkspace ws, int start, int target, boolean remember);
+
+	/**
+	 * Search for a route from node startID and ends at targetID. <br>
+	 * This will return a linkedlist of the nodes that make up the route
+	 * from start to end order. <br>
+	 * If either the start or target node does not exist or if a route 
+	 * can't be found null is returned.
+	 * 
+	 * @param startID id of the start node
+	 * @param targetID id of the target node
+	 * @return the route as a list of nodes, or null if there is none
+	 */
+	public LinkedList<GraphNode> search(long startID, long targetID){
+		return search(startID, targetID, false);
+	}
+
+	/**
+	 * Search for a route from node startID and ends at targetID. <br>
+	 * This will return a linkedlist of the nodes that make up the route
+	 * from start to end order. <br>
+	 * If either the start or target node does not exist or if a route 
+	 * can't be found null is returned.
+	 * 
+	 * @param startID id of the start node
+	 * @param targetID id of the target node
+	 * @param remember whether to remember the examined edges.
+	 * @return the route as a list of nodes, or null if there is none
+	 */
+	public LinkedList<GraphNode> search(long startID, long targetID, boolean remember){
+		SearchWorkspace ws = workspaces.get();
+		ws.route.clear();
+		ws.examinedEdges.clear();
+		int start = graph.indexOf(startID);
+		int target = graph.indexOf(targetID);
+		if(start < 0 || target < 0)
+			return null;
+		ws.begin();
+		int[] path = search(ws, start, target, remember);
+		if(path == null)
+			return null;
+		for(int n : path)
+			ws.route.add(graph.nodes[n]);
+		return ws.route;
+	}
+
+	/**
+	 * Get all the edges examined during the search. <br>
+	 * 
+	 * @return edges examined or array size 0 if none found
+	 */
+	public GraphEdge[] getExaminedEdges(){
+		return getExaminedEdges(new GraphEdge[0]);
+	}
+
+	/**
+	 * Get all the edges examined during the search. <br>
+	 * The type of each element in the array will be of type Object
+	 * if the parameter is null otherwise it is T (where T is GraphEdge
+	 * or any class that extends GraphEdge.
+	 * 
+	 * @param array the array to populate
+	 * @return edges examined or array size 0 if none found
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T[] getExaminedEdges(T[] array){
+		SearchWorkspace ws = workspaces.get();
+		if(array == null)
+			return (T[]) ws.examinedEdges.toArray(new Object[0]);
+		else
+			return ws.examinedEdges.toArray(array);
+	}
+
+	/**
+	 * Get the path found as an array of GraphNode(s) in start->end
+	 * order <br>
+	 * @return path found or array size 0 if none found
+	 */
+	public GraphNode[] getRoute(){
+		LinkedList<GraphNode> route = workspaces.get().route;
+		return route.toArray(new GraphNode[route.size()]);
+	}
+
+	/**
+	 * Get the path found as an array of T(s) in start->end
+	 * order. <br>
+	 * The type of each element in the array will be of type Object
+	 * if the parameter is null otherwise it is T (where T is GraphNode
+	 * or any class that extends GraphNode.
+	 * @param array the array to populate
+	 * @return path found or array size 0 if none found
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T[] getRoute(T[] array){
+		LinkedList<GraphNode> route = workspaces.get().route;
+		if(array == null)
+			return (T[]) route.toArray(new Object[0]);
+		else
+			return route.toArray(array);
+	}
+}
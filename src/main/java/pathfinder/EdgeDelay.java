@@ -0,0 +1,25 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+/**
+ * The wait at the end of an edge, as a function of the time it is reached, 
+ * for time-dependent searches (see GraphSearch_TimeDependent). E.g. the wait 
+ * for a traffic light at the end of a road to turn green. <br>
+ * 
+ * Waits must be first-in-first-out: reaching the end of an edge later must 
+ * never mean leaving it earlier, i.e. arrival + getDelay(edge, arrival) must 
+ * not decrease as arrival increases. Waiting for a light always is. <br>
+ */
+public interface EdgeDelay {
+
+	/**
+	 * @param edge edge index in the CSR graph
+	 * @param arrival time the end of the edge is reached
+	 * @return the time to wait there before going on (0 or more)
+	 */
+	public double getDelay(int edge, double arrival);
+
+}
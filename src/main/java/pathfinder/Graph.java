@@ -10,7 +10,6 @@
 
 package pathfinder;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -66,6 +65,8 @@ public class Graph  {
 	// Data structures to hold nodes and edges
 	protected HashMap<Long, GraphNode> nodes;
 	protected HashMap<GraphNode, LinkedList<GraphEdge>> edgeLists;
+	// The same edges listed by the node they go to
+	protected HashMap<GraphNode, LinkedList<GraphEdge>> edgeListsTo;
 	// Data structure to hold floating edges.
 	protected HashMap<Long, LinkedList<FloatingEdge>> nodesToBe;
 
@@ -86,6 +87,7 @@ public class Graph  {
 	public Graph(int nbrNodes){
 		nodes = new HashMap<Long, GraphNode>(nbrNodes);
 		edgeLists = new HashMap<GraphNode, LinkedList<GraphEdge>>(nbrNodes);
+		edgeListsTo = new HashMap<GraphNode, LinkedList<GraphEdge>>(nbrNodes);
 	}
 
 	/**
@@ -141,18 +143,23 @@ public class Graph  {
 		GraphNode node = nodes.get(nodeID);
 		if(node == null)
 			return false;
-		edgeLists.remove(node);	// remove edges from this node
-		nodes.remove(nodeID);	// remove node
-		// get a list of all edges that go to the node we just removed
-		GraphEdge[] edges = getAllEdgeArray();
-		ArrayList<GraphEdge> edgesToRemove = new ArrayList<GraphEdge>();
-		for(int i = 0; i < edges.length; i++){
-			if(edges[i].to().id() == nodeID)
-				edgesToRemove.add(edges[i]);
+		// remove edges from this node, also from the lists of the nodes they go to
+		LinkedList<GraphEdge> edgesFrom = edgeLists.remove(node);
+		if(edgesFrom != null){
+			for(GraphEdge edge : edgesFrom){
+				if(edge.to != node)
+					edgeListsTo.get(edge.to).remove(edge);
+			}
 		}
-		// Now remove these edges.
-		for(GraphEdge edge : edgesToRemove)
-			edgeLists.get(edge.from).remove(edge);
+		// remove edges to this node, also from the lists of the nodes they come from
+		LinkedList<GraphEdge> edgesTo = edgeListsTo.remove(node);
+		if(edgesTo != null){
+			for(GraphEdge edge : edgesTo){
+				if(edge.from != node)
+					edgeLists.get(edge.from).remove(edge);
+			}
+		}
+		nodes.remove(nodeID);	// remove node
 		return true;
 	}
 
@@ -176,8 +183,9 @@ public class Graph  {
 	}
 
 	/**
-	 * Locate and return the first node encountered that is within a
-	 * stated distance of a position at [x,y,z]
+	 * Locate and return the node nearest a position at [x,y,z] that is 
+	 * within a stated distance of it. This looks at every node, so for 
+	 * repeated queries build a KdTree over a CsrGraph instead.
 	 * 
 	 * @param x
 	 * @param y
@@ -187,15 +195,18 @@ public class Graph  {
 	 */
 	public GraphNode getNodeAt(double x, double y, double z, double maxDistance){
 		double d2 = maxDistance * maxDistance, dx2, dy2, dz2;
+		GraphNode nearest = null;
 		Collection<GraphNode> c = nodes.values();
 		for(GraphNode node : c){
 			dx2 = (node.x() - x)*(node.x() - x);
 			dy2 = (node.y() - y)*(node.y() - y);
 			dz2 = (node.z() - z)*(node.z() - z);
-			if(dx2+dy2+dz2 < d2)
-				return node;
+			if(dx2+dy2+dz2 < d2){
+				d2 = dx2+dy2+dz2;
+				nearest = node;
+			}
 		}	
-		return null;
+		return nearest;
 	}
 
 	/**
@@ -259,6 +270,13 @@ public class Graph  {
 			edgeLists.put(fromNode, geList);
 		}
 		geList.add(edge);
+		GraphNode toNode = edge.to();
+		LinkedList<GraphEdge> geListTo = edgeListsTo.get(toNode);
+		if(geListTo == null){
+			geListTo = new LinkedList<GraphEdge>();
+			edgeListsTo.put(toNode, geListTo);
+		}
+		geListTo.add(edge);
 	}
 
 	/**
@@ -362,8 +380,8 @@ public class Graph  {
 	public boolean removeEdge(long fromID, long toID){
 		GraphEdge ge = getEdge(fromID, toID);
 		if(ge != null){
-			GraphNode fromNode = nodes.get(fromID);
-			edgeLists.get(fromNode).remove(ge);
+			edgeLists.get(ge.from()).remove(ge);
+			edgeListsTo.get(ge.to()).remove(ge);
 			return true;
 		}
 		return false;
@@ -409,19 +427,14 @@ public class Graph  {
 
 	/**
 	 * Gets a list of GraphEdges to this node. <br>
-	 * Not used by graph searches, purely for traffic sim project.
+	 * Not used by graph searches, purely for traffic sim project. <br>
+	 * Returns a copy, so the list may be changed; empty if there are none.
 	 * @author ae9is
 	 * @param nodeID id of the node where edges end at
 	 */
 	public LinkedList<GraphEdge> getEdgeListTo(long nodeID) {
-		GraphEdge[] edges = getAllEdgeArray();
-		LinkedList<GraphEdge> edgesTo = new LinkedList<>();
-		for(int i = 0; i < edges.length; i++){
-			if (edges[i].to().id() == nodeID) {
-				edgesTo.add(edges[i]);
-			}
-		}
-		return edgesTo;
+		LinkedList<GraphEdge> edgesTo = edgeListsTo.get(nodes.get(nodeID));
+		return (edgesTo == null) ? new LinkedList<GraphEdge>() : new LinkedList<GraphEdge>(edgesTo);
 	}
 
 	/**
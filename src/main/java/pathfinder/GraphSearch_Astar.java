@@ -10,67 +10,23 @@
 
 package pathfinder;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.PriorityQueue;
-
 /**
  * A Star <br>
  * Objects of this class are used to search a graph and find a path
- * between two nodes using this algorithm.
+ * between two nodes using this algorithm. <br>
+ * 
+ * The search runs on a CSR copy of the graph (see CsrGraph and 
+ * CsrGraphSearch).
  * 
  * @author Peter Lager
  *
  */
-public class GraphSearch_Astar  implements IGraphSearch {
-
-	protected Graph graph;
-
-
-	/** 
-	 * The settled nodes - the nodes whose shortest distances from 
-	 * the source have been found. 
-	 */
-	protected HashSet<GraphNode> settledNodes;
-
-	/**
-	 * The unsettled nodes
-	 */
-	protected PriorityQueue<GraphNodeCost> unsettledNodes;
+public class GraphSearch_Astar extends CsrGraphSearch {
 
-	/**
-	 * Indicates the predecessor node for a given node.
-	 * This is used to store the shortest path.
-	 * <node of interest, node where the edge originated>
-	 */
-	protected HashMap<GraphNode, GraphNode> parent;
-	
-	/**
-	 * Stores the smallest path cost found so far for a given node
-	 */
-	protected HashMap<GraphNode, Double> graphCostToNode;
-	
-	/**
-	 * Stores the smallest full cost (path cost + heuristic cost)
-	 * found so far for a given node.
-	 */
-	protected HashMap<GraphNode, Double> fullCostAtNode;
-	
-	/**
-	 * List for routes nodes in order of travel
-	 */
-	protected LinkedList<GraphNode> route;
-	
 	/**
 	 * The heuristic used to estimate cost to target.
 	 */
 	protected AstarHeuristic ash;
-	
-	/**
-	 * Used to remember examined edges
-	 */
-	protected HashSet<GraphEdge> examinedEdges;
 
 	/**
 	 * Create a search object that uses the A* algorithm for the given graph. <br>
@@ -78,10 +34,7 @@ public class GraphSearch_Astar  implements IGraphSearch {
 	 * @param graph the graph to use
 	 */
 	public GraphSearch_Astar(Graph graph) {
-		super();
-		this.graph = graph;
-		ash = new AshCrowFlight();
-		makeDataStores(graph.getNbrNodes());	
+		this(new CsrGraph(graph), new AshCrowFlight());
 	}
 
 	/**
@@ -91,226 +44,106 @@ public class GraphSearch_Astar  implements IGraphSearch {
 	 * @param ash the heuristic to use
 	 */
 	public GraphSearch_Astar(Graph graph, AstarHeuristic ash) {
-		super();
-		this.graph = graph;
-		this.ash = ash;
-		makeDataStores(graph.getNbrNodes());	
+		this(new CsrGraph(graph), ash);
 	}
 
 	/**
-	 * Create the data stores needed by A*
-	 * @param nbrNodes number of nodes in the graph
+	 * Create a search object that uses the A* algorithm for the given CSR graph 
+	 * using the given heuristic. <br>
+	 * @param graph the graph to use
+	 * @param ash the heuristic to use
 	 */
-	private void makeDataStores(int nbrNodes){
-		// Create the data structures
-		settledNodes = new HashSet<GraphNode>(nbrNodes);
-		parent = new HashMap<GraphNode, GraphNode>(nbrNodes);
-		graphCostToNode = new HashMap<GraphNode, Double>(nbrNodes);
-		fullCostAtNode = new HashMap<GraphNode, Double>(nbrNodes);
-		unsettledNodes = new PriorityQueue<GraphNodeCost>(nbrNodes);		
-		examinedEdges = new HashSet<GraphEdge>();
-		route = new LinkedList<GraphNode>();
+	public GraphSearch_Astar(CsrGraph graph, AstarHeuristic ash) {
+		super(graph);
+		this.ash = ash;
 	}
-	
+
 	/**
-	 * Clears all data related to a search so this object can be
-	 * reused for another search
-	 */
-	private void clear(){
-		graphCostToNode.clear();
-		fullCostAtNode.clear();
-		settledNodes.clear();
-		parent.clear();
-		unsettledNodes.clear();
-		examinedEdges.clear();
-		route.clear();
+	 * Search from all the starts at once. The heuristic estimate of a node 
+	 * is the cheapest of its estimates to each target plus that target's 
+	 * cost, which is a lower bound on the cost of finishing from it. <br>
+	 */
+	@Override
+	public int[] findPath(int[] starts, double[] startCosts, int[] targets, double[] targetCosts){
+		int[] offsets = graph.offsets;
+		int[] edgeEnds = graph.targets;
+		double[] costs = graph.costs;
+		SearchWorkspace ws = workspace();
+		ws.begin();
+		IndexedHeap unsettledNodes = ws.heap;
+		for(int i = 0; i < starts.length; i++){
+			if(ws.getCost(starts[i]) > startCosts[i]){
+				ws.setCost(starts[i], startCosts[i], starts[i]);
+				unsettledNodes.insertOrDecrease(starts[i], startCosts[i] + estimate(starts[i], targets, targetCosts));
+			}
+		}
+		double best = Double.POSITIVE_INFINITY;
+		int found = -1;
+
+		// Stop once the cheapest queued full cost can't beat the best target reached
+		while(!unsettledNodes.isEmpty() && unsettledNodes.peekKey() < best){
+			int next = unsettledNodes.poll();
+			ws.settle(next);
+			double costToNext = ws.cost[next];
+			for(int i = 0; i < targets.length; i++){
+				if(targets[i] == next && costToNext + targetCosts[i] < best){
+					best = costToNext + targetCosts[i];
+					found = next;
+				}
+			}
+			for(int e = offsets[next]; e < offsets[next + 1]; e++){
+				int edgeTo = edgeEnds[e];
+				double gCost = costToNext + costs[e];
+				if(!ws.isSettled(edgeTo) && ws.getCost(edgeTo) > gCost){
+					ws.setCost(edgeTo, gCost, next);
+					unsettledNodes.insertOrDecrease(edgeTo, gCost + estimate(edgeTo, targets, targetCosts));
+				}
+			}
+		}
+		ws.pathCost = best;
+		return (found < 0) ? null : ws.makePath(found);
 	}
-		
-	/**
-	 * Search for a route from node startID and ends at targetID. <br>
-	 * This will return a linkedlist of the nodes that make up the route
-	 * from start to end order. <br>
-	 * If either the start or target node does not exist or if a route 
-	 * can't be found the returned list is empty.
-	 * 
-	 * @param startID id of the start node
-	 * @param targetID id of the target node
-	 * @return the route as a list of nodes
-	 */
-	public LinkedList<GraphNode> search(long startID, long targetID){
-		return search(startID, targetID, false);
+
+	// Heuristic cost from a node to the cheapest of several targets, target costs included
+	private double estimate(int node, int[] targets, double[] targetCosts){
+		double h = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < targets.length; i++)
+			h = Math.min(h, ash.getCost(graph, node, targets[i]) + targetCosts[i]);
+		return h;
 	}
-	
-	/**
-	 * Search for a route from node startID and ends at targetID. <br>
-	 * This will return a linkedlist of the nodes that make up the route
-	 * from start to end order. <br>
-	 * If either the start or target node does not exist or if a route 
-	 * can't be found the returned list is empty.
-	 * 
-	 * @param startID id of the start node
-	 * @param targetID id of the target node
-	 * @param remember whether to remember the examined edges.
-	 * @return the route as a list of nodes
-	 */
-	public LinkedList<GraphNode> search(long startID, long targetID, boolean remember){
-		clear();
-		LinkedList<GraphEdge> nextEdges;
-		GraphNode next, edgeTo;;
-		GraphNodeCost pqNext;
-		double gCost, hCost;
-		
-		GraphNode start = graph.getNode(startID);
-		GraphNode target = graph.getNode(targetID);
-		if(start == null || target == null)
-			return null;
 
-		hCost = ash.getCost(start, target);
+	@Override
+	protected int[] search(SearchWorkspace ws, int start, int target, boolean remember){
+		int[] offsets = graph.offsets;
+		int[] targets = graph.targets;
+		double[] costs = graph.costs;
+		IndexedHeap unsettledNodes = ws.heap;
 
-		unsettledNodes.add(new GraphNodeCost(start, 0.0, hCost));
-		graphCostToNode.put(start, 0.0);
-		fullCostAtNode.put(start, hCost);
+		// Queue is ordered by full cost (path cost + heuristic cost); the workspace holds path costs
+		ws.setCost(start, 0.0, start);
+		unsettledNodes.insertOrDecrease(start, ash.getCost(graph, start, target));
 
 		while(!unsettledNodes.isEmpty()){
-			pqNext = unsettledNodes.poll();
-			next = pqNext.node;
-			if(next == target){
-				GraphNode n = target;
-				route.addFirst(n);
-				while(n != start){
-					n = parent.get(n);
-					route.addFirst(n);
-				}
-				return route;
-			}
-			settledNodes.add(next);
-			nextEdges = graph.getEdgeList(next.id());
+			int next = unsettledNodes.poll();
+			if(next == target)
+				return ws.makePath(start, target);
+			ws.settle(next);
+			double costToNext = ws.cost[next];
 			// Relax edges
-			for(GraphEdge edge : nextEdges){
-				edgeTo = edge.to();
+			for(int e = offsets[next]; e < offsets[next + 1]; e++){
+				int edgeTo = targets[e];
 				// Calculate graph cost to edge end node
-				gCost = getGraphCost(next) + edge.getCost();
-				// Calculate heuristic cost for edge end node
-				hCost = ash.getCost(edgeTo, target);
-				
-				if(!settledNodes.contains(edgeTo) && getFullCost(edgeTo) > gCost + hCost){
-					graphCostToNode.put(edgeTo, gCost);
-					fullCostAtNode.put(edgeTo, gCost + hCost);
-					parent.put(edgeTo, next);
+				double gCost = costToNext + costs[e];
+				if(!ws.isSettled(edgeTo) && ws.getCost(edgeTo) > gCost){
+					ws.setCost(edgeTo, gCost, next);
+					// Heuristic cost for edge end node
+					double hCost = ash.getCost(graph, edgeTo, target);
+					unsettledNodes.insertOrDecrease(edgeTo, gCost + hCost);
 					if(remember)
-						examinedEdges.add(edge);
-					unsettledNodes.add(new GraphNodeCost(edgeTo, gCost, hCost));
+						ws.examinedEdges.add(graph.makeEdge(next, e));
 				}
 			}
 		}
-		System.out.println("No route found");
 		return null;
 	}
-
-	/**
-	 * Get all the edges examined during the search. <br>
-	 * 
-	 * @return edges examined or array size 0 if none found
-	 */
-	public GraphEdge[] getExaminedEdges(){
-		return getExaminedEdges(new GraphEdge[0]);
-	}
-	
-	/**
-	 * Get all the edges examined during the search. <br>
-	 * The type of each element in the array will be of type Object
-	 * if the parameter is null otherwise it is T (where T is GraphEdge
-	 * or any class that extends GraphEdge.
-	 * 
-	 * @param array the array to populate
-	 * @return edges examined or array size 0 if none found
-	 */
-	@SuppressWarnings("unchecked")
-	public <T> T[] getExaminedEdges(T[] array){
-		if(array == null)
-			return (T[]) examinedEdges.toArray(new Object[0]);
-		else
-			return examinedEdges.toArray(array);
-	}
-	
-	/**
-	 * Get the path found as an array of GraphNode(s) in start->end
-	 * order <br>
-	 * @return path found or array size 0 if none found
-	 */
-	public GraphNode[] getRoute(){
-		return route.toArray(new GraphNode[route.size()]);
-	}
-	
-	/**
-	 * Get the path found as an array of T(s) in start->end
-	 * order. <br>
-	 * The type of each element in the array will be of type Object
-	 * if the parameter is null otherwise it is T (where T is GraphNode
-	 * or any class that extends GraphNode.
-	 * @param array the array to populate
-	 * @return path found or array size 0 if none found
-	 */
-	@SuppressWarnings("unchecked")
-	public <T> T[] getRoute(T[] array){
-		if(array == null)
-			return (T[]) route.toArray(new Object[0]);
-		else
-			return route.toArray(array);
-	}
-
-	/**
-	 * Used during search.
-	 * @param node
-	 * @return
-	 */
-	protected double getGraphCost(GraphNode node){
-		Double c = graphCostToNode.get(node);
-		if(c == null)
-			return Double.MAX_VALUE;
-		else
-			return c; 
-	}
-	
-	/**
-	 * Used during search.
-	 * @param node
-	 * @return
-	 */
-	protected double getFullCost(GraphNode node){
-		Double fc = fullCostAtNode.get(node);
-		if(fc == null)
-			return Double.MAX_VALUE;
-		else
-			return fc; 
-	}
-	
-
-	/**
-	 * Objects of this class are created as and when required by the 
-	 * path search algorithm
-	 * 
-	 * @author Peter Lager
-	 *
-	 */
-	@SuppressWarnings("ComparableType")
-	private class GraphNodeCost implements Comparable<Object>{
-		private GraphNode node;
-		private Double fCost;
-
-		public GraphNodeCost(GraphNode node, Double gCost, Double hCost) {
-			super();
-			this.node = node;
-			fCost = gCost + hCost;
-		}
-
-		public int compareTo(Object o) {
-			GraphNodeCost gnc = (GraphNodeCost)o;
-			if(fCost.equals(gnc.fCost))
-				return node.compareTo(gnc.node);
-			else
-				return fCost.compareTo(gnc.fCost);
-		}
-
-	}
 }
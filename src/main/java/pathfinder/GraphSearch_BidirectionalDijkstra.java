@@ -0,0 +1,130 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+/**
+ * Bidirectional Dijkstra <br>
+ * Objects of this class are used to search a graph and find a path
+ * between two nodes by running Dijkstra's algorithm forward from the start 
+ * and backward (over the incoming edges) from the target at the same time. <br>
+ * 
+ * Each step settles a node on whichever side has the cheaper node queued. 
+ * Whenever a node has been reached from both sides the path through it is a 
+ * candidate; the search stops once the cheapest queued costs of the two sides 
+ * add up to at least the best candidate, which is then the cheapest path. 
+ * Because the backward search follows incoming edges, one-way edges are only 
+ * ever travelled in their own direction. <br>
+ * 
+ * The two searches together settle roughly half as many nodes as a single 
+ * Dijkstra search on road networks.
+ */
+public class GraphSearch_BidirectionalDijkstra extends CsrGraphSearch {
+
+	// Backward search state; the forward search uses the workspace passed to search()
+	private final ThreadLocal<SearchWorkspace> backward;
+
+	/**
+	 * Create a search object that uses bidirectional Dijkstra
+	 * for the given graph.
+	 * @param graph the graph to use
+	 */
+	public GraphSearch_BidirectionalDijkstra(Graph graph) {
+		this(new CsrGraph(graph));
+	}
+
+	/**
+	 * Create a search object that uses bidirectional Dijkstra
+	 * for the given CSR graph.
+	 * @param graph the graph to use
+	 */
+	public GraphSearch_BidirectionalDijkstra(CsrGraph graph) {
+		super(graph);
+		final int nbrNodes = graph.getNbrNodes();
+		backward = ThreadLocal.withInitial(() -> new SearchWorkspace(nbrNodes));
+	}
+
+	@Override
+	protected int[] search(SearchWorkspace fw, int start, int target, boolean remember){
+		if(start == target)
+			return new int[] { start };
+		int[] offsets = graph.offsets;
+		int[] targets = graph.targets;
+		int[] inOffsets = graph.inOffsets;
+		int[] inSources = graph.inSources;
+		int[] inEdges = graph.inEdges;
+		double[] costs = graph.costs;
+		SearchWorkspace bw = backward.get();
+		bw.begin();
+		IndexedHeap fq = fw.heap;
+		IndexedHeap bq = bw.heap;
+
+		fw.setCost(start, 0.0, start);
+		fq.insertOrDecrease(start, 0.0);
+		bw.setCost(target, 0.0, target);
+		bq.insertOrDecrease(target, 0.0);
+		double best = Double.POSITIVE_INFINITY;	// cost of the cheapest path found so far
+		int meet = -1;	// node the cheapest path found so far passes through
+
+		while(!fq.isEmpty() && !bq.isEmpty()){
+			if(fq.peekKey() + bq.peekKey() >= best)
+				break;
+			if(fq.peekKey() <= bq.peekKey()){
+				// Forward step
+				int next = fq.poll();
+				fw.settle(next);
+				double costToNext = fw.cost[next];
+				for(int e = offsets[next]; e < offsets[next + 1]; e++){
+					int edgeTo = targets[e];
+					double newCost = costToNext + costs[e];
+					if(!fw.isSettled(edgeTo) && fw.getCost(edgeTo) > newCost){
+						fw.setCost(edgeTo, newCost, next);
+						fq.insertOrDecrease(edgeTo, newCost);
+						if(remember)
+							fw.examinedEdges.add(graph.makeEdge(next, e));
+						if(bw.isReached(edgeTo) && newCost + bw.cost[edgeTo] < best){
+							best = newCost + bw.cost[edgeTo];
+							meet = edgeTo;
+						}
+					}
+				}
+			}
+			else {
+				// Backward step, over the edges arriving at the node
+				int next = bq.poll();
+				bw.settle(next);
+				double costFromNext = bw.cost[next];
+				for(int k = inOffsets[next]; k < inOffsets[next + 1]; k++){
+					int edgeFrom = inSources[k];
+					double newCost = costFromNext + costs[inEdges[k]];
+					if(!bw.isSettled(edgeFrom) && bw.getCost(edgeFrom) > newCost){
+						bw.setCost(edgeFrom, newCost, next);
+						bq.insertOrDecrease(edgeFrom, newCost);
+						if(remember)
+							fw.examinedEdges.add(graph.makeEdge(edgeFrom, inEdges[k]));
+						if(fw.isReached(edgeFrom) && newCost + fw.cost[edgeFrom] < best){
+							best = newCost + fw.cost[edgeFrom];
+							meet = edgeFrom;
+						}
+					}
+				}
+			}
+		}
+		if(meet < 0)
+			return null;
+		// Forward parents lead from the meeting node back to the start, backward parents on to the target
+		int[] head = fw.makePath(start, meet);
+		int length = head.length;
+		for(int n = meet; n != target; n = bw.parent[n])
+			length++;
+		int[] path = new int[length];
+		System.arraycopy(head, 0, path, 0, head.length);
+		int i = head.length;
+		for(int n = meet; n != target; ){
+			n = bw.parent[n];
+			path[i++] = n;
+		}
+		return path;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+/**
+ * Contraction hierarchy query <br>
+ * Objects of this class are used to search a graph and find a path
+ * between two nodes using a ContractionHierarchy prepared for the graph. <br>
+ * 
+ * Dijkstra's algorithm runs forward from the start and backward from the 
+ * target, each only following edges to higher ranked nodes. Every node 
+ * settled by both searches gives a candidate path; a search stops once its 
+ * cheapest queued cost reaches the best candidate. The shortcuts on the best 
+ * path are then unpacked into the original nodes. <br>
+ * 
+ * The hierarchy is only valid for the edge costs it was built with; if costs 
+ * of the graph change it must be rebuilt (or another search used).
+ */
+public class GraphSearch_CH extends CsrGraphSearch {
+
+	protected final ContractionHierarchy ch;
+
+	// Backward search state; the forward search uses the workspace passed to search()
+	private final ThreadLocal<SearchWorkspace> backward;
+	// Scratch stacks for unpacking paths
+	private final ThreadLocal<ContractionHierarchy.IntStack[]> stacks;
+
+	/**
+	 * Create a search object that uses a contraction hierarchy
+	 * for the given CSR graph.
+	 * @param graph the graph to use
+	 * @param ch a hierarchy built for the graph
+	 */
+	public GraphSearch_CH(CsrGraph graph, ContractionHierarchy ch) {
+		super(graph);
+		if(ch.nbrNodes != graph.getNbrNodes())
+			throw new IllegalArgumentException("Contraction hierarchy was built for a different graph");
+		this.ch = ch;
+		final int nbrNodes = graph.getNbrNodes();
+		backward = ThreadLocal.withInitial(() -> new SearchWorkspace(nbrNodes));
+		stacks = ThreadLocal.withInitial(() -> new ContractionHierarchy.IntStack[] {
+			new ContractionHierarchy.IntStack(), new ContractionHierarchy.IntStack(), new ContractionHierarchy.IntStack() });
+	}
+
+	/**
+	 * @return the hierarchy searched
+	 */
+	public ContractionHierarchy getHierarchy(){
+		return ch;
+	}
+
+	/**
+	 * Search forward from all the starts and backward from all the targets 
+	 * at once, each queued at its own cost. <br>
+	 */
+	@Override
+	public int[] findPath(int[] starts, double[] startCosts, int[] targets, double[] targetCosts){
+		SearchWorkspace fw = workspace();
+		fw.begin();
+		return search(fw, starts, startCosts, targets, targetCosts, false);
+	}
+
+	@Override
+	protected int[] search(SearchWorkspace fw, int start, int target, boolean remember){
+		return search(fw, new int[] { start }, new double[] { 0.0 }, new int[] { target }, new double[] { 0.0 }, remember);
+	}
+
+	private int[] search(SearchWorkspace fw, int[] starts, double[] startCosts, int[] targets, double[] targetCosts, 
+			boolean remember){
+		int[] upOffsets = ch.upOffsets;
+		int[] upEdges = ch.upEdges;
+		int[] downOffsets = ch.downOffsets;
+		int[] downEdges = ch.downEdges;
+		int[] edgeFrom = ch.edgeFrom;
+		int[] edgeTo = ch.edgeTo;
+		double[] edgeCost = ch.edgeCost;
+		SearchWorkspace bw = backward.get();
+		bw.begin();
+		IndexedHeap fq = fw.heap;
+		IndexedHeap bq = bw.heap;
+
+		// Parents hold the hierarchy edge used to reach each node (-1 for a start / target)
+		for(int i = 0; i < starts.length; i++){
+			if(fw.getCost(starts[i]) > startCosts[i]){
+				fw.setCost(starts[i], startCosts[i], -1);
+				fq.insertOrDecrease(starts[i], startCosts[i]);
+			}
+		}
+		for(int i = 0; i < targets.length; i++){
+			if(bw.getCost(targets[i]) > targetCosts[i]){
+				bw.setCost(targets[i], targetCosts[i], -1);
+				bq.insertOrDecrease(targets[i], targetCosts[i]);
+			}
+		}
+		double best = Double.POSITIVE_INFINITY;
+		int meet = -1;
+
+		while(true){
+			if(!fq.isEmpty() && fq.peekKey() >= best)
+				fq.clear();
+			if(!bq.isEmpty() && bq.peekKey() >= best)
+				bq.clear();
+			if(fq.isEmpty() && bq.isEmpty())
+				break;
+			if(!fq.isEmpty() && (bq.isEmpty() || fq.peekKey() <= bq.peekKey())){
+				// Forward step, up from the start
+				int next = fq.poll();
+				fw.settle(next);
+				double costToNext = fw.cost[next];
+				if(bw.isReached(next) && costToNext + bw.cost[next] < best){
+					best = costToNext + bw.cost[next];
+					meet = next;
+				}
+				for(int k = upOffsets[next]; k < upOffsets[next + 1]; k++){
+					int e = upEdges[k];
+					int w = edgeTo[e];
+					double newCost = costToNext + edgeCost[e];
+					if(fw.getCost(w) > newCost){
+						fw.setCost(w, newCost, e);
+						fq.insertOrDecrease(w, newCost);
+					}
+				}
+			}
+			else {
+				// Backward step, up from the target over edges arriving at the node
+				int next = bq.poll();
+				bw.settle(next);
+				double costFromNext = bw.cost[next];
+				if(fw.isReached(next) && costFromNext + fw.cost[next] < best){
+					best = costFromNext + fw.cost[next];
+					meet = next;
+				}
+				for(int k = downOffsets[next]; k < downOffsets[next + 1]; k++){
+					int e = downEdges[k];
+					int x = edgeFrom[e];
+					double newCost = costFromNext + edgeCost[e];
+					if(bw.getCost(x) > newCost){
+						bw.setCost(x, newCost, e);
+						bq.insertOrDecrease(x, newCost);
+					}
+				}
+			}
+		}
+		fw.pathCost = best;
+		if(meet < 0)
+			return null;
+
+		ContractionHierarchy.IntStack[] s = stacks.get();
+		ContractionHierarchy.IntStack up = s[0], path = s[1], scratch = s[2];
+		// Hierarchy edges from the start up to the meeting node, collected backwards
+		up.clear();
+		int start = meet;
+		for(; fw.parent[start] >= 0; start = edgeFrom[fw.parent[start]])
+			up.push(fw.parent[start]);
+		path.clear();
+		path.push(start);
+		while(!up.isEmpty())
+			unpack(up.pop(), path, scratch, remember, fw);
+		// Then from the meeting node down to the target
+		for(int n = meet; bw.parent[n] >= 0; n = edgeTo[bw.parent[n]])
+			unpack(bw.parent[n], path, scratch, remember, fw);
+		return path.toArray();
+	}
+
+	private void unpack(int edge, ContractionHierarchy.IntStack path, ContractionHierarchy.IntStack scratch,
+			boolean remember, SearchWorkspace ws){
+		int from = path.items[path.size - 1];
+		ch.unpack(edge, path, scratch);
+		if(remember){
+			// Report the original edges of the path
+			for(int i = path.size - 1; i > 0 && path.items[i] != from; i--){
+				int e = graph.getEdge(path.items[i - 1], path.items[i]);
+				if(e >= 0)
+					ws.examinedEdges.add(graph.makeEdge(path.items[i - 1], e));
+			}
+		}
+	}
+}
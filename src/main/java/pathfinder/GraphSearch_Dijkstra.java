@@ -10,56 +10,24 @@
 
 package pathfinder;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.PriorityQueue;
+import java.util.Arrays;
 
 /**
  * Dijkstra <br>
  * Objects of this class are used to search a graph and find a path
- * between two nodes using this algorithm.
+ * between two nodes using this algorithm. <br>
+ * 
+ * The search runs on a CSR copy of the graph (see CsrGraph and 
+ * CsrGraphSearch). <br>
+ * 
+ * Since Dijkstra settles nodes in cost order from the start it can also 
+ * find the paths to many targets in one search (see findPaths() and 
+ * findTree()).
  * 
  * @author Peter Lager
  *
  */
-public class GraphSearch_Dijkstra  implements IGraphSearch {
-
-	protected Graph graph;
-
-	/** 
-	 * The settled nodes - the nodes whose shortest distances from 
-	 * the source have been found. 
-	 */
-	protected HashSet<GraphNode> settledNodes;
-
-	/**
-	 * The unsettled nodes
-	 */
-	protected PriorityQueue<GraphNodeCost> unsettledNodes;
-
-	/**
-	 * Indicates the predecessor node for a given node.
-	 * This is used to store the shortest path.
-	 * <node of interest, node where the edge originated>
-	 */
-	protected HashMap<GraphNode, GraphNode> parent;
-
-	/**
-	 * Stores the smallest path cost found so far for a given node
-	 */
-	protected HashMap<GraphNode, Double> graphCostToNode;
-
-	/**
-	 * Used to remember examined edges
-	 */
-	protected HashSet<GraphEdge> examinedEdges;
-
-	/**
-	 * List for routes nodes in order of travel
-	 */
-	protected LinkedList<GraphNode> route;
-
+public class GraphSearch_Dijkstra extends CsrGraphSearch {
 
 	/**
 	 * Create a search object that uses Dijkstra's algorithm
@@ -67,199 +35,163 @@ public class GraphSearch_Dijkstra  implements IGraphSearch {
 	 * @param graph the graph to use
 	 */
 	public GraphSearch_Dijkstra(Graph graph) {
-		super();
-		this.graph = graph;
-		int nbrNodes = graph.getNbrNodes();
-		// Create the data structures
-		settledNodes = new HashSet<GraphNode>(nbrNodes);
-		parent = new HashMap<GraphNode, GraphNode>(nbrNodes);
-		graphCostToNode = new HashMap<GraphNode, Double>(nbrNodes);
-		unsettledNodes = new PriorityQueue<GraphNodeCost>();
-		examinedEdges = new HashSet<GraphEdge>();
-		route = new LinkedList<GraphNode>();
+		this(new CsrGraph(graph));
 	}
 
 	/**
-	 * Clears all data related to a search so this object can be
-	 * reused for another search
+	 * Create a search object that uses Dijkstra's algorithm
+	 * for the given CSR graph.
+	 * @param graph the graph to use
 	 */
-	private void clear(){
-		graphCostToNode.clear();
-		settledNodes.clear();
-		parent.clear();
-		unsettledNodes.clear();
-		examinedEdges.clear();
-		route.clear();
+	public GraphSearch_Dijkstra(CsrGraph graph) {
+		super(graph);
 	}
 
 	/**
-	 * Search for a route from node startID and ends at targetID. <br>
-	 * This will return a linkedlist of the nodes that make up the route
-	 * from start to end order. <br>
-	 * If either the start or target node does not exist or if a route 
-	 * can't be found the returned list is empty.
-	 * 
-	 * @param startID id of the start node
-	 * @param targetID id of the target node
-	 * @return the route as a list of nodes
-	 */
-	public LinkedList<GraphNode> search(long startID, long targetID){
-		return search(startID, targetID, false);
+	 * Find the cheapest paths from one node to many, with one search that 
+	 * stops once every target is settled.
+	 * @param start index of the start node
+	 * @param targets indices of the target nodes
+	 * @return node indices of the path to each target (in the same order), 
+	 * null for targets with no path
+	 */
+	public int[][] findPaths(int start, int[] targets){
+		SearchWorkspace ws = workspace();
+		ws.begin();
+		searchAll(ws, start, targets);
+		int[][] paths = new int[targets.length][];
+		for(int i = 0; i < targets.length; i++){
+			if(ws.isSettled(targets[i]))
+				paths[i] = ws.makePath(start, targets[i]);
+		}
+		return paths;
 	}
 
 	/**
-	 * Search for a route from node startID and ends at targetID. <br>
-	 * This will return a linkedlist of the nodes that make up the route
-	 * from start to end order. <br>
-	 * If either the start or target node does not exist or if a route 
-	 * can't be found the returned list is empty.
-	 * 
-	 * @param startID id of the start node
-	 * @param targetID id of the target node
-	 * @param remember whether to remember the examined edges.
-	 * @return the route as a list of nodes
-	 */
-	public LinkedList<GraphNode> search(long startID, long targetID, boolean remember){
-		clear();
-		LinkedList<GraphEdge> nextEdges;
-		GraphNode next, edgeTo;;
-		GraphNodeCost pqNext;
-		double newCost;
-
-		GraphNode start = graph.getNode(startID);
-		GraphNode target = graph.getNode(targetID);
-		if(start == null || target == null)
-			return null;
-
-		unsettledNodes.add(new GraphNodeCost(start, 0.0));
-		graphCostToNode.put(start, 0.0);
+	 * Find the cheapest paths from one node to every node it can reach.
+	 * @param start index of the start node
+	 * @return the shortest path tree
+	 */
+	public ShortestPathTree findTree(int start){
+		SearchWorkspace ws = workspace();
+		ws.begin();
+		searchAll(ws, start, null);
+		return new ShortestPathTree(ws, start);
+	}
 
-		while(!unsettledNodes.isEmpty()){
-			pqNext = unsettledNodes.poll();
-			next = pqNext.node;
-			if(next == target){
-				GraphNode n = target;
-				route.addFirst(n);
-				while(n != start){
-					n = parent.get(n);
-					route.addFirst(n);
+	/**
+	 * Search from all the starts at once, settling nodes until none left 
+	 * could give a cheaper path than the best target settled so far. <br>
+	 */
+	@Override
+	public int[] findPath(int[] starts, double[] startCosts, int[] targets, double[] targetCosts){
+		int[] offsets = graph.offsets;
+		int[] edgeEnds = graph.targets;
+		double[] costs = graph.costs;
+		SearchWorkspace ws = workspace();
+		ws.begin();
+		IndexedHeap unsettledNodes = ws.heap;
+		for(int i = 0; i < starts.length; i++){
+			if(ws.getCost(starts[i]) > startCosts[i]){
+				ws.setCost(starts[i], startCosts[i], starts[i]);
+				unsettledNodes.insertOrDecrease(starts[i], startCosts[i]);
+			}
+		}
+		double best = Double.POSITIVE_INFINITY;
+		int found = -1;
+
+		while(!unsettledNodes.isEmpty() && unsettledNodes.peekKey() < best){
+			int next = unsettledNodes.poll();
+			ws.settle(next);
+			double costToNext = ws.cost[next];
+			for(int i = 0; i < targets.length; i++){
+				if(targets[i] == next && costToNext + targetCosts[i] < best){
+					best = costToNext + targetCosts[i];
+					found = next;
 				}
-				return route;
 			}
-			settledNodes.add(next);
-			nextEdges = graph.getEdgeList(next.id());
-
-			//ae9is: If node does not connect to any edges the relax edges for() {} throws null pointer exception.
-			// For dijkstra if no edges don't do anything special.
-			if (nextEdges != null) {
-				// Relax edges
-				for(GraphEdge edge : nextEdges){
-					newCost = getCost(next) + edge.getCost();
-					edgeTo = edge.to();
-					if(!settledNodes.contains(edgeTo) && getCost(edgeTo) > newCost){
-						graphCostToNode.put(edgeTo, newCost);
-						parent.put(edgeTo, next);
-						unsettledNodes.add(new GraphNodeCost(edgeTo, newCost));
-						if(remember)
-							examinedEdges.add(edge);
-					}
+			for(int e = offsets[next]; e < offsets[next + 1]; e++){
+				int edgeTo = edgeEnds[e];
+				double newCost = costToNext + costs[e];
+				if(!ws.isSettled(edgeTo) && ws.getCost(edgeTo) > newCost){
+					ws.setCost(edgeTo, newCost, next);
+					unsettledNodes.insertOrDecrease(edgeTo, newCost);
 				}
 			}
 		}
-		return null;
+		ws.pathCost = best;
+		return (found < 0) ? null : ws.makePath(found);
 	}
 
-	/**
-	 * Used by the search method
-	 * @param node
-	 * @return
-	 */
-	protected double getCost(GraphNode node){
-		Double c = graphCostToNode.get(node);
-		if(c == null)
-			return Float.MAX_VALUE;
-		else
-			return c; 
-	}
-
-	/**
-	 * Get all the edges examined during the search. <br>
-	 * 
-	 * @return edges examined or array size 0 if none found
-	 */
-	public GraphEdge[] getExaminedEdges(){
-		return getExaminedEdges(new GraphEdge[0]);
-	}
+	// Settle nodes from start until all targets are settled (all reachable nodes if targets is null)
+	private void searchAll(SearchWorkspace ws, int start, int[] targets){
+		int[] offsets = graph.offsets;
+		int[] edgeEnds = graph.targets;
+		double[] costs = graph.costs;
+		IndexedHeap unsettledNodes = ws.heap;
+		int[] wanted = null;
+		int remaining = 0;
+		if(targets != null){
+			wanted = targets.clone();
+			Arrays.sort(wanted);
+			for(int i = 0; i < wanted.length; i++){
+				if(i == 0 || wanted[i] != wanted[i - 1])
+					remaining++;
+			}
+			if(remaining == 0)
+				return;
+		}
 
-	/**
-	 * Get all the edges examined during the search. <br>
-	 * The type of each element in the array will be of type Object
-	 * if the parameter is null otherwise it is T (where T is GraphEdge
-	 * or any class that extends GraphEdge.
-	 * 
-	 * @param array the array to populate
-	 * @return edges examined or array size 0 if none found
-	 */
-	@SuppressWarnings("unchecked")
-	public <T> T[] getExaminedEdges(T[] array){
-		if(array == null)
-			return (T[]) examinedEdges.toArray(new Object[0]);
-		else
-			return examinedEdges.toArray(array);
-	}
+		ws.setCost(start, 0.0, start);
+		unsettledNodes.insertOrDecrease(start, 0.0);
 
-	/**
-	 * Get the path found as an array of GraphNode(s) in start->end
-	 * order <br>
-	 * @return path found or array size 0 if none found
-	 */
-	public GraphNode[] getRoute(){
-		return route.toArray(new GraphNode[route.size()]);
-	}
-
-	/**
-	 * Get the path found as an array of T(s) in start->end
-	 * order. <br>
-	 * The type of each element in the array will be of type Object
-	 * if the parameter is null otherwise it is T (where T is GraphNode
-	 * or any class that extends GraphNode.
-	 * @param array the array to populate
-	 * @return path found or array size 0 if none found
-	 */
-	@SuppressWarnings("unchecked")
-	public <T> T[] getRoute(T[] array){
-		if(array == null)
-			return (T[]) route.toArray(new Object[0]);
-		else
-			return route.toArray(array);
+		while(!unsettledNodes.isEmpty()){
+			int next = unsettledNodes.poll();
+			ws.settle(next);
+			if(wanted != null && Arrays.binarySearch(wanted, next) >= 0 && --remaining == 0)
+				return;
+			double costToNext = ws.cost[next];
+
+			for(int e = offsets[next]; e < offsets[next + 1]; e++){
+				int edgeTo = edgeEnds[e];
+				double newCost = costToNext + costs[e];
+				if(!ws.isSettled(edgeTo) && ws.getCost(edgeTo) > newCost){
+					ws.setCost(edgeTo, newCost, next);
+					unsettledNodes.insertOrDecrease(edgeTo, newCost);
+				}
+			}
+		}
 	}
 
+	@Override
+	protected int[] search(SearchWorkspace ws, int start, int target, boolean remember){
+		int[] offsets = graph.offsets;
+		int[] targets = graph.targets;
+		double[] costs = graph.costs;
+		IndexedHeap unsettledNodes = ws.heap;
 
+		ws.setCost(start, 0.0, start);
+		unsettledNodes.insertOrDecrease(start, 0.0);
 
-	/**
-	 * Objects of this class are created as and when required by the 
-	 * path search algorithm
-	 * 
-	 * @author Peter Lager
-	 *
-	 */
-	@SuppressWarnings("ComparableType")
-	private class GraphNodeCost implements Comparable<Object>{
-		private GraphNode node;
-		private Double cost;
-
-		public GraphNodeCost(GraphNode node, Double cost) {
-			super();
-			this.node = node;
-			this.cost = cost;
-		}
-
-		public int compareTo(Object o) {
-			GraphNodeCost gnc = (GraphNodeCost)o;
-			if(cost.equals(gnc.cost))
-				return node.compareTo(gnc.node);
-			else
-				return cost.compareTo(gnc.cost);
+		while(!unsettledNodes.isEmpty()){
+			int next = unsettledNodes.poll();
+			if(next == target)
+				return ws.makePath(start, target);
+			ws.settle(next);
+			double costToNext = ws.cost[next];
+
+			// Relax edges (none if node does not connect to any edges)
+			for(int e = offsets[next]; e < offsets[next + 1]; e++){
+				int edgeTo = targets[e];
+				double newCost = costToNext + costs[e];
+				if(!ws.isSettled(edgeTo) && ws.getCost(edgeTo) > newCost){
+					ws.setCost(edgeTo, newCost, next);
+					unsettledNodes.insertOrDecrease(edgeTo, newCost);
+					if(remember)
+						ws.examinedEdges.add(graph.makeEdge(next, e));
+				}
+			}
 		}
+		return null;
 	}
 }
@@ -0,0 +1,214 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+import java.util.Arrays;
+
+/**
+ * Time-dependent Dijkstra / A* <br>
+ * Objects of this class find the path between two nodes that arrives 
+ * soonest for a given departure time, when traversing an edge costs its 
+ * fixed cost plus a wait at its end that depends on when it is reached 
+ * (see EdgeDelay). Costs and waits must be in the same unit of time. <br>
+ * 
+ * Since waits are first-in-first-out, arriving at a node earlier is never 
+ * worse, so the search is label setting like Dijkstra: each node is settled 
+ * once, at its earliest arrival time. With a heuristic it searches as A* 
+ * does. The heuristic must be a lower bound on the fixed costs alone (as for 
+ * GraphSearch_Astar); waits only make paths dearer so it stays one. <br>
+ * 
+ * findPath(start, target) departs at time 0.
+ */
+public class GraphSearch_TimeDependent extends CsrGraphSearch {
+
+	private final EdgeDelay delay;
+	// Heuristic used to estimate cost to target, null to search as Dijkstra
+	private final AstarHeuristic ash;
+
+	/**
+	 * Create a time-dependent search for the given CSR graph.
+	 * @param graph the graph to use
+	 * @param delay the waits at the end of edges
+	 * @param ash the heuristic to use, or null for none
+	 */
+	public GraphSearch_TimeDependent(CsrGraph graph, EdgeDelay delay, AstarHeuristic ash) {
+		super(graph);
+		this.delay = delay;
+		this.ash = ash;
+	}
+
+	/**
+	 * Find the path between 2 nodes that arrives soonest.
+	 * @param start index of the start node
+	 * @param target index of the target node
+	 * @param departure time of leaving the start node
+	 * @return node indices of the path from start to target, or null if there is no path
+	 */
+	public int[] findPath(int start, int target, double departure){
+		SearchWorkspace ws = workspace();
+		ws.begin();
+		return search(ws, start, target, departure, false);
+	}
+
+	/**
+	 * Find the paths from one node to many that arrive soonest, with one 
+	 * search that stops once every target is settled.
+	 * @param start index of the start node
+	 * @param targets indices of the target nodes
+	 * @param departure time of leaving the start node
+	 * @return node indices of the path to each target (in the same order), 
+	 * null for targets with no path
+	 */
+	public int[][] findPaths(int start, int[] targets, double departure){
+		int[] offsets = graph.offsets;
+		int[] edgeEnds = graph.targets;
+		double[] costs = graph.costs;
+		SearchWorkspace ws = workspace();
+		ws.begin();
+		IndexedHeap unsettledNodes = ws.heap;
+		int[] wanted = targets.clone();
+		Arrays.sort(wanted);
+		int remaining = 0;
+		for(int i = 0; i < wanted.length; i++){
+			if(i == 0 || wanted[i] != wanted[i - 1])
+				remaining++;
+		}
+
+		ws.setCost(start, 0.0, start);
+		unsettledNodes.insertOrDecrease(start, 0.0);
+
+		while(remaining > 0 && !unsettledNodes.isEmpty()){
+			int next = unsettledNodes.poll();
+			ws.settle(next);
+			if(Arrays.binarySearch(wanted, next) >= 0)
+				remaining--;
+			double costToNext = ws.cost[next];
+			for(int e = offsets[next]; e < offsets[next + 1]; e++){
+				int edgeTo = edgeEnds[e];
+				double arrival = costToNext + costs[e];
+				if(arrival == Double.POSITIVE_INFINITY)
+					continue;	// closed edge; no wait to predict
+				double newCost = arrival + delay.getDelay(e, departure + arrival);
+				if(!ws.isSettled(edgeTo) && ws.getCost(edgeTo) > newCost){
+					ws.setCost(edgeTo, newCost, next);
+					unsettledNodes.insertOrDecrease(edgeTo, newCost);
+				}
+			}
+		}
+		int[][] paths = new int[targets.length][];
+		for(int i = 0; i < targets.length; i++){
+			if(ws.isSettled(targets[i]))
+				paths[i] = ws.makePath(start, targets[i]);
+		}
+		return paths;
+	}
+
+	/**
+	 * Find the path from any of several start nodes to any of several target 
+	 * nodes that arrives soonest, as CsrGraphSearch.findPath(starts, 
+	 * startCosts, targets, targetCosts) does. The start costs are the times 
+	 * taken to reach each start after departure.
+	 * @param starts indices of the start nodes
+	 * @param startCosts time from departure to leaving each start node
+	 * @param targets indices of the target nodes
+	 * @param targetCosts time from each target node to the end of the trip
+	 * @param departure time of departure
+	 * @return node indices of the path, from one of the starts to one of the 
+	 * targets, or null if there is no path
+	 */
+	public int[] findPath(int[] starts, double[] startCosts, int[] targets, double[] targetCosts, double departure){
+		int[] offsets = graph.offsets;
+		int[] edgeEnds = graph.targets;
+		double[] costs = graph.costs;
+		SearchWorkspace ws = workspace();
+		ws.begin();
+		IndexedHeap unsettledNodes = ws.heap;
+		for(int i = 0; i < starts.length; i++){
+			if(ws.getCost(starts[i]) > startCosts[i]){
+				ws.setCost(starts[i], startCosts[i], starts[i]);
+				unsettledNodes.insertOrDecrease(starts[i], startCosts[i] + estimate(starts[i], targets, targetCosts));
+			}
+		}
+		double best = Double.POSITIVE_INFINITY;
+		int found = -1;
+
+		while(!unsettledNodes.isEmpty() && unsettledNodes.peekKey() < best){
+			int next = unsettledNodes.poll();
+			ws.settle(next);
+			double costToNext = ws.cost[next];
+			for(int i = 0; i < targets.length; i++){
+				if(targets[i] == next && costToNext + targetCosts[i] < best){
+					best = costToNext + targetCosts[i];
+					found = next;
+				}
+			}
+			for(int e = offsets[next]; e < offsets[next + 1]; e++){
+				int edgeTo = edgeEnds[e];
+				double arrival = costToNext + costs[e];
+				if(arrival == Double.POSITIVE_INFINITY)
+					continue;	// closed edge; no wait to predict
+				double gCost = arrival + delay.getDelay(e, departure + arrival);
+				if(!ws.isSettled(edgeTo) && ws.getCost(edgeTo) > gCost){
+					ws.setCost(edgeTo, gCost, next);
+					unsettledNodes.insertOrDecrease(edgeTo, gCost + estimate(edgeTo, targets, targetCosts));
+				}
+			}
+		}
+		ws.pathCost = best;
+		return (found < 0) ? null : ws.makePath(found);
+	}
+
+	@Override
+	public int[] findPath(int[] starts, double[] startCosts, int[] targets, double[] targetCosts){
+		return findPath(starts, startCosts, targets, targetCosts, 0);
+	}
+
+	// Heuristic cost from a node to the cheapest of several targets, target costs included
+	private double estimate(int node, int[] targets, double[] targetCosts){
+		double h = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < targets.length; i++)
+			h = Math.min(h, ((ash == null) ? 0.0 : ash.getCost(graph, node, targets[i])) + targetCosts[i]);
+		return h;
+	}
+
+	@Override
+	protected int[] search(SearchWorkspace ws, int start, int target, boolean remember){
+		return search(ws, start, target, 0, remember);
+	}
+
+	// The workspace holds the time taken since departure to reach each node (waits included)
+	private int[] search(SearchWorkspace ws, int start, int target, double departure, boolean remember){
+		int[] offsets = graph.offsets;
+		int[] targets = graph.targets;
+		double[] costs = graph.costs;
+		IndexedHeap unsettledNodes = ws.heap;
+
+		ws.setCost(start, 0.0, start);
+		unsettledNodes.insertOrDecrease(start, (ash == null) ? 0.0 : ash.getCost(graph, start, target));
+
+		while(!unsettledNodes.isEmpty()){
+			int next = unsettledNodes.poll();
+			if(next == target)
+				return ws.makePath(start, target);
+			ws.settle(next);
+			double costToNext = ws.cost[next];
+			for(int e = offsets[next]; e < offsets[next + 1]; e++){
+				int edgeTo = targets[e];
+				double arrival = costToNext + costs[e];
+				if(arrival == Double.POSITIVE_INFINITY)
+					continue;	// closed edge; no wait to predict
+				double gCost = arrival + delay.getDelay(e, departure + arrival);
+				if(!ws.isSettled(edgeTo) && ws.getCost(edgeTo) > gCost){
+					ws.setCost(edgeTo, gCost, next);
+					double hCost = (ash == null) ? 0.0 : ash.getCost(graph, edgeTo, target);
+					unsettledNodes.insertOrDecrease(edgeTo, gCost + hCost);
+					if(remember)
+						ws.examinedEdges.add(graph.makeEdge(next, e));
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+/**
+ * A d-ary min-heap of node indices keyed by cost, with decrease-key. <br>
+ * 
+ * Each node is in the heap at most once and its position is tracked, so a
+ * cheaper path to a queued node moves the node up in place instead of adding
+ * a duplicate entry. Ties are broken by node index (i.e. node ID order) so
+ * searches are deterministic. <br>
+ * 
+ * Sized once for the graph; clear() is O(1) so the heap is reused between
+ * searches without allocating.
+ */
+final class IndexedHeap {
+	// 4 children per node: shallower than a binary heap and the children share a cache line
+	private static final int D = 4;
+
+	private final int[] heap;		// heap position to node index
+	private final double[] keys;	// heap position to key of the node there
+	private final int[] pos;		// node index to heap position (only valid while the node is in the heap)
+	private int size = 0;
+
+	IndexedHeap(int nbrNodes) {
+		heap = new int[nbrNodes];
+		keys = new double[nbrNodes];
+		pos = new int[nbrNodes];
+	}
+
+	boolean isEmpty(){
+		return size == 0;
+	}
+
+	int size(){
+		return size;
+	}
+
+	void clear(){
+		size = 0;
+	}
+
+	boolean contains(int node){
+		int p = pos[node];
+		return p < size && heap[p] == node;
+	}
+
+	/**
+	 * @return the node with the smallest key
+	 */
+	int peek(){
+		return heap[0];
+	}
+
+	/**
+	 * @return the smallest key
+	 */
+	double peekKey(){
+		return keys[0];
+	}
+
+	/**
+	 * Add the node, or lower its key if it is already queued with a higher one.
+	 * @param node node index
+	 * @param key the node's cost
+	 */
+	void insertOrDecrease(int node, double key){
+		if(contains(node)){
+			int p = pos[node];
+			if(key < keys[p])
+				siftUp(p, node, key);
+		}
+		else
+			siftUp(size++, node, key);
+	}
+
+	/**
+	 * Add the node, or change its key (up or down) if it is already queued.
+	 * @param node node index
+	 * @param key the node's new key
+	 */
+	void update(int node, double key){
+		if(contains(node)){
+			int p = pos[node];
+			if(key < keys[p])
+				siftUp(p, node, key);
+			else
+				siftDown(p, node, key);
+		}
+		else
+			siftUp(size++, node, key);
+	}
+
+	/**
+	 * Remove and return the node with the smallest key.
+	 */
+	int poll(){
+		int top = heap[0];
+		size--;
+		if(size > 0)
+			siftDown(0, heap[size], keys[size]);
+		return top;
+	}
+
+	private static boolean less(double keyA, int nodeA, double keyB, int nodeB){
+		return keyA < keyB || (keyA == keyB && nodeA < nodeB);
+	}
+
+	private void siftUp(int p, int node, double key){
+		while(p > 0){
+			int parent = (p - 1) / D;
+			if(!less(key, node, keys[parent], heap[parent]))
+				break;
+			place(heap[parent], keys[parent], p);
+			p = parent;
+		}
+		place(node, key, p);
+	}
+
+	private void siftDown(int p, int node, double key){
+		while(true){
+			int first = D * p + 1;
+			if(first >= size)
+				break;
+			int last = Math.min(first + D, size);
+			int best = first;
+			for(int c = first + 1; c < last; c++){
+				if(less(keys[c], heap[c], keys[best], heap[best]))
+					best = c;
+			}
+			if(!less(keys[best], heap[best], key, node))
+				break;
+			place(heap[best], keys[best], p);
+			p = best;
+		}
+		place(node, key, p);
+	}
+
+	private void place(int node, double key, int p){
+		heap[p] = node;
+		keys[p] = key;
+		pos[node] = p;
+	}
+}
@@ -0,0 +1,276 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+import java.util.Arrays;
+
+/**
+ * A 2D k-d tree over the node positions (x, y) of a CSR graph, for finding
+ * the nodes nearest a position. Built once and never changed. <br>
+ *
+ * The tree is packed into arrays instead of linked tree nodes: the node
+ * indices are ordered so that the middle entry of any range splits the rest
+ * of the range in two (lower x or y before it, higher after it), switching
+ * between x and y at each level. Positions are copied into that order so a
+ * query walks memory close together. Building takes O(n log n), and nearest
+ * node queries take O(log n) on average. <br>
+ *
+ * Distances are straight line distances in the graph's x and y units. <br>
+ */
+public class KdTree {
+
+	// Node indices in tree order
+	private final int[] order;
+	// Positions of the nodes in tree order
+	private final double[] xs, ys;
+
+	/**
+	 * Index every node of a graph.
+	 * @param graph the graph
+	 */
+	public KdTree(CsrGraph graph) {
+		this(graph, null);
+	}
+
+	/**
+	 * Index some nodes of a graph.
+	 * @param graph the graph
+	 * @param nodes the node indices to index, null for every node
+	 */
+	public KdTree(CsrGraph graph, int[] nodes) {
+		this(graph, (nodes == null) ? allNodes(graph) : nodes.clone(), true);
+	}
+
+	/*
+	 * The tree of the nodes given, built or already in tree order
+	 */
+	private KdTree(CsrGraph graph, int[] order, boolean build){
+		this.order = order;
+		xs = new double[order.length];
+		ys = new double[order.length];
+		for(int i = 0; i < order.length; i++){
+			xs[i] = graph.xs[order[i]];
+			ys[i] = graph.ys[order[i]];
+		}
+		if(build)
+			build(0, order.length, true);
+	}
+
+	private static int[] allNodes(CsrGraph graph){
+		int[] nodes = new int[graph.getNbrNodes()];
+		for(int i = 0; i < nodes.length; i++)
+			nodes[i] = i;
+		return nodes;
+	}
+
+	/**
+	 * Make a tree again from the tree order of one built before over the
+	 * same graph (see getOrder()), e.g. saved with the graph. Takes O(n).
+	 * @param graph the graph
+	 * @param order the node indices in tree order
+	 * @return the tree
+	 */
+	public static KdTree ofOrder(CsrGraph graph, int[] order){
+		for(int node : order){
+			if(node < 0 || node >= graph.getNbrNodes())
+				throw new IllegalArgumentException("Node index " + node + " not in graph");
+		}
+		return new KdTree(graph, order.clone(), false);
+	}
+
+	/**
+	 * Get the node indices in tree order, to make the tree again without
+	 * building it (see ofOrder()).
+	 * @return the node indices
+	 */
+	public int[] getOrder(){
+		return order.clone();
+	}
+
+	/**
+	 * Get the number of nodes indexed.
+	 * @return the number of nodes
+	 */
+	public int size(){
+		return order.length;
+	}
+
+	/**
+	 * Find the node nearest a position.
+	 * @param x
+	 * @param y
+	 * @param maxDistance only consider nodes closer than this
+	 * @return the node index or -1 if no node is close enough
+	 */
+	public int nearest(double x, double y, double maxDistance){
+		Best best = new Best(1, maxDistance * maxDistance);
+		search(0, order.length, true, x, y, best);
+		return (best.size == 0) ? -1 : best.nodes[0];
+	}
+
+	/**
+	 * Find the k nodes nearest a position.
+	 * @param x
+	 * @param y
+	 * @param k the number of nodes wanted
+	 * @return the node indices, nearest first (fewer than k if fewer are indexed)
+	 */
+	public int[] nearest(double x, double y, int k){
+		if(k <= 0 || order.length == 0)
+			return new int[0];
+		Best best = new Best(Math.min(k, order.length), Double.POSITIVE_INFINITY);
+		search(0, order.length, true, x, y, best);
+		return Arrays.copyOf(best.nodes, best.size);
+	}
+
+	/**
+	 * Find every node within a distance of a position.
+	 * @param x
+	 * @param y
+	 * @param radius the distance
+	 * @return the node indices, nearest first
+	 */
+	public int[] withinRadius(double x, double y, double radius){
+		Best found = new Best(0, radius * radius);
+		found.grow = true;
+		search(0, order.length, true, x, y, found);
+		return found.sorted();
+	}
+
+	/*
+	 * Order the range [lo, hi) so its middle entry splits it on x (or y),
+	 * then order both halves on the other axis.
+	 */
+	private void build(int lo, int hi, boolean onX){
+		while(hi - lo > 1){
+			int mid = (lo + hi) >>> 1;
+			select(lo, hi - 1, mid, onX ? xs : ys);
+			// Recurse into the smaller half and loop on the larger, so the stack stays O(log n)
+			if(mid - lo < hi - mid - 1){
+				build(lo, mid, !onX);
+				lo = mid + 1;
+			}
+			else {
+				build(mid + 1, hi, !onX);
+				hi = mid;
+			}
+			onX = !onX;
+		}
+	}
+
+	/*
+	 * Quickselect: put the k-th smallest key of [lo, hi] at k, smaller or
+	 * equal keys before it and larger or equal after it.
+	 */
+	private void select(int lo, int hi, int k, double[] keys){
+		while(hi > lo){
+			double pivot = keys[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while(i <= j){
+				while(keys[i] < pivot) i++;
+				while(keys[j] > pivot) j--;
+				if(i <= j)
+					swap(i++, j--);
+			}
+			if(k <= j)
+				hi = j;
+			else if(k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+
+	private void swap(int i, int j){
+		int o = order[i]; order[i] = order[j]; order[j] = o;
+		double t = xs[i]; xs[i] = xs[j]; xs[j] = t;
+		t = ys[i]; ys[i] = ys[j]; ys[j] = t;
+	}
+
+	/*
+	 * Offer the nodes in [lo, hi) to best, skipping halves that lie farther
+	 * away than the worst distance best still accepts.
+	 */
+	private void search(int lo, int hi, boolean onX, double x, double y, Best best){
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			double dx = xs[mid] - x, dy = ys[mid] - y;
+			best.offer(order[mid], dx * dx + dy * dy);
+			double split = onX ? dx : dy;
+			// Search the half on the position's side first, the other only if it could be close enough
+			if(split > 0){
+				search(lo, mid, !onX, x, y, best);
+				if(split * split >= best.limit())
+					return;
+				lo = mid + 1;
+			}
+			else {
+				search(mid + 1, hi, !onX, x, y, best);
+				if(split * split >= best.limit())
+					return;
+				hi = mid;
+			}
+			onX = !onX;
+		}
+	}
+
+	/*
+	 * The nodes found so far: the k nearest sorted by distance, or when grow
+	 * is set every node offered within the distance limit, in no order until
+	 * sorted() is called.
+	 */
+	private static class Best {
+		int[] nodes;
+		double[] d2s;
+		int size = 0;
+		boolean grow = false;
+		final double maxD2;
+
+		Best(int k, double maxD2){
+			nodes = new int[k];
+			d2s = new double[k];
+			this.maxD2 = maxD2;
+		}
+
+		// Squared distance a node must be under to be kept
+		double limit(){
+			return (!grow && size == nodes.length) ? d2s[size - 1] : maxD2;
+		}
+
+		void offer(int node, double d2){
+			if(d2 >= limit())
+				return;
+			if(grow){
+				if(size == nodes.length){
+					nodes = Arrays.copyOf(nodes, Math.max(16, size * 2));
+					d2s = Arrays.copyOf(d2s, nodes.length);
+				}
+				nodes[size] = node;
+				d2s[size++] = d2;
+				return;
+			}
+			int i = (size == nodes.length) ? size - 1 : size++;	// full: drop the farthest
+			while(i > 0 && d2s[i - 1] > d2){
+				nodes[i] = nodes[i - 1];
+				d2s[i] = d2s[i - 1];
+				i--;
+			}
+			nodes[i] = node;
+			d2s[i] = d2;
+		}
+
+		// The nodes found, nearest first
+		int[] sorted(){
+			long[] keys = new long[size];
+			for(int i = 0; i < size; i++)
+				keys[i] = ((long) Float.floatToIntBits((float) d2s[i]) << 32) | i;
+			Arrays.sort(keys);
+			int[] result = new int[size];
+			for(int i = 0; i < size; i++)
+				result[i] = nodes[(int) keys[i]];
+			return result;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/**
+ * The per-search state of a CSR graph search: best cost and parent of each
+ * node, which nodes are settled, and the queue of unsettled nodes. <br>
+ * 
+ * The arrays are sized once for the graph and never cleared. Instead each
+ * search gets a new generation number and an entry only counts if it was
+ * stamped with the current generation, so starting a search is O(1). <br>
+ * 
+ * Not thread safe; CsrGraphSearch keeps one per thread.
+ */
+final class SearchWorkspace {
+	final double[] cost;	// node index to best cost found so far (valid if reached)
+	final int[] parent;		// node index to index of the node before it on the best path (valid if reached)
+	private final int[] reached;	// node index to generation a cost was last set
+	private final int[] settled;	// node index to generation the node was last settled
+	private int generation = 0;
+	final IndexedHeap heap;
+	// Cost of the path found by the last search from several starts to several targets (see CsrGraphSearch)
+	double pathCost;
+
+	// Only used by the IGraphSearch methods
+	final HashSet<GraphEdge> examinedEdges = new HashSet<GraphEdge>();
+	final LinkedList<GraphNode> route = new LinkedList<GraphNode>();
+
+	SearchWorkspace(int nbrNodes) {
+		cost = new double[nbrNodes];
+		parent = new int[nbrNodes];
+		reached = new int[nbrNodes];
+		settled = new int[nbrNodes];
+		heap = new IndexedHeap(nbrNodes);
+	}
+
+	/**
+	 * Forget the previous search.
+	 */
+	void begin(){
+		if(generation == Integer.MAX_VALUE){
+			// Wrapped around, stamps from old searches could look current
+			Arrays.fill(reached, 0);
+			Arrays.fill(settled, 0);
+			generation = 0;
+		}
+		generation++;
+		heap.clear();
+	}
+
+	boolean isReached(int node){
+		return reached[node] == generation;
+	}
+
+	/**
+	 * @return the best cost to the node found so far, or infinity if it has not been reached
+	 */
+	double getCost(int node){
+		return (reached[node] == generation) ? cost[node] : Double.POSITIVE_INFINITY;
+	}
+
+	void setCost(int node, double c, int from){
+		reached[node] = generation;
+		cost[node] = c;
+		parent[node] = from;
+	}
+
+	boolean isSettled(int node){
+		return settled[node] == generation;
+	}
+
+	void settle(int node){
+		settled[node] = generation;
+	}
+
+	/**
+	 * Read the path to the target back from the parent links.
+	 * @return node indices from start to target
+	 */
+	int[] makePath(int start, int target){
+		int length = 1;
+		for(int n = target; n != start; n = parent[n])
+			length++;
+		int[] path = new int[length];
+		for(int n = target, i = length - 1; i >= 0; n = parent[n], i--)
+			path[i] = n;
+		return path;
+	}
+
+	/**
+	 * Read the path to the target back from the parent links, to whichever 
+	 * start it was reached from (a start is its own parent).
+	 * @return node indices from start to target
+	 */
+	int[] makePath(int target){
+		int start = target;
+		while(parent[start] != start)
+			start = parent[start];
+		return makePath(start, target);
+	}
+}
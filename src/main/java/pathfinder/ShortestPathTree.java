@@ -0,0 +1,72 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+/**
+ * The cheapest paths from one start node to every node it can reach, as 
+ * found by GraphSearch_Dijkstra.findTree(). <br>
+ * 
+ * Holds the cost and parent of each node, so the path to any node is read 
+ * back without searching again. <br>
+ */
+public class ShortestPathTree {
+
+	private final int start;
+	// Node index to cost of the cheapest path from start (infinite if not reached)
+	private final double[] cost;
+	// Node index to index of the node before it on the cheapest path (-1 if not reached)
+	private final int[] parent;
+
+	ShortestPathTree(SearchWorkspace ws, int start) {
+		this.start = start;
+		int n = ws.cost.length;
+		cost = new double[n];
+		parent = new int[n];
+		for(int i = 0; i < n; i++){
+			boolean reached = ws.isSettled(i);
+			cost[i] = reached ? ws.cost[i] : Double.POSITIVE_INFINITY;
+			parent[i] = reached ? ws.parent[i] : -1;
+		}
+	}
+
+	/**
+	 * @return index of the start node
+	 */
+	public int getStart(){
+		return start;
+	}
+
+	/**
+	 * @param node node index
+	 * @return true if there is a path from the start to the node
+	 */
+	public boolean isReached(int node){
+		return parent[node] >= 0;
+	}
+
+	/**
+	 * @param node node index
+	 * @return the cost of the cheapest path from the start to the node, or infinity if there is none
+	 */
+	public double getCost(int node){
+		return cost[node];
+	}
+
+	/**
+	 * @param node node index
+	 * @return node indices of the cheapest path from the start to the node, or null if there is none
+	 */
+	public int[] getPath(int node){
+		if(parent[node] < 0)
+			return null;
+		int length = 1;
+		for(int n = node; n != start; n = parent[n])
+			length++;
+		int[] path = new int[length];
+		for(int n = node, i = length - 1; i >= 0; n = parent[n], i--)
+			path[i] = n;
+		return path;
+	}
+}
@@ -0,0 +1,193 @@
+/*
+  SPDX-License-Identifier: GPL-3.0-only
+ */
+
+package pathfinder;
+
+import java.util.Arrays;
+
+/**
+ * The strongly connected components of a CSR graph: groups of nodes that can 
+ * all reach each other. Found once with an iterative version of Tarjan's 
+ * algorithm (no recursion, so deep graphs can't overflow the stack). <br>
+ * 
+ * Tarjan's algorithm completes a component only after every component it can 
+ * reach, so components are numbered in reverse topological order: if there 
+ * is a path from a node to another, the first node's component number is 
+ * greater than or equal to the other's. So mayReach() rules out most 
+ * unreachable pairs without searching. <br>
+ * 
+ * Edge costs play no part, except that edges with an infinite cost (closed 
+ * roads) are left out. So the components stay valid when costs change, but 
+ * should be found again after closing or reopening an edge. <br>
+ */
+public class StronglyConnectedComponents {
+
+	// Node index to component number
+	private final int[] component;
+	// Component number to number of nodes in it
+	private final int[] sizes;
+	// Component number of the largest component, -1 if the graph has no nodes
+	private final int largest;
+
+	/**
+	 * Find the strongly connected components of a graph.
+	 * @param graph the graph
+	 */
+	public StronglyConnectedComponents(CsrGraph graph) {
+		int n = graph.getNbrNodes();
+		int[] offsets = graph.offsets;
+		int[] targets = graph.targets;
+		double[] costs = graph.costs;
+		component = new int[n];
+		int[] index = new int[n];		// node index to order first visited, from 1 (0 = not visited yet)
+		int[] lowLink = new int[n];		// node index to lowest visit order reachable through its subtree
+		int[] nextEdge = new int[n];	// node index to next edge to follow from it
+		int[] callStack = new int[n];	// nodes being explored (replaces recursion)
+		int[] sccStack = new int[n];	// visited nodes not yet assigned a component
+		boolean[] onStack = new boolean[n];
+		int[] counts = new int[Math.max(1, n)];
+		int visited = 0, nbrComponents = 0, callTop = 0, sccTop = 0;
+
+		for(int root = 0; root < n; root++){
+			if(index[root] != 0)
+				continue;
+			index[root] = lowLink[root] = ++visited;
+			nextEdge[root] = offsets[root];
+			sccStack[sccTop++] = root;
+			onStack[root] = true;
+			callStack[callTop++] = root;
+			while(callTop > 0){
+				int v = callStack[callTop - 1];
+				if(nextEdge[v] < offsets[v + 1]){
+					int e = nextEdge[v]++;
+					if(costs[e] == Double.POSITIVE_INFINITY)
+						continue;	// closed
+					int w = targets[e];
+					if(index[w] == 0){
+						// Visit w as if by a recursive call
+						index[w] = lowLink[w] = ++visited;
+						nextEdge[w] = offsets[w];
+						sccStack[sccTop++] = w;
+						onStack[w] = true;
+						callStack[callTop++] = w;
+					}
+					else if(onStack[w])
+						lowLink[v] = Math.min(lowLink[v], index[w]);
+					continue;
+				}
+				// All edges of v done: return from its call
+				callTop--;
+				if(lowLink[v] == index[v]){
+					// v is the root of a component; pop it off
+					int x;
+					do {
+						x = sccStack[--sccTop];
+						onStack[x] = false;
+						component[x] = nbrComponents;
+						counts[nbrComponents]++;
+					} while(x != v);
+					nbrComponents++;
+				}
+				if(callTop > 0){
+					int parent = callStack[callTop - 1];
+					lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+				}
+			}
+		}
+		sizes = Arrays.copyOf(counts, nbrComponents);
+		largest = largestOf(sizes);
+	}
+
+	/**
+	 * Take the components found before for the same graph, e.g. saved with 
+	 * it, instead of finding them again. Takes O(n).
+	 * @param graph the graph
+	 * @param component node index to component number, as given by 
+	 * getComponent()
+	 */
+	public StronglyConnectedComponents(CsrGraph graph, int[] component){
+		if(component.length != graph.getNbrNodes())
+			throw new IllegalArgumentException("Components don't match the graph in size");
+		this.component = component.clone();
+		int nbrComponents = 0;
+		for(int c : component){
+			if(c < 0 || c >= component.length)
+				throw new IllegalArgumentException("Component number " + c + " out of range");
+			nbrComponents = Math.max(nbrComponents, c + 1);
+		}
+		sizes = new int[nbrComponents];
+		for(int c : component)
+			sizes[c]++;
+		largest = largestOf(sizes);
+	}
+
+	private static int largestOf(int[] sizes){
+		int best = -1;
+		for(int c = 0; c < sizes.length; c++){
+			if(best < 0 || sizes[c] > sizes[best])
+				best = c;
+		}
+		return best;
+	}
+
+	/**
+	 * @param node node index
+	 * @return the number of the component the node is in
+	 */
+	public int getComponent(int node){
+		return component[node];
+	}
+
+	/**
+	 * @return the number of components
+	 */
+	public int getNbrComponents(){
+		return sizes.length;
+	}
+
+	/**
+	 * @param component component number
+	 * @return the number of nodes in the component
+	 */
+	public int getSize(int component){
+		return sizes[component];
+	}
+
+	/**
+	 * @return the number of the largest component (the giant component of 
+	 * a road network), or -1 if the graph has no nodes
+	 */
+	public int getLargest(){
+		return largest;
+	}
+
+	/**
+	 * @param node node index
+	 * @return true if the node is in the largest component
+	 */
+	public boolean isInLargest(int node){
+		return component[node] == largest;
+	}
+
+	/**
+	 * @param from node index
+	 * @param to node index
+	 * @return true if the nodes are in the same component, so each can reach the other
+	 */
+	public boolean isConnected(int from, int to){
+		return component[from] == component[to];
+	}
+
+	/**
+	 * Rule out paths between nodes without searching. <br>
+	 * False means there is no path. True means there may be one: there 
+	 * always is if the nodes are in the same component (see isConnected()).
+	 * @param from node index
+	 * @param to node index
+	 * @return false if there is no path from the one node to the other
+	 */
+	public boolean mayReach(int from, int to){
+		return component[from] >= component[to];
+	}
+}
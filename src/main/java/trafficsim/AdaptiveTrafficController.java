@@ -0,0 +1,30 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+/**
+ * Base for traffic controllers that adapt their light timings or phase order to the traffic queued at the
+ * intersection.
+ * 
+ * Reads the intersection's queue counts, which are kept up to date as cars queue and leave, so each decision
+ * costs O(approaches) and allocates nothing.
+ */
+public abstract class AdaptiveTrafficController extends NormalTrafficController {
+	protected Intersection intersection;
+
+	public AdaptiveTrafficController(Intersection intersection, int[] states, int[][] phases, double[] periods,
+			double[] yellowTimes) {
+		super(states, phases, periods, yellowTimes);
+		this.intersection = intersection;
+	}
+
+	// Cars queued over all approaches of the phase
+	protected int getPhaseQueueLength(int phase) {
+		int size = 0;
+		for (int approach : phases[phase]) {
+			size += intersection.getQueueLength(approach);
+		}
+		return size;
+	}
+}
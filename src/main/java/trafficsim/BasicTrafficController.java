@@ -3,46 +3,45 @@
  */
 package trafficsim;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 /**
  * Traffic controller that alternates between 4 approaches with fixed timings.
  */
 public class BasicTrafficController extends TrafficController {
-	private HashMap<Long, Double> periods;
-	private HashMap<Long, Double> yellowTimes;
-	private LinkedList<Long> nextGreen; // Stores approach node IDs in order of which should be green next
-	private Long currentGreen;
+	private double[] periods; // Approach index to green period
+	private double[] yellowTimes; // Approach index to yellow time
+	private int currentGreen; // Approach index; approaches are green in index order
+	private double greenStart = 0; // Simulation time of the last light change to green
 
-	public BasicTrafficController(HashMap<Long, Integer> states, HashMap<Long, Double> periods,
-			HashMap<Long, Double> yellowTimes) {
+	public BasicTrafficController(int[] states, double[] periods, double[] yellowTimes) {
 		super(states);
 		this.periods = periods;
 		this.yellowTimes = yellowTimes;
-		nextGreen = new LinkedList<>(states.keySet());
-		currentGreen = nextGreen.getLast();
+		currentGreen = states.length - 1;
+	}
+
+	@Override
+	public double getNextTransitionTime() {
+		double end = greenStart + periods[currentGreen];
+		return (states[currentGreen] == Intersection.YELLOW) ? end : end - yellowTimes[currentGreen];
 	}
 
 	@Override
 	public void updateStates() {
-		// Time variable used as the time since last light change
-		double currentPeriod = periods.get(currentGreen);
-		double currentYellow = yellowTimes.get(currentGreen);
-		if (time > currentPeriod) {
-			// Set next light in queue to green:
-			currentGreen = nextGreen.poll();
-			nextGreen.add(currentGreen);
-			time = 0;
+		// Compare against the same end of green time getNextTransitionTime() reports
+		double end = greenStart + periods[currentGreen];
+		if (time >= end) {
+			// Set next light in order to green:
+			currentGreen = (currentGreen + 1) % states.length;
+			greenStart = time;
 			// All lights reset to red
-			for (Long approachNode : states.keySet()) {
-				states.put(approachNode, Intersection.RED);
-			}
+			Arrays.fill(states, Intersection.RED);
 			// Except next one to be green
-			states.put(currentGreen, Intersection.GREEN);
-		} else if (time > currentPeriod - currentYellow) {
+			states[currentGreen] = Intersection.GREEN;
+		} else if (time >= end - yellowTimes[currentGreen]) {
 			// Set current green to yellow
-			states.put(currentGreen, Intersection.YELLOW);
+			states[currentGreen] = Intersection.YELLOW;
 		}
 	}
 }
@@ -10,7 +10,9 @@ import java.awt.Point;
 import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 
 import util.Log;
 
@@ -29,8 +31,10 @@ public class Car extends IntelligentDriverModel implements DrawingObject, Compar
 	private Double lon;
 	private Double lat;
 	private Long id;
-	private ArrayList<Node> routeNodes;
+	private Route route; // Shared with other cars given the same route, never changed
+	private Node routePrevNode; // Node before the route's first, once rerouted (see reroute())
 	private int nextNodeCounter = 0;
+	private int link = -1; // Link (graph edge) from previous to next node, -1 if not looked up yet
 	private Way currentWay; // That the car is travelling on
 	private Integer wayDirection; // Direction car is travelling along way
 	private double velocity = 0; // Along way
@@ -83,26 +87,29 @@ public class Car extends IntelligentDriverModel implements DrawingObject, Compar
 	}
 
 	public Node getDestNode() {
-		return (routeNodes == null || routeNodes.isEmpty()) ? null : routeNodes.get(routeNodes.size() - 1);
+		return (route == null) ? null : route.getDest();
 	}
 
 	public Node getNextNextNode() {
-		return (routeNodes == null || routeNodes.isEmpty() ||
-				nextNodeCounter >= routeNodes.size() - 2) ? null : routeNodes.get(nextNodeCounter + 1);
+		return (route == null || nextNodeCounter >= route.size() - 2) ? null : route.get(nextNodeCounter + 1);
 	}
 
 	public Node getNextNode() {
-		return (routeNodes == null || routeNodes.isEmpty() ||
-				nextNodeCounter >= routeNodes.size() - 1) ? null : routeNodes.get(nextNodeCounter);
+		return (route == null || nextNodeCounter >= route.size() - 1) ? null : route.get(nextNodeCounter);
 	}
 
 	public Node getPrevNode() {
-		return (routeNodes == null || routeNodes.isEmpty() ||
-				nextNodeCounter == 0) ? null : routeNodes.get(nextNodeCounter - 1);
+		return (route == null) ? null : (nextNodeCounter == 0) ? routePrevNode : route.get(nextNodeCounter - 1);
 	}
 
-	public ArrayList<Node> getRouteNodes() {
-		return routeNodes;
+	// The route being followed, from the node the car was heading to when last rerouted (see reroute())
+	public Route getRouteNodes() {
+		return route;
+	}
+
+	// The rest of the route from the next node on, empty once finished
+	public List<Node> getRemainingRoute() {
+		return (getNextNode() == null) ? Collections.emptyList() : route.subList(nextNodeCounter, route.size());
 	}
 
 	public Way getCurrentWay() {
@@ -240,8 +247,16 @@ public class Car extends IntelligentDriverModel implements DrawingObject, Compar
 	}
 
 	public boolean setRoute(RoutePlanner planner, Node start, Node dest) {
-		routeNodes = planner.getNewRoute(start, dest);
+		return setRoute(planner, planner.getNewRoute(start, dest));
+	}
+
+	// Takes a route already planned (e.g. by RoutePlanner.getNewRoutes()) and puts the car on the road of its first
+	// leg. Returns false if there is no route.
+	public boolean setRoute(RoutePlanner planner, Route route) {
+		this.route = route;
+		routePrevNode = null;
 		nextNodeCounter = 0;
+		link = -1;
 		Node nextNode = getNextNode();
 		if (nextNode != null) {
 			// Assign to any way (must be road) containing the first + second nodes.
@@ -259,17 +274,40 @@ public class Car extends IntelligentDriverModel implements DrawingObject, Compar
 		return false;
 	}
 
+	// Replaces the rest of the route with a new route from the next node (e.g. around congestion). Returns false if
+	// the new route doesn't start at the car's next node (e.g. the car has passed it since the route was planned).
+	// The new route is followed as given (not copied after the part travelled), so it stays shared.
+	public boolean reroute(Route route) {
+		Node next = getNextNode();
+		if (next == null || route == null || route.size() < 2 || !route.get(0).equals(next)) {
+			return false;
+		}
+		routePrevNode = getPrevNode();
+		this.route = route;
+		nextNodeCounter = 0;
+		return true;
+	}
+
+	public int getLink() {
+		return link;
+	}
+
+	public void setLink(int link) {
+		this.link = link;
+	}
+
 	public void nextNode() {
 		// Change the cars next "target" node to the next one in the list
 		int oldnncount = nextNodeCounter;
 		nextNodeCounter++;
+		link = -1;
 		if (oldnncount == nextNodeCounter) {
 			Log.error("int++ failed!");
 		}
-		if (nextNodeCounter >= routeNodes.size() - 1) {
+		if (nextNodeCounter >= route.size() - 1) {
 			// Reached last node.
 			// This should be last time this method is called (before new route acquired).
-			nextNodeCounter = routeNodes.size() - 1;
+			nextNodeCounter = route.size() - 1;
 			prevColor = finishColor; // Stay finishing colour always!
 			color = finishColor;
 			// Take car off road so it doesn't block others behind it
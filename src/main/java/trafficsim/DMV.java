@@ -3,21 +3,19 @@
  */
 package trafficsim;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  *  
  */
 public class DMV {
-	private static long idCount;
-
-	static {
-		idCount = 0;
-	}
+	private static final AtomicLong idCount = new AtomicLong(); // Cars may be made on several threads
 
 	public static long getNewId() {
-		return idCount++;
+		return idCount.getAndIncrement();
 	}
 
 	public static void resetIdCount() {
-		idCount = 0;
+		idCount.set(0);
 	}
 }
@@ -4,18 +4,17 @@
 package trafficsim;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.TreeSet;
 
 import util.Log;
 
 /**
- * Logic for traffic intersections.
+ * Logic for traffic intersections: the approaches and the cars queued at each of them. How cars are let through depends
+ * on the type of intersection (see StopIntersection and SignalisedIntersection).
  */
-public class Intersection {
+public abstract class Intersection {
 
 	private final int type;
 	public static final int ALL_WAY_STOP = 0;
@@ -23,28 +22,29 @@ public class Intersection {
 	public static final int ONE_WAY_STOP = 2; // T intersection no lights
 	public static final int FULLY_LIT = 3;
 
-	private TrafficController trafficController;
-	private HashMap<NodePair, Double> periods; // Opposing approach nodes to period of each light green
-	private HashMap<Long, Double> yellowTimes; // Approach node id to yellow light time
 	public static final double LONG_LIGHT = 60; // seconds
 	public static final double MEDIUM_LIGHT = 40; // seconds
 	public static final double SHORT_LIGHT = 15; // seconds
-	private HashMap<Long, Integer> states; // Approach node id to light state
+	public static final double MIN_GREEN = 5; // seconds of green (before yellow) any phase is given
 	public static final int RED = 0;
 	public static final int YELLOW = 1;
 	public static final int GREEN = 2;
 	public static final int LEFT_GREEN = 3;
 	public static final int RIGHT_GREEN = 4;
 
-	private ArrayList<Car> polledCars = new ArrayList<>();
-	private Node intersectionNode;
-	private HashMap<Long, Node> approachNodeMap; // Node id to approach node
-	private HashMap<Long, LinkedList<Car>> approachQueueMap; // Node id to cars queued at light
-	private LinkedList<Long> nextToPoll; // For 4-way stop the next line to remove a car from
-
-	// Want to store approach node id's and light state.
-	// Initially set nodes on same way to same light state.
-	public Intersection(int type, Node intersectionNode, ArrayList<Node> approachingNodes,
+	protected Node intersectionNode;
+	// Approaches are numbered 0 .. n-1 in the order given to the constructor; all per-approach
+	// state below is indexed by this number rather than keyed by node id.
+	protected Node[] approachNodes; // Approach index to approach node
+	private long[] approachIds; // Approach index to approach node id
+	protected Way[] approachWays; // Approach index to way the approach node shares with the intersection node
+	private ArrayList<LinkedList<Car>> approachQueues; // Approach index to cars queued at light
+	private int[] queueLengths; // Approach index to number of cars queued, kept in step with approachQueues
+	private int queuedTotal = 0; // Total cars queued over all approaches
+	private Intersection[] downstream; // Approach index to next intersection reached leaving through that approach
+	private int[] downstreamApproach; // Approach index to approach index at the downstream intersection
+
+	protected Intersection(int type, Node intersectionNode, ArrayList<Node> approachingNodes,
 			ArrayList<Way> approachingWays) {
 		if (approachingNodes.size() != approachingWays.size()) {
 			Log.error("Approach nodes size must equal approach ways size!");
@@ -52,31 +52,16 @@ public class Intersection {
 		}
 		this.type = type;
 		this.intersectionNode = intersectionNode;
-		approachNodeMap = new HashMap<>();
-		states = new HashMap<>();
-		periods = new HashMap<>();
-		yellowTimes = new HashMap<>();
-		approachQueueMap = new HashMap<>();
-		nextToPoll = new LinkedList<>();
-		for (Node node : approachingNodes) {
-			approachNodeMap.put(node.getId(), node);
-			states.put(node.getId(), RED);
-			approachQueueMap.put(node.getId(), new LinkedList<Car>());
-			nextToPoll.add(node.getId());
-		}
-		for (int i = 0; i < approachingWays.size(); i++) {
-			Way approachWay = approachingWays.get(i);
-			Node approachNode = approachingNodes.get(i);
-			yellowTimes.put(approachNode.getId(), getYellowTime(approachWay));
-		}
-		TreeSet<NodePair> opposingNodes = getOpposingNodes(); // intersectionNode, approachingNodes);
-		for (NodePair pair : opposingNodes) {
-			periods.put(pair, MEDIUM_LIGHT);
+		int n = approachingNodes.size();
+		approachNodes = approachingNodes.toArray(new Node[n]);
+		approachIds = new long[n];
+		approachWays = approachingWays.toArray(new Way[n]);
+		approachQueues = new ArrayList<>(n);
+		queueLengths = new int[n];
+		for (int i = 0; i < n; i++) {
+			approachIds[i] = approachNodes[i].getId();
+			approachQueues.add(new LinkedList<Car>());
 		}
-		// TODO optimise so no traffic controller / states created and updated for 4-way stops
-		// trafficController = new BasicTrafficController(states, periods, yellowTimes);
-		// trafficController = new NormalTrafficController(states, periods, yellowTimes);
-		trafficController = new LinearWeightedTrafficController(this, states, periods, yellowTimes);
 	}
 
 	public Long getId() {
@@ -88,23 +73,29 @@ public class Intersection {
 	}
 
 	public final Collection<Node> getApproachNodes() {
-		return approachNodeMap.values();
+		return Arrays.asList(approachNodes);
+	}
+
+	public int getNumApproaches() {
+		return approachNodes.length;
 	}
 
-	// Input the node the vehicle is approaching the intersection from, get state of light for that approach node
-	public int getState(Node approach) {
-		Integer val = states.get(approach.getId());
-		if (val != null) {
-			return val;
+	// Returns the approach index of the node, or -1 if the node does not approach this intersection.
+	// A linear scan since intersections only have a handful of approaches.
+	public int getApproachIndex(Node approach) {
+		long id = approach.getId();
+		for (int i = 0; i < approachIds.length; i++) {
+			if (approachIds[i] == id) {
+				return i;
+			}
 		}
-		Log.error("Car approaching intersection " + intersectionNode.getId() + " from invalid node : " + approach.getId());
-		return RED;
+		return -1;
 	}
 
-	// Input current simulation time and controller state updated
-	public void updateStates(double timestep) {
-		trafficController.step(timestep);
-		states = trafficController.getStates();
+	// Updates the queue counts as cars queue (+1) and leave (-1) the approach
+	protected void queueChanged(int approach, int change) {
+		queueLengths[approach] += change;
+		queuedTotal += change;
 	}
 
 	// Input approach node, get yellow time. Depends on way speed.
@@ -113,7 +104,7 @@ public class Intersection {
 		return getYellowTime(car.getCurrentWay());
 	}
 
-	private double getYellowTime(Way way) {
+	protected static double getYellowTime(Way way) {
 		double s;
 		if (way != null) {
 			s = way.getMaxspeedKm();
@@ -144,63 +135,84 @@ public class Intersection {
 	}
 
 	public void queue(Car car) {
-		long prev = car.getPrevNode().getId();
-		LinkedList<Car> queue = approachQueueMap.get(prev);
+		int approach = getApproachIndex(car.getPrevNode());
+		LinkedList<Car> queue = approachQueues.get(approach);
 		if (!queue.contains(car)) {
 			queue.add(car);
+			queueChanged(approach, 1);
 		}
 	}
 
 	public boolean isQueued(Car car) {
-		long prev = car.getPrevNode().getId();
-		LinkedList<Car> queue = approachQueueMap.get(prev);
+		LinkedList<Car> queue = approachQueues.get(getApproachIndex(car.getPrevNode()));
 		return queue.contains(car);
 	}
 
-	public HashMap<Long, LinkedList<Car>> getApproachQueueMap() {
-		return approachQueueMap;
+	public LinkedList<Car> getApproachQueue(int approach) {
+		return approachQueues.get(approach);
 	}
 
-	public ArrayList<Car> getPolledCars() {
-		return polledCars;
+	// Number of cars queued at the approach. Maintained as cars are queued/removed, so O(1).
+	public int getQueueLength(int approach) {
+		return queueLengths[approach];
 	}
 
-	public void forgetPolled(Car car) {
-		for (Iterator<Car> iter = polledCars.iterator(); iter.hasNext();) {
-			Car c = iter.next();
-			if (c.getId().longValue() == car.getId().longValue()) {
-				iter.remove();
-			}
-		}
-		if (polledCars.contains(car)) {
-			Log.error("Could not remove polled car from polledCars!");
-		}
+	// Number of cars queued over all approaches
+	public int getQueuedTotal() {
+		return queuedTotal;
 	}
 
-	public void unqueueNext() {
-		Car polled = pollNext();
-		if (polled != null) {
-			polledCars.add(polled);
+	// Number of cars queued at the next intersection a car reaches by leaving this one through the approach node
+	// (i.e. heading away from the intersection along the approach's way). 0 if there is no such intersection.
+	public int getExitQueueLength(int approach) {
+		if (downstream == null) {
+			findDownstream();
 		}
-	}
-
-	private Car pollNext() {
-		Car car = null;
-		// Iterate through all approaching nodes to find next car to poll (if there exists one)
-		for (int i = 0; i < nextToPoll.size(); i++) {
-			// Get id of next approach node queue to poll from; add back to back of queue
-			long nextId = nextToPoll.poll();
-			nextToPoll.add(nextId);
-			LinkedList<Car> queue = approachQueueMap.get(nextId);
-			car = queue.poll();
-			if (car != null) {
-				if (queue.contains(car)) {
-					Log.error("Queue polled car but still contains car");
+		Intersection next = downstream[approach];
+		return (next == null) ? 0 : next.getQueueLength(downstreamApproach[approach]);
+	}
+
+	// Walks each approach's way outwards from the intersection node to the next intersection node, if any.
+	// Done on first use since it requires the intersections of the whole map to have been set up.
+	private void findDownstream() {
+		int n = approachNodes.length;
+		Intersection[] found = new Intersection[n];
+		downstreamApproach = new int[n];
+		for (int a = 0; a < n; a++) {
+			if (approachWays[a] == null) {
+				continue;
+			}
+			Node[] wayNodes = approachWays[a].getNodes().toArray(new Node[0]);
+			// Find the approach node next to the intersection node in the way, and so the direction leaving it
+			int to = -1;
+			int dir = 0;
+			for (int i = 0; i < wayNodes.length && to < 0; i++) {
+				if (wayNodes[i].equals(intersectionNode)) {
+					if (i + 1 < wayNodes.length && wayNodes[i + 1].equals(approachNodes[a])) {
+						to = i + 1;
+						dir = 1;
+					} else if (i > 0 && wayNodes[i - 1].equals(approachNodes[a])) {
+						to = i - 1;
+						dir = -1;
+					}
+				}
+			}
+			if (to < 0) {
+				continue;
+			}
+			for (int i = to; i >= 0 && i < wayNodes.length; i += dir) {
+				Intersection next = wayNodes[i].getIntersection();
+				if (next != null) {
+					int approach = next.getApproachIndex(wayNodes[i - dir]);
+					if (approach >= 0) {
+						found[a] = next;
+						downstreamApproach[a] = approach;
+					}
+					break;
 				}
-				break;
 			}
 		}
-		return car;
+		downstream = found;
 	}
 
 	// Signals whether remove was successful
@@ -209,45 +221,14 @@ public class Intersection {
 		if (prev == null) {
 			return false;
 		}
-		LinkedList<Car> queue = approachQueueMap.get(prev.getId());
-		if (queue == null) {
+		int approach = getApproachIndex(prev);
+		if (approach < 0) {
 			return false;
 		}
-		return queue.remove(car);
-	}
-
-	/*
-	 * Returns tuples of opposing nodes that approach the intersection node.
-	 * 
-	 * Algorithm:
-	 * 
-	 * a & b opposite if both:
-	 * 
-	 * 1. xa < xi < xb or xa > xi > xb 
-	 * and
-	 * 2. ya < yi < yb or ya > yi > yb
-	 */
-	public final TreeSet<NodePair> getOpposingNodes() {
-		TreeSet<NodePair> opposing = new TreeSet<>();
-		Node i = intersectionNode;
-		for (Node a : approachNodeMap.values()) {
-			NodePair opposites = new NodePair();
-			opposites.a = a;
-			for (Node b : approachNodeMap.values()) {
-				if (!a.equals(b) && ((a.getLat() < i.getLat() && i.getLat() < b.getLat())
-						|| (a.getLat() > i.getLat() && i.getLat() > b.getLat())) && // 1.
-						((a.getLon() < i.getLon() && i.getLon() < b.getLon())
-								|| (a.getLon() > i.getLon() && i.getLon() > b.getLon()))) // 2.
-				{
-					opposites.b = b;
-				}
-			}
-			opposing.add(opposites);
+		boolean removed = approachQueues.get(approach).remove(car);
+		if (removed) {
+			queueChanged(approach, -1);
 		}
-		return opposing;
-	}
-
-	public final HashMap<NodePair, Double> getPeriods() {
-		return periods;
+		return removed;
 	}
 }
@@ -0,0 +1,82 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+import java.util.Arrays;
+
+/**
+ * Keeps a smoothed travel time for every link (graph edge between two adjacent nodes) from the speeds of the cars
+ * on it, so routes can be planned around congestion.
+ *
+ * Each step the simulation reports every car on a link with its speed and the step's length (see observe()), adding
+ * to the time cars spent on the link and the distance they went. On each update() the distance over the time since
+ * the last update gives the link's mean speed (the space mean speed, so cars stopped in a queue count for the time
+ * they wait), and the link's length at that speed its current travel time. That is blended into the link's travel
+ * time with an exponentially weighted moving average. Links no car was on drift back to their free-flow
+ * time. Travel times are never below the free-flow time (travel at the speed limit), which keeps the router's
+ * heuristics valid. Free-flow times are read from the planner on each update, so speed limit changes made there
+ * (see RoutePlanner.setLinkSpeed()) are followed.
+ */
+public class LinkTravelTimes {
+	// Weight of the newest travel times in the moving average, 0 to 1
+	static final double SMOOTHING = 0.5;
+	// Mean speeds below this (m/s) are taken as this, so links with only stopped cars get a large but finite travel time
+	static final double MIN_SPEED = 0.5;
+
+	private final RoutePlanner planner;
+	private final double[] lengths; // Link to length in m
+	private final double[] times; // Link to smoothed travel time in seconds
+	private final double[] timeSum; // Link to seconds spent on it by cars since last update
+	private final double[] distanceSum; // Link to distance in m gone along it by cars since last update
+
+	public LinkTravelTimes(RoutePlanner planner) {
+		this.planner = planner;
+		int n = planner.getNbrLinks();
+		lengths = new double[n];
+		times = new double[n];
+		for (int link = 0; link < n; link++) {
+			lengths[link] = planner.getLinkLength(link);
+			times[link] = planner.getFreeFlowTime(link);
+		}
+		timeSum = new double[n];
+		distanceSum = new double[n];
+	}
+
+	// Reports a car on a link (see RoutePlanner.getLink()) going at the speed in m/s for the seconds
+	public void observe(int link, double speed, double seconds) {
+		timeSum[link] += seconds;
+		distanceSum[link] += speed * seconds;
+	}
+
+	// Blends the speeds reported since the last update into the travel times and hands them to the planner
+	public void update() {
+		for (int link = 0; link < times.length; link++) {
+			double freeFlow = planner.getFreeFlowTime(link);
+			double observed = freeFlow;
+			if (timeSum[link] > 0) {
+				double speed = Math.max(MIN_SPEED, distanceSum[link] / timeSum[link]);
+				observed = Math.max(freeFlow, lengths[link] / speed);
+			}
+			times[link] = Math.max(freeFlow, (1 - SMOOTHING) * times[link] + SMOOTHING * observed);
+		}
+		Arrays.fill(timeSum, 0);
+		Arrays.fill(distanceSum, 0);
+		planner.setTravelTimes(times);
+	}
+
+	// Forgets all reports and puts the planner back to free-flow travel times. The planner keeps its cached routes
+	// and contraction hierarchy if it was at free-flow times already (see RoutePlanner.setTravelTimes()).
+	public void reset() {
+		for (int link = 0; link < times.length; link++) {
+			times[link] = planner.getFreeFlowTime(link);
+		}
+		Arrays.fill(timeSum, 0);
+		Arrays.fill(distanceSum, 0);
+		planner.setTravelTimes(times);
+	}
+
+	public double getTravelTime(int link) {
+		return times[link];
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+/**
+ * A traffic controller with fixed light timings that, instead of taking phases in order, gives the next green to the
+ * phase with the most cars queued (longest queue first).
+ * 
+ * The current phase is only served again if no other phase has any traffic queued. With no traffic anywhere the
+ * phases are taken in order like NormalTrafficController.
+ */
+public class LongestQueueTrafficController extends AdaptiveTrafficController {
+
+	public LongestQueueTrafficController(Intersection intersection, int[] states, int[][] phases,
+			double[] periods, double[] yellowTimes) {
+		super(intersection, states, phases, periods, yellowTimes);
+	}
+
+	@Override
+	protected int nextPhase() {
+		int best = -1;
+		int bestSize = 0;
+		// Start from the phase after the current one so ties go to the phase that would be next in order
+		for (int i = 1; i < phases.length; i++) {
+			int p = (currentPhase + i) % phases.length;
+			int size = getPhaseQueueLength(p);
+			if (size > bestSize) {
+				best = p;
+				bestSize = size;
+			}
+		}
+		if (best >= 0) {
+			return best;
+		}
+		return (getPhaseQueueLength(currentPhase) > 0) ? currentPhase : super.nextPhase();
+	}
+}
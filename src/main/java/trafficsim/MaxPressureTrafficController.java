@@ -0,0 +1,60 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+/**
+ * A traffic controller with fixed light timings that gives the next green to the phase with the highest "pressure":
+ * the cars queued on its approaches less the cars already queued downstream where they are heading.
+ * 
+ * Turning movements aren't modelled, so cars from an approach are assumed to go straight through to the opposing
+ * approach of the phase. Cars from an approach with no opposite are assumed to spread evenly over the other exits.
+ * Serving a phase whose exits are already backed up just moves the queue, which longest queue first doesn't take
+ * into account.
+ */
+public class MaxPressureTrafficController extends AdaptiveTrafficController {
+
+	public MaxPressureTrafficController(Intersection intersection, int[] states, int[][] phases,
+			double[] periods, double[] yellowTimes) {
+		super(intersection, states, phases, periods, yellowTimes);
+	}
+
+	@Override
+	protected int nextPhase() {
+		int best = super.nextPhase();
+		double bestPressure = Double.NEGATIVE_INFINITY;
+		// Start from the phase after the current one so ties go to the phase that would be next in order
+		for (int i = 1; i <= phases.length; i++) {
+			int p = (currentPhase + i) % phases.length;
+			double pressure = getPhasePressure(p);
+			if (pressure > bestPressure) {
+				best = p;
+				bestPressure = pressure;
+			}
+		}
+		return best;
+	}
+
+	protected double getPhasePressure(int phase) {
+		int[] approaches = phases[phase];
+		if (approaches.length == 2) {
+			int a = approaches[0];
+			int b = approaches[1];
+			return intersection.getQueueLength(a) - intersection.getExitQueueLength(b)
+					+ intersection.getQueueLength(b) - intersection.getExitQueueLength(a);
+		}
+		double pressure = 0;
+		for (int a : approaches) {
+			double exitQueue = 0;
+			int exits = 0;
+			for (int b = 0; b < intersection.getNumApproaches(); b++) {
+				if (b != a) {
+					exitQueue += intersection.getExitQueueLength(b);
+					exits++;
+				}
+			}
+			pressure += intersection.getQueueLength(a) - ((exits > 0) ? exitQueue / exits : 0);
+		}
+		return pressure;
+	}
+}
@@ -0,0 +1,491 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import pathfinder.CsrGraph;
+import pathfinder.KdTree;
+import pathfinder.StronglyConnectedComponents;
+import util.Log;
+
+/**
+ * The map as compiled for the simulation, saved next to the map data file so later runs skip reading the map and
+ * building the road graph (see save() and load()).
+ *
+ * The file holds the road graph and what RoutePlanner works out from it before routing (its strongly connected
+ * components, the tree order of its nearest node index and the road each intersection approach is on), then the
+ * nodes, ways and relations the parser kept (see OsmParser). Everything is saved as counts followed by arrays of
+ * primitives, so loading is a few bulk copies out of a memory mapped file. Strings (tags, member types and roles) are
+ * held once each in a table. The mapping is only used while loading; a loaded NetworkCache holds just the graph and
+ * what was worked out from it. Landmarks and contraction hierarchies are saved in files of their own (see
+ * RoutePlanner.useLandmarks()), which are checked against the graph. Lanes and intersections are made again from
+ * the ways and the saved approaches.
+ *
+ * The file starts with a magic number, a format version, the size and modification time of the map data file it was
+ * compiled from and a checksum of the road speed table (see OsmParser.getRoadSpeeds()), which gives the graph's edge
+ * costs, and ends with a CRC32 of everything before it. A file that doesn't match the map data file, the road speeds
+ * or its checksum is ignored (and compiled again). VERSION must be raised whenever the layout changes.
+ */
+public class NetworkCache {
+	public static final String FILE_SUFFIX = ".net";
+	private static final int MAGIC = 0x54534e43; // "TSNC"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 8;
+	private static final int NO_STRING = -1; // String table index for null
+
+	private final CsrGraph graph;
+	private final StronglyConnectedComponents components;
+	private final KdTree nodeIndex; // Graph nodes on roads
+	private final long[] approachWays; // Graph in-edge index to ID of the road it is on, if it leads to an intersection
+
+	private NetworkCache(CsrGraph graph, StronglyConnectedComponents components, KdTree nodeIndex,
+			long[] approachWays) {
+		this.graph = graph;
+		this.components = components;
+		this.nodeIndex = nodeIndex;
+		this.approachWays = approachWays;
+	}
+
+	public static File getFile(File source) {
+		return new File(source.getPath() + FILE_SUFFIX);
+	}
+
+	// Loads the compiled file of a map data file, giving the map's bounds, nodes, ways and relations to the builder as
+	// a data file reader would. Returns the road graph and what was worked out from it, or null if there is no
+	// compiled file, it doesn't match the data file or it can't be read. A file found broken part way through the map
+	// may have given the builder some of it, which is then to be dropped.
+	public static NetworkCache load(File source, boolean roadsOnly, OsmBuilder builder) throws IOException {
+		File file = getFile(source);
+		if (!file.exists()) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE + 8 || size > Integer.MAX_VALUE) {
+				throw new IOException("file of " + size + " bytes");
+			}
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+				throw new IOException("not a compiled network of this version");
+			}
+			if (in.getLong() != source.length() || in.getLong() != source.lastModified()
+					|| (in.getInt() != 0) != roadsOnly || in.getLong() != getRoadSpeedsChecksum()) {
+				Log.info("Compiled network " + file.getAbsolutePath() + " is out of date");
+				return null;
+			}
+			CRC32 crc = new CRC32();
+			ByteBuffer content = in.duplicate();
+			content.position(0);
+			content.limit((int) size - 8);
+			crc.update(content);
+			if (in.getLong((int) size - 8) != crc.getValue()) {
+				throw new IOException("checksum doesn't match");
+			}
+			in.limit((int) size - 8);
+			NetworkCache cache = readGraph(in);
+			readMap(in, builder);
+			if (in.hasRemaining()) {
+				throw new IOException(in.remaining() + " bytes left over");
+			}
+			return cache;
+		} catch (IOException | RuntimeException ex) {
+			// Runtime exceptions: counts or indices out of range in a file written wrongly
+			Log.warning("Could not read compiled network " + file.getAbsolutePath() + " : " + ex);
+			return null;
+		}
+	}
+
+	public CsrGraph getGraph() {
+		return graph;
+	}
+
+	public StronglyConnectedComponents getComponents() {
+		return components;
+	}
+
+	public KdTree getNodeIndex() {
+		return nodeIndex;
+	}
+
+	// ID of the road the graph in-edge (see CsrGraph.firstInEdge()) is on, for in-edges of intersection nodes
+	public long getApproachWay(int inEdge) {
+		return approachWays[inEdge];
+	}
+
+	// The road graph and what was worked out from it, as saved
+	private static NetworkCache readGraph(ByteBuffer in) throws IOException {
+		int nbrNodes = in.getInt();
+		int nbrEdges = in.getInt();
+		long[] ids = longs(in, nbrNodes);
+		double[] xs = doubles(in, nbrNodes);
+		double[] ys = doubles(in, nbrNodes);
+		double[] zs = doubles(in, nbrNodes);
+		int[] offsets = ints(in, nbrNodes + 1);
+		int[] targets = ints(in, nbrEdges);
+		double[] costs = doubles(in, nbrEdges);
+		CsrGraph graph = new CsrGraph(ids, xs, ys, zs, offsets, targets, costs);
+		StronglyConnectedComponents components = new StronglyConnectedComponents(graph, ints(in, nbrNodes));
+		KdTree nodeIndex = KdTree.ofOrder(graph, ints(in, in.getInt()));
+		long[] approachWays = longs(in, nbrEdges);
+		return new NetworkCache(graph, components, nodeIndex, approachWays);
+	}
+
+	// Gives the map's bounds, nodes, ways and relations to the builder
+	private static void readMap(ByteBuffer in, OsmBuilder builder) throws IOException {
+		if (in.getInt() != 0) {
+			builder.bounds(in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble());
+		}
+		int[] stringEnds = ints(in, in.getInt());
+		byte[] bytes = new byte[count(in, in.getInt(), 1)];
+		in.get(bytes);
+		String[] strings = new String[stringEnds.length];
+		for (int s = 0, start = 0; s < strings.length; start = stringEnds[s++]) {
+			strings[s] = new String(bytes, start, stringEnds[s] - start, StandardCharsets.UTF_8);
+		}
+		int[] tagKeys = ints(in, in.getInt());
+		int[] tagValues = ints(in, tagKeys.length);
+		int tag = 0;
+
+		int nbrNodes = in.getInt();
+		long[] nodeIds = longs(in, nbrNodes);
+		double[] lats = doubles(in, nbrNodes);
+		double[] lons = doubles(in, nbrNodes);
+		int[] nodeTagEnds = ints(in, nbrNodes);
+		for (int i = 0; i < nbrNodes; i++) {
+			if (builder.startNode(nodeIds[i], lats[i], lons[i])) {
+				for (int t = tag; t < nodeTagEnds[i]; t++) {
+					builder.tag(string(strings, tagKeys[t]), string(strings, tagValues[t]));
+				}
+				builder.end();
+			}
+			tag = nodeTagEnds[i];
+		}
+
+		int nbrWays = in.getInt();
+		long[] wayIds = longs(in, nbrWays);
+		int[] wayVisible = ints(in, nbrWays);
+		int[] wayTagEnds = ints(in, nbrWays);
+		int[] wayRefEnds = ints(in, nbrWays);
+		long[] wayRefs = longs(in, in.getInt());
+		for (int i = 0, ref = 0; i < nbrWays; i++) {
+			if (builder.startWay(wayIds[i], wayVisible[i] != 0)) {
+				for (int r = ref; r < wayRefEnds[i]; r++) {
+					builder.nodeRef(wayRefs[r]);
+				}
+				for (int t = tag; t < wayTagEnds[i]; t++) {
+					builder.tag(string(strings, tagKeys[t]), string(strings, tagValues[t]));
+				}
+				builder.end();
+			}
+			tag = wayTagEnds[i];
+			ref = wayRefEnds[i];
+		}
+
+		int nbrRelations = in.getInt();
+		long[] relationIds = longs(in, nbrRelations);
+		int[] relationVisible = ints(in, nbrRelations);
+		int[] relationTagEnds = ints(in, nbrRelations);
+		int[] memberEnds = ints(in, nbrRelations);
+		int nbrMembers = in.getInt();
+		long[] memberRefs = longs(in, nbrMembers);
+		int[] memberTypes = ints(in, nbrMembers);
+		int[] memberRoles = ints(in, nbrMembers);
+		for (int i = 0, member = 0; i < nbrRelations; i++) {
+			if (builder.startRelation(relationIds[i], relationVisible[i] != 0)) {
+				for (int m = member; m < memberEnds[i]; m++) {
+					builder.member(memberRefs[m], string(strings, memberTypes[m]), string(strings, memberRoles[m]));
+				}
+				for (int t = tag; t < relationTagEnds[i]; t++) {
+					builder.tag(string(strings, tagKeys[t]), string(strings, tagValues[t]));
+				}
+				builder.end();
+			}
+			tag = relationTagEnds[i];
+			member = memberEnds[i];
+		}
+	}
+
+	// Compiles the map a parser read, the road graph made from it and what was worked out from the graph into the file
+	// next to the map data file. Approach ways are the road IDs by graph in-edge index (see getApproachWay()). The file
+	// is written under another name and then renamed, so a run stopped part way leaves no broken file.
+	public static void save(OsmParser parser, CsrGraph graph, StronglyConnectedComponents components,
+			KdTree nodeIndex, long[] approachWays) throws IOException {
+		File source = parser.getXml();
+		File file = getFile(source);
+		File temp = new File(file.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp), 1 << 16), crc))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+			out.writeInt(parser.isRoadsOnly() ? 1 : 0);
+			out.writeLong(getRoadSpeedsChecksum());
+			writeGraph(out, graph, components, nodeIndex, approachWays);
+			writeMap(out, parser);
+			out.flush();
+			long checksum = crc.getValue();
+			out.writeLong(checksum);
+		}
+		if (temp.length() > Integer.MAX_VALUE) {
+			Files.delete(temp.toPath());
+			throw new IOException("compiled network too large to map");
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// The road speeds give the graph's edge costs, so a compiled network is only good for the speeds it was made with
+	private static long getRoadSpeedsChecksum() {
+		CRC32 crc = new CRC32();
+		for (Map.Entry<String, Double> speed : OsmParser.getRoadSpeeds().entrySet()) {
+			crc.update((speed.getKey() + "=" + speed.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		return crc.getValue();
+	}
+
+	private static void writeGraph(DataOutputStream out, CsrGraph graph, StronglyConnectedComponents components,
+			KdTree nodeIndex, long[] approachWays) throws IOException {
+		int n = graph.getNbrNodes();
+		out.writeInt(n);
+		out.writeInt(graph.getNbrEdges());
+		for (int i = 0; i < n; i++) {
+			out.writeLong(graph.getId(i));
+		}
+		for (int i = 0; i < n; i++) {
+			out.writeDouble(graph.getNode(i).x());
+		}
+		for (int i = 0; i < n; i++) {
+			out.writeDouble(graph.getNode(i).y());
+		}
+		for (int i = 0; i < n; i++) {
+			out.writeDouble(graph.getNode(i).z());
+		}
+		for (int i = 0; i < n; i++) {
+			out.writeInt(graph.firstEdge(i));
+		}
+		out.writeInt(graph.getNbrEdges());
+		for (int e = 0; e < graph.getNbrEdges(); e++) {
+			out.writeInt(graph.getTarget(e));
+		}
+		for (int e = 0; e < graph.getNbrEdges(); e++) {
+			out.writeDouble(graph.getCost(e));
+		}
+		for (int i = 0; i < n; i++) {
+			out.writeInt(components.getComponent(i));
+		}
+		int[] order = nodeIndex.getOrder();
+		out.writeInt(order.length);
+		for (int i : order) {
+			out.writeInt(i);
+		}
+		for (long way : approachWays) {
+			out.writeLong(way);
+		}
+	}
+
+	private static void writeMap(DataOutputStream out, OsmParser parser) throws IOException {
+		Bounds bounds = parser.getBounds();
+		boolean hasBounds = bounds != null && bounds.getMinlon() != null;
+		out.writeInt(hasBounds ? 1 : 0);
+		if (hasBounds) {
+			out.writeDouble(bounds.getMinlon());
+			out.writeDouble(bounds.getMinlat());
+			out.writeDouble(bounds.getMaxlon());
+			out.writeDouble(bounds.getMaxlat());
+		}
+		// Strings and tags are gathered first, as they are read before the nodes, ways and relations
+		StringTable strings = new StringTable();
+		ArrayList<Integer> tags = new ArrayList<>(); // Key, value, key, value...
+		Map<Long, Node> nodes = parser.getNodes();
+		Map<Long, Way> ways = parser.getWays();
+		Map<Long, Relation> relations = parser.getRelations();
+		for (Node node : nodes.values()) {
+			addTags(node, strings, tags);
+		}
+		for (Way way : ways.values()) {
+			addTags(way, strings, tags);
+		}
+		for (Relation relation : relations.values()) {
+			addTags(relation, strings, tags);
+			for (Member member : relation.getMembers()) {
+				strings.indexOf(member.getType());
+				strings.indexOf(member.getRole());
+			}
+		}
+		strings.write(out);
+		out.writeInt(tags.size() / 2);
+		for (int t = 0; t < tags.size(); t += 2) {
+			out.writeInt(tags.get(t));
+		}
+		for (int t = 1; t < tags.size(); t += 2) {
+			out.writeInt(tags.get(t));
+		}
+
+		// Tag ranges follow the same order as above
+		int tagEnd = 0;
+		out.writeInt(nodes.size());
+		for (Node node : nodes.values()) {
+			out.writeLong(node.getId());
+		}
+		for (Node node : nodes.values()) {
+			out.writeDouble(node.getLat());
+		}
+		for (Node node : nodes.values()) {
+			out.writeDouble(node.getLon());
+		}
+		for (Node node : nodes.values()) {
+			tagEnd += node.getTags().size();
+			out.writeInt(tagEnd);
+		}
+
+		out.writeInt(ways.size());
+		for (Way way : ways.values()) {
+			out.writeLong(way.getId());
+		}
+		for (Way way : ways.values()) {
+			out.writeInt(Boolean.TRUE.equals(way.getVisible()) ? 1 : 0);
+		}
+		for (Way way : ways.values()) {
+			tagEnd += way.getTags().size();
+			out.writeInt(tagEnd);
+		}
+		int refEnd = 0;
+		for (Way way : ways.values()) {
+			refEnd += way.getNodeRefs().size();
+			out.writeInt(refEnd);
+		}
+		out.writeInt(refEnd);
+		for (Way way : ways.values()) {
+			for (Long ref : way.getNodeRefs()) {
+				out.writeLong(ref);
+			}
+		}
+
+		out.writeInt(relations.size());
+		for (Relation relation : relations.values()) {
+			out.writeLong(relation.getId());
+		}
+		for (Relation relation : relations.values()) {
+			out.writeInt(Boolean.TRUE.equals(relation.getVisible()) ? 1 : 0);
+		}
+		for (Relation relation : relations.values()) {
+			tagEnd += relation.getTags().size();
+			out.writeInt(tagEnd);
+		}
+		int memberEnd = 0;
+		for (Relation relation : relations.values()) {
+			memberEnd += relation.getMembers().size();
+			out.writeInt(memberEnd);
+		}
+		out.writeInt(memberEnd);
+		for (Relation relation : relations.values()) {
+			for (Member member : relation.getMembers()) {
+				out.writeLong(member.getRef());
+			}
+		}
+		for (Relation relation : relations.values()) {
+			for (Member member : relation.getMembers()) {
+				out.writeInt(strings.indexOf(member.getType()));
+			}
+		}
+		for (Relation relation : relations.values()) {
+			for (Member member : relation.getMembers()) {
+				out.writeInt(strings.indexOf(member.getRole()));
+			}
+		}
+	}
+
+	private static void addTags(OsmType element, StringTable strings, ArrayList<Integer> tags) {
+		for (Map.Entry<String, String> tag : element.getTags().entrySet()) {
+			tags.add(strings.indexOf(tag.getKey()));
+			tags.add(strings.indexOf(tag.getValue()));
+		}
+	}
+
+	// Each distinct string once, by index
+	private static class StringTable {
+		private final HashMap<String, Integer> indices = new HashMap<>();
+		private final ArrayList<String> strings = new ArrayList<>();
+
+		int indexOf(String string) {
+			if (string == null) {
+				return NO_STRING;
+			}
+			Integer index = indices.get(string);
+			if (index == null) {
+				index = strings.size();
+				indices.put(string, index);
+				strings.add(string);
+			}
+			return index;
+		}
+
+		// The end offset of each string's UTF-8 bytes, then the bytes
+		void write(DataOutputStream out) throws IOException {
+			ArrayList<byte[]> encoded = new ArrayList<>(strings.size());
+			out.writeInt(strings.size());
+			int end = 0;
+			for (String string : strings) {
+				byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+				encoded.add(bytes);
+				end += bytes.length;
+				out.writeInt(end);
+			}
+			out.writeInt(end);
+			for (byte[] bytes : encoded) {
+				out.write(bytes);
+			}
+		}
+	}
+
+	private static String string(String[] strings, int index) {
+		return (index == NO_STRING) ? null : strings[index];
+	}
+
+	// A count read from the file, checked against what is left of it before arrays are made that size
+	private static int count(ByteBuffer in, int n, int bytesEach) throws IOException {
+		if (n < 0 || n > in.remaining() / bytesEach) {
+			throw new IOException("count of " + n + " runs past the end");
+		}
+		return n;
+	}
+
+	private static int[] ints(ByteBuffer in, int n) throws IOException {
+		int[] values = new int[count(in, n, 4)];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + 4 * n);
+		return values;
+	}
+
+	private static long[] longs(ByteBuffer in, int n) throws IOException {
+		long[] values = new long[count(in, n, 8)];
+		in.asLongBuffer().get(values);
+		in.position(in.position() + 8 * n);
+		return values;
+	}
+
+	private static double[] doubles(ByteBuffer in, int n) throws IOException {
+		double[] values = new double[count(in, n, 8)];
+		in.asDoubleBuffer().get(values);
+		in.position(in.position() + 8 * n);
+		return values;
+	}
+}
@@ -27,13 +27,11 @@ public class Node extends OsmType implements DrawingObject {
 	private Intersection intersection;
 	private ArrayList<Long> wayRefs = new ArrayList<>();
 	private boolean selected = false;
-	private DecimalFormat df;
 
 	public Node(Long id, Double lat, Double lon) {
 		this.setId(id);
 		this.lat = lat;
 		this.lon = lon;
-		df = new DecimalFormat("0.000");
 	}
 	
 	public Double getLat() {
@@ -142,12 +140,17 @@ public class Node extends OsmType implements DrawingObject {
 				if (intersection == null) {
 					intersectionTimes = "no intersection";
 					intersectionStates = "(no state)";
-				} else if (intersection.getType() == Intersection.ALL_WAY_STOP) {
+				} else if (intersection instanceof StopIntersection) {
 					intersectionTimes = "4-way stop";
 					intersectionStates = "(no state)";
+				} else if (!((SignalisedIntersection) intersection).isStarted()) {
+					intersectionTimes = "lights not started";
+					intersectionStates = "(no state)";
 				} else {
-					for (Node node : intersection.getApproachNodes()) {
-						int state = intersection.getState(node);
+					SignalisedIntersection lit = (SignalisedIntersection) intersection;
+					Node[] approaches = intersection.getApproachNodes().toArray(new Node[0]);
+					for (int a = 0; a < approaches.length; a++) {
+						int state = lit.getState(a);
 						String stateStr = "";
 						if (state == Intersection.GREEN) {
 							stateStr = "G";
@@ -160,11 +163,17 @@ public class Node extends OsmType implements DrawingObject {
 							Log.error("Light state is not one of G/Y/R!");
 							System.exit(1);
 						}
-						intersectionStates += node.getId() + " : " + stateStr + ", ";
+						intersectionStates += approaches[a].getId() + " : " + stateStr + ", ";
 					}
-					for (NodePair pair : intersection.getPeriods().keySet()) {
-						Double period = intersection.getPeriods().get(pair);
-						intersectionTimes += pair.toString() + " : " + df.format(period) + ", ";
+					int[][] phases = lit.getPhases();
+					double[] periods = lit.getPeriods();
+					DecimalFormat df = new DecimalFormat("0.000");
+					for (int p = 0; p < phases.length; p++) {
+						String phase = "";
+						for (int a : phases[p]) {
+							phase += (phase.isEmpty() ? "" : "/") + approaches[a].getId();
+						}
+						intersectionTimes += phase + " : " + df.format(periods[p]) + ", ";
 					}
 				}
 				String[] infoArray = new String[] {
@@ -3,61 +3,95 @@
  */
 package trafficsim;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 /**
  * Traffic controller that alternates between N approaching ways with fixed timings.
  */
 public class NormalTrafficController extends TrafficController {
-	protected HashMap<NodePair, Double> nextPeriods; // controller only changes after current light is "finished" (switches red)
-	private HashMap<NodePair, Double> periods;
-	private LinkedList<NodePair> nextGreens; // stores approach node id's in order of which should be green next
-	private NodePair currentGreens;
-	private HashMap<Long, Double> yellowTimes; // speeds can be change after intersection so keep one time per approach node
+	protected double[] nextPeriods; // controller only changes after current light is "finished" (switches red)
+	private double[] periods; // phase index to period of each light green this cycle; copied from nextPeriods
+	protected int[][] phases; // phase index to approach indices green together; phases are green in index order
+	protected int currentPhase;
+	private double phaseStart = 0; // simulation time the current phase started
+	private double[] yellowTimes; // speeds can be change after intersection so keep one time per approach
+	private SignalTimings timings; // As last given by getTimings(), null once the lights or periods change
 
-	public NormalTrafficController(HashMap<Long, Integer> states, HashMap<NodePair, Double> periods,
-			HashMap<Long, Double> yellowTimes) {
+	public NormalTrafficController(int[] states, int[][] phases, double[] periods, double[] yellowTimes) {
 		super(states);
-		this.periods = periods;
+		this.phases = phases;
+		this.periods = periods.clone();
 		this.nextPeriods = periods;
 		this.yellowTimes = yellowTimes;
-		nextGreens = new LinkedList<>(periods.keySet());
-		currentGreens = nextGreens.getLast();
+		currentPhase = phases.length - 1;
 	}
 
+	// Phase to turn green once the current one ends. Fixed timings simply take the phases in order.
+	protected int nextPhase() {
+		return (currentPhase + 1) % phases.length;
+	}
+
+	// Shortest period a phase may be given: the minimum green then the longest yellow of its approaches
+	protected double getMinPeriod(int phase) {
+		double yellow = 0;
+		for (int approach : phases[phase]) {
+			yellow = Math.max(yellow, yellowTimes[approach]);
+		}
+		return Intersection.MIN_GREEN + yellow;
+	}
+
+	// Assumes the phases carry on in order with the periods planned for the next cycle. The same timings are given
+	// until the lights or the periods change.
 	@Override
-	public void updateStates() {
-		// time variable used as the time since last light change
-		double period = periods.get(currentGreens);
-		double yellowA = yellowTimes.get(currentGreens.a.getId());
-		double yellowB = Double.MIN_VALUE;
-		if (currentGreens.b != null) {
-			yellowB = yellowTimes.get(currentGreens.b.getId());
+	public SignalTimings getTimings() {
+		if (timings == null) {
+			timings = new SignalTimings(phases, periods.clone(), nextPeriods.clone(), yellowTimes, currentPhase,
+					phaseStart);
 		}
-		if (time > period) {
-			// set next light(s) in queue to green:
-			currentGreens = nextGreens.poll();
-			nextGreens.add(currentGreens);
-			time = 0;
-			// all lights reset to red
-			for (Long approachNode : states.keySet()) {
-				states.put(approachNode, Intersection.RED);
+		return timings;
+	}
+
+	// To be called whenever nextPeriods are changed
+	protected void periodsChanged() {
+		timings = null;
+	}
+
+	@Override
+	public double getNextTransitionTime() {
+		// end of the current phase, or earlier if one of its lights has yet to turn yellow
+		double end = phaseStart + periods[currentPhase];
+		double next = end;
+		for (int approach : phases[currentPhase]) {
+			if (states[approach] != Intersection.YELLOW) {
+				next = Math.min(next, end - yellowTimes[approach]);
 			}
+		}
+		return next;
+	}
+
+	@Override
+	public void updateStates() {
+		timings = null;
+		// compare against the same end of phase time getNextTransitionTime() reports, so a change due now is applied
+		double end = phaseStart + periods[currentPhase];
+		if (time >= end) {
+			// set next light(s) to green:
+			currentPhase = nextPhase();
+			phaseStart = time;
+			// all lights reset to red
+			Arrays.fill(states, Intersection.RED);
 			// set next appropriate opposing (not perpendicular) lights to green
-			states.put(currentGreens.a.getId(), Intersection.GREEN);
-			if (currentGreens.b != null) {
-				states.put(currentGreens.b.getId(), Intersection.GREEN);
+			for (int approach : phases[currentPhase]) {
+				states[approach] = Intersection.GREEN;
 			}
-			// set value of next light cycles
-			periods = nextPeriods;
+			// set value of next light cycles; the phase now green keeps its period whatever is planned next
+			System.arraycopy(nextPeriods, 0, periods, 0, periods.length);
 		} else {
 			// set yellow lights as appropriate
-			if (time > period - yellowA) {
-				states.put(currentGreens.a.getId(), Intersection.YELLOW);
-			}
-			if (currentGreens.b != null && time > period - yellowB) {
-				states.put(currentGreens.b.getId(), Intersection.YELLOW);
+			for (int approach : phases[currentPhase]) {
+				if (time >= end - yellowTimes[approach]) {
+					states[approach] = Intersection.YELLOW;
+				}
 			}
 		}
 	}
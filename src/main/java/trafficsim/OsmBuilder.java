@@ -0,0 +1,38 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+import java.io.IOException;
+
+/**
+ * Receives the contents of an OpenStreetMap data file as it is read (see OsmXmlReader), in file order.
+ *
+ * Each node, way or relation is started, given its tags and node refs or members, then ended. Ids and coordinates
+ * are passed as primitives, so nothing is made for elements the builder doesn't keep: returning false from a start
+ * method skips the element, and none of its contents are read.
+ */
+public interface OsmBuilder {
+
+	void bounds(double minlon, double minlat, double maxlon, double maxlat) throws IOException;
+
+	// Returns false to skip the node (no tags, no end())
+	boolean startNode(long id, double lat, double lon) throws IOException;
+
+	// Returns false to skip the way (no tags or node refs, no end())
+	boolean startWay(long id, boolean visible) throws IOException;
+
+	// Returns false to skip the relation (no tags or members, no end())
+	boolean startRelation(long id, boolean visible) throws IOException;
+
+	void tag(String key, String value) throws IOException;
+
+	// Next node of the way started
+	void nodeRef(long ref) throws IOException;
+
+	// Next member of the relation started
+	void member(long ref, String type, String role) throws IOException;
+
+	// End of the node, way or relation started
+	void end() throws IOException;
+}
@@ -5,20 +5,36 @@ package trafficsim;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import util.Log;
+import util.LongHashSet;
 
 /**
- * Parse OpenStreetMap XML data file.
+ * Parse OpenStreetMap XML or PBF (.osm.pbf) data file. The file is read by OsmXmlReader or OsmPbfReader, which hand
+ * over its contents as they are read (see OsmBuilder).
+ *
+ * By default everything in the file is kept. A roads only import (see setRoadsOnly()) streams the file twice instead:
+ * the first pass keeps the roads and notes the ids of their nodes in a compact set, the second keeps only those
+ * nodes. Buildings, paths, relations and the nodes only they use are never made into objects, so a whole city can be
+ * imported in a fraction of the memory.
+ *
+ * Once the road graph is made from a map (see RoutePlanner), the map is compiled into a file next to it, and later
+ * parses load that instead while the data file is unchanged (see NetworkCache).
  */
-public class OsmParser extends DefaultHandler {
+public class OsmParser implements OsmBuilder {
+	// What a pass over the file keeps
+	private static final int ALL = 0;
+	private static final int ROAD_WAYS = 1;
+	private static final int ROAD_NODES = 2;
+	// Highway tag to road speed in km/h
+	private static final Map<String, Double> ROAD_SPEEDS = makeRoadSpeeds();
+
 	private File xml;
 	private Bounds bounds;
 	private HashMap<Long, Node> nodes = new HashMap<>();
@@ -26,6 +42,18 @@ public class OsmParser extends DefaultHandler {
 	private HashMap<Long, Way> roads = new HashMap<>();
 	private HashMap<Long, Relation> relations = new HashMap<>();
 	private OsmType currentTag; // used to keep track of where to assign <tag> elements to
+	private boolean roadsOnly = false;
+	private int pass = ALL;
+	private LongHashSet roadNodeIds; // Nodes of the roads found by the first pass of a roads only import
+	// The way being read by the first pass of a roads only import, kept in reusable arrays until it is known to be a
+	// road, so no objects are made for the ways that aren't
+	private long wayId;
+	private boolean wayVisible;
+	private String[] wayTags = new String[32]; // Key, value, key, value...
+	private int wayTagsSize = 0;
+	private long[] wayRefs = new long[256];
+	private int wayRefsSize = 0;
+	private NetworkCache networkCache; // The map as compiled by an earlier run, if it matched the file
 
 	public OsmParser() {
 	}
@@ -36,12 +64,29 @@ public class OsmParser extends DefaultHandler {
 
 	public void parse() {
 		// parsing phase
-		SAXParserFactory spf = SAXParserFactory.newInstance();
 		try {
-			SAXParser sp = spf.newSAXParser();
-			sp.parse(xml, this);
-		} catch (IOException | SAXException | ParserConfigurationException e) {
+			// Compiled before (see RoutePlanner), holding only what was kept then
+			pass = ALL;
+			networkCache = (xml == null) ? null : NetworkCache.load(xml, roadsOnly, this);
+			if (networkCache != null) {
+				Log.info("Loaded compiled network " + NetworkCache.getFile(xml).getAbsolutePath());
+			} else if (roadsOnly) {
+				dropMap();
+				roadNodeIds = new LongHashSet();
+				pass = ROAD_WAYS;
+				read();
+				pass = ROAD_NODES;
+				read();
+				Log.info("Imported " + ways.size() + " roads and their " + nodes.size() + " nodes only");
+			} else {
+				dropMap();
+				pass = ALL;
+				read();
+			}
+		} catch (IOException e) {
 			Log.error(e.toString());
+		} finally {
+			roadNodeIds = null;
 		}
 		// post-parse setting of values
 		for (Way way : ways.values()) {
@@ -53,97 +98,168 @@ public class OsmParser extends DefaultHandler {
 				}
 			}
 			// Make convenience list of navigable/desirable roads.
-			// maxspeed is not actual max speed (check if tag exists) but rather cost factor multiplier for path searching.
-			String r = way.getTag("highway");
-			if (r != null) {
-				Double maxspeed = null;
-				if (r.equals("primary") || r.equals("primary_link")) {
-					maxspeed = RoadTypes.SPD_PRIMARY;
-				} else if (r.equals("secondary") || r.equals("secondary_link") || r.equals("tertiary")
-						|| r.equals("tertiary_link") || r.equals("road")) {
-					maxspeed = RoadTypes.SPD_NORMAL;
-				} else if (r.equals("residential")) {
-					maxspeed = RoadTypes.SPD_RESIDENTIAL;
-				} else if (r.equals("service") || r.equals("unclassified") || r.equals("track") || r.equals("living_street")
-						|| r.equals("construction")) {
-					maxspeed = RoadTypes.SPD_SLOW;
-				} else if (r.equals("motorway") || r.equals("motorway_link") || r.equals("trunk") || r.equals("trunk_link")) {
-					maxspeed = RoadTypes.SPD_HIGHWAY;
-				}
-				if (maxspeed != null) {
-					way.setMaxspeedKm(maxspeed);
-					way.setRoad();
-					roads.put(way.getId(), way);
-				}
+			Double maxspeed = getRoadSpeed(way.getTag("highway"));
+			if (maxspeed != null) {
+				way.setMaxspeedKm(maxspeed);
+				way.setRoad();
+				roads.put(way.getId(), way);
 			}
 		}
 		// TODO add ways to relations
 		// TODO use relations to construct routes
 	}
 
+	// Forgets what a compiled network found broken part way through its map gave before the data file is read
+	private void dropMap() {
+		bounds = null;
+		nodes.clear();
+		ways.clear();
+		relations.clear();
+		currentTag = null;
+	}
+
+	// PBF files are read by OsmPbfReader, others as XML
+	private void read() throws IOException {
+		if (xml.getName().toLowerCase().endsWith(".pbf")) {
+			new OsmPbfReader(xml).read(this);
+		} else {
+			new OsmXmlReader(xml).read(this);
+		}
+	}
+
+	// maxspeed is not actual max speed (check if tag exists) but rather cost factor multiplier for path searching.
+	// Takes the way's highway tag. Returns null if the way isn't a road.
+	private static Double getRoadSpeed(String r) {
+		return (r == null) ? null : ROAD_SPEEDS.get(r);
+	}
+
+	// Highway tag of each kind of road to its speed in km/h (see getRoadSpeed()). The compiled network is made again
+	// if this changes (see NetworkCache).
+	public static Map<String, Double> getRoadSpeeds() {
+		return Collections.unmodifiableMap(ROAD_SPEEDS);
+	}
+
+	private static Map<String, Double> makeRoadSpeeds() {
+		LinkedHashMap<String, Double> speeds = new LinkedHashMap<>();
+		for (String r : new String[] { "primary", "primary_link" }) {
+			speeds.put(r, RoadTypes.SPD_PRIMARY);
+		}
+		for (String r : new String[] { "secondary", "secondary_link", "tertiary", "tertiary_link", "road" }) {
+			speeds.put(r, RoadTypes.SPD_NORMAL);
+		}
+		speeds.put("residential", RoadTypes.SPD_RESIDENTIAL);
+		for (String r : new String[] { "service", "unclassified", "track", "living_street", "construction" }) {
+			speeds.put(r, RoadTypes.SPD_SLOW);
+		}
+		for (String r : new String[] { "motorway", "motorway_link", "trunk", "trunk_link" }) {
+			speeds.put(r, RoadTypes.SPD_HIGHWAY);
+		}
+		return speeds;
+	}
+
 	@Override
-	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-		if (qName.equalsIgnoreCase("bounds")) {
-			Double minlon = Double.parseDouble(attributes.getValue("minlon"));
-			Double minlat = Double.parseDouble(attributes.getValue("minlat"));
-			Double maxlon = Double.parseDouble(attributes.getValue("maxlon"));
-			Double maxlat = Double.parseDouble(attributes.getValue("maxlat"));
+	public void bounds(double minlon, double minlat, double maxlon, double maxlat) {
+		if (pass != ROAD_NODES) { // else read by the first pass
 			bounds = new Bounds(minlon, minlat, maxlon, maxlat);
-		} else if (qName.equalsIgnoreCase("node")) {
-			Long id = Long.parseLong(attributes.getValue("id"));
-			Double lat = Double.parseDouble(attributes.getValue("lat"));
-			Double lon = Double.parseDouble(attributes.getValue("lon"));
-			currentTag = new Node(id, lat, lon);
-		} else if (qName.equalsIgnoreCase("way")) {
-			Long id = Long.parseLong(attributes.getValue("id"));
-			Boolean visible = Boolean.parseBoolean(attributes.getValue("visible"));
-			currentTag = new Way(id, visible);
-		} else if (qName.equalsIgnoreCase("relation")) {
-			Long id = Long.parseLong(attributes.getValue("id"));
-			Boolean visible = Boolean.parseBoolean(attributes.getValue("visible"));
-			currentTag = new Relation(id, visible);
-		} else if (qName.equalsIgnoreCase("tag")) {
-			String key = attributes.getValue("k");
-			String value = attributes.getValue("v");
+		}
+	}
+
+	@Override
+	public boolean startNode(long id, double lat, double lon) {
+		if (pass == ROAD_WAYS || (pass == ROAD_NODES && !roadNodeIds.contains(id))) {
+			return false;
+		}
+		currentTag = new Node(id, lat, lon);
+		return true;
+	}
+
+	@Override
+	public boolean startWay(long id, boolean visible) {
+		if (pass == ROAD_NODES) {
+			return false;
+		}
+		if (pass == ROAD_WAYS) {
+			wayId = id;
+			wayVisible = visible;
+			wayTagsSize = 0;
+			wayRefsSize = 0;
+			return true;
+		}
+		currentTag = new Way(id, visible);
+		return true;
+	}
+
+	@Override
+	public boolean startRelation(long id, boolean visible) {
+		if (pass != ALL) {
+			return false;
+		}
+		currentTag = new Relation(id, visible);
+		return true;
+	}
+
+	@Override
+	public void tag(String key, String value) {
+		if (pass == ROAD_WAYS) {
+			if (wayTagsSize + 2 > wayTags.length) {
+				wayTags = Arrays.copyOf(wayTags, wayTags.length * 2);
+			}
+			wayTags[wayTagsSize++] = key;
+			wayTags[wayTagsSize++] = value;
+		} else {
 			currentTag.addTag(key, value);
-		} else if (qName.equalsIgnoreCase("nd")) {
-			Long ref = Long.parseLong(attributes.getValue("ref"));
-			// must be in <way> else FAIL bad data file!
-			if (!(currentTag instanceof Way)) {
-				throw new SAXException("Bad data file given: a <nd> tag is a child of a non-<way> tag! " + "[Node ref =  " + ref
-						+ ", Way id = " + currentTag.getId() + "]");
+		}
+	}
+
+	@Override
+	public void nodeRef(long ref) {
+		if (pass == ROAD_WAYS) {
+			if (wayRefsSize == wayRefs.length) {
+				wayRefs = Arrays.copyOf(wayRefs, wayRefs.length * 2);
 			}
+			wayRefs[wayRefsSize++] = ref;
+		} else {
 			((Way) currentTag).addNodeRef(ref);
-		} else if (qName.equalsIgnoreCase("member")) {
-			// must be in <relation> else FAIL bad data file!
-			Long ref = Long.parseLong(attributes.getValue("ref"));
-			String type = attributes.getValue("type");
-			String role = attributes.getValue("role");
-			Member member = new Member(ref, type, role);
-			// must be in <way> else FAIL bad data file!
-			if (!(currentTag instanceof Relation)) {
-				throw new SAXException("Bad data file given: a <member> tag is a child of a non-<relation> tag! "
-						+ "[Member ref =  " + ref + ", Relation id = " + currentTag.getId() + "]");
-			}
-			((Relation) currentTag).addMember(member);
 		}
 	}
 
 	@Override
-	public void endElement(String uri, String localName, String qName) throws SAXException {
-		if (qName.equalsIgnoreCase("node") || qName.equalsIgnoreCase("way") || qName.equalsIgnoreCase("relation")) {
-			if (currentTag instanceof Node) {
-				nodes.put(currentTag.getId(), (Node) currentTag);
-			} else if (currentTag instanceof Way) {
-				ways.put(currentTag.getId(), (Way) currentTag);
-			} else if (currentTag instanceof Relation) {
-				relations.put(currentTag.getId(), (Relation) currentTag);
-			} else {
-				throw new SAXException("Current end tag is one of <node>, <way>, or <relation> "
-						+ "but was instantiated with incorrect Java type (Node, Way, Relation)!");
+	public void member(long ref, String type, String role) {
+		((Relation) currentTag).addMember(new Member(ref, type, role));
+	}
+
+	@Override
+	public void end() {
+		if (pass == ROAD_WAYS) {
+			// Only roads are kept, and their nodes looked for in the next pass
+			String highway = null;
+			for (int t = 0; t < wayTagsSize; t += 2) {
+				if (wayTags[t].equals("highway")) {
+					highway = wayTags[t + 1];
+				}
+			}
+			if (getRoadSpeed(highway) != null) {
+				Way way = new Way(wayId, wayVisible);
+				for (int t = 0; t < wayTagsSize; t += 2) {
+					way.addTag(wayTags[t], wayTags[t + 1]);
+				}
+				ArrayList<Long> refs = new ArrayList<>(wayRefsSize);
+				for (int r = 0; r < wayRefsSize; r++) {
+					refs.add(wayRefs[r]);
+					roadNodeIds.add(wayRefs[r]);
+				}
+				way.setNodeRefs(refs);
+				ways.put(way.getId(), way);
 			}
-			currentTag = null;
+			Arrays.fill(wayTags, 0, wayTagsSize, null);
+		} else if (currentTag instanceof Node) {
+			nodes.put(currentTag.getId(), (Node) currentTag);
+		} else if (currentTag instanceof Way) {
+			ways.put(currentTag.getId(), (Way) currentTag);
+		} else if (currentTag instanceof Relation) {
+			relations.put(currentTag.getId(), (Relation) currentTag);
 		}
+		currentTag = null;
 	}
 
 	public static void main(String[] args) {
@@ -183,5 +299,20 @@ public class OsmParser extends DefaultHandler {
 	public void setXml(File xml) {
 		this.xml = xml;
 	}
+
+	// Keep only the roads and their nodes (see above), so getWays() holds the same ways as getRoads(). Set before
+	// parse().
+	public void setRoadsOnly(boolean roadsOnly) {
+		this.roadsOnly = roadsOnly;
+	}
+
+	public boolean isRoadsOnly() {
+		return roadsOnly;
+	}
+
+	// The road graph and what was worked out from it, if parse() loaded the map from its compiled network (else null)
+	public NetworkCache getNetworkCache() {
+		return networkCache;
+	}
 	// NOTE: no setters for other variables since set from xml data file
 }
@@ -0,0 +1,689 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads an OpenStreetMap PBF data file (.osm.pbf) into an OsmBuilder.
+ *
+ * A PBF file is a sequence of blobs, each a zlib compressed protocol buffer message holding a block of a few thousand
+ * nodes, ways or relations (see https://wiki.openstreetmap.org/wiki/PBF_Format). Blocks don't depend on each other,
+ * so while this thread reads blobs from the file, a pool of threads inflates and decodes them: ids and coordinates
+ * (delta coded in dense nodes, way node refs and relation members) into primitive arrays. The decoded blocks are
+ * given to the builder in file order, on this thread. Within a block, nodes are given before ways and ways before
+ * relations, as in a sorted file. Strings are only made for the tags and members of elements the builder takes.
+ *
+ * The protocol buffer messages are decoded by hand (see Pb), so there is no dependency on a protobuf library. Only
+ * zlib and uncompressed blobs are supported, as written by osmium and osmosis by default.
+ */
+public class OsmPbfReader {
+	private static final int MAX_HEADER_SIZE = 64 * 1024; // Limits from the format's description
+	private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static final int MAX_PENDING = 4 * THREADS; // Blocks read ahead of the builder, limits memory held
+
+	private static final String[] MEMBER_TYPES = { "node", "way", "relation" };
+
+	private final File file;
+
+	public OsmPbfReader(File file) {
+		this.file = file;
+	}
+
+	public void read(OsmBuilder builder) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "OsmPbfReader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20))) {
+			while (true) {
+				// The file may only end before a blob header's size, not inside it
+				int first = in.read();
+				if (first < 0) {
+					break;
+				}
+				int headerSize = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedShort());
+				if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+					throw new IOException("Bad PBF data file given: blob header of " + headerSize + " bytes");
+				}
+				byte[] header = new byte[headerSize];
+				in.readFully(header);
+				// BlobHeader: type and size of the blob after it
+				String type = null;
+				int blobSize = -1;
+				Pb pb = new Pb(header, 0, headerSize);
+				while (pb.next()) {
+					if (pb.field == 1) {
+						type = pb.string();
+					} else if (pb.field == 3) {
+						blobSize = (int) pb.varint();
+					} else {
+						pb.skip();
+					}
+				}
+				if (blobSize < 0 || blobSize > MAX_BLOB_SIZE) {
+					throw new IOException("Bad PBF data file given: blob of " + blobSize + " bytes");
+				}
+				byte[] blob = new byte[blobSize];
+				in.readFully(blob);
+				boolean isHeader = "OSMHeader".equals(type);
+				if (!isHeader && !"OSMData".equals(type)) {
+					continue; // Unknown blobs are to be skipped
+				}
+				pending.add(pool.submit(() -> decode(blob, isHeader)));
+				if (pending.size() >= MAX_PENDING) {
+					feed(pending.poll(), builder);
+				}
+			}
+			while (!pending.isEmpty()) {
+				feed(pending.poll(), builder);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static void feed(Future<Block> decoding, OsmBuilder builder) throws IOException {
+		Block block;
+		try {
+			block = decoding.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading PBF data file");
+		} catch (ExecutionException ex) {
+			throw (ex.getCause() instanceof IOException) ? (IOException) ex.getCause() : new IOException(ex.getCause());
+		}
+		block.feed(builder);
+	}
+
+	// Inflates and decodes a blob, on a pool thread
+	private static Block decode(byte[] blob, boolean isHeader) throws IOException {
+		byte[] data = null;
+		int rawSize = -1;
+		int zlibFrom = -1;
+		int zlibTo = -1;
+		Pb pb = new Pb(blob, 0, blob.length);
+		while (pb.next()) {
+			if (pb.field == 1) {
+				int length = pb.length();
+				data = Arrays.copyOfRange(blob, pb.pos, pb.pos + length);
+				pb.pos += length;
+			} else if (pb.field == 2) {
+				rawSize = (int) pb.varint();
+			} else if (pb.field == 3) {
+				int length = pb.length();
+				zlibFrom = pb.pos;
+				zlibTo = pb.pos + length;
+				pb.pos += length;
+			} else if (pb.field >= 4 && pb.field <= 7) {
+				throw new IOException("Unsupported PBF data file given: only zlib compressed blobs can be read");
+			} else {
+				pb.skip();
+			}
+		}
+		if (data == null && zlibFrom >= 0) {
+			if (rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+				throw new IOException("Bad PBF data file given: blob inflates to " + rawSize + " bytes");
+			}
+			data = new byte[rawSize];
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(blob, zlibFrom, zlibTo - zlibFrom);
+				int n = 0;
+				while (n < rawSize && !inflater.finished()) {
+					int inflated = inflater.inflate(data, n, rawSize - n);
+					if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					n += inflated;
+				}
+				if (n != rawSize) {
+					throw new IOException("Bad PBF data file given: blob inflates to " + n + " bytes, not " + rawSize);
+				}
+			} catch (DataFormatException ex) {
+				throw new IOException("Bad PBF data file given: " + ex.getMessage());
+			} finally {
+				inflater.end();
+			}
+		}
+		if (data == null) {
+			throw new IOException("Bad PBF data file given: empty blob");
+		}
+		Block block = new Block();
+		if (isHeader) {
+			block.decodeHeader(data);
+		} else {
+			block.decodePrimitives(data);
+		}
+		return block;
+	}
+
+	/*
+	 * A decoded block: its nodes, ways and relations in primitive arrays, with their tags as indices into the block's
+	 * string table. Strings are made from the table when asked for, once each.
+	 */
+	private static class Block {
+		double[] bounds; // minlon, minlat, maxlon, maxlat from a header block, else null
+
+		byte[] data; // Inflated block, holds the string table
+		Ints stringStarts = new Ints();
+		Ints stringEnds = new Ints();
+		String[] strings;
+
+		// Tags of every element: key and value string indices. Each element's tags are a range of them.
+		Ints tagKeys = new Ints();
+		Ints tagValues = new Ints();
+
+		Longs nodeIds = new Longs();
+		Doubles nodeLats = new Doubles();
+		Doubles nodeLons = new Doubles();
+		Ints nodeTagEnds = new Ints();
+
+		Longs wayIds = new Longs();
+		Ints wayVisible = new Ints();
+		Ints wayTagEnds = new Ints();
+		Longs wayRefs = new Longs(); // Node refs of every way, each way's a range of them
+		Ints wayRefEnds = new Ints();
+
+		Longs relationIds = new Longs();
+		Ints relationVisible = new Ints();
+		Ints relationTagEnds = new Ints();
+		Longs memberIds = new Longs(); // Members of every relation, each relation's a range of them
+		Ints memberTypes = new Ints();
+		Ints memberRoles = new Ints();
+		Ints relationMemberEnds = new Ints();
+
+		// Coordinates are in units of granularity nanodegrees, from an offset
+		long granularity = 100;
+		long latOffset = 0;
+		long lonOffset = 0;
+
+		void decodeHeader(byte[] data) throws IOException {
+			Pb pb = new Pb(data, 0, data.length);
+			while (pb.next()) {
+				if (pb.field == 1) {
+					// HeaderBBox: left, right, top, bottom in nanodegrees
+					long[] box = new long[4];
+					Pb bbox = pb.message();
+					while (bbox.next()) {
+						if (bbox.field >= 1 && bbox.field <= 4) {
+							box[bbox.field - 1] = bbox.sint();
+						} else {
+							bbox.skip();
+						}
+					}
+					bounds = new double[] { box[0] / 1e9, box[3] / 1e9, box[1] / 1e9, box[2] / 1e9 };
+				} else if (pb.field == 4) {
+					String feature = pb.string();
+					if (!feature.equals("OsmSchema-V0.6") && !feature.equals("DenseNodes")) {
+						throw new IOException("Unsupported PBF data file given: needs " + feature);
+					}
+				} else {
+					pb.skip();
+				}
+			}
+		}
+
+		void decodePrimitives(byte[] data) throws IOException {
+			this.data = data;
+			// Granularity and offsets may come after the groups they apply to
+			Ints groupStarts = new Ints();
+			Ints groupEnds = new Ints();
+			Pb pb = new Pb(data, 0, data.length);
+			while (pb.next()) {
+				if (pb.field == 1) {
+					Pb table = pb.message();
+					while (table.next()) {
+						if (table.field == 1) {
+							int length = table.length();
+							stringStarts.add(table.pos);
+							stringEnds.add(table.pos + length);
+							table.pos += length;
+						} else {
+							table.skip();
+						}
+					}
+				} else if (pb.field == 2) {
+					int length = pb.length();
+					groupStarts.add(pb.pos);
+					groupEnds.add(pb.pos + length);
+					pb.pos += length;
+				} else if (pb.field == 17) {
+					granularity = pb.varint();
+				} else if (pb.field == 19) {
+					latOffset = pb.varint();
+				} else if (pb.field == 20) {
+					lonOffset = pb.varint();
+				} else {
+					pb.skip();
+				}
+			}
+			strings = new String[stringStarts.size];
+			for (int g = 0; g < groupStarts.size; g++) {
+				Pb group = new Pb(data, groupStarts.get(g), groupEnds.get(g));
+				while (group.next()) {
+					if (group.field == 1) {
+						decodeNode(group.message());
+					} else if (group.field == 2) {
+						decodeDenseNodes(group.message());
+					} else if (group.field == 3) {
+						decodeWay(group.message());
+					} else if (group.field == 4) {
+						decodeRelation(group.message());
+					} else {
+						group.skip();
+					}
+				}
+			}
+		}
+
+		void decodeNode(Pb pb) throws IOException {
+			long id = 0;
+			long lat = 0;
+			long lon = 0;
+			int tags = tagKeys.size;
+			while (pb.next()) {
+				if (pb.field == 1) {
+					id = pb.sint();
+				} else if (pb.field == 2) {
+					pb.ints(tagKeys);
+				} else if (pb.field == 3) {
+					pb.ints(tagValues);
+				} else if (pb.field == 8) {
+					lat = pb.sint();
+				} else if (pb.field == 9) {
+					lon = pb.sint();
+				} else {
+					pb.skip();
+				}
+			}
+			checkTags(tags);
+			nodeIds.add(id);
+			nodeLats.add(toDegrees(latOffset, lat));
+			nodeLons.add(toDegrees(lonOffset, lon));
+			nodeTagEnds.add(tagKeys.size);
+		}
+
+		void decodeDenseNodes(Pb pb) throws IOException {
+			int first = nodeIds.size;
+			int tags = tagKeys.size;
+			Longs lats = new Longs();
+			Longs lons = new Longs();
+			Ints keysValues = new Ints();
+			while (pb.next()) {
+				if (pb.field == 1) {
+					pb.deltas(nodeIds, first);
+				} else if (pb.field == 8) {
+					pb.deltas(lats, 0);
+				} else if (pb.field == 9) {
+					pb.deltas(lons, 0);
+				} else if (pb.field == 10) {
+					pb.ints(keysValues);
+				} else {
+					pb.skip();
+				}
+			}
+			int count = nodeIds.size - first;
+			if (lats.size != count || lons.size != count) {
+				throw new IOException("Bad PBF data file given: dense nodes with " + count + " ids but " + lats.size
+						+ " latitudes and " + lons.size + " longitudes");
+			}
+			// Each node's tags are key, value pairs ended by 0; none at all if no node has tags
+			int kv = 0;
+			for (int i = 0; i < count; i++) {
+				nodeLats.add(toDegrees(latOffset, lats.get(i)));
+				nodeLons.add(toDegrees(lonOffset, lons.get(i)));
+				while (kv < keysValues.size && keysValues.get(kv) != 0) {
+					if (kv + 1 == keysValues.size) {
+						throw new IOException("Bad PBF data file given: dense node tag without a value");
+					}
+					tagKeys.add(keysValues.get(kv++));
+					tagValues.add(keysValues.get(kv++));
+				}
+				kv++;
+				nodeTagEnds.add(tagKeys.size);
+			}
+			checkTags(tags);
+		}
+
+		void decodeWay(Pb pb) throws IOException {
+			long id = 0;
+			boolean visible = true;
+			int tags = tagKeys.size;
+			int refs = wayRefs.size;
+			while (pb.next()) {
+				if (pb.field == 1) {
+					id = pb.varint();
+				} else if (pb.field == 2) {
+					pb.ints(tagKeys);
+				} else if (pb.field == 3) {
+					pb.ints(tagValues);
+				} else if (pb.field == 4) {
+					visible = isVisible(pb.message());
+				} else if (pb.field == 8) {
+					pb.deltas(wayRefs, refs);
+				} else {
+					pb.skip();
+				}
+			}
+			checkTags(tags);
+			wayIds.add(id);
+			wayVisible.add(visible ? 1 : 0);
+			wayTagEnds.add(tagKeys.size);
+			wayRefEnds.add(wayRefs.size);
+		}
+
+		void decodeRelation(Pb pb) throws IOException {
+			long id = 0;
+			boolean visible = true;
+			int tags = tagKeys.size;
+			int members = memberIds.size;
+			while (pb.next()) {
+				if (pb.field == 1) {
+					id = pb.varint();
+				} else if (pb.field == 2) {
+					pb.ints(tagKeys);
+				} else if (pb.field == 3) {
+					pb.ints(tagValues);
+				} else if (pb.field == 4) {
+					visible = isVisible(pb.message());
+				} else if (pb.field == 8) {
+					pb.ints(memberRoles);
+				} else if (pb.field == 9) {
+					pb.deltas(memberIds, members);
+				} else if (pb.field == 10) {
+					pb.ints(memberTypes);
+				} else {
+					pb.skip();
+				}
+			}
+			checkTags(tags);
+			if (memberRoles.size != memberIds.size || memberTypes.size != memberIds.size) {
+				throw new IOException("Bad PBF data file given: relation " + id + " has members missing a role or type");
+			}
+			for (int i = members; i < memberTypes.size; i++) {
+				checkString(memberRoles.get(i));
+				if (memberTypes.get(i) < 0 || memberTypes.get(i) >= MEMBER_TYPES.length) {
+					throw new IOException("Bad PBF data file given: relation " + id + " has a member of unknown type");
+				}
+			}
+			relationIds.add(id);
+			relationVisible.add(visible ? 1 : 0);
+			relationTagEnds.add(tagKeys.size);
+			relationMemberEnds.add(memberIds.size);
+		}
+
+		// Info: visible is only written for history files, so elements without it are visible
+		boolean isVisible(Pb info) throws IOException {
+			boolean visible = true;
+			while (info.next()) {
+				if (info.field == 6) {
+					visible = info.varint() != 0;
+				} else {
+					info.skip();
+				}
+			}
+			return visible;
+		}
+
+		// Every key needs a value, and both must be in the string table
+		void checkTags(int from) throws IOException {
+			if (tagKeys.size != tagValues.size) {
+				throw new IOException("Bad PBF data file given: tag keys and values don't pair up");
+			}
+			for (int i = from; i < tagKeys.size; i++) {
+				checkString(tagKeys.get(i));
+				checkString(tagValues.get(i));
+			}
+		}
+
+		void checkString(int s) throws IOException {
+			if (s < 0 || s >= stringStarts.size) {
+				throw new IOException("Bad PBF data file given: string " + s + " is not in the string table");
+			}
+		}
+
+		// Exact whole nanodegrees divided by an exact power of ten rounds once, as parsing the decimal degrees would
+		double toDegrees(long offset, long units) {
+			return (offset + granularity * units) / 1e9;
+		}
+
+		String string(int s) {
+			String string = strings[s];
+			if (string == null) {
+				int start = stringStarts.get(s);
+				string = new String(data, start, stringEnds.get(s) - start, StandardCharsets.UTF_8);
+				strings[s] = string;
+			}
+			return string;
+		}
+
+		void tags(OsmBuilder builder, int from, int to) throws IOException {
+			for (int t = from; t < to; t++) {
+				builder.tag(string(tagKeys.get(t)), string(tagValues.get(t)));
+			}
+		}
+
+		// Gives the block to the builder, on the reading thread
+		void feed(OsmBuilder builder) throws IOException {
+			if (bounds != null) {
+				builder.bounds(bounds[0], bounds[1], bounds[2], bounds[3]);
+			}
+			int tags = 0;
+			for (int i = 0; i < nodeIds.size; i++) {
+				if (builder.startNode(nodeIds.get(i), nodeLats.get(i), nodeLons.get(i))) {
+					tags(builder, tags, nodeTagEnds.get(i));
+					builder.end();
+				}
+				tags = nodeTagEnds.get(i);
+			}
+			int refs = 0;
+			for (int i = 0; i < wayIds.size; i++) {
+				if (builder.startWay(wayIds.get(i), wayVisible.get(i) != 0)) {
+					for (int r = refs; r < wayRefEnds.get(i); r++) {
+						builder.nodeRef(wayRefs.get(r));
+					}
+					tags(builder, tags, wayTagEnds.get(i));
+					builder.end();
+				}
+				tags = wayTagEnds.get(i);
+				refs = wayRefEnds.get(i);
+			}
+			int members = 0;
+			for (int i = 0; i < relationIds.size; i++) {
+				if (builder.startRelation(relationIds.get(i), relationVisible.get(i) != 0)) {
+					for (int m = members; m < relationMemberEnds.get(i); m++) {
+						builder.member(memberIds.get(m), MEMBER_TYPES[memberTypes.get(m)], string(memberRoles.get(m)));
+					}
+					tags(builder, tags, relationTagEnds.get(i));
+					builder.end();
+				}
+				tags = relationTagEnds.get(i);
+				members = relationMemberEnds.get(i);
+			}
+		}
+	}
+
+	/*
+	 * Reads the fields of a protocol buffer message in data[pos, end): call next() for each field, then read its
+	 * value with the method for its type, or skip() it.
+	 */
+	private static class Pb {
+		final byte[] data;
+		int pos;
+		final int end;
+		int field; // Of the field read by next()
+		int wireType;
+
+		Pb(byte[] data, int pos, int end) {
+			this.data = data;
+			this.pos = pos;
+			this.end = end;
+		}
+
+		boolean next() throws IOException {
+			if (pos >= end) {
+				return false;
+			}
+			long key = varint();
+			field = (int) (key >>> 3);
+			wireType = (int) (key & 7);
+			return true;
+		}
+
+		long varint() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				if (pos >= end) {
+					throw new IOException("Bad PBF data file given: message ends inside a number");
+				}
+				byte b = data[pos++];
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+			throw new IOException("Bad PBF data file given: number longer than 64 bits");
+		}
+
+		// Zigzag coded signed number
+		long sint() throws IOException {
+			long value = varint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		int length() throws IOException {
+			long length = varint();
+			if (length < 0 || length > end - pos) {
+				throw new IOException("Bad PBF data file given: field longer than its message");
+			}
+			return (int) length;
+		}
+
+		Pb message() throws IOException {
+			int length = length();
+			Pb message = new Pb(data, pos, pos + length);
+			pos += length;
+			return message;
+		}
+
+		String string() throws IOException {
+			int length = length();
+			String string = new String(data, pos, length, StandardCharsets.UTF_8);
+			pos += length;
+			return string;
+		}
+
+		// Adds a repeated (usually packed) unsigned number field's values
+		void ints(Ints values) throws IOException {
+			if (wireType != 2) {
+				values.add((int) varint());
+				return;
+			}
+			Pb packed = message();
+			while (packed.pos < packed.end) {
+				values.add((int) packed.varint());
+			}
+		}
+
+		// Adds a repeated (usually packed) signed number field's values, each stored as the difference from the last.
+		// The field's values are added to "values" from index "from" on.
+		void deltas(Longs values, int from) throws IOException {
+			long last = (values.size > from) ? values.get(values.size - 1) : 0;
+			if (wireType != 2) {
+				values.add(last + sint());
+				return;
+			}
+			Pb packed = message();
+			while (packed.pos < packed.end) {
+				last += packed.sint();
+				values.add(last);
+			}
+		}
+
+		void skip() throws IOException {
+			if (wireType == 0) {
+				varint();
+			} else if (wireType == 1) {
+				pos += 8;
+			} else if (wireType == 2) {
+				int length = length(); // Read before pos is, as it moves pos
+				pos += length;
+			} else if (wireType == 5) {
+				pos += 4;
+			} else {
+				throw new IOException("Bad PBF data file given: unknown wire type " + wireType);
+			}
+			if (pos > end) {
+				throw new IOException("Bad PBF data file given: field longer than its message");
+			}
+		}
+	}
+
+	// Growable arrays of primitives
+	private static class Ints {
+		int[] values = new int[16];
+		int size = 0;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int get(int i) {
+			return values[i];
+		}
+	}
+
+	private static class Longs {
+		long[] values = new long[16];
+		int size = 0;
+
+		void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		long get(int i) {
+			return values[i];
+		}
+	}
+
+	private static class Doubles {
+		double[] values = new double[16];
+		int size = 0;
+
+		void add(double value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		double get(int i) {
+			return values[i];
+		}
+	}
+}
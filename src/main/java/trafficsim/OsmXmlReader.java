@@ -0,0 +1,461 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads an OpenStreetMap XML data file into an OsmBuilder.
+ *
+ * This is not a general XML parser. OSM files only use a handful of elements (bounds, node, way, relation, tag, nd,
+ * member) with their data in attributes, so the file is read through a large buffer as bytes and each element
+ * found by its name's bytes. Ids and coordinates are parsed from the bytes straight into primitives; strings are only
+ * made for tags and members the builder takes. Text between elements, comments, processing instructions and any
+ * other elements are skipped. The file must be UTF-8 (as OSM files are).
+ */
+public class OsmXmlReader {
+	private static final int BUFFER_SIZE = 1 << 24; // 16 MB, grown if one element doesn't fit
+
+	// Element names
+	private static final byte[] NODE = bytes("node");
+	private static final byte[] WAY = bytes("way");
+	private static final byte[] RELATION = bytes("relation");
+	private static final byte[] TAG = bytes("tag");
+	private static final byte[] ND = bytes("nd");
+	private static final byte[] MEMBER = bytes("member");
+	private static final byte[] BOUNDS = bytes("bounds");
+	// Attribute names
+	private static final byte[] ID = bytes("id");
+	private static final byte[] LAT = bytes("lat");
+	private static final byte[] LON = bytes("lon");
+	private static final byte[] VISIBLE = bytes("visible");
+	private static final byte[] K = bytes("k");
+	private static final byte[] V = bytes("v");
+	private static final byte[] REF = bytes("ref");
+	private static final byte[] TYPE = bytes("type");
+	private static final byte[] ROLE = bytes("role");
+	private static final byte[] MINLON = bytes("minlon");
+	private static final byte[] MINLAT = bytes("minlat");
+	private static final byte[] MAXLON = bytes("maxlon");
+	private static final byte[] MAXLAT = bytes("maxlat");
+	private static final byte[] FALSE = bytes("false");
+
+	private static final double[] POW10 = new double[16]; // Exact powers of ten
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private final File file;
+	private FileChannel channel;
+	private byte[] buf;
+	private int pos; // Start of the bytes not yet read in buf
+	private int limit; // End of the bytes in buf
+	private boolean eof;
+
+	// Element (node, way or relation) being read
+	private byte[] current;
+	private boolean skipping; // The builder skipped the current element
+	// Attributes of the markup being read: name and value ranges in buf
+	private int nbrAttributes;
+	private int[] attributes = new int[4 * 16];
+
+	public OsmXmlReader(File file) {
+		this.file = file;
+	}
+
+	public void read(OsmBuilder builder) throws IOException {
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			channel = ch;
+			buf = new byte[BUFFER_SIZE];
+			pos = 0;
+			limit = 0;
+			eof = false;
+			current = null;
+			skipping = false;
+			while (nextMarkup()) {
+				int end = markupEnd();
+				readMarkup(builder, pos, end);
+				pos = end + 1;
+			}
+			if (current != null) {
+				throw new IOException("Data file ends inside a <" + name(current) + "> element");
+			}
+		} finally {
+			channel = null;
+			buf = null;
+		}
+	}
+
+	// Moves pos to the next '<', reading more of the file as needed. Returns false at the end of the file.
+	private boolean nextMarkup() throws IOException {
+		while (true) {
+			for (int i = pos; i < limit; i++) {
+				if (buf[i] == '<') {
+					pos = i;
+					return true;
+				}
+			}
+			pos = limit;
+			if (!fill()) {
+				return false;
+			}
+		}
+	}
+
+	// Returns the index of the '>' ending the markup at pos, reading more of the file as needed (which moves pos)
+	private int markupEnd() throws IOException {
+		while (limit - pos < 4 && fill()) {
+			// Enough to tell a comment, whose end is "-->"
+		}
+		boolean comment = limit - pos >= 4 && buf[pos + 1] == '!' && buf[pos + 2] == '-' && buf[pos + 3] == '-';
+		int scanned = 1;
+		byte quote = 0;
+		while (true) {
+			for (int i = pos + scanned; i < limit; i++) {
+				byte b = buf[i];
+				if (comment) {
+					if (b == '>' && i - pos >= 6 && buf[i - 1] == '-' && buf[i - 2] == '-') {
+						return i;
+					}
+				} else if (quote != 0) {
+					if (b == quote) {
+						quote = 0;
+					}
+				} else if (b == '"' || b == '\'') {
+					quote = b;
+				} else if (b == '>') {
+					return i;
+				}
+			}
+			scanned = limit - pos;
+			if (!fill()) {
+				throw new IOException("Data file ends inside markup");
+			}
+		}
+	}
+
+	// Keeps the bytes from pos on, moved to the start of the buffer, and reads more after them. Returns false at the
+	// end of the file.
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+		if (limit == buf.length) {
+			buf = Arrays.copyOf(buf, buf.length * 2);
+		}
+		int n = channel.read(ByteBuffer.wrap(buf, limit, buf.length - limit));
+		if (n < 0) {
+			eof = true;
+			return false;
+		}
+		limit += n;
+		return true;
+	}
+
+	// Reads the markup from '<' at start to '>' at end
+	private void readMarkup(OsmBuilder builder, int start, int end) throws IOException {
+		byte first = buf[start + 1];
+		if (first == '?' || first == '!') {
+			return; // Declaration, comment or doctype
+		}
+		if (first == '/') {
+			int nameEnd = nameEnd(start + 2, end);
+			if (current != null && matches(start + 2, nameEnd, current)) {
+				if (!skipping) {
+					builder.end();
+				}
+				current = null;
+				skipping = false;
+			}
+			return;
+		}
+		int nameEnd = nameEnd(start + 1, end);
+		boolean empty = buf[end - 1] == '/';
+		int attributesEnd = empty ? end - 1 : end;
+		// Tags, node refs and members belong to the element being read
+		if (matches(start + 1, nameEnd, TAG)) {
+			if (current == null) {
+				throw new IOException("Bad data file given: a <tag> tag is outside any <node>, <way> or <relation>!");
+			}
+			if (!skipping) {
+				readAttributes(nameEnd, attributesEnd);
+				builder.tag(string(K), string(V));
+			}
+		} else if (matches(start + 1, nameEnd, ND)) {
+			if (current != WAY) {
+				readAttributes(nameEnd, attributesEnd);
+				throw new IOException("Bad data file given: a <nd> tag is a child of a non-<way> tag! " + "[Node ref =  "
+						+ string(REF) + "]");
+			}
+			if (!skipping) {
+				readAttributes(nameEnd, attributesEnd);
+				builder.nodeRef(longValue(REF));
+			}
+		} else if (matches(start + 1, nameEnd, MEMBER)) {
+			if (current != RELATION) {
+				readAttributes(nameEnd, attributesEnd);
+				throw new IOException("Bad data file given: a <member> tag is a child of a non-<relation> tag! "
+						+ "[Member ref =  " + string(REF) + "]");
+			}
+			if (!skipping) {
+				readAttributes(nameEnd, attributesEnd);
+				builder.member(longValue(REF), string(TYPE), string(ROLE));
+			}
+		} else if (matches(start + 1, nameEnd, NODE)) {
+			checkOutside(NODE);
+			readAttributes(nameEnd, attributesEnd);
+			startElement(NODE, builder.startNode(longValue(ID), doubleValue(LAT), doubleValue(LON)), empty, builder);
+		} else if (matches(start + 1, nameEnd, WAY)) {
+			checkOutside(WAY);
+			readAttributes(nameEnd, attributesEnd);
+			startElement(WAY, builder.startWay(longValue(ID), isVisible()), empty, builder);
+		} else if (matches(start + 1, nameEnd, RELATION)) {
+			checkOutside(RELATION);
+			readAttributes(nameEnd, attributesEnd);
+			startElement(RELATION, builder.startRelation(longValue(ID), isVisible()), empty, builder);
+		} else if (matches(start + 1, nameEnd, BOUNDS)) {
+			readAttributes(nameEnd, attributesEnd);
+			builder.bounds(doubleValue(MINLON), doubleValue(MINLAT), doubleValue(MAXLON), doubleValue(MAXLAT));
+		}
+	}
+
+	// Nodes, ways and relations can't be nested
+	private void checkOutside(byte[] name) throws IOException {
+		if (current != null) {
+			throw new IOException("Bad data file given: a <" + name(name) + "> tag is inside a <" + name(current)
+					+ "> tag!");
+		}
+	}
+
+	// The builder has been given the start of the element; "taken" is what it returned
+	private void startElement(byte[] name, boolean taken, boolean empty, OsmBuilder builder) throws IOException {
+		if (empty) {
+			if (taken) {
+				builder.end();
+			}
+			return;
+		}
+		current = name;
+		skipping = !taken;
+	}
+
+	private int nameEnd(int from, int end) {
+		int i = from;
+		while (i < end && !isSpace(buf[i]) && buf[i] != '/' && buf[i] != '>') {
+			i++;
+		}
+		return i;
+	}
+
+	// Notes the name and value ranges of the attributes in [from, to)
+	private void readAttributes(int from, int to) {
+		nbrAttributes = 0;
+		int i = from;
+		while (true) {
+			while (i < to && isSpace(buf[i])) {
+				i++;
+			}
+			int nameStart = i;
+			while (i < to && buf[i] != '=' && !isSpace(buf[i])) {
+				i++;
+			}
+			int nameEnd = i;
+			while (i < to && buf[i] != '"' && buf[i] != '\'') {
+				i++;
+			}
+			if (i >= to) {
+				return;
+			}
+			byte quote = buf[i++];
+			int valueStart = i;
+			while (i < to && buf[i] != quote) {
+				i++;
+			}
+			if (4 * nbrAttributes == attributes.length) {
+				attributes = Arrays.copyOf(attributes, attributes.length * 2);
+			}
+			int a = 4 * nbrAttributes++;
+			attributes[a] = nameStart;
+			attributes[a + 1] = nameEnd;
+			attributes[a + 2] = valueStart;
+			attributes[a + 3] = i;
+			i++;
+		}
+	}
+
+	// Index into attributes of the named attribute's name start, -1 if the markup doesn't have it
+	private int find(byte[] name) {
+		for (int a = 0; a < 4 * nbrAttributes; a += 4) {
+			if (matches(attributes[a], attributes[a + 1], name)) {
+				return a;
+			}
+		}
+		return -1;
+	}
+
+	private int require(byte[] name) throws IOException {
+		int a = find(name);
+		if (a < 0) {
+			throw new IOException("Bad data file given: missing attribute " + name(name));
+		}
+		return a;
+	}
+
+	// Only history files have visible attributes, so elements without one are visible (as from OsmPbfReader)
+	private boolean isVisible() {
+		int a = find(VISIBLE);
+		return a < 0 || !matches(attributes[a + 2], attributes[a + 3], FALSE);
+	}
+
+	private long longValue(byte[] name) throws IOException {
+		int a = require(name);
+		int i = attributes[a + 2];
+		int end = attributes[a + 3];
+		boolean negative = i < end && buf[i] == '-';
+		if (negative) {
+			i++;
+		}
+		if (i == end || end - i > 18) {
+			return Long.parseLong(string(a)); // Empty (fails) or might overflow
+		}
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = buf[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("For input string: \"" + string(a) + "\"");
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	// Plain decimals of up to 15 digits (as OSM coordinates are) are parsed from the bytes: the digits make an exact
+	// whole number and dividing by an exact power of ten rounds once, so the result is the same as
+	// Double.parseDouble(). Anything else is left to Double.parseDouble().
+	private double doubleValue(byte[] name) throws IOException {
+		int a = require(name);
+		int i = attributes[a + 2];
+		int end = attributes[a + 3];
+		boolean negative = i < end && buf[i] == '-';
+		if (negative || (i < end && buf[i] == '+')) {
+			i++;
+		}
+		long digits = 0;
+		int nbrDigits = 0;
+		int decimals = -1; // Digits after the point, -1 before it
+		for (; i < end; i++) {
+			byte b = buf[i];
+			if (b >= '0' && b <= '9') {
+				digits = digits * 10 + (b - '0');
+				nbrDigits++;
+				if (decimals >= 0) {
+					decimals++;
+				}
+			} else if (b == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				break;
+			}
+		}
+		if (i < end || nbrDigits == 0 || nbrDigits >= POW10.length) {
+			return Double.parseDouble(string(a));
+		}
+		double value = (decimals > 0) ? digits / POW10[decimals] : digits;
+		return negative ? -value : value;
+	}
+
+	// Value of the named attribute, null if the markup doesn't have it
+	private String string(byte[] name) {
+		int a = find(name);
+		return (a < 0) ? null : string(a);
+	}
+
+	// Value of the attribute at a in attributes, with XML escapes replaced
+	private String string(int a) {
+		int from = attributes[a + 2];
+		int to = attributes[a + 3];
+		int amp = from;
+		while (amp < to && buf[amp] != '&') {
+			amp++;
+		}
+		if (amp == to) {
+			return new String(buf, from, to - from, StandardCharsets.UTF_8);
+		}
+		StringBuilder sb = new StringBuilder(to - from);
+		int i = from;
+		while (i < to) {
+			if (buf[i] != '&') {
+				int j = i;
+				while (j < to && buf[j] != '&') {
+					j++;
+				}
+				sb.append(new String(buf, i, j - i, StandardCharsets.UTF_8));
+				i = j;
+				continue;
+			}
+			int semi = i + 1;
+			while (semi < to && buf[semi] != ';') {
+				semi++;
+			}
+			String entity = new String(buf, i + 1, semi - i - 1, StandardCharsets.US_ASCII);
+			if (entity.equals("amp")) {
+				sb.append('&');
+			} else if (entity.equals("lt")) {
+				sb.append('<');
+			} else if (entity.equals("gt")) {
+				sb.append('>');
+			} else if (entity.equals("quot")) {
+				sb.append('"');
+			} else if (entity.equals("apos")) {
+				sb.append('\'');
+			} else if (entity.startsWith("#x") || entity.startsWith("#X")) {
+				sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+			} else if (entity.startsWith("#")) {
+				sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+			} else {
+				sb.append('&').append(entity).append(';'); // Unknown, left as it is
+			}
+			i = semi + 1;
+		}
+		return sb.toString();
+	}
+
+	private boolean matches(int from, int to, byte[] name) {
+		if (to - from != name.length) {
+			return false;
+		}
+		for (int i = 0; i < name.length; i++) {
+			if (buf[from + i] != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static String name(byte[] bytes) {
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+}
@@ -13,6 +13,9 @@ import util.Log;
  * Convert longitude/latitude coords into pixel coords.
  */
 public class PixelCoords {
+	// Data files larger than this (bytes) are imported without anything but the roads (see OsmParser)
+	static final long ROADS_ONLY_SIZE = 200L << 20;
+
 	private int panX = 0;
 	private int panY = 0;
 	private int yFudge = 0;
@@ -30,6 +33,7 @@ public class PixelCoords {
 		}
 		// parse data file
 		parser = new OsmParser(dataFile);
+		parser.setRoadsOnly(dataFile.length() > ROADS_ONLY_SIZE);
 		long start = System.currentTimeMillis();
 		parser.parse();
 		long stop = System.currentTimeMillis();
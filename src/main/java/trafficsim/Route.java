@@ -0,0 +1,47 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A planned route, read as a list of nodes from start to destination.
+ *
+ * The route is held as an array of graph node indices (see RoutePlanner) plus the planner's table of nodes by index,
+ * instead of a list of its own. Routes are never changed once made, so the array of a route planned once (e.g. a
+ * cached route, see RouteCache) is shared by every car given it. Changing a car's route means giving it a new Route.
+ */
+public final class Route extends AbstractList<Node> implements RandomAccess, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final int[] path; // Graph node indices, never changed
+	private final Node[] nodes; // Graph node index to node, shared by every route of a planner
+
+	// The path array must not be changed afterwards
+	Route(int[] path, Node[] nodes) {
+		this.path = path;
+		this.nodes = nodes;
+	}
+
+	@Override
+	public Node get(int i) {
+		return nodes[path[i]];
+	}
+
+	@Override
+	public int size() {
+		return path.length;
+	}
+
+	// Graph node index of the i-th node
+	public int getNodeIndex(int i) {
+		return path[i];
+	}
+
+	public Node getDest() {
+		return nodes[path[path.length - 1]];
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers planned routes by their start and destination (origin-destination pair), so trips repeated by many
+ * cars are searched for once.
+ *
+ * Routes are stored as arrays of graph node indices. The arrays are never changed once stored, so one array can be
+ * handed to every car taking the route. The least recently used routes are dropped once the routes held add up to
+ * more than a set number of nodes. Each route also counts ENTRY_OVERHEAD nodes for its key and map entries, so pairs
+ * with no route or very short routes are bounded too. All methods are synchronized so routes can be planned on
+ * several threads.
+ *
+ * The cache must be cleared (see invalidate()) whenever edge costs fall, since cached routes may no longer be the
+ * fastest. When the cost of a single hop (edge between two adjacent nodes) rises, e.g. a road is closed, only the
+ * routes using that hop are affected; an index of routes by hop finds them (see invalidate(int, int)).
+ */
+public class RouteCache {
+	// Stored for pairs with no route, so failed searches are not repeated either
+	static final int[] NO_ROUTE = new int[0];
+	// Key, map entries and array header of a route, counted as this many route nodes (about as many bytes)
+	static final int ENTRY_OVERHEAD = 2;
+
+	private final long maxNodes; // Most route nodes held before routes are dropped
+	private long nodes = 0; // Route nodes held, plus ENTRY_OVERHEAD per route (see weight())
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	// Key (see key()) to route, in order of last use
+	private final LinkedHashMap<Long, int[]> routes = new LinkedHashMap<>(1024, 0.75f, true);
+	// Hop key (key() of its 2 nodes) to keys of the routes using it
+	private final HashMap<Long, HashSet<Long>> routesByHop = new HashMap<>();
+
+	public RouteCache(long maxNodes) {
+		this.maxNodes = maxNodes;
+	}
+
+	// Returns the route from start to dest (node indices), NO_ROUTE if known to have none, or null if not cached
+	public synchronized int[] get(int start, int dest) {
+		int[] route = routes.get(key(start, dest));
+		if (route == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return route;
+	}
+
+	// Stores a route (or NO_ROUTE). The array must not be changed afterwards.
+	public synchronized void put(int start, int dest, int[] route) {
+		Long key = key(start, dest);
+		int[] old = routes.put(key, route);
+		if (old != null) {
+			unindex(key, old);
+		}
+		index(key, route);
+		nodes += weight(route) - ((old == null) ? 0 : weight(old));
+		Iterator<Map.Entry<Long, int[]>> eldest = routes.entrySet().iterator();
+		while (nodes > maxNodes && eldest.hasNext()) {
+			Map.Entry<Long, int[]> entry = eldest.next();
+			nodes -= weight(entry.getValue());
+			unindex(entry.getKey(), entry.getValue());
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	// Drops every route, e.g. after edge costs have changed
+	public synchronized void invalidate() {
+		routes.clear();
+		routesByHop.clear();
+		nodes = 0;
+	}
+
+	// Drops the routes that go from one node straight to the other, e.g. after that hop was closed or slowed down.
+	// Returns the number of routes dropped.
+	public synchronized int invalidate(int from, int to) {
+		HashSet<Long> keys = routesByHop.get(key(from, to));
+		if (keys == null) {
+			return 0;
+		}
+		int dropped = 0;
+		for (Long key : new ArrayList<>(keys)) {
+			int[] route = routes.remove(key);
+			nodes -= weight(route);
+			unindex(key, route);
+			dropped++;
+		}
+		return dropped;
+	}
+
+	private static long weight(int[] route) {
+		return route.length + ENTRY_OVERHEAD;
+	}
+
+	private void index(Long key, int[] route) {
+		for (int i = 1; i < route.length; i++) {
+			routesByHop.computeIfAbsent(key(route[i - 1], route[i]), k -> new HashSet<>(2)).add(key);
+		}
+	}
+
+	private void unindex(Long key, int[] route) {
+		for (int i = 1; i < route.length; i++) {
+			Long hop = key(route[i - 1], route[i]);
+			HashSet<Long> keys = routesByHop.get(hop);
+			if (keys != null && keys.remove(key) && keys.isEmpty()) {
+				routesByHop.remove(hop);
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return routes.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	// Share of lookups found in the cache, 0 to 1
+	public synchronized double getHitRate() {
+		long lookups = hits + misses;
+		return (lookups == 0) ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Route cache: " + routes.size() + " routes, " + nodes + " nodes, " + hits + " hits, " + misses
+				+ " misses, " + evictions + " evicted";
+	}
+
+	private static Long key(int start, int dest) {
+		return ((long) start << 32) | (dest & 0xffffffffL);
+	}
+}
@@ -3,46 +3,234 @@
  */
 package trafficsim;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import pathfinder.AshLandmarks;
+import pathfinder.AshTravelTime;
+import pathfinder.ChainContraction;
+import pathfinder.ContractionHierarchy;
+import pathfinder.CsrGraph;
+import pathfinder.CsrGraphSearch;
 import pathfinder.Graph;
-import pathfinder.GraphEdge;
 import pathfinder.GraphNode;
+import pathfinder.GraphSearch_Astar;
+import pathfinder.GraphSearch_CH;
 import pathfinder.GraphSearch_Dijkstra;
-import pathfinder.IGraphSearch;
+import pathfinder.GraphSearch_TimeDependent;
+import pathfinder.KdTree;
+import pathfinder.ShortestPathTree;
+import pathfinder.StronglyConnectedComponents;
 import util.Log;
 
 /**
  *  
  */
 public class RoutePlanner {
+	// Route with a contraction hierarchy. Much faster searches, but the hierarchy takes a while to prepare for a
+	// new map. It is saved next to the map file and reused for as long as the map is unchanged.
+	static final boolean USE_CONTRACTION_HIERARCHY = false;
+	static final String HIERARCHY_FILE_SUFFIX = ".ch";
+	// Steer A* with landmark distances (ALT) instead of the travel time at max speed as the crow flies. The tables
+	// stay valid while edge costs rise (e.g. congestion), and are saved next to the map file like the hierarchy.
+	static final boolean USE_LANDMARKS = true;
+	static final int NBR_LANDMARKS = 16;
+	static final String LANDMARKS_FILE_SUFFIX = ".alt";
+	// Threads planning batches of routes. Searches keep their working state per thread, so they can run at once.
+	static final int ROUTING_THREADS = Runtime.getRuntime().availableProcessors();
+	// Most route nodes kept in the route cache (about 100 bytes each with the index of routes by hop)
+	static final long ROUTE_CACHE_NODES = 1_000_000;
+
 	private OsmParser parser;
-	private Graph graph;
-	private IGraphSearch graphSearcher;
+	private CsrGraph csr; // Road graph for route searches
+	private Node[] csrNodes; // Graph node index (in csr) to node
+	private ChainContraction chains; // csr with chains of shape nodes merged into single edges
+	private CsrGraph core; // The merged graph, which point to point searches run on (see ChainContraction)
+	private double[] freeFlowTimes; // Graph edge index to travel time at the speed limit in seconds
+	private double[] linkLengths; // Graph edge index to length in m
+	private boolean[] closed; // Graph edge index to whether the link is closed (see closeLink())
+	private double[] landmarkTimes; // Graph edge index to travel time the landmarks were made for, null if not used
+	private volatile StronglyConnectedComponents components; // Parts of the graph in which every node can reach every other
+	private KdTree nodeIndex; // Graph nodes on roads by position, for nearest node queries
+	private volatile CsrGraphSearch graphSearcher;
+	private CsrGraphSearch astarSearcher; // A* search to go back to if the hierarchy is dropped
+	private GraphSearch_Dijkstra treeSearcher; // For routes from one start node to many dest nodes
+	private GraphSearch_TimeDependent timeSearcher; // For routes leaving at a given time
+	private GraphSearch_TimeDependent timeTreeSearcher; // For routes from one start node to many leaving at a given time
+	private SignalDelays signalDelays; // Predicted waits for green, for timeSearcher
+	private volatile boolean timeDependent = false; // Plan routes with a departure time by it (see setTimeDependent())
+	private double maxSpeed = 0; // Highest speed on any road in graph in m/s; bounds the A* heuristic
 	private ArrayList<Intersection> intersections;
+	private volatile HashMap<Long, ArrayList<Way>> roadsByNode; // Node ID to roads containing it, made when first needed
+	private ExecutorService routingPool; // Plans batches of routes, made when first needed
+	private ExecutorService batchPool; // Hands background batches to the routing pool, made when first needed
+	private Future<ArrayList<Route>> pendingBatch; // Last batch handed to batchPool
+	private RouteCache routeCache = new RouteCache(ROUTE_CACHE_NODES); // Routes already planned, by start and dest
 
 	public RoutePlanner(OsmParser parser) {
 		this.parser = parser;
-		makeGraph(); // for route-finding
+		NetworkCache cache = parser.getNetworkCache();
+		makeGraph(cache); // for route-finding
 		intersections = new ArrayList<>();
-		setIntersectionNodes(); // for simulation. call after graph created.
-		// TODO in order to use A star need to make graph only include connected nodes
-		// float costFactor = 1.0f;
-		// graphSearcher = new pathfinder.GraphSearch_Astar(graph, new pathfinder.AshManhattan(costFactor));
-		graphSearcher = new GraphSearch_Dijkstra(graph);
+		long[] approachWays = setIntersectionNodes(cache); // for simulation. call after graph created.
+		if (cache == null && parser.getXml() != null) {
+			try {
+				NetworkCache.save(parser, csr, components, nodeIndex, approachWays);
+			} catch (IOException ex) {
+				Log.warning("Could not save compiled network: " + ex.getMessage());
+			}
+		}
+		mergeChains(); // call after intersections set
+		treeSearcher = new GraphSearch_Dijkstra(csr);
+		signalDelays = new SignalDelays(csr, csrNodes);
+		timeTreeSearcher = new GraphSearch_TimeDependent(csr, signalDelays, null);
+		// Edge costs are travel times so A* can be steered by the travel time at max speed as the crow flies
+		// graphSearcher = new pathfinder.GraphSearch_Dijkstra(core);
+		// graphSearcher = new pathfinder.GraphSearch_BidirectionalDijkstra(core);
+		astarSearcher = new GraphSearch_Astar(core, new AshTravelTime(maxSpeed));
+		timeSearcher = new GraphSearch_TimeDependent(core, chains.getCoreDelay(signalDelays), new AshTravelTime(maxSpeed));
+		graphSearcher = astarSearcher;
+		if (USE_LANDMARKS) {
+			useLandmarks();
+		}
+		if (USE_CONTRACTION_HIERARCHY) {
+			useHierarchy();
+		}
+	}
+
+	// Preprocesses the map given (or the default map) and saves its landmarks and contraction hierarchy next to it
+	public static void main(String[] args) {
+		File f = new File((args.length > 0) ? args[0] : "resources/sanfrancisco.osm");
+		OsmParser p = new OsmParser(f);
+		p.parse();
+		new RoutePlanner(p).useHierarchy();
+	}
+
+	// Switches route searches to a contraction hierarchy, loaded from the hierarchy file if there is one for this map
+	// or else built (and saved)
+	public void useHierarchy() {
+		File file = (parser.getXml() == null) ? null : new File(parser.getXml().getPath() + HIERARCHY_FILE_SUFFIX);
+		ContractionHierarchy ch = null;
+		if (file != null && file.exists()) {
+			try {
+				ch = ContractionHierarchy.load(file, core);
+			} catch (IOException ex) {
+				Log.warning("Could not read contraction hierarchy " + file.getAbsolutePath() + " : " + ex.getMessage());
+			}
+		}
+		if (ch == null) {
+			long startTime = System.currentTimeMillis();
+			ch = ContractionHierarchy.build(core);
+			Log.info("Building contraction hierarchy took " + (System.currentTimeMillis() - startTime) + " ms.");
+			if (file != null) {
+				try {
+					ch.save(file);
+				} catch (IOException ex) {
+					Log.warning("Could not save contraction hierarchy " + file.getAbsolutePath() + " : " + ex.getMessage());
+				}
+			}
+		}
+		graphSearcher = new GraphSearch_CH(core, ch);
+	}
+
+	// Switches the A* heuristic to landmark distances, loaded from the landmarks file if there is one for this map or
+	// else built (and saved)
+	public void useLandmarks() {
+		File file = (parser.getXml() == null) ? null : new File(parser.getXml().getPath() + LANDMARKS_FILE_SUFFIX);
+		AshLandmarks landmarks = null;
+		if (file != null && file.exists()) {
+			try {
+				landmarks = AshLandmarks.load(file, core);
+			} catch (IOException ex) {
+				Log.warning("Could not read landmarks " + file.getAbsolutePath() + " : " + ex.getMessage());
+			}
+		}
+		if (landmarks == null) {
+			long startTime = System.currentTimeMillis();
+			landmarks = AshLandmarks.build(core, NBR_LANDMARKS);
+			Log.info("Building landmarks took " + (System.currentTimeMillis() - startTime) + " ms.");
+			if (file != null) {
+				try {
+					landmarks.save(file);
+				} catch (IOException ex) {
+					Log.warning("Could not save landmarks " + file.getAbsolutePath() + " : " + ex.getMessage());
+				}
+			}
+		}
+		astarSearcher = new GraphSearch_Astar(core, landmarks);
+		timeSearcher = new GraphSearch_TimeDependent(core, chains.getCoreDelay(signalDelays), landmarks);
+		graphSearcher = astarSearcher;
+		landmarkTimes = new double[csr.getNbrEdges()];
+		for (int link = 0; link < landmarkTimes.length; link++) {
+			landmarkTimes[link] = csr.getCost(link);
+		}
 	}
 
-	// TODO FIXME only pass nodes that connect to edges to search algorithm.
-	// Also preferrably only pass nodes/edges that all connect to search algorithm in order to use A star.
-	private void makeGraph() {
+	// TODO only pass nodes that connect to edges to search algorithm.
+	// Edge costs are the travel time in seconds at the way's speed limit.
+	// The graph, its components and node index are taken from the compiled network if the parser loaded one (see
+	// NetworkCache), else made from the roads (and compiled for next time by the constructor).
+	private void makeGraph(NetworkCache cache) {
+		for (Way way : parser.getRoads().values()) {
+			maxSpeed = Math.max(maxSpeed, getSpeed(way));
+		}
+		csr = (cache != null) ? cache.getGraph() : buildGraph();
+		csrNodes = new Node[csr.getNbrNodes()];
+		for (int i = 0; i < csrNodes.length; i++) {
+			csrNodes[i] = parser.getNodes().get(csr.getId(i));
+		}
+		if (cache != null) {
+			setComponents(cache.getComponents());
+			nodeIndex = cache.getNodeIndex();
+		} else {
+			findComponents();
+			// Index only nodes on roads (with edges), so nearest node queries give nodes a route can start or end at
+			int[] roadNodes = new int[csrNodes.length];
+			int nbrRoadNodes = 0;
+			for (int i = 0; i < csrNodes.length; i++) {
+				if (csr.endEdge(i) > csr.firstEdge(i) || csr.endInEdge(i) > csr.firstInEdge(i)) {
+					roadNodes[nbrRoadNodes++] = i;
+				}
+			}
+			nodeIndex = new KdTree(csr, Arrays.copyOf(roadNodes, nbrRoadNodes));
+		}
+		freeFlowTimes = new double[csr.getNbrEdges()];
+		linkLengths = new double[csr.getNbrEdges()];
+		closed = new boolean[csr.getNbrEdges()];
+		for (int i = 0; i < csrNodes.length; i++) {
+			for (int e = csr.firstEdge(i); e < csr.endEdge(i); e++) {
+				Node to = csrNodes[csr.getTarget(e)];
+				freeFlowTimes[e] = csr.getCost(e);
+				linkLengths[e] = ProjectionConverter.getDistBetweenPoints(csrNodes[i].getLon(), csrNodes[i].getLat(),
+						to.getLon(), to.getLat());
+			}
+		}
+	}
+
+	// Ways without a (valid) speed limit are costed as slow roads
+	private static double getSpeed(Way way) {
+		return (way.getMaxspeedM() > 0) ? way.getMaxspeedM() : RoadTypes.SPD_SLOW / 3.6;
+	}
+
+	private CsrGraph buildGraph() {
 		// Make a list of edges between nodes in each way's node list
-		graph = new Graph();
+		Graph graph = new Graph();
 		// Note: only make graph from roads (not footpaths, buildings, etc...)
 		for (Way way : parser.getRoads().values()) {
 			boolean isOneway = way.isOneway();
-			// TODO optimize cost depending on way type (ex. side street = 30, main road = 60, highway = 90)
-			double costMultiplier = (way.getMaxspeedKm() > 0) ? 1 / way.getMaxspeedKm() : 1;
+			double speed = getSpeed(way);
 			LinkedList<Node> list = way.getNodes();
 			Node prev = null;
 			// Note: adding uni-directional edge forward/backward for each node,
@@ -53,13 +241,13 @@ public class RoutePlanner {
 				Node node = list.get(i);
 				Node next = (i < list.size() - 1) ? list.get(i + 1) : null;
 				if (prev != null && !isOneway) {
-					double cost = costMultiplier * ((node.getLat() - prev.getLat()) * (node.getLat() - prev.getLat())
-							+ (node.getLon() - prev.getLon()) * (node.getLon() - prev.getLon()));
+					double cost = ProjectionConverter.getDistBetweenPoints(node.getLon(), node.getLat(), prev.getLon(),
+							prev.getLat()) / speed;
 					graph.addEdge(node.getId(), prev.getId(), cost);
 				}
 				if (next != null) {
-					double cost = costMultiplier * ((node.getLat() - next.getLat()) * (node.getLat() - next.getLat())
-							+ (node.getLon() - next.getLon()) * (node.getLon() - next.getLon()));
+					double cost = ProjectionConverter.getDistBetweenPoints(node.getLon(), node.getLat(), next.getLon(),
+							next.getLat()) / speed;
 					graph.addEdge(node.getId(), next.getId(), cost);
 				}
 				prev = node;
@@ -72,16 +260,38 @@ public class RoutePlanner {
 			graph.addNode(new GraphNode(node.getId(), node.getLon(), node.getLat()));
 		}
 		graph.compact(); // Removes unnecessary (floating) edges
+		return new CsrGraph(graph);
+	}
+
+	// Most map nodes only give roads their shape. Searching a graph without them is several times faster; found
+	// routes are expanded back to every node (see ChainContraction).
+	private void mergeChains() {
+		// Nodes with waits for green must stay (see ChainContraction). Intersections are never shape nodes anyway.
+		boolean[] keep = new boolean[csrNodes.length];
+		for (int i = 0; i < csrNodes.length; i++) {
+			keep[i] = csrNodes[i] != null && csrNodes[i].getIntersection() != null;
+		}
+		chains = new ChainContraction(csr, keep);
+		core = chains.getCore();
+		Log.info("Searching road graph of " + core.getNbrNodes() + " nodes and " + core.getNbrEdges()
+				+ " edges with chains of shape nodes merged (" + csr.getNbrNodes() + " nodes, " + csr.getNbrEdges()
+				+ " edges in all)");
 	}
 
-	private void setIntersectionNodes() {
-		// Note: Graph's GraphNodes map 1-1 with OsmParser's Nodes
+	// The road each approach is on is taken from the compiled network if there is one (see NetworkCache), else looked
+	// up. Returns the ID of the road by graph in-edge index for the in-edges of intersection nodes, to be compiled.
+	private long[] setIntersectionNodes(NetworkCache cache) {
+		long[] approachWays = new long[csr.getNbrEdges()];
+		// Note: graph nodes map 1-1 with OsmParser's Nodes
 		for (Node node : parser.getNodes().values()) {
 			// Need list of edges *to* intersection node because of one-way streets
-			LinkedList<GraphEdge> edges = graph.getEdgeListTo(node.getId());
+			int i = csr.indexOf(node.getId());
+			if (i < 0) {
+				continue;
+			}
 			ArrayList<Node> approaching = new ArrayList<>();
-			for (GraphEdge edge : edges) {
-				approaching.add(parser.getNodes().get(edge.from().id()));
+			for (int k = csr.firstInEdge(i); k < csr.endInEdge(i); k++) {
+				approaching.add(csrNodes[csr.getInSource(k)]);
 			}
 			// Intersection if 2+ ways or 3+ nodes approach it
 			if (approaching.size() >= 3) {
@@ -90,11 +300,17 @@ public class RoutePlanner {
 				//  what type of intersection to set to.
 				ArrayList<Way> approachingWays = new ArrayList<>();
 				int majorWayCount = 0;
-				for (Node approachNode : approaching) {
-					ArrayList<Node> list = new ArrayList<>();
-					list.add(node);
-					list.add(approachNode);
-					Way way = getFirstRoadContaining(list);
+				for (int k = csr.firstInEdge(i); k < csr.endInEdge(i); k++) {
+					Way way;
+					if (cache != null) {
+						way = parser.getRoads().get(cache.getApproachWay(k));
+					} else {
+						ArrayList<Node> list = new ArrayList<>();
+						list.add(node);
+						list.add(csrNodes[csr.getInSource(k)]);
+						way = getFirstRoadContaining(list);
+						approachWays[k] = way.getId();
+					}
 					approachingWays.add(way);
 					if (way.getMaxspeedKm() >= RoadTypes.SPD_NORMAL) {
 						majorWayCount++;
@@ -110,35 +326,64 @@ public class RoutePlanner {
 				} else {
 					type = Intersection.ALL_WAY_STOP;
 				}
-				intersection = new Intersection(type, node, approaching, approachingWays);
+				if (type == Intersection.FULLY_LIT) {
+					intersection = new SignalisedIntersection(node, approaching, approachingWays);
+				} else {
+					intersection = new StopIntersection(node, approaching, approachingWays);
+				}
 				node.setIntersection(intersection);
 				intersections.add(intersection);
 			}
 		}
+		return approachWays;
 	}
 
 	public ArrayList<Intersection> getIntersections() {
 		return intersections;
 	}
 
-	// Returns nearest node in graph to coordinates. Returns null if nearest farther than maxDistance.
+	// Returns nearest road node in graph to coordinates. Returns null if nearest farther than maxDistance.
+	// NOTE distances are in degrees, treating lon/lat as x/y coordinates like the graph does.
 	public Node getNearestNode(double lon, double lat, double maxDistance) {
-		GraphNode gnode = graph.getNodeAt(lon, lat, 0, maxDistance);
-		return getNode(gnode);
+		int i = nodeIndex.nearest(lon, lat, maxDistance);
+		return (i < 0) ? null : csrNodes[i];
 	}
 
-	private Node getNode(GraphNode gnode) {
-		if (gnode == null) {
-			return null;
-		}
-		Node node = parser.getNodes().get(gnode.id());
-		if (node == null) {
-			Log.error("Could not find node matching graph node with id : " + gnode.id());
+	// Returns the k road nodes nearest to coordinates, nearest first
+	public ArrayList<Node> getNearestNodes(double lon, double lat, int k) {
+		return toNodes(nodeIndex.nearest(lon, lat, k));
+	}
+
+	// Returns the road nodes within radius (in degrees) of coordinates, nearest first
+	public ArrayList<Node> getNodesWithin(double lon, double lat, double radius) {
+		return toNodes(nodeIndex.withinRadius(lon, lat, radius));
+	}
+
+	private ArrayList<Node> toNodes(int[] indices) {
+		ArrayList<Node> nodes = new ArrayList<>(indices.length);
+		for (int i : indices) {
+			nodes.add(csrNodes[i]);
 		}
-		return node;
+		return nodes;
+	}
+
+	public KdTree getNodeIndex() {
+		return nodeIndex;
+	}
+
+	public Route getNewRoute(Node start, Node dest) {
+		return planRoute(start, dest, false, 0);
+	}
+
+	// Plans the route leaving at simulation time "departure" (see setTimeDependent())
+	public Route getNewRoute(Node start, Node dest, double departure) {
+		boolean timed = timeDependent;
+		updateSignals(timed);
+		return planRoute(start, dest, timed, departure);
 	}
 
-	public ArrayList<Node> getNewRoute(Node start, Node dest) {
+	// Timed routes wait for the lights on the way (leaving at simulation time "departure") and are not cached
+	private Route planRoute(Node start, Node dest, boolean timed, double departure) {
 		if (start == null || dest == null) {
 			Log.error("No start or destination nodes given to RoutePlanner, return null route");
 			return null;
@@ -148,13 +393,23 @@ public class RoutePlanner {
 			return null;
 		}
 		long startTime = System.currentTimeMillis();
-		graphSearcher.search(start.getId(), dest.getId(), false); // forget examined edges
-		long stopTime = System.currentTimeMillis();
-		ArrayList<Node> route = new ArrayList<>();
-		for (GraphNode gnode : graphSearcher.getRoute()) {
-			route.add(getNode(gnode));
+		int s = csr.indexOf(start.getId());
+		int t = csr.indexOf(dest.getId());
+		// Skip the search if the components show there is no route
+		boolean reachable = s >= 0 && t >= 0 && components.mayReach(s, t);
+		int[] path = null;
+		if (reachable && timed) {
+			path = chains.findPath(timeSearcher, signalDelays, s, t, departure);
+		} else if (reachable) {
+			path = routeCache.get(s, t);
+			if (path == null) {
+				path = chains.findPath(graphSearcher, s, t);
+				routeCache.put(s, t, (path == null) ? RouteCache.NO_ROUTE : path);
+			}
 		}
-		if (route.isEmpty()) {
+		long stopTime = System.currentTimeMillis();
+		Route route = toRoute(path);
+		if (route == null) {
 			Log.warning("No route found from Node " + start.getId() + " to Node " + dest.getId());
 			return null;
 		} else {
@@ -164,6 +419,370 @@ public class RoutePlanner {
 		return route;
 	}
 
+	// Plans the routes from one start node to many dest nodes with one search, leaving at simulation time
+	// "departure" (see setTimeDependent()). Returns the routes in the same order as the dest nodes, with null for each
+	// dest with no route (as getNewRoute()).
+	public ArrayList<Route> getNewRoutesFrom(Node start, List<Node> dests, double departure) {
+		boolean timed = timeDependent;
+		updateSignals(timed);
+		return planRoutesFrom(start, dests, timed, departure);
+	}
+
+	private ArrayList<Route> planRoutesFrom(Node start, List<Node> dests, boolean timed, double departure) {
+		ArrayList<Route> routes = new ArrayList<>(Collections.nCopies(dests.size(), null));
+		int s = (start == null) ? -1 : csr.indexOf(start.getId());
+		if (s < 0) {
+			Log.error("No start node given to RoutePlanner, return null routes");
+			return routes;
+		}
+		long startTime = System.currentTimeMillis();
+		// Only search for the dests not already cached (timed routes never are)
+		int[][] paths = new int[dests.size()][];
+		int[] uncached = new int[dests.size()];
+		int nbrUncached = 0;
+		for (int i = 0; i < dests.size(); i++) {
+			int t = (dests.get(i) == null) ? -1 : csr.indexOf(dests.get(i).getId());
+			paths[i] = (t < 0 || !components.mayReach(s, t)) ? RouteCache.NO_ROUTE
+					: timed ? null : routeCache.get(s, t);
+			if (paths[i] == null) {
+				uncached[nbrUncached++] = t;
+			}
+		}
+		if (nbrUncached > 0) {
+			int[] targets = Arrays.copyOf(uncached, nbrUncached);
+			int[][] found = timed ? timeTreeSearcher.findPaths(s, targets, departure)
+					: treeSearcher.findPaths(s, targets);
+			for (int i = 0, j = 0; i < dests.size(); i++) {
+				if (paths[i] == null) {
+					paths[i] = (found[j] == null) ? RouteCache.NO_ROUTE : found[j];
+					if (!timed) {
+						routeCache.put(s, uncached[j], paths[i]);
+					}
+					j++;
+				}
+			}
+		}
+		for (int i = 0; i < dests.size(); i++) {
+			routes.set(i, toRoute(paths[i]));
+		}
+		Log.info("Finding " + dests.size() + " routes from Node " + start.getId() + " took "
+				+ (System.currentTimeMillis() - startTime) + " ms.");
+		return routes;
+	}
+
+	// Finds the fastest routes from the start node to every node it can reach, to read routes from with getRoute()
+	public ShortestPathTree getRouteTree(Node start) {
+		int s = (start == null) ? -1 : csr.indexOf(start.getId());
+		return (s < 0) ? null : treeSearcher.findTree(s);
+	}
+
+	// Reads the route to the dest node out of a route tree. Returns null if there is no route.
+	public Route getRoute(ShortestPathTree tree, Node dest) {
+		int t = (dest == null) ? -1 : csr.indexOf(dest.getId());
+		return toRoute((t < 0) ? null : tree.getPath(t));
+	}
+
+	// Graph node indices to a route (sharing the array), null if there is none
+	private Route toRoute(int[] path) {
+		return (path == null || path.length == 0) ? null : new Route(path, csrNodes);
+	}
+
+	// Changes the travel time in seconds from one node to the next (adjacent) node. Returns false if there is no
+	// edge between them. Cached routes are dropped, as they may no longer be the fastest.
+	public boolean setTravelTime(Node from, Node to, double seconds) {
+		int edge = getLink(from, to);
+		if (edge < 0) {
+			return false;
+		}
+		csr.setCost(edge, seconds);
+		checkHeuristic(edge, seconds);
+		costsChanged();
+		return true;
+	}
+
+	// Sets the travel time in seconds of every link (see getLink()), except closed links. Must not be called while
+	// routes are being planned. Travel times below the free-flow times would make the landmark heuristic overestimate.
+	// If no travel time changes (e.g. going back to free-flow times when there was no congestion) the cached routes
+	// and the contraction hierarchy are kept.
+	public void setTravelTimes(double[] seconds) {
+		boolean changed = false;
+		for (int link = 0; link < seconds.length; link++) {
+			if (!closed[link] && csr.getCost(link) != seconds[link]) {
+				csr.setCost(link, seconds[link]);
+				changed = true;
+			}
+		}
+		if (changed) {
+			costsChanged();
+		}
+	}
+
+	// Closes the link from one node to the next (adjacent) node, e.g. for an incident, so no routes are planned over
+	// it until it is reopened. Only cached routes using the link are dropped. Returns false if there is no such link.
+	// Must not be called while routes are being planned; cars already routed over the link keep their routes.
+	public boolean closeLink(Node from, Node to) {
+		int link = getLink(from, to);
+		if (link < 0) {
+			return false;
+		}
+		if (!closed[link]) {
+			closed[link] = true;
+			csr.setCost(link, Double.POSITIVE_INFINITY);
+			linkCostRose(link, from, to);
+			findComponents();
+		}
+		return true;
+	}
+
+	// Opens a closed link again at its free-flow travel time. Returns false if there is no such link.
+	// Must not be called while routes are being planned.
+	public boolean reopenLink(Node from, Node to) {
+		int link = getLink(from, to);
+		if (link < 0) {
+			return false;
+		}
+		if (closed[link]) {
+			closed[link] = false;
+			csr.setCost(link, freeFlowTimes[link]);
+			costsChanged();
+			findComponents();
+		}
+		return true;
+	}
+
+	// Changes the speed limit (in m/s) used to plan routes over the link from one node to the next (adjacent) node,
+	// e.g. for road works. The link's free-flow travel time is set from it, and it is routed at that time until the
+	// next congestion update (see setTravelTimes()). Returns false if there is no such link or the speed isn't
+	// positive (close the link instead). Must not be called while routes are being planned.
+	public boolean setLinkSpeed(Node from, Node to, double speed) {
+		int link = getLink(from, to);
+		if (link < 0 || !(speed > 0)) {
+			return false;
+		}
+		freeFlowTimes[link] = linkLengths[link] / speed;
+		if (closed[link]) {
+			return true;
+		}
+		double old = csr.getCost(link);
+		csr.setCost(link, freeFlowTimes[link]);
+		checkHeuristic(link, freeFlowTimes[link]);
+		if (freeFlowTimes[link] >= old) {
+			linkCostRose(link, from, to);
+		} else {
+			costsChanged();
+		}
+		return true;
+	}
+
+	public boolean isClosed(int link) {
+		return closed[link];
+	}
+
+	// The heuristics are lower bounds on travel times, made for the speeds they were made with. A link now faster
+	// than that would make them overestimate, so A* goes back to the travel time heuristic at the new max speed.
+	private void checkHeuristic(int link, double seconds) {
+		double speed = linkLengths[link] / seconds;
+		if (speed > maxSpeed || (landmarkTimes != null && seconds < landmarkTimes[link])) {
+			maxSpeed = Math.max(maxSpeed, speed);
+			useTravelTimeHeuristic();
+		}
+	}
+
+	// Goes back from landmarks to steering A* by the travel time at max speed as the crow flies
+	private void useTravelTimeHeuristic() {
+		Log.info("Travel times fell below those the heuristic was made for; steering A* by travel time at "
+				+ maxSpeed + " m/s as the crow flies");
+		landmarkTimes = null;
+		astarSearcher = new GraphSearch_Astar(core, new AshTravelTime(maxSpeed));
+		timeSearcher = new GraphSearch_TimeDependent(core, chains.getCoreDelay(signalDelays), new AshTravelTime(maxSpeed));
+		graphSearcher = astarSearcher;
+	}
+
+	// Routes not using a link are still the fastest when its cost rises, so only the routes using it are dropped
+	private void linkCostRose(int link, Node from, Node to) {
+		chains.updateCost(link);
+		int dropped = routeCache.invalidate(csr.indexOf(from.getId()), csr.indexOf(to.getId()));
+		Log.debug("Dropped " + dropped + " cached routes from node " + from.getId() + " to " + to.getId());
+		if (graphSearcher instanceof GraphSearch_CH) {
+			Log.info("Edge costs changed; routing with A* instead of the contraction hierarchy");
+			graphSearcher = astarSearcher;
+		}
+	}
+
+	// Closing or reopening links changes which nodes can reach which
+	private void findComponents() {
+		setComponents(new StronglyConnectedComponents(csr));
+	}
+
+	private void setComponents(StronglyConnectedComponents found) {
+		components = found;
+		Log.info("Road graph has " + components.getNbrComponents() + " strongly connected components, largest "
+				+ ((components.getLargest() < 0) ? 0 : components.getSize(components.getLargest())) + " of "
+				+ csr.getNbrNodes() + " nodes");
+	}
+
+	// Cached routes may no longer be the fastest, and a contraction hierarchy only holds for the costs it was built on
+	private void costsChanged() {
+		chains.updateCosts();
+		routeCache.invalidate();
+		if (graphSearcher instanceof GraphSearch_CH) {
+			Log.info("Edge costs changed; routing with A* instead of the contraction hierarchy");
+			graphSearcher = astarSearcher;
+		}
+	}
+
+	public StronglyConnectedComponents getComponents() {
+		return components;
+	}
+
+	// True if the node is in the largest strongly connected component, i.e. the main road network, where every node
+	// can reach every other
+	public boolean isOnMainComponent(Node node) {
+		int i = (node == null) ? -1 : csr.indexOf(node.getId());
+		return i >= 0 && components.isInLargest(i);
+	}
+
+	// False if there is certainly no route from one node to the other (see StronglyConnectedComponents.mayReach())
+	public boolean mayReach(Node from, Node to) {
+		int f = (from == null) ? -1 : csr.indexOf(from.getId());
+		int t = (to == null) ? -1 : csr.indexOf(to.getId());
+		return f >= 0 && t >= 0 && components.mayReach(f, t);
+	}
+
+	// Returns the link (graph edge) index from one node to the next (adjacent) node, or -1 if there is no such link
+	public int getLink(Node from, Node to) {
+		int f = csr.indexOf(from.getId());
+		int t = csr.indexOf(to.getId());
+		return (f < 0 || t < 0) ? -1 : csr.getEdge(f, t);
+	}
+
+	public int getNbrLinks() {
+		return csr.getNbrEdges();
+	}
+
+	// Travel time in seconds at the speed limit (see setLinkSpeed())
+	public double getFreeFlowTime(int link) {
+		return freeFlowTimes[link];
+	}
+
+	// Length in m
+	public double getLinkLength(int link) {
+		return linkLengths[link];
+	}
+
+	// Plan routes given a departure time (getNewRoutes() etc.) by the waits for green predicted on the way
+	// (time-dependent search), rather than by travel times alone. Off by default. Timed routes depend on the
+	// departure time so are neither cached nor taken from the cache: each is searched for, where routes by travel
+	// time are shared by every car with the same trip. Routes planned without a departure time never are timed.
+	public void setTimeDependent(boolean timeDependent) {
+		this.timeDependent = timeDependent;
+	}
+
+	public boolean isTimeDependent() {
+		return timeDependent;
+	}
+
+	public RouteCache getRouteCache() {
+		return routeCache;
+	}
+
+	// Plans the routes from each start node to the dest node at the same position on a pool of threads, leaving at
+	// simulation time "departure" (see setTimeDependent()). Returns the routes in the same order as the nodes, with
+	// null for each pair with no route (as getNewRoute()).
+	// Trips from the same start node are planned together with one search (see getNewRoutesFrom()).
+	public ArrayList<Route> getNewRoutes(List<Node> starts, List<Node> dests, double departure) {
+		boolean timed = timeDependent;
+		updateSignals(timed);
+		return planRoutes(starts, dests, timed, departure);
+	}
+
+	private ArrayList<Route> planRoutes(List<Node> starts, List<Node> dests, boolean timed, double departure) {
+		int count = Math.min(starts.size(), dests.size());
+		ArrayList<Route> routes = new ArrayList<>(Collections.nCopies(count, null));
+		// Start node to positions of its trips
+		LinkedHashMap<Node, ArrayList<Integer>> origins = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			origins.computeIfAbsent(starts.get(i), k -> new ArrayList<>()).add(i);
+		}
+		ArrayList<ArrayList<Integer>> groups = new ArrayList<>(origins.values());
+		// Several small batches per thread so threads given short routes aren't left idle
+		int batch = Math.max(1, groups.size() / (ROUTING_THREADS * 4));
+		ArrayList<Callable<Void>> tasks = new ArrayList<>();
+		for (int first = 0; first < groups.size(); first += batch) {
+			int from = first;
+			int to = Math.min(groups.size(), first + batch);
+			tasks.add(() -> {
+				for (int g = from; g < to; g++) {
+					ArrayList<Integer> trips = groups.get(g);
+					if (trips.size() == 1) {
+						int i = trips.get(0);
+						routes.set(i, planRoute(starts.get(i), dests.get(i), timed, departure));
+						continue;
+					}
+					ArrayList<Node> tripDests = new ArrayList<>(trips.size());
+					for (int i : trips) {
+						tripDests.add(dests.get(i));
+					}
+					ArrayList<Route> found = planRoutesFrom(starts.get(trips.get(0)), tripDests, timed, departure);
+					for (int j = 0; j < trips.size(); j++) {
+						routes.set(trips.get(j), found.get(j));
+					}
+				}
+				return null;
+			});
+		}
+		try {
+			for (Future<Void> future : getRoutingPool().invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			Log.error("Interrupted while planning routes : " + ex.getMessage());
+		} catch (ExecutionException ex) {
+			Log.error("Failed planning routes : " + ex.getCause());
+		}
+		return routes;
+	}
+
+	// Plans routes as getNewRoutes() does, in the background. Edge costs must not be changed until it's done. Timed
+	// routes wait for the lights as they are timed when this is called, however they change in the meantime, and
+	// routes are timed or not as set when this is called.
+	public Future<ArrayList<Route>> getNewRoutesLater(List<Node> starts, List<Node> dests, double departure) {
+		synchronized (this) {
+			if (batchPool == null) {
+				batchPool = Executors.newSingleThreadExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "RoutePlanner batch");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+		}
+		boolean timed = timeDependent;
+		updateSignals(timed);
+		pendingBatch = batchPool.submit(() -> planRoutes(starts, dests, timed, departure));
+		return pendingBatch;
+	}
+
+	// Takes the light timings timed routes are planned with as they are now (see SignalDelays), unless a batch is
+	// still being planned in the background with the timings taken when it started. Called on the thread running
+	// the simulation, before each route or batch of routes it asks for.
+	private void updateSignals(boolean timed) {
+		if (timed && (pendingBatch == null || pendingBatch.isDone())) {
+			signalDelays.update();
+		}
+	}
+
+	private synchronized ExecutorService getRoutingPool() {
+		if (routingPool == null) {
+			routingPool = Executors.newFixedThreadPool(ROUTING_THREADS, runnable -> {
+				Thread thread = new Thread(runnable, "RoutePlanner");
+				thread.setDaemon(true); // Don't keep the application alive
+				return thread;
+			});
+		}
+		return routingPool;
+	}
+
 	public Way getFirstWayContaining(Node node) {
 		return getFirstOtherWayContaining(null, node);
 	}
@@ -188,28 +807,53 @@ public class RoutePlanner {
 	}
 
 	public Way getFirstOtherRoadContaining(Way current, Node node) {
-		for (Way way : parser.getRoads().values()) {
+		for (Way way : getRoadsContaining(node.getId())) {
 			if (!way.equals(current)) {
-				if (way.getNodeRefs().contains(node.getId())) {
-					return way;
-				}
+				return way;
 			}
 		}
 		return null;
 	}
 
+	// Is the node on the road? Uses the node's (few) roads rather than searching the road's (many) nodes
+	public boolean isOnRoad(Node node, Way road) {
+		return getRoadsContaining(node.getId()).contains(road);
+	}
+
+	// Roads containing the node, in the order the parser lists roads (so "first" means the same as a scan of all roads)
+	private List<Way> getRoadsContaining(long nodeId) {
+		if (roadsByNode == null) {
+			HashMap<Long, ArrayList<Way>> index = new HashMap<>();
+			for (Way way : parser.getRoads().values()) {
+				for (Long id : way.getNodeRefs()) {
+					ArrayList<Way> roads = index.computeIfAbsent(id, k -> new ArrayList<>(2));
+					// A way may pass through a node more than once (e.g. a loop)
+					if (roads.isEmpty() || roads.get(roads.size() - 1) != way) {
+						roads.add(way);
+					}
+				}
+			}
+			roadsByNode = index;
+		}
+		List<Way> roads = roadsByNode.get(nodeId);
+		return (roads == null) ? Collections.emptyList() : roads;
+	}
+
 	// Return first way containing all in a list of nodes, other than "current"
 	public Way getFirstOtherRoadContaining(Way current, Collection<Node> nodes) {
 		ArrayList<Long> nodeIds = new ArrayList<>();
 		for (Node node : nodes) {
 			nodeIds.add(node.getId());
 		}
-		for (Way way : parser.getRoads().values()) {
+		if (nodeIds.isEmpty()) {
+			return null;
+		}
+		// Only roads containing the first node can contain them all; the others are checked by their (few) roads too
+		for (Way way : getRoadsContaining(nodeIds.get(0))) {
 			if (!way.equals(current)) {
 				boolean containsNodes = true;
-				ArrayList<Long> wayNodeRefs = way.getNodeRefs();
-				for (Long id : nodeIds) {
-					if (!wayNodeRefs.contains(id)) {
+				for (int i = 1; i < nodeIds.size(); i++) {
+					if (!getRoadsContaining(nodeIds.get(i)).contains(way)) {
 						containsNodes = false;
 						break;
 					}
@@ -0,0 +1,73 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import pathfinder.CsrGraph;
+import pathfinder.EdgeDelay;
+
+/**
+ * The predicted wait for green at the end of each link (graph edge) leading into a lit intersection, for
+ * time-dependent routing (see pathfinder.GraphSearch_TimeDependent).
+ *
+ * Waits are predicted from each intersection's light timings as they were at the last update() (see
+ * SignalTimings), not from the lights themselves, which the simulation changes while routes are planned on other
+ * threads. Every search between two updates sees the same timings. Links not leading into a lit intersection have
+ * no wait.
+ */
+public class SignalDelays implements EdgeDelay {
+	private final SignalisedIntersection[] lights; // Light number to lit intersection
+	private final int[] lightAt; // Link to the number of the lit intersection at its end, or -1
+	private final int[] approaches; // Link to its approach index at that intersection
+	private volatile SignalTimings[] timings; // Light number to its timings at the last update
+
+	// Nodes are the graph's node index to node; their intersections must be set
+	public SignalDelays(CsrGraph csr, Node[] nodes) {
+		HashMap<SignalisedIntersection, Integer> numbers = new HashMap<>();
+		ArrayList<SignalisedIntersection> found = new ArrayList<>();
+		lightAt = new int[csr.getNbrEdges()];
+		approaches = new int[csr.getNbrEdges()];
+		for (int i = 0; i < nodes.length; i++) {
+			for (int e = csr.firstEdge(i); e < csr.endEdge(i); e++) {
+				lightAt[e] = -1;
+				Intersection inter = nodes[csr.getTarget(e)].getIntersection();
+				if (inter instanceof SignalisedIntersection) {
+					int approach = inter.getApproachIndex(nodes[i]);
+					if (approach >= 0) {
+						SignalisedIntersection lit = (SignalisedIntersection) inter;
+						lightAt[e] = numbers.computeIfAbsent(lit, k -> {
+							found.add(lit);
+							return found.size() - 1;
+						});
+						approaches[e] = approach;
+					}
+				}
+			}
+		}
+		lights = found.toArray(new SignalisedIntersection[0]);
+		update();
+	}
+
+	// Takes the light timings of every lit intersection as they are now. Must be called from the thread running the
+	// simulation, and not while routes are being planned with the timings taken before.
+	public void update() {
+		SignalTimings[] taken = new SignalTimings[lights.length];
+		for (int l = 0; l < lights.length; l++) {
+			taken[l] = lights[l].getTimings();
+		}
+		timings = taken;
+	}
+
+	@Override
+	public double getDelay(int link, double arrival) {
+		int l = lightAt[link];
+		if (l < 0) {
+			return 0;
+		}
+		SignalTimings t = timings[l];
+		return (t == null) ? 0 : t.getWaitTime(approaches[link], arrival);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+import java.util.Arrays;
+
+/**
+ * Drives the traffic controllers of lit intersections by event rather than every simulation step.
+ * 
+ * Intersections are kept in a binary min-heap ordered by the time of their next light change, so each step only
+ * touches the intersections whose lights actually change (or whose adaptive controllers were rescheduled because
+ * their queues changed). Each intersection stores its own position in the heap so it can be rescheduled in place.
+ */
+public class SignalScheduler {
+	private SignalisedIntersection[] heap = new SignalisedIntersection[16];
+	private double[] due = new double[16]; // heap position to next light change time of intersection at that position
+	private int size = 0;
+
+	public void add(SignalisedIntersection intersection) {
+		if (intersection.scheduleIndex >= 0) {
+			return; // already scheduled
+		}
+		if (size == heap.length) {
+			heap = Arrays.copyOf(heap, size * 2);
+			due = Arrays.copyOf(due, size * 2);
+		}
+		heap[size] = intersection;
+		due[size] = intersection.getNextSignalChange();
+		intersection.scheduleIndex = size;
+		intersection.setScheduler(this);
+		siftUp(size++);
+	}
+
+	// Re-reads the intersection's next light change time, e.g. after its controller has changed its timings
+	public void reschedule(SignalisedIntersection intersection) {
+		int i = intersection.scheduleIndex;
+		if (i < 0) {
+			return;
+		}
+		double old = due[i];
+		due[i] = intersection.getNextSignalChange();
+		if (due[i] < old) {
+			siftUp(i);
+		} else {
+			siftDown(i);
+		}
+	}
+
+	// Applies every light change due before simulation time "now"
+	public void advanceTo(double now) {
+		while (size > 0 && due[0] < now) {
+			SignalisedIntersection intersection = heap[0];
+			intersection.advanceSignals(now);
+			due[0] = intersection.getNextSignalChange();
+			siftDown(0);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			heap[i].scheduleIndex = -1;
+			heap[i].setScheduler(null);
+			heap[i] = null;
+		}
+		size = 0;
+	}
+
+	private void siftUp(int i) {
+		SignalisedIntersection intersection = heap[i];
+		double key = due[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (due[parent] <= key) {
+				break;
+			}
+			move(parent, i);
+			i = parent;
+		}
+		place(intersection, key, i);
+	}
+
+	private void siftDown(int i) {
+		SignalisedIntersection intersection = heap[i];
+		double key = due[i];
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && due[child + 1] < due[child]) {
+				child++;
+			}
+			if (key <= due[child]) {
+				break;
+			}
+			move(child, i);
+			i = child;
+		}
+		place(intersection, key, i);
+	}
+
+	private void move(int from, int to) {
+		heap[to] = heap[from];
+		due[to] = due[from];
+		heap[to].scheduleIndex = to;
+	}
+
+	private void place(SignalisedIntersection intersection, double key, int i) {
+		heap[i] = intersection;
+		due[i] = key;
+		intersection.scheduleIndex = i;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+/**
+ * The light timings of a lit intersection at one moment: its phases, the period of the phase green then and the
+ * periods planned for the next cycle (see NormalTrafficController). Waits for green are predicted from it.
+ *
+ * The arrays are never changed once given, so routes can be planned from it on other threads while the simulation
+ * carries on changing the lights (see SignalDelays).
+ */
+public final class SignalTimings {
+	private final int[][] phases; // Phase index to approach indices green together; green in index order
+	private final double[] periods; // Phase index to period of each light green this cycle
+	private final double[] nextPeriods; // Phase index to period of each light green planned for the next cycle
+	private final double[] yellowTimes; // Approach index to yellow light time
+	private final int phase; // Phase green (or yellow) at the time
+	private final double phaseStart; // Simulation time that phase started
+
+	SignalTimings(int[][] phases, double[] periods, double[] nextPeriods, double[] yellowTimes, int phase,
+			double phaseStart) {
+		this.phases = phases;
+		this.periods = periods;
+		this.nextPeriods = nextPeriods;
+		this.yellowTimes = yellowTimes;
+		this.phase = phase;
+		this.phaseStart = phaseStart;
+	}
+
+	// Wait until the approach is next green (not yellow) for a car arriving at simulation time "arrival", given the
+	// current phase, when it started and its period, then the phases in order each green for its next period.
+	// Adaptive controllers replan as queues change, so for them this is only an estimate.
+	public double getWaitTime(int approach, double arrival) {
+		int phase = this.phase;
+		double start = phaseStart;
+		double period = periods[phase];
+		for (int k = 0; k <= 2 * phases.length; k++) {
+			if (k > 0) {
+				phase = (phase + 1) % phases.length;
+				period = nextPeriods[phase];
+			}
+			if (arrival < start + period - yellowTimes[approach] && contains(phases[phase], approach)) {
+				return Math.max(0, start - arrival);
+			}
+			start += period;
+			if (k == 0) {
+				// Skip whole cycles before the arrival
+				double cycle = 0;
+				for (double p : nextPeriods) {
+					cycle += p;
+				}
+				if (cycle <= 0) {
+					return 0;
+				}
+				if (arrival > start + cycle) {
+					start += Math.floor((arrival - start) / cycle) * cycle;
+				}
+			}
+		}
+		return Math.max(0, start - arrival); // Never green as planned; expect the controller to replan by then
+	}
+
+	private static boolean contains(int[] approaches, int approach) {
+		for (int a : approaches) {
+			if (a == approach) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
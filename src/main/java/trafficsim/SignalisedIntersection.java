@@ -0,0 +1,193 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import util.Log;
+
+/**
+ * A fully lit intersection whose lights are run by a traffic controller.
+ * 
+ * The controller and its phases, periods and light states are only built the first time the lights are needed (see
+ * advanceSignals()), so lit intersections no car ever reaches cost nothing beyond their approach queues. Until then
+ * every light reads red.
+ */
+public class SignalisedIntersection extends Intersection {
+	private volatile TrafficController trafficController; // null until first use; read when drawing
+	private SignalScheduler scheduler; // Set while the intersection's lights are driven by a scheduler
+	int scheduleIndex = -1; // Position in the scheduler's heap, maintained by SignalScheduler
+	private volatile int[][] phases; // Phase index to approach indices that are green together (opposing approaches)
+	private double[] periods; // Phase index to period of each light green
+	private double[] yellowTimes; // Approach index to yellow light time
+	private SignalTimings initialTimings; // Timings of the lights before they start (see getTimings())
+	private int[] states; // Approach index to light state. Shared with (and updated in place by) the controller.
+
+	public SignalisedIntersection(Node intersectionNode, ArrayList<Node> approachingNodes,
+			ArrayList<Way> approachingWays) {
+		super(FULLY_LIT, intersectionNode, approachingNodes, approachingWays);
+	}
+
+	// Puts the lights back to their initial state (all red, start of the light cycle at simulation time 0).
+	// The controller is rebuilt on next use.
+	public void resetSignals() {
+		trafficController = null;
+		states = null;
+		periods = null;
+	}
+
+	public boolean isStarted() {
+		return trafficController != null;
+	}
+
+	// Phases and yellow times only depend on the map so are kept across resets.
+	private void makeTimings() {
+		if (phases == null) {
+			int n = getNumApproaches();
+			yellowTimes = new double[n];
+			for (int i = 0; i < n; i++) {
+				yellowTimes[i] = getYellowTime(approachWays[i]);
+			}
+			int[][] made = makePhases();
+			// All red until the first phase turns green at the end of the first period
+			double[] initialPeriods = new double[made.length];
+			Arrays.fill(initialPeriods, MEDIUM_LIGHT);
+			initialTimings = new SignalTimings(made, initialPeriods, initialPeriods, yellowTimes, 0, MEDIUM_LIGHT);
+			phases = made;
+		}
+	}
+
+	private TrafficController getController() {
+		if (trafficController == null) {
+			int n = getNumApproaches();
+			makeTimings();
+			periods = new double[phases.length];
+			Arrays.fill(periods, MEDIUM_LIGHT);
+			states = new int[n]; // All RED
+			// trafficController = new BasicTrafficController(states, periods, yellowTimes);
+			// trafficController = new NormalTrafficController(states, phases, periods, yellowTimes);
+			// trafficController = new LongestQueueTrafficController(this, states, phases, periods, yellowTimes);
+			// trafficController = new MaxPressureTrafficController(this, states, phases, periods, yellowTimes);
+			trafficController = new LinearWeightedTrafficController(this, states, phases, periods, yellowTimes);
+		}
+		return trafficController;
+	}
+
+	// Input the node the vehicle is approaching the intersection from, get state of light for that approach node
+	public int getState(Node approach) {
+		int i = getApproachIndex(approach);
+		if (i >= 0) {
+			return getState(i);
+		}
+		Log.error("Car approaching intersection " + intersectionNode.getId() + " from invalid node : " + approach.getId());
+		return RED;
+	}
+
+	// Input the approach index (see getApproachIndex()), get state of light for that approach
+	public int getState(int approach) {
+		if (approach >= 0) {
+			int[] s = states;
+			return (s == null) ? RED : s[approach];
+		}
+		Log.error("Car approaching intersection " + intersectionNode.getId() + " from invalid approach : " + approach);
+		return RED;
+	}
+
+	// Input current simulation time and controller state updated (in place) with all light changes due before then.
+	// Starts the lights on first use, catching up on the light changes since simulation time 0.
+	public void advanceSignals(double time) {
+		getController().advanceTo(time);
+	}
+
+	// The light timings as they are now, for routing (see SignalDelays), or null if the controller doesn't predict
+	// waits. Lights not started yet will catch up from simulation time 0 when started, so are predicted from then.
+	// Reads the controller, so must be called from the thread running the simulation.
+	public SignalTimings getTimings() {
+		if (trafficController != null) {
+			return trafficController.getTimings();
+		}
+		makeTimings();
+		return initialTimings;
+	}
+
+	// Predicted wait in seconds for green at the approach for a car arriving at simulation time "arrival"
+	public double getWaitTime(int approach, double arrival) {
+		SignalTimings timings = getTimings();
+		return (timings == null) ? 0 : timings.getWaitTime(approach, arrival);
+	}
+
+	// Simulation time of the next light change at this intersection
+	public double getNextSignalChange() {
+		return getController().getNextTransitionTime();
+	}
+
+	void setScheduler(SignalScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	// Lets an adaptive controller react to the change; reschedules its next light change if it did
+	@Override
+	protected void queueChanged(int approach, int change) {
+		super.queueChanged(approach, change);
+		if (trafficController != null && trafficController.queueChanged() && scheduler != null) {
+			scheduler.reschedule(this);
+		}
+	}
+
+	/*
+	 * Groups approaches into phases, where each phase is an approach plus its opposing approach (if any).
+	 * Each approach belongs to exactly one phase.
+	 * 
+	 * Algorithm:
+	 * 
+	 * a & b opposite if both:
+	 * 
+	 * 1. xa < xi < xb or xa > xi > xb 
+	 * and
+	 * 2. ya < yi < yb or ya > yi > yb
+	 */
+	private int[][] makePhases() {
+		int n = approachNodes.length;
+		boolean[] grouped = new boolean[n];
+		int[][] opposing = new int[n][];
+		int count = 0;
+		Node i = intersectionNode;
+		for (int ia = 0; ia < n; ia++) {
+			if (grouped[ia]) {
+				continue;
+			}
+			Node a = approachNodes[ia];
+			int opposite = -1;
+			for (int ib = 0; ib < n; ib++) {
+				Node b = approachNodes[ib];
+				if (ib != ia && !grouped[ib] && ((a.getLat() < i.getLat() && i.getLat() < b.getLat())
+						|| (a.getLat() > i.getLat() && i.getLat() > b.getLat())) && // 1.
+						((a.getLon() < i.getLon() && i.getLon() < b.getLon())
+								|| (a.getLon() > i.getLon() && i.getLon() > b.getLon()))) // 2.
+				{
+					opposite = ib;
+				}
+			}
+			grouped[ia] = true;
+			if (opposite >= 0) {
+				grouped[opposite] = true;
+				opposing[count++] = new int[] { ia, opposite };
+			} else {
+				opposing[count++] = new int[] { ia };
+			}
+		}
+		return Arrays.copyOf(opposing, count);
+	}
+
+	// Phase index to approach indices green during that phase (null until the lights are first used)
+	public final int[][] getPhases() {
+		return phases;
+	}
+
+	// Phase index to period of green light (as planned for the next cycle; null until the lights are first used)
+	public final double[] getPeriods() {
+		return periods;
+	}
+}
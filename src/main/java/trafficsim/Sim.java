@@ -5,7 +5,12 @@ package trafficsim;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,6 +25,7 @@ public class Sim implements Runnable {
 	private PixelCoords pixelCoords;
 	private RoutePlanner planner;
 	private ArrayList<Car> cars;
+	private SignalScheduler signals = new SignalScheduler(); // Drives traffic lights of lit intersections
 	private double timestep = 0.08333333333; // Seconds in simulation time between frames. Smaller = more accurate.
 	private long accumulatedRunTime = 0; // Updated only on sim pause
 	private double time = 0; // Simulation time in seconds
@@ -34,6 +40,20 @@ public class Sim implements Runnable {
 	private boolean preserveStart = false; // Stores whether reset has been hit since pause button
 	final long MIN_WAIT_TIME = 0; // ms. Lower is smoother, but more cpu expensive bc of more graphics repaints.
 	final int NUM_CARS = 1000; // Pick any number your system can render in real time without lag.
+	final int MAX_SPAWN_TRIES = 100; // Random picks of a start or stop node before settling for one off the main network
+	// When rerouting (see setReroute()), every REROUTE_INTERVAL seconds of simulation time link travel times are
+	// refreshed from car speeds and a share of cars are given new routes from their next node for the new travel times.
+	final double REROUTE_INTERVAL = 30; // s
+	final double REROUTE_SHARE = 0.1; // Of cars, 0 to 1
+	private boolean reroute = false; // Reroute cars around congestion
+	private LinkTravelTimes linkTimes; // Smoothed travel time of each link, from car speeds
+	private double nextReroute = REROUTE_INTERVAL; // Simulation time of next travel time refresh
+	private int rerouteCursor = 0; // Index of next car to reroute; cars are rerouted in turn
+	private Future<ArrayList<Route>> reroutes; // Routes being planned in the background, null if none
+	private ArrayList<Car> rerouteCars; // Cars the routes being planned are for
+	// Road network changes (see closeLink() etc.) waiting to be made between steps. Can be added from any thread.
+	private final ConcurrentLinkedQueue<Runnable> networkChanges = new ConcurrentLinkedQueue<>();
+	private HashSet<Integer> slowedLinks = new HashSet<>(); // Links closed or slowed by the changes being made
 
 	public static void main(String[] args) {
 		Log.warning("Standalone simulation not implemented yet!");
@@ -44,6 +64,8 @@ public class Sim implements Runnable {
 		this.drawingPanel = drawingPanel;
 		this.pixelCoords = pixelCoords;
 		planner = new RoutePlanner(pixelCoords.getParser());
+		planner.setTimeDependent(true); // Cars' routes wait for the lights (see setTimeDependent())
+		linkTimes = new LinkTravelTimes(planner);
 		Log.info("Finished setup");
 	};
 
@@ -83,7 +105,11 @@ public class Sim implements Runnable {
 			* </Generator>
 			*/
 			// Add some random cars
+			// Start and stop nodes are picked one car after another, the routes planned all at once on several
+			// threads, then cars put on the roads in order so lanes are filled the same way for the same picks.
 			ArrayList<Way> roads = new ArrayList<>(parser.getRoads().values());
+			ArrayList<Node> starts = new ArrayList<>(NUM_CARS);
+			ArrayList<Node> stops = new ArrayList<>(NUM_CARS);
 			for (int i = 0; i < NUM_CARS; i++) {
 				// Note: can't pick nodes at random since majority of nodes won't belong to
 				//  proper roads and most cars will be stuck.
@@ -92,19 +118,17 @@ public class Sim implements Runnable {
 					Log.error("No nodes found for simulation");
 					return;
 				}
-				int rand1 = (int) Math.round(Math.random() * (roads.size() - 1));
-				int rand2 = (int) Math.round(Math.random() * (roads.size() - 1));
-				LinkedList<Node> startNodes = roads.get(rand1).getNodes();
-				LinkedList<Node> stopNodes = roads.get(rand2).getNodes();
-				int rand3 = (int) Math.round(Math.random() * (startNodes.size() - 1));
-				int rand4 = (int) Math.round(Math.random() * (stopNodes.size() - 1));
-				Node start = startNodes.get(rand3);
-				Node stop = stopNodes.get(rand4);
+				starts.add(randomRoadNode(roads));
+				stops.add(randomRoadNode(roads));
+			}
+			ArrayList<Route> routes = planner.getNewRoutes(starts, stops, time);
+			Log.info(planner.getRouteCache().toString());
+			for (int i = 0; i < starts.size(); i++) {
 				// Assign nodes to car and plan route
-				Car car = new Car(start.getLon(), start.getLat()); // At random start node
+				Car car = new Car(starts.get(i).getLon(), starts.get(i).getLat()); // At random start node
 				// Car car = new Car(Math.random()*deltaLon + b.getMinlon(), // Randomly anywhere on map
 				//   Math.random()*deltaLat + b.getMinlat());
-				if (car.setRoute(planner, start, stop)) {
+				if (car.setRoute(planner, routes.get(i))) {
 					// Add car to list if we successfully found a route for it, else forget it
 					cars.add(car);
 				}
@@ -127,6 +151,22 @@ public class Sim implements Runnable {
 		thread.start();
 	}
 
+	// Picks a random node of a random road, on the main road network (largest strongly connected component) so every
+	// pick can reach every other. Gives up looking after MAX_SPAWN_TRIES picks off it.
+	private Node randomRoadNode(ArrayList<Way> roads) {
+		Node node = null;
+		for (int tries = 0; tries < MAX_SPAWN_TRIES; tries++) {
+			int rand1 = (int) Math.round(Math.random() * (roads.size() - 1));
+			LinkedList<Node> nodes = roads.get(rand1).getNodes();
+			int rand2 = (int) Math.round(Math.random() * (nodes.size() - 1));
+			node = nodes.get(rand2);
+			if (planner.isOnMainComponent(node)) {
+				break;
+			}
+		}
+		return node;
+	}
+
 	@Override
 	public void run() {
 		long tCatchUp = 0; // catchup time in ms
@@ -158,9 +198,20 @@ public class Sim implements Runnable {
 
 	// Iterate through one step of simulation time
 	public void step() {
-		// Update traffic lights
-		for (Intersection intersection : planner.getIntersections()) {
-			intersection.updateStates(timestep);
+		// Update traffic lights that are due to change by the end of this step
+		signals.advanceTo(time + timestep);
+		if (!networkChanges.isEmpty()) {
+			applyNetworkChanges();
+		}
+		// Reroutes are planned in the background and applied between steps, when ready
+		if (reroutes != null && reroutes.isDone()) {
+			applyReroutes();
+		}
+		// Edge costs can only change while no routes are being planned
+		if (reroute && time >= nextReroute && reroutes == null) {
+			linkTimes.update();
+			startReroutes();
+			nextReroute = time + REROUTE_INTERVAL;
 		}
 		// update car positions
 		for (Car car : cars) {
@@ -175,12 +226,21 @@ public class Sim implements Runnable {
 			Intersection inter = next.getIntersection();
 			double dInter = Double.MAX_VALUE; // Stores distance to intersection; MAX_VALUE is arbitrary and should never be used
 			Node prev = car.getPrevNode();
+			if (reroute && prev != null) {
+				if (car.getLink() < 0) {
+					car.setLink(planner.getLink(prev, next));
+				}
+				if (car.getLink() >= 0) {
+					linkTimes.observe(car.getLink(), car.getVelocity(), timestep);
+				}
+			}
 			// Don't do intersection code if car starts travelling at an intersection!
 			if (prev != null && inter != null) {
 				// Code for 4-way stop
-				if (inter.getType() == Intersection.ALL_WAY_STOP) {
+				if (inter instanceof StopIntersection) {
+					StopIntersection stop = (StopIntersection) inter;
 					// Car not in list of cars polled off intersection queue so must queue and wait at stop
-					if (!inter.getPolledCars().contains(car)) {
+					if (!stop.getPolledCars().contains(car)) {
 						doStop = true;
 						dInter = ProjectionConverter.getDistBetweenPoints(car.getLon(), car.getLat(), next.getLon(), next.getLat());
 						// Queue car if: (a) first in lane, and (b) almost stopped at intersection, and (c) close to intersection.
@@ -193,9 +253,9 @@ public class Sim implements Runnable {
 							// Add car to queue if lead has already been added to queue
 							Car lead = car.getLeader();
 							if (lead == null || lead.getNextNode() == null || !lead.getNextNode().equals(car.getNextNode())
-									|| inter.getPolledCars().contains(lead) || inter.isQueued(lead)) {
+									|| stop.getPolledCars().contains(lead) || stop.isQueued(lead)) {
 								// TODO Only add if not in queue -> isQueued(car). Depends on which performs better. (Store in car?)
-								inter.queue(car);
+								stop.queue(car);
 							}
 						}
 					} else {
@@ -203,19 +263,26 @@ public class Sim implements Runnable {
 						doStop = false;
 					}
 					// Unqueue next car if empty. Cars removed from polled cars as they exit intersection.
-					if (inter.getPolledCars().isEmpty()) {
-						inter.unqueueNext();
+					if (stop.getPolledCars().isEmpty()) {
+						stop.unqueueNext();
 					}
 				}
 				// Code for fully lit intersection
-				else if (inter.getType() == Intersection.FULLY_LIT) {
+				else if (inter instanceof SignalisedIntersection) {
+					SignalisedIntersection lit = (SignalisedIntersection) inter;
+					// Lights are started (and scheduled) when the first car approaches
+					if (!lit.isStarted()) {
+						lit.advanceSignals(time + timestep);
+						signals.add(lit);
+					}
 					// TODO Start checking from earlier nodes to make sure we can stop in time
-					if (inter.getState(prev) == Intersection.GREEN) {
+					int state = lit.getState(lit.getApproachIndex(prev));
+					if (state == Intersection.GREEN) {
 						doStop = false;
-					} else if (inter.getState(prev) == Intersection.RED) {
+					} else if (state == Intersection.RED) {
 						doStop = true;
 						dInter = ProjectionConverter.getDistBetweenPoints(car.getLon(), car.getLat(), next.getLon(), next.getLat());
-					} else if (inter.getState(prev) == Intersection.YELLOW) {
+					} else if (state == Intersection.YELLOW) {
 						// IF we can safely stop, do so
 						doStop = false;
 						double tStop = Math.abs(car.getVelocity() / car.getMaxDeceleration());
@@ -230,7 +297,7 @@ public class Sim implements Runnable {
 					// For fully lit intersections with traffic controllers add car to
 					//  queue on red light to let controller know # cars.
 					if (doStop) {
-						inter.queue(car);
+						lit.queue(car);
 					}
 				}
 			}
@@ -292,6 +359,122 @@ public class Sim implements Runnable {
 		timestepcount++;
 	}
 
+	// Plans new routes in the background for the next share of cars, from the node each is heading to
+	private void startReroutes() {
+		int count = (int) Math.ceil(REROUTE_SHARE * cars.size());
+		rerouteCars = new ArrayList<>(count);
+		ArrayList<Node> starts = new ArrayList<>(count);
+		ArrayList<Node> dests = new ArrayList<>(count);
+		for (int i = 0; i < cars.size() && rerouteCars.size() < count; i++) {
+			Car car = cars.get(rerouteCursor);
+			rerouteCursor = (rerouteCursor + 1) % cars.size();
+			Node next = car.getNextNode();
+			if (next != null) {
+				rerouteCars.add(car);
+				starts.add(next);
+				dests.add(car.getDestNode());
+			}
+		}
+		if (!rerouteCars.isEmpty()) {
+			reroutes = planner.getNewRoutesLater(starts, dests, time);
+		}
+	}
+
+	// Gives the cars their new routes, except those that have passed the node their route was planned from
+	private void applyReroutes() {
+		try {
+			ArrayList<Route> routes = reroutes.get();
+			int changed = 0;
+			for (int i = 0; i < routes.size(); i++) {
+				if (rerouteCars.get(i).reroute(routes.get(i))) {
+					changed++;
+				}
+			}
+			Log.debug("Rerouted " + changed + " of " + routes.size() + " cars");
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			Log.error("Interrupted while rerouting cars : " + ex.getMessage());
+		} catch (ExecutionException ex) {
+			Log.error("Failed rerouting cars : " + ex.getCause());
+		}
+		reroutes = null;
+		rerouteCars = null;
+	}
+
+	// Closes the link from one node to the next (adjacent) node at the start of the next step, e.g. for an incident.
+	// Cars routed over it are rerouted then.
+	public void closeLink(Node from, Node to) {
+		networkChanges.add(() -> {
+			if (planner.closeLink(from, to)) {
+				slowedLinks.add(planner.getLink(from, to));
+			} else {
+				Log.warning("No link to close from node " + from.getId() + " to " + to.getId());
+			}
+		});
+	}
+
+	// Reopens a closed link at the start of the next step. Cars find it again when next rerouted.
+	public void reopenLink(Node from, Node to) {
+		networkChanges.add(() -> {
+			if (!planner.reopenLink(from, to)) {
+				Log.warning("No link to reopen from node " + from.getId() + " to " + to.getId());
+			}
+		});
+	}
+
+	// Changes the speed limit (m/s) routes are planned with over a link at the start of the next step. Cars routed
+	// over it are rerouted then if it got slower.
+	public void setLinkSpeed(Node from, Node to, double speed) {
+		networkChanges.add(() -> {
+			int link = planner.getLink(from, to);
+			double old = (link < 0) ? 0 : planner.getFreeFlowTime(link);
+			if (!planner.setLinkSpeed(from, to, speed)) {
+				Log.warning("Could not set speed " + speed + " m/s from node " + from.getId() + " to " + to.getId());
+			} else if (planner.getFreeFlowTime(link) > old) {
+				slowedLinks.add(link);
+			}
+		});
+	}
+
+	// Makes the waiting network changes, then reroutes the cars whose routes ahead use a link closed or slowed down
+	private void applyNetworkChanges() {
+		// Edge costs can only change while no routes are being planned
+		if (reroutes != null) {
+			applyReroutes();
+		}
+		Runnable change;
+		while ((change = networkChanges.poll()) != null) {
+			change.run();
+		}
+		if (slowedLinks.isEmpty()) {
+			return;
+		}
+		ArrayList<Car> affected = new ArrayList<>();
+		ArrayList<Node> starts = new ArrayList<>();
+		ArrayList<Node> dests = new ArrayList<>();
+		for (Car car : cars) {
+			List<Node> ahead = car.getRemainingRoute();
+			for (int i = 1; i < ahead.size(); i++) {
+				if (slowedLinks.contains(planner.getLink(ahead.get(i - 1), ahead.get(i)))) {
+					affected.add(car);
+					starts.add(ahead.get(0));
+					dests.add(ahead.get(ahead.size() - 1));
+					break;
+				}
+			}
+		}
+		slowedLinks.clear();
+		ArrayList<Route> routes = planner.getNewRoutes(starts, dests, time);
+		int changed = 0;
+		for (int i = 0; i < routes.size(); i++) {
+			if (affected.get(i).reroute(routes.get(i))) {
+				changed++;
+			}
+		}
+		// Cars left without a route keep their old one
+		Log.info("Road network changed; rerouted " + changed + " of " + affected.size() + " affected cars");
+	}
+
 	private void calculateNewPos(Car car, double travelDist) { // , Iterator<Car> it) {
 		if (travelDist > mindist) {
 			Node next = car.getNextNode();
@@ -307,13 +490,14 @@ public class Sim implements Runnable {
 				// This frees up intersection to poll another car off its queues.
 				Intersection inter = next.getIntersection();
 				if (inter != null) {
-					if (inter.getType() == Intersection.ALL_WAY_STOP) {
-						inter.forgetPolled(car);
-						if (inter.getPolledCars().contains(car)) {
+					if (inter instanceof StopIntersection) {
+						StopIntersection stop = (StopIntersection) inter;
+						stop.forgetPolled(car);
+						if (stop.getPolledCars().contains(car)) {
 							Log.debug("Could not remove car " + car.getId() + " from list of polled cars for intersection "
 									+ inter.getId());
 						}
-					} else if (inter.getType() == Intersection.FULLY_LIT) {
+					} else if (inter instanceof SignalisedIntersection) {
 						inter.remove(car);
 					} else {
 						Log.warning("Have not implemented this intersection type: " + inter.getType());
@@ -321,7 +505,7 @@ public class Sim implements Runnable {
 				}
 				// Check if next node is on current way, if not reassign car to next way
 				Way currentWay = car.getCurrentWay();
-				if (!currentWay.getNodeRefs().contains(next.getId())) {
+				if (!planner.isOnRoad(next, currentWay)) {
 					ArrayList<Node> nextNodes = new ArrayList<>();
 					nextNodes.add(next);
 					Node nextnext = car.getNextNextNode();
@@ -368,6 +552,28 @@ public class Sim implements Runnable {
 		// Reset drawing objects
 		cars = new ArrayList<>();
 		drawingPanel.clear();
+		// Drop reroutes being planned (once done, so edge costs can change) and go back to free-flow travel times
+		if (reroutes != null) {
+			try {
+				reroutes.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException ex) {
+				Log.error("Failed rerouting cars : " + ex.getCause());
+			}
+			reroutes = null;
+			rerouteCars = null;
+		}
+		linkTimes.reset();
+		nextReroute = REROUTE_INTERVAL;
+		rerouteCursor = 0;
+		// Reset traffic lights. Lit intersections are started and scheduled again when first approached.
+		signals.clear();
+		for (Intersection intersection : planner.getIntersections()) {
+			if (intersection instanceof SignalisedIntersection) {
+				((SignalisedIntersection) intersection).resetSignals();
+			}
+		}
 	}
 
 	public void stop() {
@@ -411,6 +617,14 @@ public class Sim implements Runnable {
 		return playthroughRate;
 	}
 
+	public boolean isReroute() {
+		return reroute;
+	}
+
+	public boolean isTimeDependent() {
+		return planner.isTimeDependent();
+	}
+
 	public void setDrawingPanel(DrawingPanel drawingPanel) {
 		this.drawingPanel = drawingPanel;
 	}
@@ -427,6 +641,19 @@ public class Sim implements Runnable {
 		this.mindist = mindist;
 	}
 
+	// Reroute a share of cars around congestion every REROUTE_INTERVAL seconds. Off by default; routes are then only
+	// planned when cars are spawned.
+	public void setReroute(boolean reroute) {
+		this.reroute = reroute;
+	}
+
+	// Plan the routes cars are given when spawned or rerouted around the waits predicted at traffic lights on the way
+	// (see RoutePlanner.setTimeDependent()). On by default. Such routes depend on when the car leaves, so none are
+	// cached; turned off, routes are planned by travel times alone and shared by cars with the same trip.
+	public void setTimeDependent(boolean timeDependent) {
+		planner.setTimeDependent(timeDependent);
+	}
+
 	public void setPlaythroughRate(double playthroughRate) {
 		this.playthroughRate = playthroughRate;
 		requiredMaxSimTimePerStep = (long) (1 / playthroughRate * 1000); // in ms
@@ -0,0 +1,67 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package trafficsim;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import util.Log;
+
+/**
+ * An all-way stop: cars queue at the stop on each approach and are let through one at a time, taking the approaches in
+ * turn. Has no lights, so carries nothing but its approach queues.
+ */
+public class StopIntersection extends Intersection {
+	private ArrayList<Car> polledCars = new ArrayList<>();
+	private int nextToPoll = 0; // Approach index of the next line to remove a car from
+
+	public StopIntersection(Node intersectionNode, ArrayList<Node> approachingNodes, ArrayList<Way> approachingWays) {
+		super(ALL_WAY_STOP, intersectionNode, approachingNodes, approachingWays);
+	}
+
+	public ArrayList<Car> getPolledCars() {
+		return polledCars;
+	}
+
+	public void forgetPolled(Car car) {
+		for (Iterator<Car> iter = polledCars.iterator(); iter.hasNext();) {
+			Car c = iter.next();
+			if (c.getId().longValue() == car.getId().longValue()) {
+				iter.remove();
+			}
+		}
+		if (polledCars.contains(car)) {
+			Log.error("Could not remove polled car from polledCars!");
+		}
+	}
+
+	public void unqueueNext() {
+		Car polled = pollNext();
+		if (polled != null) {
+			polledCars.add(polled);
+		}
+	}
+
+	private Car pollNext() {
+		Car car = null;
+		int n = getNumApproaches();
+		// Iterate through all approaching nodes to find next car to poll (if there exists one)
+		for (int i = 0; i < n; i++) {
+			// Get index of next approach queue to poll from; round robin
+			int approach = nextToPoll;
+			LinkedList<Car> queue = getApproachQueue(approach);
+			nextToPoll = (nextToPoll + 1) % n;
+			car = queue.poll();
+			if (car != null) {
+				if (queue.contains(car)) {
+					Log.error("Queue polled car but still contains car");
+				}
+				queueChanged(approach, -1);
+				break;
+			}
+		}
+		return car;
+	}
+}
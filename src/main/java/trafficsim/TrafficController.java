@@ -3,31 +3,54 @@
  */
 package trafficsim;
 
-import java.util.HashMap;
-
 /**
  * State machine for intersection traffic lights.
  * Given new simulation time should update and return light signals in
  * all intersection directions.
+ * 
+ * Lights only change at discrete times, so rather than being stepped every simulation step the controller
+ * reports when its next change is due (getNextTransitionTime()) and is advanced past it (advanceTo()).
+ * See SignalScheduler.
  */
 public abstract class TrafficController {
-	protected double time;
-	protected HashMap<Long, Integer> states; // copy constructed from Intersection.states
+	protected double time; // simulation time of the light change last applied
+	protected int[] states; // approach index to light state; shared with Intersection and updated in place
 
-	public TrafficController(HashMap<Long, Integer> states) {
-		this.states = new HashMap<>(states);
+	public TrafficController(int[] states) {
+		this.states = states;
 		time = 0;
 	}
 
-	public void step(double timestep) {
-		time += timestep;
-		updateStates();
+	// Applies every light change due before simulation time "now", in order
+	public void advanceTo(double now) {
+		double next = getNextTransitionTime();
+		while (next < now) {
+			time = Math.max(time, next);
+			updateStates();
+			next = getNextTransitionTime();
+		}
+	}
+
+	// Called by the intersection whenever one of its approach queues changes.
+	// Returns true if the controller changed its timings, and so its next transition time may have moved.
+	public boolean queueChanged() {
+		return false;
 	}
 
-	// returns approach node id to light state hash map
-	public HashMap<Long, Integer> getStates() {
+	// returns approach index to light state array
+	public int[] getStates() {
 		return states;
 	}
 
+	// The light timings as they are now, to predict waits for green from when routing (see SignalTimings), or null
+	// if the controller can't predict them. This default predicts no wait.
+	public SignalTimings getTimings() {
+		return null;
+	}
+
+	// Simulation time in seconds of the next light change, or Double.POSITIVE_INFINITY if there is none
+	public abstract double getNextTransitionTime();
+
+	// Applies the light changes due at the current controller time
 	public abstract void updateStates();
 }
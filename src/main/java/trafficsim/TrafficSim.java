@@ -79,7 +79,7 @@ public class TrafficSim extends JFrame {
 		exitMenuItem = new JMenuItem();
 		loadMenuItem = new JMenuItem();
 		fileChooser = new JFileChooser();
-		FileNameExtensionFilter osmFilter = new FileNameExtensionFilter(osmDescription, "osm");
+		FileNameExtensionFilter osmFilter = new FileNameExtensionFilter(osmDescription, "osm", "pbf");
 		fileChooser.addChoosableFileFilter(osmFilter);
 		fileChooser.setCurrentDirectory(new File("resources"));
 		// convenience for testing
@@ -0,0 +1,101 @@
+/*
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package util;
+
+/**
+ * Set of long values (e.g. OpenStreetMap ids) stored in a plain long array.
+ *
+ * A HashSet&lt;Long&gt; takes around 50 bytes per value (the boxed Long, the map entry and the table slot); this set
+ * takes 8 to 16. Values are placed by hash with linear probing, and the table doubles once more than half full.
+ * Values can't be removed.
+ */
+public class LongHashSet {
+	private static final long FREE = 0; // Marks a free slot, so 0 itself is held apart
+	private long[] table;
+	private int size = 0;
+	private boolean hasZero = false;
+
+	public LongHashSet() {
+		this(16);
+	}
+
+	// Sized to hold "expected" values without growing
+	public LongHashSet(int expected) {
+		int capacity = 16;
+		while (capacity < 2L * expected) {
+			capacity <<= 1;
+		}
+		table = new long[capacity];
+	}
+
+	// Returns false if the value was already in the set
+	public boolean add(long value) {
+		if (value == FREE) {
+			if (hasZero) {
+				return false;
+			}
+			hasZero = true;
+			size++;
+			return true;
+		}
+		int mask = table.length - 1;
+		int i = slot(value, mask);
+		while (table[i] != FREE) {
+			if (table[i] == value) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		table[i] = value;
+		size++;
+		if (2 * size > table.length) {
+			grow();
+		}
+		return true;
+	}
+
+	public boolean contains(long value) {
+		if (value == FREE) {
+			return hasZero;
+		}
+		int mask = table.length - 1;
+		int i = slot(value, mask);
+		while (table[i] != FREE) {
+			if (table[i] == value) {
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private void grow() {
+		long[] old = table;
+		table = new long[old.length * 2];
+		int mask = table.length - 1;
+		for (long value : old) {
+			if (value != FREE) {
+				int i = slot(value, mask);
+				while (table[i] != FREE) {
+					i = (i + 1) & mask;
+				}
+				table[i] = value;
+			}
+		}
+	}
+
+	// Ids are often consecutive, so mix the bits before taking the low ones
+	private static int slot(long value, int mask) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
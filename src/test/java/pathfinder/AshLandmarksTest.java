@@ -0,0 +1,79 @@
+package pathfinder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static pathfinder.TestGraphs.QUERIES;
+import static pathfinder.TestGraphs.checkSearch;
+import static pathfinder.TestGraphs.forEachGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// A* with landmarks must find paths as cheap as a plain Dijkstra, also with the tables loaded
+// from a file
+public class AshLandmarksTest {
+
+  @TempDir File dir;
+
+  @Test
+  @DisplayName("A* with landmarks (ALT) finds the cheapest paths")
+  void landmarksMatchReference() {
+    forEachGraph(
+        (csr, rnd) ->
+            checkSearch(csr, new GraphSearch_Astar(csr, AshLandmarks.build(csr, 4)), rnd));
+  }
+
+  @Test
+  @DisplayName("A* with landmarks stays exact after edge costs rise")
+  void landmarksMatchReferenceAfterCostsRise() {
+    forEachGraph(
+        (csr, rnd) -> {
+          GraphSearch_Astar search = new GraphSearch_Astar(csr, AshLandmarks.build(csr, 4));
+          for (int e = 0; e < csr.getNbrEdges(); e++) {
+            if (rnd.nextInt(4) == 0) {
+              csr.setCost(e, csr.getCost(e) * (1 + 3 * rnd.nextDouble()));
+            }
+          }
+          checkSearch(csr, search, rnd);
+        });
+  }
+
+  @Test
+  @DisplayName("Tables saved and loaded again give the same estimates, for their own graph only")
+  void loadsAsSaved() {
+    forEachGraph(
+        (csr, rnd) -> {
+          AshLandmarks landmarks = AshLandmarks.build(csr, 4);
+          File file = new File(dir, "graph.alt");
+          try {
+            landmarks.save(file);
+            AshLandmarks loaded = AshLandmarks.load(file, csr);
+            assertNotNull(loaded);
+            assertTrue(loaded.matches(csr));
+            assertArrayEquals(landmarks.getLandmarks(), loaded.getLandmarks());
+            for (int q = 0; q < QUERIES; q++) {
+              int node = rnd.nextInt(csr.getNbrNodes());
+              int target = rnd.nextInt(csr.getNbrNodes());
+              assertEquals(
+                  landmarks.getCost(csr, node, target), loaded.getCost(csr, node, target));
+            }
+            checkSearch(csr, new GraphSearch_Astar(csr, loaded), rnd);
+
+            // Made for other costs
+            csr.setCost(0, csr.getCost(0) * 2);
+            assertFalse(landmarks.matches(csr));
+            assertNull(AshLandmarks.load(file, csr));
+          } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+          }
+        });
+  }
+}
@@ -0,0 +1,42 @@
+package pathfinder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static pathfinder.TestGraphs.MAX_SPEED;
+import static pathfinder.TestGraphs.checkSearch;
+import static pathfinder.TestGraphs.forEachGraph;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// A* steered by a heuristic must find paths as cheap as a plain Dijkstra
+public class AstarTest {
+
+  @Test
+  @DisplayName("A* steered by the travel time as the crow flies finds the cheapest paths")
+  void astarMatchesReference() {
+    forEachGraph(
+        (csr, rnd) ->
+            checkSearch(csr, new GraphSearch_Astar(csr, new AshTravelTime(MAX_SPEED)), rnd));
+  }
+
+  @Test
+  @DisplayName("The travel time as the crow flies is a consistent estimate")
+  void travelTimeIsConsistent() {
+    forEachGraph(
+        (csr, rnd) -> {
+          AshTravelTime heuristic = new AshTravelTime(MAX_SPEED);
+          for (int q = 0; q < 10; q++) {
+            int target = rnd.nextInt(csr.getNbrNodes());
+            assertEquals(0, heuristic.getCost(csr, target, target));
+            // Never above an edge's cost plus the estimate after it, so never above a path's cost
+            for (int v = 0; v < csr.getNbrNodes(); v++) {
+              for (int e = csr.firstEdge(v); e < csr.endEdge(v); e++) {
+                double through = csr.getCost(e) + heuristic.getCost(csr, csr.getTarget(e), target);
+                assertTrue(heuristic.getCost(csr, v, target) <= through + 1e-9, "edge " + e);
+              }
+            }
+          }
+        });
+  }
+}
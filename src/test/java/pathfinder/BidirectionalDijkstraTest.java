@@ -0,0 +1,18 @@
+package pathfinder;
+
+import static pathfinder.TestGraphs.checkSearch;
+import static pathfinder.TestGraphs.forEachGraph;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// A search from both ends must find paths as cheap as a plain Dijkstra
+public class BidirectionalDijkstraTest {
+
+  @Test
+  @DisplayName("Bidirectional Dijkstra finds the cheapest paths")
+  void bidirectionalMatchesReference() {
+    forEachGraph(
+        (csr, rnd) -> checkSearch(csr, new GraphSearch_BidirectionalDijkstra(csr), rnd));
+  }
+}
@@ -0,0 +1,98 @@
+package pathfinder;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static pathfinder.TestGraphs.MAX_SPEED;
+import static pathfinder.TestGraphs.QUERIES;
+import static pathfinder.TestGraphs.assertPath;
+import static pathfinder.TestGraphs.dijkstra;
+import static pathfinder.TestGraphs.forEachGraph;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// Searches of a graph with its chains merged must find full paths as cheap as a plain Dijkstra
+public class ChainContractionTest {
+
+  @Test
+  @DisplayName("Searches of the graph with chains merged find the cheapest full paths")
+  void chainContractionMatchesReference() {
+    forEachGraph(
+        (csr, rnd) -> {
+          ChainContraction chains = new ChainContraction(csr, null);
+          CsrGraph core = chains.getCore();
+          assertTrue(core.getNbrNodes() < csr.getNbrNodes(), "no chains merged");
+          GraphSearch_Astar search = new GraphSearch_Astar(core, new AshTravelTime(MAX_SPEED));
+          for (int q = 0; q < QUERIES; q++) {
+            int start = rnd.nextInt(csr.getNbrNodes());
+            int target = rnd.nextInt(csr.getNbrNodes());
+            double expected = dijkstra(csr, null, start)[target];
+            int[] path = chains.findPath(search, start, target);
+            if (expected == Double.POSITIVE_INFINITY) {
+              assertNull(path, "no path from " + start + " to " + target);
+            } else {
+              assertPath(csr, null, path, start, target, expected);
+            }
+          }
+        });
+  }
+
+  @Test
+  @DisplayName("Searches of the graph with chains merged stay exact after edge costs change")
+  void chainContractionMatchesReferenceAfterCostsChange() {
+    forEachGraph(
+        (csr, rnd) -> {
+          ChainContraction chains = new ChainContraction(csr, null);
+          CsrGraph core = chains.getCore();
+          for (int e = 0; e < csr.getNbrEdges(); e++) {
+            if (rnd.nextInt(4) == 0) {
+              csr.setCost(e, csr.getCost(e) * (0.5 + 3 * rnd.nextDouble()));
+              chains.updateCost(e);
+            }
+          }
+          GraphSearch_Dijkstra search = new GraphSearch_Dijkstra(core);
+          for (int q = 0; q < QUERIES; q++) {
+            int start = rnd.nextInt(csr.getNbrNodes());
+            int target = rnd.nextInt(csr.getNbrNodes());
+            double expected = dijkstra(csr, null, start)[target];
+            int[] path = chains.findPath(search, start, target);
+            if (expected == Double.POSITIVE_INFINITY) {
+              assertNull(path, "no path from " + start + " to " + target);
+            } else {
+              assertPath(csr, null, path, start, target, expected);
+            }
+          }
+        });
+  }
+
+  @Test
+  @DisplayName("Time-dependent searches of the graph with chains merged find the soonest arrivals")
+  void chainContractionWithWaitsMatchesReference() {
+    forEachGraph(
+        (csr, rnd) -> {
+          double[] waits = new double[csr.getNbrEdges()];
+          boolean[] keep = new boolean[csr.getNbrNodes()];
+          for (int e = 0; e < waits.length; e++) {
+            if (rnd.nextInt(3) == 0) {
+              waits[e] = 30 * rnd.nextDouble();
+              keep[csr.getTarget(e)] = true; // Waited at, so not merged away
+            }
+          }
+          EdgeDelay delay = (edge, arrival) -> waits[edge];
+          ChainContraction chains = new ChainContraction(csr, keep);
+          GraphSearch_TimeDependent search =
+              new GraphSearch_TimeDependent(chains.getCore(), chains.getCoreDelay(delay), null);
+          for (int q = 0; q < QUERIES; q++) {
+            int start = rnd.nextInt(csr.getNbrNodes());
+            int target = rnd.nextInt(csr.getNbrNodes());
+            double expected = dijkstra(csr, waits, start)[target];
+            int[] path = chains.findPath(search, delay, start, target, 100 * rnd.nextDouble());
+            if (expected == Double.POSITIVE_INFINITY) {
+              assertNull(path, "no path from " + start + " to " + target);
+            } else {
+              assertPath(csr, waits, path, start, target, expected);
+            }
+          }
+        });
+  }
+}
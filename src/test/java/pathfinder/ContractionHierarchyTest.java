@@ -0,0 +1,56 @@
+package pathfinder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static pathfinder.TestGraphs.checkSearch;
+import static pathfinder.TestGraphs.forEachGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Contraction hierarchy queries must find paths as cheap as a plain Dijkstra, also with the
+// hierarchy loaded from a file
+public class ContractionHierarchyTest {
+
+  @TempDir File dir;
+
+  @Test
+  @DisplayName("Contraction hierarchy queries find the cheapest paths")
+  void contractionHierarchyMatchesReference() {
+    forEachGraph(
+        (csr, rnd) ->
+            checkSearch(csr, new GraphSearch_CH(csr, ContractionHierarchy.build(csr)), rnd));
+  }
+
+  @Test
+  @DisplayName("A hierarchy saved and loaded again finds the cheapest paths on its own graph only")
+  void loadsAsSaved() {
+    forEachGraph(
+        (csr, rnd) -> {
+          ContractionHierarchy ch = ContractionHierarchy.build(csr);
+          File file = new File(dir, "graph.ch");
+          try {
+            ch.save(file);
+            ContractionHierarchy loaded = ContractionHierarchy.load(file, csr);
+            assertNotNull(loaded);
+            assertTrue(loaded.matches(csr));
+            assertEquals(ch.getNbrEdges(), loaded.getNbrEdges());
+            checkSearch(csr, new GraphSearch_CH(csr, loaded), rnd);
+
+            // Made for other costs
+            csr.setCost(0, csr.getCost(0) * 2);
+            assertFalse(ch.matches(csr));
+            assertNull(ContractionHierarchy.load(file, csr));
+          } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+          }
+        });
+  }
+}
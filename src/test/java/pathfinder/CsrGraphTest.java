@@ -0,0 +1,52 @@
+package pathfinder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static pathfinder.TestGraphs.checkSearch;
+import static pathfinder.TestGraphs.forEachGraph;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// A CSR graph made from arrays must be the graph the arrays were taken from
+public class CsrGraphTest {
+
+  @Test
+  @DisplayName("A search finds the same paths after its graph is loaded from arrays")
+  void graphFromArraysMatchesGraph() {
+    forEachGraph(
+        (csr, rnd) -> {
+          int n = csr.getNbrNodes();
+          long[] ids = new long[n];
+          double[] xs = new double[n];
+          double[] ys = new double[n];
+          double[] zs = new double[n];
+          int[] offsets = new int[n + 1];
+          int[] targets = new int[csr.getNbrEdges()];
+          double[] costs = new double[csr.getNbrEdges()];
+          for (int i = 0; i < n; i++) {
+            ids[i] = csr.getId(i);
+            xs[i] = csr.getNode(i).x();
+            ys[i] = csr.getNode(i).y();
+            zs[i] = csr.getNode(i).z();
+            offsets[i] = csr.firstEdge(i);
+            for (int e = csr.firstEdge(i); e < csr.endEdge(i); e++) {
+              targets[e] = csr.getTarget(e);
+              costs[e] = csr.getCost(e);
+            }
+          }
+          offsets[n] = csr.getNbrEdges();
+          CsrGraph copy = new CsrGraph(ids, xs, ys, zs, offsets, targets, costs);
+          assertEquals(csr.getSignature(), copy.getSignature());
+          for (int i = 0; i < n; i++) {
+            assertEquals(i, copy.indexOf(ids[i]));
+            assertEquals(csr.firstInEdge(i), copy.firstInEdge(i));
+            assertEquals(csr.endInEdge(i), copy.endInEdge(i));
+            for (int k = csr.firstInEdge(i); k < csr.endInEdge(i); k++) {
+              assertEquals(csr.getInSource(k), copy.getInSource(k));
+              assertEquals(csr.getInEdge(k), copy.getInEdge(k));
+            }
+          }
+          checkSearch(copy, new GraphSearch_Dijkstra(copy), rnd);
+        });
+  }
+}
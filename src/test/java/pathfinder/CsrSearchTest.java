@@ -0,0 +1,67 @@
+package pathfinder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static pathfinder.TestGraphs.MAX_SPEED;
+import static pathfinder.TestGraphs.checkSearch;
+import static pathfinder.TestGraphs.dijkstra;
+import static pathfinder.TestGraphs.forEachGraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// Dijkstra on a CSR graph must find paths as cheap as the plain reference Dijkstra, also with
+// one search object shared by several threads
+public class CsrSearchTest {
+
+  @Test
+  @DisplayName("Dijkstra on a CSR graph finds the cheapest paths")
+  void dijkstraMatchesReference() {
+    forEachGraph((csr, rnd) -> checkSearch(csr, new GraphSearch_Dijkstra(csr), rnd));
+  }
+
+  @Test
+  @DisplayName("One search object used on several threads at once finds the cheapest paths")
+  void searchesOnSeveralThreads() throws Exception {
+    CsrGraph csr = TestGraphs.roadGraph(new Random(7));
+    List<CsrGraphSearch> searches = new ArrayList<>();
+    searches.add(new GraphSearch_Dijkstra(csr));
+    searches.add(new GraphSearch_Astar(csr, new AshTravelTime(MAX_SPEED)));
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      for (CsrGraphSearch search : searches) {
+        List<Future<?>> checks = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+          Random rnd = new Random(t);
+          checks.add(pool.submit(() -> checkSearch(csr, search, rnd)));
+        }
+        for (Future<?> check : checks) {
+          check.get(); // Throws what the check did
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("The reference Dijkstra finds a known cheapest path")
+  void referenceFindsKnownPath() {
+    Graph graph = new Graph();
+    for (int i = 1; i <= 4; i++) {
+      graph.addNode(new GraphNode(i, i, 0));
+    }
+    graph.addEdge(1, 2, 1);
+    graph.addEdge(2, 4, 5);
+    graph.addEdge(1, 3, 2);
+    graph.addEdge(3, 4, 2);
+    CsrGraph csr = new CsrGraph(graph);
+    double[] dist = dijkstra(csr, null, csr.indexOf(1));
+    assertArrayEquals(new double[] {0, 1, 2, 4}, dist);
+  }
+}
@@ -0,0 +1,167 @@
+package pathfinder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// The k-d tree must find the same nodes as looking at every node
+public class KdTreeTest {
+
+  private static final int QUERIES = 200;
+
+  @Test
+  @DisplayName("Finds the nearest node, or none closer than the distance given")
+  void nearestMatchesBruteForce() {
+    for (int seed = 0; seed < 20; seed++) {
+      Random rnd = new Random(seed);
+      CsrGraph graph = points(rnd);
+      KdTree tree = new KdTree(graph);
+      for (int q = 0; q < QUERIES; q++) {
+        double x = rnd.nextDouble();
+        double y = rnd.nextDouble();
+        double max = 0.1 * rnd.nextDouble();
+        double[] expected = distances(graph, null, x, y);
+        int found = tree.nearest(x, y, max);
+        if (expected.length == 0 || expected[0] >= max) {
+          assertEquals(-1, found);
+        } else {
+          assertEquals(expected[0], distance(graph, found, x, y));
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Finds the k nearest nodes, nearest first")
+  void kNearestMatchesBruteForce() {
+    for (int seed = 0; seed < 20; seed++) {
+      Random rnd = new Random(seed);
+      CsrGraph graph = points(rnd);
+      KdTree tree = new KdTree(graph);
+      for (int q = 0; q < QUERIES; q++) {
+        double x = rnd.nextDouble();
+        double y = rnd.nextDouble();
+        int k = rnd.nextInt(graph.getNbrNodes() + 5);
+        double[] expected = distances(graph, null, x, y);
+        int[] found = tree.nearest(x, y, k);
+        assertEquals(Math.min(k, graph.getNbrNodes()), found.length);
+        assertEquals(found.length, Arrays.stream(found).distinct().count());
+        for (int i = 0; i < found.length; i++) {
+          assertEquals(expected[i], distance(graph, found[i], x, y), "neighbour " + i);
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Finds every node within a distance, nearest first")
+  void withinRadiusMatchesBruteForce() {
+    for (int seed = 0; seed < 20; seed++) {
+      Random rnd = new Random(seed);
+      CsrGraph graph = points(rnd);
+      KdTree tree = new KdTree(graph);
+      for (int q = 0; q < QUERIES; q++) {
+        double x = rnd.nextDouble();
+        double y = rnd.nextDouble();
+        double radius = 0.2 * rnd.nextDouble();
+        int[] found = tree.withinRadius(x, y, radius);
+        int within = 0;
+        for (int v = 0; v < graph.getNbrNodes(); v++) {
+          if (distance(graph, v, x, y) < radius) {
+            within++;
+          }
+        }
+        assertEquals(within, found.length);
+        assertEquals(found.length, Arrays.stream(found).distinct().count());
+        for (int i = 0; i < found.length; i++) {
+          assertTrue(distance(graph, found[i], x, y) < radius);
+          if (i > 0) {
+            assertTrue(distance(graph, found[i - 1], x, y) <= distance(graph, found[i], x, y));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("A tree of some nodes finds only those, and the same when made again from its order")
+  void subsetAndOrder() {
+    for (int seed = 0; seed < 20; seed++) {
+      Random rnd = new Random(seed);
+      CsrGraph graph = points(rnd);
+      boolean[] indexed = new boolean[graph.getNbrNodes()];
+      int[] nodes = new int[graph.getNbrNodes() / 2];
+      for (int i = 0; i < nodes.length; i++) {
+        nodes[i] = 2 * i + 1;
+        indexed[nodes[i]] = true;
+      }
+      KdTree tree = new KdTree(graph, nodes);
+      KdTree again = KdTree.ofOrder(graph, tree.getOrder());
+      assertEquals(nodes.length, tree.size());
+      for (int q = 0; q < QUERIES; q++) {
+        double x = rnd.nextDouble();
+        double y = rnd.nextDouble();
+        double[] expected = distances(graph, indexed, x, y);
+        int[] found = tree.nearest(x, y, 5);
+        for (int i = 0; i < found.length; i++) {
+          assertTrue(indexed[found[i]], "node " + found[i] + " not indexed");
+          assertEquals(expected[i], distance(graph, found[i], x, y));
+        }
+        assertArrayEquals(found, again.nearest(x, y, 5));
+        assertArrayEquals(tree.withinRadius(x, y, 0.1), again.withinRadius(x, y, 0.1));
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("An empty tree finds nothing")
+  void emptyTree() {
+    KdTree tree = new KdTree(points(new Random(0)), new int[0]);
+    assertEquals(-1, tree.nearest(0.5, 0.5, 1.0));
+    assertEquals(0, tree.nearest(0.5, 0.5, 3).length);
+    assertEquals(0, tree.withinRadius(0.5, 0.5, 1.0).length);
+  }
+
+  // Nodes scattered over the unit square, some bunched up and some at the same position
+  private static CsrGraph points(Random rnd) {
+    Graph graph = new Graph();
+    int n = 1 + rnd.nextInt(300);
+    for (int id = 0; id < n; id++) {
+      double x;
+      double y;
+      if (id > 0 && rnd.nextInt(10) == 0) {
+        GraphNode same = graph.getNode(rnd.nextInt(id));
+        x = same.x();
+        y = same.y();
+      } else if (rnd.nextInt(3) == 0) {
+        x = 0.5 + 0.01 * rnd.nextGaussian();
+        y = 0.5 + 0.01 * rnd.nextGaussian();
+      } else {
+        x = rnd.nextDouble();
+        y = rnd.nextDouble();
+      }
+      graph.addNode(new GraphNode(id, x, y));
+    }
+    return new CsrGraph(graph);
+  }
+
+  // Distances from the position to the nodes (those indexed if given), nearest first
+  private static double[] distances(CsrGraph graph, boolean[] indexed, double x, double y) {
+    return IntStream.range(0, graph.getNbrNodes())
+        .filter(v -> indexed == null || indexed[v])
+        .mapToDouble(v -> distance(graph, v, x, y))
+        .sorted()
+        .toArray();
+  }
+
+  private static double distance(CsrGraph graph, int v, double x, double y) {
+    GraphNode node = graph.getNode(v);
+    return Math.sqrt((node.x() - x) * (node.x() - x) + (node.y() - y) * (node.y() - y));
+  }
+}
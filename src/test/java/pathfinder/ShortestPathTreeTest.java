@@ -0,0 +1,45 @@
+package pathfinder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static pathfinder.TestGraphs.assertPath;
+import static pathfinder.TestGraphs.dijkstra;
+import static pathfinder.TestGraphs.forEachGraph;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// Shortest path trees and one-to-many searches must find paths as cheap as a plain Dijkstra
+public class ShortestPathTreeTest {
+
+  @Test
+  @DisplayName("Shortest path trees and one-to-many searches find the cheapest paths")
+  void treesMatchReference() {
+    forEachGraph(
+        (csr, rnd) -> {
+          GraphSearch_Dijkstra search = new GraphSearch_Dijkstra(csr);
+          for (int q = 0; q < 10; q++) {
+            int start = rnd.nextInt(csr.getNbrNodes());
+            double[] expected = dijkstra(csr, null, start);
+            ShortestPathTree tree = search.findTree(start);
+            int[] targets = new int[20];
+            for (int t = 0; t < targets.length; t++) {
+              targets[t] = rnd.nextInt(csr.getNbrNodes());
+            }
+            int[][] paths = search.findPaths(start, targets);
+            for (int t = 0; t < targets.length; t++) {
+              int target = targets[t];
+              if (expected[target] == Double.POSITIVE_INFINITY) {
+                assertTrue(!tree.isReached(target), "tree reached " + target);
+                assertNull(paths[t], "no path from " + start + " to " + target);
+              } else {
+                assertEquals(expected[target], tree.getCost(target), 1e-9 * (1 + expected[target]));
+                assertPath(csr, null, tree.getPath(target), start, target, expected[target]);
+                assertPath(csr, null, paths[t], start, target, expected[target]);
+              }
+            }
+          }
+        });
+  }
+}
@@ -0,0 +1,153 @@
+package pathfinder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// Tarjan's components checked against reachability found by brute force
+public class StronglyConnectedComponentsTest {
+
+  @Test
+  @DisplayName("Nodes share a component exactly when each can reach the other")
+  void componentsMatchReachability() {
+    for (int seed = 0; seed < 30; seed++) {
+      Random rnd = new Random(seed);
+      CsrGraph csr = randomGraph(rnd, 1 + rnd.nextInt(60), rnd.nextDouble() * 3);
+      if (rnd.nextBoolean()) {
+        closeSomeEdges(csr, rnd);
+      }
+      checkComponents(csr, new StronglyConnectedComponents(csr));
+    }
+  }
+
+  @Test
+  @DisplayName("Components of road graphs match reachability")
+  void roadGraphComponentsMatchReachability() {
+    for (int seed = 0; seed < 10; seed++) {
+      Random rnd = new Random(seed);
+      CsrGraph csr = TestGraphs.roadGraph(rnd);
+      closeSomeEdges(csr, rnd);
+      checkComponents(csr, new StronglyConnectedComponents(csr));
+    }
+  }
+
+  @Test
+  @DisplayName("A long chain doesn't overflow the stack")
+  void longChain() {
+    Graph graph = new Graph();
+    int n = 200_000;
+    for (int i = 0; i < n; i++) {
+      graph.addNode(new GraphNode(i, i, 0));
+      if (i > 0) {
+        graph.addEdge(i - 1, i, 1);
+      }
+    }
+    graph.addEdge(n - 1, 0, 1);
+    StronglyConnectedComponents scc = new StronglyConnectedComponents(new CsrGraph(graph));
+    assertEquals(1, scc.getNbrComponents());
+    assertEquals(n, scc.getSize(scc.getLargest()));
+  }
+
+  @Test
+  @DisplayName("Components taken from saved numbers match the components found")
+  void componentsFromNumbers() {
+    for (int seed = 0; seed < 10; seed++) {
+      Random rnd = new Random(seed);
+      CsrGraph csr = randomGraph(rnd, 1 + rnd.nextInt(60), rnd.nextDouble() * 3);
+      StronglyConnectedComponents found = new StronglyConnectedComponents(csr);
+      int[] numbers = new int[csr.getNbrNodes()];
+      for (int v = 0; v < numbers.length; v++) {
+        numbers[v] = found.getComponent(v);
+      }
+      StronglyConnectedComponents taken = new StronglyConnectedComponents(csr, numbers);
+      assertEquals(found.getNbrComponents(), taken.getNbrComponents());
+      assertEquals(found.getLargest(), taken.getLargest());
+      for (int c = 0; c < found.getNbrComponents(); c++) {
+        assertEquals(found.getSize(c), taken.getSize(c));
+      }
+      checkComponents(csr, taken);
+    }
+    CsrGraph csr = randomGraph(new Random(1), 5, 1);
+    assertThrows(
+        IllegalArgumentException.class, () -> new StronglyConnectedComponents(csr, new int[4]));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new StronglyConnectedComponents(csr, new int[] {0, 0, 5, 0, 0}));
+  }
+
+  private static void checkComponents(CsrGraph csr, StronglyConnectedComponents scc) {
+    int n = csr.getNbrNodes();
+    boolean[][] reach = reachability(csr);
+    int[] sizes = new int[scc.getNbrComponents()];
+    for (int v = 0; v < n; v++) {
+      sizes[scc.getComponent(v)]++;
+      for (int w = 0; w < n; w++) {
+        boolean connected = reach[v][w] && reach[w][v];
+        assertEquals(connected, scc.isConnected(v, w), v + " and " + w);
+        if (reach[v][w]) {
+          assertTrue(scc.mayReach(v, w), v + " reaches " + w);
+        }
+      }
+    }
+    int largest = -1;
+    for (int c = 0; c < sizes.length; c++) {
+      assertTrue(sizes[c] > 0, "component " + c + " is empty");
+      assertEquals(sizes[c], scc.getSize(c));
+      if (largest < 0 || sizes[c] > sizes[largest]) {
+        largest = c;
+      }
+    }
+    assertEquals(sizes[largest], scc.getSize(scc.getLargest()));
+    for (int v = 0; v < n; v++) {
+      assertEquals(scc.getComponent(v) == scc.getLargest(), scc.isInLargest(v));
+    }
+  }
+
+  // reach[v][w]: w can be reached from v (every node reaches itself) along open edges
+  private static boolean[][] reachability(CsrGraph csr) {
+    int n = csr.getNbrNodes();
+    boolean[][] reach = new boolean[n][n];
+    int[] stack = new int[n];
+    for (int s = 0; s < n; s++) {
+      int top = 0;
+      stack[top++] = s;
+      reach[s][s] = true;
+      while (top > 0) {
+        int v = stack[--top];
+        for (int e = csr.firstEdge(v); e < csr.endEdge(v); e++) {
+          int w = csr.getTarget(e);
+          if (csr.getCost(e) < Double.POSITIVE_INFINITY && !reach[s][w]) {
+            reach[s][w] = true;
+            stack[top++] = w;
+          }
+        }
+      }
+    }
+    return reach;
+  }
+
+  // About edgesPerNode random edges per node, some of them loops
+  private static CsrGraph randomGraph(Random rnd, int n, double edgesPerNode) {
+    Graph graph = new Graph();
+    for (int i = 0; i < n; i++) {
+      graph.addNode(new GraphNode(i, rnd.nextDouble(), rnd.nextDouble()));
+    }
+    int edges = (int) (n * edgesPerNode);
+    for (int k = 0; k < edges; k++) {
+      graph.addEdge(rnd.nextInt(n), rnd.nextInt(n), 1 + rnd.nextDouble());
+    }
+    return new CsrGraph(graph);
+  }
+
+  private static void closeSomeEdges(CsrGraph csr, Random rnd) {
+    for (int e = 0; e < csr.getNbrEdges(); e++) {
+      if (rnd.nextInt(5) == 0) {
+        csr.setCost(e, Double.POSITIVE_INFINITY);
+      }
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package pathfinder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+// Random road graphs for search tests, and a plain Dijkstra to check searches against
+final class TestGraphs {
+
+  static final int SEEDS = 20;
+  static final int QUERIES = 200;
+  static final double MAX_SPEED = 30; // m/s, fastest road in the test graphs
+
+  private TestGraphs() {}
+
+  interface GraphCheck {
+    void check(CsrGraph csr, Random rnd);
+  }
+
+  // Runs the check on SEEDS road graphs, each with the random numbers it was made with
+  static void forEachGraph(GraphCheck check) {
+    for (int seed = 0; seed < SEEDS; seed++) {
+      Random rnd = new Random(seed);
+      check.check(roadGraph(rnd), rnd);
+    }
+  }
+
+  // Asks the search for paths between random nodes and checks them against the reference
+  static void checkSearch(CsrGraph csr, CsrGraphSearch search, Random rnd) {
+    for (int q = 0; q < QUERIES; q++) {
+      int start = rnd.nextInt(csr.getNbrNodes());
+      int target = rnd.nextInt(csr.getNbrNodes());
+      double expected = dijkstra(csr, null, start)[target];
+      int[] path = search.findPath(start, target);
+      if (expected == Double.POSITIVE_INFINITY) {
+        assertNull(path, "no path from " + start + " to " + target);
+      } else {
+        assertPath(csr, null, path, start, target, expected);
+      }
+    }
+  }
+
+  // The path must go from start to target along edges of the graph and cost what the reference
+  // found
+  static void assertPath(
+      CsrGraph csr, double[] waits, int[] path, int start, int target, double expected) {
+    assertNotNull(path, "path from " + start + " to " + target);
+    assertEquals(start, path[0]);
+    assertEquals(target, path[path.length - 1]);
+    double cost = 0;
+    for (int i = 1; i < path.length; i++) {
+      double edgeCost = Double.POSITIVE_INFINITY;
+      for (int e = csr.firstEdge(path[i - 1]); e < csr.endEdge(path[i - 1]); e++) {
+        if (csr.getTarget(e) == path[i]) {
+          edgeCost = Math.min(edgeCost, csr.getCost(e) + ((waits == null) ? 0 : waits[e]));
+        }
+      }
+      assertTrue(edgeCost < Double.POSITIVE_INFINITY, "no edge " + path[i - 1] + " -> " + path[i]);
+      cost += edgeCost;
+    }
+    assertEquals(expected, cost, 1e-9 * (1 + expected), "cost from " + start + " to " + target);
+  }
+
+  // Plain Dijkstra: cost from start to every node, edge waits added if given. Closed (infinite
+  // cost) edges are never taken.
+  static double[] dijkstra(CsrGraph csr, double[] waits, int start) {
+    double[] dist = new double[csr.getNbrNodes()];
+    Arrays.fill(dist, Double.POSITIVE_INFINITY);
+    dist[start] = 0;
+    PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+    queue.add(new double[] {0, start});
+    while (!queue.isEmpty()) {
+      double[] top = queue.poll();
+      int v = (int) top[1];
+      if (top[0] > dist[v]) {
+        continue;
+      }
+      for (int e = csr.firstEdge(v); e < csr.endEdge(v); e++) {
+        double d = dist[v] + csr.getCost(e) + ((waits == null) ? 0 : waits[e]);
+        int w = csr.getTarget(e);
+        if (d < dist[w]) {
+          dist[w] = d;
+          queue.add(new double[] {d, w});
+        }
+      }
+    }
+    return dist;
+  }
+
+  // A small road map: a grid of junctions a few hundred metres apart, joined by roads with shape
+  // nodes along them. Some roads are one way or missing, some junctions are cut off, and a few
+  // roads have 2 edges between the same nodes. Costs are travel times at each road's speed.
+  static CsrGraph roadGraph(Random rnd) {
+    Graph graph = new Graph();
+    int size = 5 + rnd.nextInt(4);
+    double spacing = 0.003; // degrees
+    long nextId = 1;
+    long[][] junctions = new long[size][size];
+    for (int r = 0; r < size; r++) {
+      for (int c = 0; c < size; c++) {
+        junctions[r][c] = nextId++;
+        graph.addNode(new GraphNode(junctions[r][c], c * spacing, r * spacing));
+      }
+    }
+    for (int r = 0; r < size; r++) {
+      for (int c = 0; c < size; c++) {
+        for (int dir = 0; dir < 2; dir++) {
+          int r2 = r + dir;
+          int c2 = c + 1 - dir;
+          if (r2 >= size || c2 >= size || rnd.nextInt(8) == 0) {
+            continue;
+          }
+          GraphNode from = graph.getNode(junctions[r][c]);
+          GraphNode to = graph.getNode(junctions[r2][c2]);
+          double speed = 5 + (MAX_SPEED - 5) * rnd.nextDouble();
+          int oneWay = rnd.nextInt(6); // 0 forward only, 1 backward only, else both ways
+          int shapes = rnd.nextInt(4);
+          GraphNode prev = from;
+          for (int s = 0; s <= shapes; s++) {
+            GraphNode next;
+            if (s == shapes) {
+              next = to;
+            } else {
+              double f = (s + 1.0) / (shapes + 1);
+              double wiggle = spacing * 0.1 * (rnd.nextDouble() - 0.5);
+              next =
+                  new GraphNode(
+                      nextId++,
+                      from.x() + f * (to.x() - from.x()) + wiggle,
+                      from.y() + f * (to.y() - from.y()) + wiggle);
+              graph.addNode(next);
+            }
+            double cost = AshTravelTime.getDistance(prev.x(), prev.y(), next.x(), next.y()) / speed;
+            if (oneWay != 1) {
+              graph.addEdge(prev.id(), next.id(), cost);
+            }
+            if (oneWay != 0) {
+              graph.addEdge(next.id(), prev.id(), cost);
+            }
+            if (rnd.nextInt(40) == 0) {
+              graph.addEdge(prev.id(), next.id(), cost * 2);
+            }
+            prev = next;
+          }
+        }
+      }
+    }
+    graph.addNode(new GraphNode(nextId, -spacing, -spacing)); // No roads at all
+    return new CsrGraph(graph);
+  }
+}
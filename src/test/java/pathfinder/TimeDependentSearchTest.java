@@ -0,0 +1,150 @@
+package pathfinder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static pathfinder.TestGraphs.MAX_SPEED;
+import static pathfinder.TestGraphs.QUERIES;
+import static pathfinder.TestGraphs.assertPath;
+import static pathfinder.TestGraphs.checkSearch;
+import static pathfinder.TestGraphs.dijkstra;
+import static pathfinder.TestGraphs.forEachGraph;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// Time-dependent searches must find the soonest arrivals a plain Dijkstra finds with the same waits
+public class TimeDependentSearchTest {
+
+  @Test
+  @DisplayName("Time-dependent search with no waits finds the cheapest paths")
+  void timeDependentWithoutWaitsMatchesReference() {
+    forEachGraph(
+        (csr, rnd) ->
+            checkSearch(
+                csr,
+                new GraphSearch_TimeDependent(
+                    csr, (edge, arrival) -> 0, new AshTravelTime(MAX_SPEED)),
+                rnd));
+  }
+
+  @Test
+  @DisplayName("Time-dependent search with fixed waits finds the soonest arrivals")
+  void timeDependentWithFixedWaitsMatchesReference() {
+    forEachGraph(
+        (csr, rnd) -> {
+          double[] waits = new double[csr.getNbrEdges()];
+          for (int e = 0; e < waits.length; e++) {
+            waits[e] = (rnd.nextInt(3) == 0) ? 30 * rnd.nextDouble() : 0;
+          }
+          GraphSearch_TimeDependent search =
+              new GraphSearch_TimeDependent(csr, (edge, arrival) -> waits[edge], null);
+          for (int q = 0; q < QUERIES; q++) {
+            int start = rnd.nextInt(csr.getNbrNodes());
+            int target = rnd.nextInt(csr.getNbrNodes());
+            double departure = 100 * rnd.nextDouble();
+            double expected = dijkstra(csr, waits, start)[target];
+            int[] path = search.findPath(start, target, departure);
+            if (expected == Double.POSITIVE_INFINITY) {
+              assertNull(path, "no path from " + start + " to " + target);
+            } else {
+              assertPath(csr, waits, path, start, target, expected);
+            }
+          }
+        });
+  }
+
+  @Test
+  @DisplayName("Time-dependent search waiting for lights finds the soonest arrivals")
+  void timeDependentWithLightsMatchesReference() {
+    forEachGraph(
+        (csr, rnd) -> {
+          // Some edges end at a light, red for the start of each of its cycles and green after
+          double[] cycles = new double[csr.getNbrEdges()];
+          double[] reds = new double[csr.getNbrEdges()];
+          for (int e = 0; e < cycles.length; e++) {
+            if (rnd.nextInt(3) == 0) {
+              cycles[e] = 30 + 60 * rnd.nextDouble();
+              reds[e] = cycles[e] * rnd.nextDouble();
+            }
+          }
+          EdgeDelay lights =
+              (edge, arrival) -> {
+                if (cycles[edge] == 0) {
+                  return 0;
+                }
+                double t = arrival % cycles[edge];
+                return (t < reds[edge]) ? reds[edge] - t : 0;
+              };
+          GraphSearch_TimeDependent search =
+              new GraphSearch_TimeDependent(csr, lights, new AshTravelTime(MAX_SPEED));
+          for (int q = 0; q < QUERIES; q++) {
+            int start = rnd.nextInt(csr.getNbrNodes());
+            int target = rnd.nextInt(csr.getNbrNodes());
+            double departure = 200 * rnd.nextDouble();
+            double expected = soonest(csr, lights, start, departure)[target];
+            int[] path = search.findPath(start, target, departure);
+            if (expected == Double.POSITIVE_INFINITY) {
+              assertNull(path, "no path from " + start + " to " + target);
+            } else {
+              assertNotNull(path, "path from " + start + " to " + target);
+              assertEquals(start, path[0]);
+              assertEquals(target, path[path.length - 1]);
+              assertEquals(
+                  expected,
+                  arrival(csr, lights, path, departure),
+                  1e-9 * (1 + expected),
+                  "arrival from " + start + " to " + target);
+            }
+          }
+        });
+  }
+
+  // Time-dependent Dijkstra: soonest arrival at every node leaving start at departure, less the
+  // departure
+  private static double[] soonest(CsrGraph csr, EdgeDelay delay, int start, double departure) {
+    double[] dist = new double[csr.getNbrNodes()];
+    Arrays.fill(dist, Double.POSITIVE_INFINITY);
+    dist[start] = 0;
+    PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+    queue.add(new double[] {0, start});
+    while (!queue.isEmpty()) {
+      double[] top = queue.poll();
+      int v = (int) top[1];
+      if (top[0] > dist[v]) {
+        continue;
+      }
+      for (int e = csr.firstEdge(v); e < csr.endEdge(v); e++) {
+        double d = dist[v] + csr.getCost(e);
+        d += delay.getDelay(e, departure + d);
+        int w = csr.getTarget(e);
+        if (d < dist[w]) {
+          dist[w] = d;
+          queue.add(new double[] {d, w});
+        }
+      }
+    }
+    return dist;
+  }
+
+  // Arrival at the end of the path leaving at departure, less the departure, taking the soonest
+  // edge between each pair of nodes
+  private static double arrival(CsrGraph csr, EdgeDelay delay, int[] path, double departure) {
+    double t = 0;
+    for (int i = 1; i < path.length; i++) {
+      double next = Double.POSITIVE_INFINITY;
+      for (int e = csr.firstEdge(path[i - 1]); e < csr.endEdge(path[i - 1]); e++) {
+        if (csr.getTarget(e) == path[i]) {
+          double d = t + csr.getCost(e);
+          next = Math.min(next, d + delay.getDelay(e, departure + d));
+        }
+      }
+      assertTrue(next < Double.POSITIVE_INFINITY, "no edge " + path[i - 1] + " -> " + path[i]);
+      t = next;
+    }
+    return t;
+  }
+}
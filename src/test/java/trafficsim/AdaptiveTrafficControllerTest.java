@@ -0,0 +1,137 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static trafficsim.Intersection.GREEN;
+import static trafficsim.Intersection.MEDIUM_LIGHT;
+import static trafficsim.Intersection.MIN_GREEN;
+import static trafficsim.TestJunctions.YELLOW_TIME;
+import static trafficsim.TestJunctions.crossroads;
+import static trafficsim.TestJunctions.lit;
+import static trafficsim.TestJunctions.node;
+import static trafficsim.TestJunctions.queueCars;
+import static trafficsim.TestJunctions.road;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// Adaptive controllers must pick phases and periods from the cars queued
+public class AdaptiveTrafficControllerTest {
+
+  private static final double PERIOD = 10;
+
+  @Test
+  @DisplayName("Longest queue first gives the next green to the phase with the most cars queued")
+  void longestQueueFirst() {
+    SignalisedIntersection lit = crossroads(0, 0);
+    int[][] phases = phases(4);
+    TrafficController controller =
+        new LongestQueueTrafficController(lit, new int[4], phases, periods(4), yellows(4));
+    // No traffic: the phases in order
+    assertEquals(0, greenAt(controller, phases, 1));
+    assertEquals(1, greenAt(controller, phases, 2));
+
+    queueCars(lit, 0, 1);
+    queueCars(lit, 2, 3);
+    queueCars(lit, 3, 2);
+    assertEquals(2, greenAt(controller, phases, 3));
+    assertEquals(3, greenAt(controller, phases, 4));
+    assertEquals(2, greenAt(controller, phases, 5));
+
+    // Ties go to the phase next in order
+    queueCars(lit, 0, 1);
+    assertEquals(3, greenAt(controller, phases, 6));
+    assertEquals(2, greenAt(controller, phases, 7));
+
+    // The phase green is only served again if no other phase has traffic
+    lit.queueChanged(0, -2);
+    lit.queueChanged(3, -2);
+    lit.queueChanged(2, -2);
+    assertEquals(2, greenAt(controller, phases, 8));
+    assertEquals(2, greenAt(controller, phases, 9));
+    assertEquals(1, lit.getQueuedTotal());
+  }
+
+  @Test
+  @DisplayName("Max pressure holds back a phase whose exits are backed up")
+  void maxPressure() {
+    // Junction x, then junction y further along the road through x's approaches 0 and 1
+    double d = 0.001;
+    Node x = node(0, 0);
+    Node y = node(2 * d, 2 * d);
+    Way through = road(node(-d, -d), x, node(d, d), y, node(3 * d, 3 * d));
+    SignalisedIntersection atX = lit(x, through, road(node(d, -d), x, node(-d, d)));
+    SignalisedIntersection atY = lit(y, through, road(node(3 * d, d), y, node(d, 3 * d)));
+    int[][] phases = {{0, 1}, {2, 3}};
+    TrafficController pressure =
+        new MaxPressureTrafficController(atX, new int[4], phases, periods(2), yellows(4));
+    TrafficController longest =
+        new LongestQueueTrafficController(atX, new int[4], phases, periods(2), yellows(4));
+
+    queueCars(atX, 0, 3);
+    queueCars(atX, 2, 2);
+    assertEquals(0, atX.getExitQueueLength(1));
+    assertEquals(0, greenAt(pressure, phases, 1));
+    assertEquals(0, greenAt(longest, phases, 1));
+
+    // Cars from approach 0 leave through approach 1 towards y, where cars are already queued
+    queueCars(atY, 0, 5);
+    assertEquals(5, atX.getExitQueueLength(1));
+    assertEquals(0, atX.getExitQueueLength(0));
+    assertEquals(1, greenAt(pressure, phases, 2));
+    assertEquals(1, greenAt(longest, phases, 2));
+    assertEquals(1, greenAt(pressure, phases, 3));
+    assertEquals(0, greenAt(longest, phases, 3));
+  }
+
+  @Test
+  @DisplayName("Linear weighting shares the cycle by cars queued, with a minimum green each")
+  void linearWeighted() {
+    SignalisedIntersection lit = crossroads(0, 0);
+    lit.advanceSignals(0);
+    assertArrayEquals(new double[] {MEDIUM_LIGHT, MEDIUM_LIGHT}, lit.getPeriods());
+    queueCars(lit, 0, 1);
+    queueCars(lit, 1, 2);
+    queueCars(lit, 3, 1);
+    assertArrayEquals(new double[] {1.5 * MEDIUM_LIGHT, 0.5 * MEDIUM_LIGHT}, lit.getPeriods());
+    lit.queueChanged(3, -1);
+    assertArrayEquals(new double[] {2 * MEDIUM_LIGHT, MIN_GREEN + YELLOW_TIME}, lit.getPeriods());
+    lit.queueChanged(0, -1);
+    lit.queueChanged(1, -2);
+    assertEquals(0, lit.getQueuedTotal());
+    assertArrayEquals(new double[] {MEDIUM_LIGHT, MEDIUM_LIGHT}, lit.getPeriods());
+  }
+
+  // Phase green once the controller is advanced into the nth phase change (phases of PERIOD each)
+  private static int greenAt(TrafficController controller, int[][] phases, int change) {
+    controller.advanceTo(change * PERIOD + 1);
+    for (int p = 0; p < phases.length; p++) {
+      if (controller.getStates()[phases[p][0]] == GREEN) {
+        return p;
+      }
+    }
+    return -1;
+  }
+
+  // A phase of its own for each approach
+  private static int[][] phases(int n) {
+    int[][] phases = new int[n][];
+    for (int a = 0; a < n; a++) {
+      phases[a] = new int[] {a};
+    }
+    return phases;
+  }
+
+  private static double[] periods(int n) {
+    double[] periods = new double[n];
+    Arrays.fill(periods, PERIOD);
+    return periods;
+  }
+
+  private static double[] yellows(int n) {
+    double[] yellows = new double[n];
+    Arrays.fill(yellows, YELLOW_TIME);
+    return yellows;
+  }
+}
@@ -0,0 +1,72 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Congestion travel times must only drop the planner's cached routes when they change edge costs
+public class LinkTravelTimesTest {
+
+  @TempDir File dir;
+
+  @Test
+  @DisplayName("Going back to free-flow times with no congestion keeps cached routes")
+  void resetKeepsCachedRoutes() throws Exception {
+    RoutePlanner planner = new RoutePlanner(TestMap.roads(new Random(1), 5).parse(dir));
+    LinkTravelTimes times = new LinkTravelTimes(planner);
+    Route route = planLongRoute(planner);
+    assertEquals(1, planner.getRouteCache().size());
+    times.reset();
+    times.reset();
+    assertEquals(1, planner.getRouteCache().size());
+    // No car reported: travel times stay at free flow
+    times.update();
+    assertEquals(1, planner.getRouteCache().size());
+    assertEquals(route, planner.getNewRoute(route.get(0), route.getDest()));
+    assertEquals(1, planner.getRouteCache().getHits());
+  }
+
+  @Test
+  @DisplayName("Congestion reported drops cached routes, and so does going back to free flow")
+  void congestionDropsCachedRoutes() throws Exception {
+    RoutePlanner planner = new RoutePlanner(TestMap.roads(new Random(2), 5).parse(dir));
+    LinkTravelTimes times = new LinkTravelTimes(planner);
+    Route route = planLongRoute(planner);
+    int link = planner.getLink(route.get(0), route.get(1));
+    times.observe(link, 1, 10);
+    times.update();
+    assertTrue(times.getTravelTime(link) > planner.getFreeFlowTime(link));
+    assertEquals(0, planner.getRouteCache().size());
+    planLongRoute(planner);
+    times.reset();
+    assertEquals(planner.getFreeFlowTime(link), times.getTravelTime(link));
+    assertEquals(0, planner.getRouteCache().size());
+  }
+
+  // Plans a route between two far apart nodes on the main road network
+  static Route planLongRoute(RoutePlanner planner) {
+    Node from = null;
+    Node to = null;
+    for (Intersection intersection : planner.getIntersections()) {
+      for (Node node : intersection.getApproachNodes()) {
+        if (planner.isOnMainComponent(node)) {
+          if (from == null || node.getLat() + node.getLon() < from.getLat() + from.getLon()) {
+            from = node;
+          }
+          if (to == null || node.getLat() + node.getLon() > to.getLat() + to.getLon()) {
+            to = node;
+          }
+        }
+      }
+    }
+    Route route = planner.getNewRoute(from, to);
+    assertNotNull(route);
+    return route;
+  }
+}
@@ -0,0 +1,195 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pathfinder.StronglyConnectedComponents;
+
+// A map opened from its compiled network must be the map and road network read from its data file
+public class NetworkCacheTest {
+
+  @TempDir File dir;
+
+  @Test
+  @DisplayName("Opens the network saved as it was read")
+  void opensAsSaved() throws Exception {
+    for (boolean roadsOnly : new boolean[] {false, true}) {
+      File xml = new File(dir, "map" + roadsOnly + ".osm");
+      TestMap.roads(new Random(roadsOnly ? 1 : 0), 5).writeXml(xml);
+      OsmParser read = parse(xml, roadsOnly);
+      assertNull(read.getNetworkCache());
+      String expected = describe(read, new RoutePlanner(read));
+      assertTrue(NetworkCache.getFile(xml).exists());
+
+      OsmParser opened = parse(xml, roadsOnly);
+      assertNotNull(opened.getNetworkCache());
+      assertEquals(expected, describe(opened, new RoutePlanner(opened)));
+    }
+  }
+
+  @Test
+  @DisplayName("Reads the data file again when the network saved is out of date or damaged")
+  void readsAgainWhenOutOfDate() throws Exception {
+    File xml = new File(dir, "map.osm");
+    TestMap.roads(new Random(2), 4).writeXml(xml);
+    OsmParser read = parse(xml, false);
+    String expected = describe(read, new RoutePlanner(read));
+
+    // Saved for a map with all its ways, not roads only
+    OsmParser roadsOnly = parse(xml, true);
+    assertNull(roadsOnly.getNetworkCache());
+
+    // Data file changed since (same size, so only its time stamp tells)
+    assertTrue(xml.setLastModified(xml.lastModified() + 2000));
+    OsmParser stale = parse(xml, false);
+    assertNull(stale.getNetworkCache());
+    assertEquals(expected, describe(stale, new RoutePlanner(stale)));
+    OsmParser saved = parse(xml, false);
+    assertNotNull(saved.getNetworkCache());
+    assertEquals(expected, describe(saved, new RoutePlanner(saved)));
+
+    // A byte changed on disk
+    File net = NetworkCache.getFile(xml);
+    try (RandomAccessFile file = new RandomAccessFile(net, "rw")) {
+      long middle = file.length() / 2;
+      file.seek(middle);
+      int b = file.read();
+      file.seek(middle);
+      file.write(b ^ 0x10);
+    }
+    OsmParser damaged = parse(xml, false);
+    assertNull(damaged.getNetworkCache());
+    assertEquals(expected, describe(damaged, new RoutePlanner(damaged)));
+  }
+
+  @Test
+  @DisplayName("Reads the data file again when the network saved is broken under a good checksum")
+  void readsAgainWhenBroken() throws Exception {
+    File xml = new File(dir, "map.osm");
+    TestMap.roads(new Random(3), 4).writeXml(xml);
+    OsmParser read = parse(xml, false);
+    String expected = describe(read, new RoutePlanner(read));
+    File net = NetworkCache.getFile(xml);
+    byte[] saved = Files.readAllBytes(net.toPath());
+    int content = saved.length - 8;
+    // Cut in the graph, the map and just before the end, and with bytes left over
+    for (int length : new int[] {60, content / 3, content * 2 / 3, content - 1, content + 5}) {
+      byte[] broken = Arrays.copyOf(saved, length + 8);
+      CRC32 crc = new CRC32();
+      crc.update(broken, 0, length);
+      ByteBuffer.wrap(broken).putLong(length, crc.getValue());
+      Files.write(net.toPath(), broken);
+      OsmParser parser = parse(xml, false);
+      assertNull(parser.getNetworkCache(), "length " + length);
+      assertEquals(expected, describe(parser, new RoutePlanner(parser)), "length " + length);
+    }
+    // A node's ID changed and the file found broken later on: the node given before mustn't be kept
+    byte[] broken = Arrays.copyOf(saved, saved.length - 1);
+    int at = nodeIdsAt(broken, read);
+    ByteBuffer.wrap(broken).putLong(at, 1L << 40);
+    CRC32 crc = new CRC32();
+    crc.update(broken, 0, content - 1);
+    ByteBuffer.wrap(broken).putLong(content - 1, crc.getValue());
+    Files.write(net.toPath(), broken);
+    OsmParser parser = parse(xml, false);
+    assertNull(parser.getNetworkCache());
+    assertEquals(expected, describe(parser, new RoutePlanner(parser)));
+  }
+
+  // Where the map's node IDs start: its node count, then that many node IDs
+  private static int nodeIdsAt(byte[] file, OsmParser parser) {
+    ByteBuffer in = ByteBuffer.wrap(file);
+    int n = parser.getNodes().size();
+    for (int i = 4; i + 8 * n <= file.length; i++) {
+      if (in.getInt(i - 4) == n && parser.getNodes().containsKey(in.getLong(i))
+          && parser.getNodes().containsKey(in.getLong(i + 8 * (n - 1)))) {
+        return i;
+      }
+    }
+    throw new AssertionError("no node IDs found");
+  }
+
+  private static OsmParser parse(File xml, boolean roadsOnly) {
+    OsmParser parser = new OsmParser(xml);
+    parser.setRoadsOnly(roadsOnly);
+    parser.parse();
+    return parser;
+  }
+
+  // Everything read from the map and worked out from its road graph, in an order not depending on
+  // hashing
+  private static String describe(OsmParser parser, RoutePlanner planner) {
+    List<String> lines = new ArrayList<>();
+    lines.add("bounds " + describe(parser.getBounds()));
+    for (Node node : new TreeMap<>(parser.getNodes()).values()) {
+      lines.add("node " + node.getId() + " " + node.getLat() + " " + node.getLon() + " "
+          + new TreeMap<>(node.getTags()) + " ways " + node.getWayRefs());
+    }
+    for (Way way : new TreeMap<>(parser.getWays()).values()) {
+      StringBuilder links = new StringBuilder();
+      for (int i = 1; i < way.getNodeRefs().size() && way.isRoad(); i++) {
+        Node from = parser.getNodes().get(way.getNodeRefs().get(i - 1));
+        Node to = parser.getNodes().get(way.getNodeRefs().get(i));
+        int link = planner.getLink(from, to);
+        links.append(" link ").append(link);
+        if (link >= 0) {
+          links.append(" ").append(planner.getFreeFlowTime(link))
+              .append(" ").append(planner.getLinkLength(link));
+        }
+      }
+      lines.add("way " + way.getId() + " " + way.getVisible() + " " + new TreeMap<>(way.getTags())
+          + " " + way.getNodeRefs() + " road " + parser.getRoads().containsKey(way.getId())
+          + links);
+    }
+    for (Relation relation : new TreeMap<>(parser.getRelations()).values()) {
+      StringBuilder members = new StringBuilder();
+      for (Member member : relation.getMembers()) {
+        members.append(" ").append(member.getType()).append(" ").append(member.getRef())
+            .append(" ").append(member.getRole());
+      }
+      lines.add("relation " + relation.getId() + " " + relation.getVisible() + " "
+          + new TreeMap<>(relation.getTags()) + members);
+    }
+    lines.add("links " + planner.getNbrLinks());
+    StronglyConnectedComponents components = planner.getComponents();
+    lines.add("components " + components.getNbrComponents() + " largest "
+        + components.getSize(components.getLargest()));
+    lines.add("index " + Arrays.toString(planner.getNodeIndex().getOrder()));
+    for (Node node : parser.getNodes().values()) {
+      Node nearest = planner.getNearestNode(node.getLon(), node.getLat(), 1);
+      lines.add("near " + node.getId() + " " + ((nearest == null) ? "none" : nearest.getId())
+          + " main " + planner.isOnMainComponent(node));
+    }
+    for (Intersection intersection : planner.getIntersections()) {
+      StringBuilder approaches = new StringBuilder();
+      for (int a = 0; a < intersection.approachNodes.length; a++) {
+        approaches.append(" ").append(intersection.approachNodes[a].getId())
+            .append(" on ").append(intersection.approachWays[a].getId());
+      }
+      lines.add("intersection " + intersection.getId() + " " + intersection.getType() + approaches);
+    }
+    lines.sort(null);
+    return String.join("\n", lines);
+  }
+
+  private static String describe(Bounds bounds) {
+    return (bounds == null) ? "none"
+        : bounds.getMinlon() + " " + bounds.getMinlat() + " " + bounds.getMaxlon() + " "
+            + bounds.getMaxlat();
+  }
+}
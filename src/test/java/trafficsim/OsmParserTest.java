@@ -0,0 +1,102 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// A roads only import must keep exactly the roads and road nodes a full import of the map makes,
+// and so make the same road graph
+public class OsmParserTest {
+
+  @TempDir File dir;
+
+  @Test
+  @DisplayName("Keeps the same roads and road nodes as a full import, and nothing else")
+  void roadsOnlyKeepsTheRoads() throws Exception {
+    for (int seed = 0; seed < 4; seed++) {
+      TestMap map = TestMap.roads(new Random(seed), 3 + seed);
+      File xml = new File(dir, "map" + seed + ".osm");
+      File pbf = new File(dir, "map" + seed + ".osm.pbf");
+      map.writeXml(xml);
+      map.writePbf(pbf, 7);
+      for (File file : new File[] {xml, pbf}) {
+        OsmParser full = parse(file, false);
+        OsmParser roads = parse(file, true);
+        assertTrue(full.getWays().size() > full.getRoads().size(), "nothing but roads in the map");
+        assertTrue(full.getNodes().size() > roads.getNodes().size(), "no node off the roads");
+        assertEquals(describe(full), describe(roads), file.getName());
+        assertArrayEquals(full.getBounds().getBounds(), roads.getBounds().getBounds());
+        assertEquals(roads.getRoads().keySet(), roads.getWays().keySet());
+        assertEquals(roadNodes(roads), roads.getNodes().keySet());
+        assertEquals(0, roads.getRelations().size());
+
+        RoutePlanner fullPlanner = new RoutePlanner(full);
+        RoutePlanner roadsPlanner = new RoutePlanner(roads);
+        assertEquals(fullPlanner.getNbrLinks(), roadsPlanner.getNbrLinks());
+        for (Way road : full.getRoads().values()) {
+          List<Long> refs = road.getNodeRefs();
+          for (int i = 1; i < refs.size(); i++) {
+            for (int back = 0; back < 2; back++) {
+              long from = refs.get(i - back);
+              long to = refs.get(i - 1 + back);
+              // Links are numbered in the order the roads are found, which needn't be the same
+              int link = fullPlanner.getLink(full.getNodes().get(from), full.getNodes().get(to));
+              int same = roadsPlanner.getLink(roads.getNodes().get(from), roads.getNodes().get(to));
+              assertEquals(link < 0, same < 0, "link from " + from + " to " + to);
+              if (link >= 0) {
+                assertEquals(fullPlanner.getFreeFlowTime(link), roadsPlanner.getFreeFlowTime(same));
+                assertEquals(fullPlanner.getLinkLength(link), roadsPlanner.getLinkLength(same));
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static OsmParser parse(File file, boolean roadsOnly) {
+    OsmParser parser = new OsmParser(file);
+    parser.setRoadsOnly(roadsOnly);
+    parser.parse();
+    return parser;
+  }
+
+  // The roads and their nodes, with the roads each node is on, in an order not depending on hashing
+  private static List<String> describe(OsmParser parser) {
+    List<String> lines = new ArrayList<>();
+    for (Way way : new TreeMap<>(parser.getWays()).values()) {
+      if (parser.getRoads().containsKey(way.getId())) {
+        lines.add("road " + way.getId() + " " + way.getVisible() + " "
+            + new TreeMap<>(way.getTags()) + " " + way.getNodeRefs() + " " + way.getMaxspeedKm()
+            + " nodes " + way.getNodes().size());
+      }
+    }
+    for (long id : roadNodes(parser)) {
+      Node node = parser.getNodes().get(id);
+      List<Long> roads = new ArrayList<>(node.getWayRefs());
+      roads.removeIf(way -> !parser.getRoads().containsKey(way));
+      lines.add("node " + id + " " + node.getLat() + " " + node.getLon() + " "
+          + new TreeMap<>(node.getTags()) + " roads " + roads);
+    }
+    return lines;
+  }
+
+  private static Set<Long> roadNodes(OsmParser parser) {
+    Set<Long> ids = new TreeSet<>();
+    for (Way road : parser.getRoads().values()) {
+      ids.addAll(road.getNodeRefs());
+    }
+    return ids;
+  }
+}
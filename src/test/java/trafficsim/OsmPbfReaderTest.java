@@ -0,0 +1,111 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// A map read from PBF must give a builder exactly what the same map read from XML does
+public class OsmPbfReaderTest {
+
+  @TempDir File dir;
+
+  @Test
+  @DisplayName("Reads the same map from PBF as from XML")
+  void readsAsXml() throws Exception {
+    for (int seed = 0; seed < 4; seed++) {
+      TestMap map = TestMap.roads(new Random(seed), 3 + seed);
+      File xml = new File(dir, "map" + seed + ".osm");
+      map.writeXml(xml);
+      List<String> expected = readXml(xml, new RecordingBuilder());
+      for (int blockSize : new int[] {1, 7, 8000}) {
+        File pbf = new File(dir, "map" + seed + "-" + blockSize + ".osm.pbf");
+        map.writePbf(pbf, blockSize);
+        assertEquals(expected, readPbf(pbf, new RecordingBuilder()), "block size " + blockSize);
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Skips the elements the builder doesn't take as the XML reader does")
+  void skipsAsXml() throws Exception {
+    TestMap map = TestMap.roads(new Random(2), 4);
+    File xml = new File(dir, "map.osm");
+    File pbf = new File(dir, "map.osm.pbf");
+    map.writeXml(xml);
+    map.writePbf(pbf, 5);
+    assertEquals(
+        readXml(xml, new RecordingBuilder(id -> id % 4 != 1)),
+        readPbf(pbf, new RecordingBuilder(id -> id % 4 != 1)));
+  }
+
+  @Test
+  @DisplayName("Parses the same map from PBF as from XML")
+  void parsesAsXml() throws Exception {
+    TestMap map = TestMap.roads(new Random(3), 5);
+    File xml = new File(dir, "parsed.osm");
+    File pbf = new File(dir, "parsed.osm.pbf");
+    map.writeXml(xml);
+    map.writePbf(pbf, 10);
+    for (boolean roadsOnly : new boolean[] {false, true}) {
+      OsmParser fromXml = new OsmParser(xml);
+      fromXml.setRoadsOnly(roadsOnly);
+      fromXml.parse();
+      OsmParser fromPbf = new OsmParser(pbf);
+      fromPbf.setRoadsOnly(roadsOnly);
+      fromPbf.parse();
+      assertEquals(fromXml.getNodes().keySet(), fromPbf.getNodes().keySet());
+      assertEquals(fromXml.getWays().keySet(), fromPbf.getWays().keySet());
+      assertEquals(fromXml.getRoads().keySet(), fromPbf.getRoads().keySet());
+      assertEquals(fromXml.getRelations().keySet(), fromPbf.getRelations().keySet());
+      assertTrue(fromPbf.getRoads().size() > 0);
+      // Ways and relations without visible info are visible read from either
+      for (TestMap.MapWay way : map.ways) {
+        if (fromXml.getWays().containsKey(way.id)) {
+          boolean visible = (way.visible == null) || way.visible;
+          assertEquals(visible, fromXml.getWays().get(way.id).getVisible(), "way " + way.id);
+          assertEquals(visible, fromPbf.getWays().get(way.id).getVisible(), "way " + way.id);
+        }
+      }
+      for (TestMap.MapRelation relation : map.relations) {
+        if (fromXml.getRelations().containsKey(relation.id)) {
+          boolean visible = (relation.visible == null) || relation.visible;
+          assertEquals(visible, fromXml.getRelations().get(relation.id).getVisible());
+          assertEquals(visible, fromPbf.getRelations().get(relation.id).getVisible());
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Fails on truncated files")
+  void failsOnTruncatedFiles() throws Exception {
+    File pbf = new File(dir, "whole.osm.pbf");
+    TestMap.roads(new Random(4), 3).writePbf(pbf, 10);
+    byte[] whole = Files.readAllBytes(pbf.toPath());
+    for (int length : new int[] {2, 10, whole.length / 2, whole.length - 1}) {
+      File cut = new File(dir, "cut" + length + ".osm.pbf");
+      Files.write(cut.toPath(), Arrays.copyOf(whole, length));
+      assertThrows(IOException.class, () -> readPbf(cut, new RecordingBuilder()), "" + length);
+    }
+  }
+
+  private static List<String> readXml(File file, RecordingBuilder builder) throws IOException {
+    new OsmXmlReader(file).read(builder);
+    return builder.events;
+  }
+
+  private static List<String> readPbf(File file, RecordingBuilder builder) throws IOException {
+    new OsmPbfReader(file).read(builder);
+    return builder.events;
+  }
+}
@@ -0,0 +1,185 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import javax.xml.parsers.SAXParserFactory;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+// The byte scanning XML reader must give a builder what a real XML parser (SAX) reads
+public class OsmXmlReaderTest {
+
+  @TempDir File dir;
+
+  @Test
+  @DisplayName("Reads generated maps as SAX does")
+  void readsMapsAsSax() throws Exception {
+    for (int seed = 0; seed < 5; seed++) {
+      File file = new File(dir, "map" + seed + ".osm");
+      TestMap.roads(new Random(seed), 3 + seed).writeXml(file);
+      List<String> expected = readWithSax(file, new RecordingBuilder());
+      assertTrue(expected.size() > 100);
+      assertEquals(expected, read(file, new RecordingBuilder()));
+    }
+  }
+
+  @Test
+  @DisplayName("Skips the elements the builder doesn't take as SAX does")
+  void skipsAsSax() throws Exception {
+    File file = new File(dir, "map.osm");
+    TestMap.roads(new Random(1), 4).writeXml(file);
+    assertEquals(
+        readWithSax(file, new RecordingBuilder(id -> id % 3 != 0)),
+        read(file, new RecordingBuilder(id -> id % 3 != 0)));
+  }
+
+  @Test
+  @DisplayName("Reads unusual but valid markup as SAX does")
+  void readsUnusualMarkupAsSax() throws Exception {
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!-- a comment with <node id=\"9\"/> and > in it -->\n"
+            + "<osm version='0.6'>\n"
+            + "<?processing instruction?>\n"
+            + "<note>Text <b>with</b> other elements</note>\n"
+            + "<bounds minlon='-1.5' minlat=\"-2\" maxlon=\"+1.25\" maxlat=\"1e-3\"/>\n"
+            + "<node id='1' lat='12.3456789' lon='-0.0000001'/>\n"
+            + "<node\n\tid = \"-2\"\r\n lat=\"0\" lon=\"180.0\" >\n"
+            + "  <tag k='a&gt;b' v=\"x > y\"/>\n"
+            + "  <tag k=\"empty\" v=\"\"/>\n"
+            + "  <tag k=\"refs\" v=\"&#65;&#x42;&amp;&lt;&quot;&apos;\u00e9\u65e5\"/>\n"
+            + "</node >\n"
+            + "<way id=\"10\" visible=\"false\"></way>\n"
+            + "<way id=\"11\">\n"
+            + "  <!-- <nd ref=\"99\"/> -->\n"
+            + "  <nd ref=\"1\"/><nd ref='-2'/>\n"
+            + "</way>\n"
+            + "<relation id=\"12\" visible=\"true\">\n"
+            + "  <member type=\"node\" ref=\"1\" role=\"\"/>\n"
+            + "  <member type='way' ref='11' role='outer'/>\n"
+            + "  <tag k=\"type\" v=\"multipolygon\"/>\n"
+            + "</relation>\n"
+            + "</osm>\n";
+    File file = new File(dir, "unusual.osm");
+    Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+    List<String> expected = readWithSax(file, new RecordingBuilder());
+    assertEquals(expected, read(file, new RecordingBuilder()));
+    assertTrue(expected.contains("tag refs=AB&<\"'\u00e9\u65e5"));
+  }
+
+  @Test
+  @DisplayName("Fails on misplaced elements and files ending inside an element")
+  void failsOnBadFiles() throws Exception {
+    String[] bad = {
+      "<osm><tag k=\"a\" v=\"b\"/></osm>",
+      "<osm><node id=\"1\" lat=\"0\" lon=\"0\"><nd ref=\"2\"/></node></osm>",
+      "<osm><way id=\"1\"><member type=\"node\" ref=\"2\" role=\"\"/></way></osm>",
+      "<osm><way id=\"1\"><node id=\"1\" lat=\"0\" lon=\"0\"/></way></osm>",
+      "<osm><way id=\"1\"><nd ref=\"2\"/>",
+      "<osm><node id=\"1\" lat=\"0\"/></osm>",
+      "<osm><node id=\"1\" lat=\"0\" lon=\"0",
+    };
+    for (int i = 0; i < bad.length; i++) {
+      File file = new File(dir, "bad" + i + ".osm");
+      Files.write(file.toPath(), bad[i].getBytes(StandardCharsets.UTF_8));
+      assertThrows(IOException.class, () -> read(file, new RecordingBuilder()), bad[i]);
+    }
+  }
+
+  private static List<String> read(File file, RecordingBuilder builder) throws IOException {
+    new OsmXmlReader(file).read(builder);
+    return builder.events;
+  }
+
+  // The reference: a SAX parser handing the same elements to the builder
+  static List<String> readWithSax(File file, RecordingBuilder builder) throws Exception {
+    SAXParserFactory.newInstance()
+        .newSAXParser()
+        .parse(
+            file,
+            new DefaultHandler() {
+              private String current; // Node, way or relation being read
+              private boolean taken;
+
+              @Override
+              public void startElement(String uri, String local, String name, Attributes a)
+                  throws SAXException {
+                switch (name) {
+                  case "bounds":
+                    builder.bounds(
+                        number(a, "minlon"),
+                        number(a, "minlat"),
+                        number(a, "maxlon"),
+                        number(a, "maxlat"));
+                    break;
+                  case "node":
+                    current = name;
+                    taken =
+                        builder.startNode(
+                            Long.parseLong(a.getValue("id").trim()),
+                            number(a, "lat"),
+                            number(a, "lon"));
+                    break;
+                  case "way":
+                    current = name;
+                    taken =
+                        builder.startWay(
+                            Long.parseLong(a.getValue("id")),
+                            !"false".equals(a.getValue("visible")));
+                    break;
+                  case "relation":
+                    current = name;
+                    taken =
+                        builder.startRelation(
+                            Long.parseLong(a.getValue("id")),
+                            !"false".equals(a.getValue("visible")));
+                    break;
+                  case "tag":
+                    if (taken) {
+                      builder.tag(a.getValue("k"), a.getValue("v"));
+                    }
+                    break;
+                  case "nd":
+                    if (taken) {
+                      builder.nodeRef(Long.parseLong(a.getValue("ref")));
+                    }
+                    break;
+                  case "member":
+                    if (taken) {
+                      long ref = Long.parseLong(a.getValue("ref"));
+                      builder.member(ref, a.getValue("type"), a.getValue("role"));
+                    }
+                    break;
+                  default:
+                }
+              }
+
+              @Override
+              public void endElement(String uri, String local, String name) {
+                if (name.equals(current)) {
+                  if (taken) {
+                    builder.end();
+                  }
+                  current = null;
+                }
+              }
+            });
+    return builder.events;
+  }
+
+  private static double number(Attributes a, String name) {
+    return Double.parseDouble(a.getValue(name));
+  }
+}
@@ -0,0 +1,64 @@
+package trafficsim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+// Notes everything a data file reader gives it, one line per call, to compare readers. Skips the
+// elements whose ids the predicate given rejects.
+final class RecordingBuilder implements OsmBuilder {
+
+  final List<String> events = new ArrayList<>();
+  private final LongPredicate take;
+
+  RecordingBuilder() {
+    this(id -> true);
+  }
+
+  RecordingBuilder(LongPredicate take) {
+    this.take = take;
+  }
+
+  @Override
+  public void bounds(double minlon, double minlat, double maxlon, double maxlat) {
+    events.add("bounds " + minlon + " " + minlat + " " + maxlon + " " + maxlat);
+  }
+
+  @Override
+  public boolean startNode(long id, double lat, double lon) {
+    events.add("node " + id + " " + lat + " " + lon);
+    return take.test(id);
+  }
+
+  @Override
+  public boolean startWay(long id, boolean visible) {
+    events.add("way " + id + " " + visible);
+    return take.test(id);
+  }
+
+  @Override
+  public boolean startRelation(long id, boolean visible) {
+    events.add("relation " + id + " " + visible);
+    return take.test(id);
+  }
+
+  @Override
+  public void tag(String key, String value) {
+    events.add("tag " + key + "=" + value);
+  }
+
+  @Override
+  public void nodeRef(long ref) {
+    events.add("nd " + ref);
+  }
+
+  @Override
+  public void member(long ref, String type, String role) {
+    events.add("member " + ref + " " + type + " " + role);
+  }
+
+  @Override
+  public void end() {
+    events.add("end");
+  }
+}
@@ -0,0 +1,102 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static trafficsim.RouteCache.ENTRY_OVERHEAD;
+import static trafficsim.RouteCache.NO_ROUTE;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// The route cache must hold routes within its node budget, dropping the least recently used first,
+// and drop exactly the routes over a hop when asked to
+public class RouteCacheTest {
+
+  @Test
+  @DisplayName("Drops the least recently used routes once over its node budget")
+  void evictsLeastRecentlyUsed() {
+    RouteCache cache = new RouteCache(3 * (3 + ENTRY_OVERHEAD));
+    int[] a = {1, 2, 3};
+    int[] b = {2, 3, 4};
+    int[] c = {3, 4, 5};
+    cache.put(1, 3, a);
+    cache.put(2, 4, b);
+    cache.put(3, 5, c);
+    assertEquals(3, cache.size());
+    assertSame(a, cache.get(1, 3));
+
+    cache.put(4, 6, new int[] {4, 5, 6});
+    assertEquals(3, cache.size());
+    assertEquals(1, cache.getEvictions());
+    assertNull(cache.get(2, 4));
+    assertSame(a, cache.get(1, 3));
+    assertSame(c, cache.get(3, 5));
+
+    // A longer route takes the room of 2
+    cache.put(7, 9, new int[] {7, 8, 1, 2, 3, 9});
+    assertEquals(2, cache.size());
+    assertEquals(3, cache.getEvictions());
+    assertSame(c, cache.get(3, 5));
+    assertNull(cache.get(1, 3));
+
+    // Storing a pair again counts only its new route
+    cache.put(3, 5, new int[] {3, 5});
+    cache.put(3, 5, c);
+    assertEquals(2, cache.size());
+    assertEquals(3, cache.getEvictions());
+
+    assertEquals(4, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    assertEquals(4 / 6.0, cache.getHitRate(), 1e-9);
+  }
+
+  @Test
+  @DisplayName("Counts pairs with no route against the budget too")
+  void boundsPairsWithNoRoute() {
+    RouteCache cache = new RouteCache(5 * ENTRY_OVERHEAD);
+    for (int dest = 1; dest <= 8; dest++) {
+      cache.put(0, dest, NO_ROUTE);
+    }
+    assertEquals(5, cache.size());
+    assertEquals(3, cache.getEvictions());
+    assertSame(NO_ROUTE, cache.get(0, 8));
+    assertNull(cache.get(0, 3));
+  }
+
+  @Test
+  @DisplayName("Drops the routes over a hop, in its direction only, or every route")
+  void invalidatesByHop() {
+    RouteCache cache = new RouteCache(1000);
+    int[] other = {5, 6};
+    cache.put(1, 3, new int[] {1, 2, 3});
+    cache.put(2, 4, new int[] {2, 3, 4});
+    cache.put(5, 6, other);
+    cache.put(3, 1, NO_ROUTE);
+    assertEquals(0, cache.invalidate(3, 2));
+    assertEquals(0, cache.invalidate(1, 3)); // Not a hop: the nodes aren't next to each other
+    assertEquals(2, cache.invalidate(2, 3));
+    assertEquals(2, cache.size());
+    assertNull(cache.get(1, 3));
+    assertNull(cache.get(2, 4));
+    assertSame(other, cache.get(5, 6));
+    assertSame(NO_ROUTE, cache.get(3, 1));
+    // The dropped routes' other hops no longer lead to them
+    assertEquals(0, cache.invalidate(1, 2));
+    assertEquals(0, cache.invalidate(3, 4));
+
+    // Routes dropped give their room back
+    RouteCache full = new RouteCache(2 * (3 + ENTRY_OVERHEAD));
+    full.put(1, 3, new int[] {1, 2, 3});
+    full.put(4, 6, new int[] {4, 5, 6});
+    assertEquals(1, full.invalidate(4, 5));
+    full.put(7, 9, new int[] {7, 8, 9});
+    assertEquals(0, full.getEvictions());
+
+    cache.invalidate();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.invalidate(5, 6));
+    cache.put(1, 3, new int[] {1, 2, 3});
+    assertEquals(1, cache.invalidate(1, 2));
+  }
+}
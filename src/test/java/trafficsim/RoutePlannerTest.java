@@ -0,0 +1,297 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Route planning settings and what they do to the route cache, and routes staying the fastest as
+// travel times change and links are closed, reopened or given new speeds
+public class RoutePlannerTest {
+
+  @TempDir File dir;
+
+  @Test
+  @DisplayName("Routes planned by travel time are cached, time-dependent routes aren't")
+  void timedRoutesAreNotCached() throws Exception {
+    OsmParser parser = TestMap.roads(new Random(4), 5).parse(dir);
+    List<Node> starts = new ArrayList<>();
+    List<Node> dests = new ArrayList<>();
+    pickTrips(new RoutePlanner(parser), starts, dests);
+    for (boolean timed : new boolean[] {false, true}) {
+      RoutePlanner planner = new RoutePlanner(parser);
+      assertFalse(planner.isTimeDependent());
+      planner.setTimeDependent(timed);
+      List<Route> routes = planner.getNewRoutes(starts, dests, 0);
+      for (int i = 0; i < starts.size(); i++) {
+        assertNotNull(routes.get(i), "trip " + i);
+        assertEquals(starts.get(i), routes.get(i).get(0));
+        assertEquals(dests.get(i), routes.get(i).getDest());
+      }
+      assertEquals(timed ? 0 : starts.size(), planner.getRouteCache().size(), "timed " + timed);
+      planner.getNewRoute(starts.get(0), dests.get(0), 10);
+      assertEquals(timed ? 0 : 1, planner.getRouteCache().getHits(), "timed " + timed);
+    }
+  }
+
+  @Test
+  @DisplayName("Routes stay the fastest with travel times below those the landmarks were made for")
+  void fasterLinksKeepRoutesFastest() throws Exception {
+    OsmParser parser = TestMap.roads(new Random(5), 8).parse(dir);
+    RoutePlanner planner = new RoutePlanner(parser);
+    Random rnd = new Random(5);
+    double[] times = freeFlowTimes(planner);
+    for (Node[] hop : hops(parser, planner)) {
+      int link = planner.getLink(hop[0], hop[1]);
+      if (times[link] == planner.getFreeFlowTime(link) && rnd.nextInt(3) == 0) {
+        times[link] /= 1 + 3 * rnd.nextDouble();
+        assertTrue(planner.setTravelTime(hop[0], hop[1], times[link]));
+      }
+    }
+    assertFastest(parser, planner, times, rnd);
+  }
+
+  @Test
+  @DisplayName("Closed links are routed around, dropping only the cached routes over them")
+  void closedLinksAreRoutedAround() throws Exception {
+    OsmParser parser = TestMap.roads(new Random(6), 8).parse(dir);
+    RoutePlanner planner = new RoutePlanner(parser);
+    Random rnd = new Random(6);
+    double[] times = freeFlowTimes(planner);
+    List<Node> nodes = mainNodes(parser, planner);
+    Map<String, Route> cached = new HashMap<>();
+    for (int q = 0; q < 100; q++) {
+      Node start = nodes.get(rnd.nextInt(nodes.size()));
+      Node dest = nodes.get(rnd.nextInt(nodes.size()));
+      cached.put(start.getId() + ">" + dest.getId(), planner.getNewRoute(start, dest));
+    }
+    assertEquals(cached.size(), planner.getRouteCache().size());
+
+    // Close the hop most of the cached routes go over
+    Map<Integer, Integer> uses = new HashMap<>();
+    for (Route route : cached.values()) {
+      for (int i = 1; i < route.size(); i++) {
+        uses.merge(planner.getLink(route.get(i - 1), route.get(i)), 1, Integer::sum);
+      }
+    }
+    Node[] closed = null;
+    int most = -1;
+    for (Node[] hop : hops(parser, planner)) {
+      int used = uses.getOrDefault(planner.getLink(hop[0], hop[1]), 0);
+      if (used > most) {
+        closed = hop;
+        most = used;
+      }
+    }
+    int link = planner.getLink(closed[0], closed[1]);
+    int size = planner.getRouteCache().size();
+    assertTrue(planner.closeLink(closed[0], closed[1]));
+    assertTrue(planner.isClosed(link));
+    assertTrue(most > 0);
+    assertEquals(size - most, planner.getRouteCache().size());
+    for (Route route : cached.values()) {
+      Route again = planner.getNewRoute(route.get(0), route.getDest());
+      for (int i = 1; again != null && i < again.size(); i++) {
+        assertNotEquals(link, planner.getLink(again.get(i - 1), again.get(i)));
+      }
+    }
+    times[link] = Double.POSITIVE_INFINITY;
+    assertFastest(parser, planner, times, rnd);
+    // Congestion updates leave it closed
+    planner.setTravelTimes(freeFlowTimes(planner));
+    assertTrue(planner.isClosed(link));
+    assertFastest(parser, planner, times, rnd);
+
+    // Closing every link into a node cuts it off from the rest of the network
+    Node cut = closed[1];
+    List<Node[]> into = new ArrayList<>();
+    for (Node[] hop : hops(parser, planner)) {
+      if (hop[1] == cut) {
+        into.add(hop);
+        assertTrue(planner.closeLink(hop[0], hop[1]));
+      }
+    }
+    assertFalse(planner.isOnMainComponent(cut));
+    assertFalse(planner.mayReach(closed[0], cut));
+    assertNull(planner.getNewRoute(closed[0], cut));
+    for (Node[] hop : into) {
+      assertTrue(planner.reopenLink(hop[0], hop[1]));
+      assertFalse(planner.isClosed(planner.getLink(hop[0], hop[1])));
+    }
+    assertTrue(planner.isOnMainComponent(cut));
+    assertFastest(parser, planner, freeFlowTimes(planner), rnd);
+
+    assertFalse(planner.closeLink(closed[0], closed[0]));
+    assertFalse(planner.reopenLink(closed[0], closed[0]));
+  }
+
+  @Test
+  @DisplayName("Links are routed at the speed set for them, also once a closed link is reopened")
+  void linksAreRoutedAtTheirSpeed() throws Exception {
+    OsmParser parser = TestMap.roads(new Random(7), 8).parse(dir);
+    RoutePlanner planner = new RoutePlanner(parser);
+    Random rnd = new Random(7);
+    List<Node[]> hops = hops(parser, planner);
+    for (Node[] hop : hops) {
+      if (rnd.nextInt(4) == 0) {
+        int link = planner.getLink(hop[0], hop[1]);
+        // Mostly slower, as for road works, but some faster than the speed limit
+        double speed = (5 + 30 * rnd.nextDouble()) / 3.6;
+        if (rnd.nextInt(5) == 0) {
+          speed = planner.getLinkLength(link) / planner.getFreeFlowTime(link) * 1.5;
+        }
+        assertTrue(planner.setLinkSpeed(hop[0], hop[1], speed));
+        assertEquals(planner.getLinkLength(link) / speed, planner.getFreeFlowTime(link), 1e-9);
+      }
+    }
+    assertFastest(parser, planner, freeFlowTimes(planner), rnd);
+
+    // A closed link stays closed, even when made faster, and is reopened at the speed last set
+    Node[] hop = hops.get(rnd.nextInt(hops.size()));
+    int link = planner.getLink(hop[0], hop[1]);
+    double speed = 10 * planner.getLinkLength(link) / planner.getFreeFlowTime(link);
+    planner.closeLink(hop[0], hop[1]);
+    assertTrue(planner.setLinkSpeed(hop[0], hop[1], speed));
+    assertTrue(planner.isClosed(link));
+    Route around = planner.getNewRoute(hop[0], hop[1]);
+    assertTrue(around == null || around.size() > 2);
+    double[] times = freeFlowTimes(planner);
+    times[link] = Double.POSITIVE_INFINITY;
+    assertFastest(parser, planner, times, rnd);
+    assertTrue(planner.reopenLink(hop[0], hop[1]));
+    assertEquals(planner.getLinkLength(link) / speed, planner.getFreeFlowTime(link), 1e-9);
+    assertFastest(parser, planner, freeFlowTimes(planner), rnd);
+
+    double time = planner.getFreeFlowTime(link);
+    for (double bad : new double[] {0, -1, Double.NaN}) {
+      assertFalse(planner.setLinkSpeed(hop[0], hop[1], bad), "speed " + bad);
+    }
+    assertFalse(planner.setLinkSpeed(hop[0], hop[0], 10));
+    assertEquals(time, planner.getFreeFlowTime(link));
+  }
+
+  // Routes between random nodes of the main road network must be as fast as a plain Dijkstra's
+  // over the map's roads at the link travel times given
+  static void assertFastest(OsmParser parser, RoutePlanner planner, double[] times, Random rnd) {
+    List<Node[]> hops = hops(parser, planner);
+    List<Node> nodes = mainNodes(parser, planner);
+    for (int q = 0; q < 100; q++) {
+      Node start = nodes.get(rnd.nextInt(nodes.size()));
+      Node dest = nodes.get(rnd.nextInt(nodes.size()));
+      Double expected = fastest(hops, planner, times, start).get(dest);
+      Route route = planner.getNewRoute(start, dest);
+      if (expected == null) {
+        assertNull(route, "no route from " + start.getId() + " to " + dest.getId());
+        continue;
+      }
+      assertNotNull(route, "route from " + start.getId() + " to " + dest.getId());
+      assertEquals(start, route.get(0));
+      assertEquals(dest, route.getDest());
+      double time = 0;
+      for (int i = 1; i < route.size(); i++) {
+        time += times[planner.getLink(route.get(i - 1), route.get(i))];
+      }
+      assertEquals(
+          expected,
+          time,
+          1e-6 * (1 + expected),
+          "route from " + start.getId() + " to " + dest.getId());
+    }
+  }
+
+  // Nodes on the main road network
+  private static List<Node> mainNodes(OsmParser parser, RoutePlanner planner) {
+    List<Node> nodes = new ArrayList<>();
+    for (Node[] hop : hops(parser, planner)) {
+      if (planner.isOnMainComponent(hop[0]) && !nodes.contains(hop[0])) {
+        nodes.add(hop[0]);
+      }
+    }
+    return nodes;
+  }
+
+  private static double[] freeFlowTimes(RoutePlanner planner) {
+    double[] times = new double[planner.getNbrLinks()];
+    for (int link = 0; link < times.length; link++) {
+      times[link] = planner.getFreeFlowTime(link);
+    }
+    return times;
+  }
+
+  // Every pair of nodes next to each other on a road with a link from one to the other
+  private static List<Node[]> hops(OsmParser parser, RoutePlanner planner) {
+    List<Node[]> hops = new ArrayList<>();
+    for (Way road : parser.getRoads().values()) {
+      List<Long> refs = road.getNodeRefs();
+      for (int i = 1; i < refs.size(); i++) {
+        Node a = parser.getNodes().get(refs.get(i - 1));
+        Node b = parser.getNodes().get(refs.get(i));
+        if (planner.getLink(a, b) >= 0) {
+          hops.add(new Node[] {a, b});
+        }
+        if (planner.getLink(b, a) >= 0) {
+          hops.add(new Node[] {b, a});
+        }
+      }
+    }
+    return hops;
+  }
+
+  // Plain Dijkstra over the hops: fastest time from the start to every node it reaches
+  private static Map<Node, Double> fastest(
+      List<Node[]> hops, RoutePlanner planner, double[] times, Node start) {
+    Map<Node, List<Node[]>> out = new HashMap<>();
+    for (Node[] hop : hops) {
+      out.computeIfAbsent(hop[0], k -> new ArrayList<>()).add(hop);
+    }
+    Map<Node, Double> time = new HashMap<>();
+    PriorityQueue<Map.Entry<Node, Double>> queue =
+        new PriorityQueue<>(Map.Entry.comparingByValue());
+    time.put(start, 0.0);
+    queue.add(new SimpleEntry<>(start, 0.0));
+    while (!queue.isEmpty()) {
+      Map.Entry<Node, Double> top = queue.poll();
+      if (top.getValue() > time.get(top.getKey())) {
+        continue;
+      }
+      for (Node[] hop : out.getOrDefault(top.getKey(), new ArrayList<>())) {
+        double t = top.getValue() + times[planner.getLink(hop[0], hop[1])];
+        if (t < time.getOrDefault(hop[1], Double.POSITIVE_INFINITY)) {
+          time.put(hop[1], t);
+          queue.add(new SimpleEntry<>(hop[1], t));
+        }
+      }
+    }
+    return time;
+  }
+
+  // Trips between different nodes on the main road network, each from another start node
+  private static void pickTrips(RoutePlanner planner, List<Node> starts, List<Node> dests) {
+    List<Node> nodes = new ArrayList<>();
+    for (Intersection intersection : planner.getIntersections()) {
+      for (Node node : intersection.getApproachNodes()) {
+        if (planner.isOnMainComponent(node) && !nodes.contains(node)) {
+          nodes.add(node);
+        }
+      }
+    }
+    for (int i = 0; i < nodes.size() - 1 - i && starts.size() < 8; i += 2) {
+      starts.add(nodes.get(i));
+      dests.add(nodes.get(nodes.size() - 1 - i));
+    }
+  }
+}
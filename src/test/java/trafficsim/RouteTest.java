@@ -0,0 +1,113 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static trafficsim.TestJunctions.node;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Routes must read as the list of nodes their graph node indices stand for, and cars sharing a
+// route must each follow it from their own place along it
+public class RouteTest {
+
+  @TempDir File dir;
+
+  @Test
+  @DisplayName("Reads the nodes of its indices, as any list of those nodes does")
+  void readsAsNodes() {
+    Node[] nodes = {node(0, 0), node(0, 1), node(1, 1), node(1, 0)};
+    int[] path = {2, 0, 3, 0, 1};
+    Route route = new Route(path, nodes);
+    List<Node> expected = new ArrayList<>();
+    for (int i : path) {
+      expected.add(nodes[i]);
+    }
+    assertEquals(path.length, route.size());
+    for (int i = 0; i < path.length; i++) {
+      assertSame(nodes[path[i]], route.get(i));
+      assertEquals(path[i], route.getNodeIndex(i));
+    }
+    assertSame(nodes[1], route.getDest());
+    assertEquals(expected, route);
+    assertEquals(expected.hashCode(), route.hashCode());
+    assertEquals(expected.subList(1, 4), route.subList(1, 4));
+    assertEquals(1, route.indexOf(nodes[0]));
+    assertEquals(3, route.lastIndexOf(nodes[0]));
+    assertThrows(ArrayIndexOutOfBoundsException.class, () -> route.get(path.length));
+  }
+
+  @Test
+  @DisplayName("Cars given the same route follow it each from where they are along it")
+  void carsShareRoutes() throws Exception {
+    OsmParser parser = TestMap.roads(new Random(8), 6).parse(dir);
+    RoutePlanner planner = new RoutePlanner(parser);
+    Route route = longRoute(parser, planner);
+    assertNotNull(route, "no route of 4 nodes or more");
+    Car first = new Car(route.get(0).getLon(), route.get(0).getLat());
+    Car second = new Car(route.get(0).getLon(), route.get(0).getLat());
+    assertTrue(first.setRoute(planner, route));
+    assertTrue(second.setRoute(planner, route));
+    assertSame(route, first.getRouteNodes());
+    assertSame(route, second.getRouteNodes());
+    assertSame(route.getDest(), first.getDestNode());
+
+    first.nextNode();
+    assertNull(second.getPrevNode());
+    assertSame(route.get(0), second.getNextNode());
+    for (int i = 1; i < route.size() - 1; i++) {
+      assertSame(route.get(i - 1), first.getPrevNode(), "node " + i);
+      assertSame(route.get(i), first.getNextNode(), "node " + i);
+      // Cars finish on reaching the node before the last, so there is no node after next then
+      Node nextNext = (i + 1 < route.size() - 1) ? route.get(i + 1) : null;
+      assertSame(nextNext, first.getNextNextNode(), "node " + i);
+      assertEquals(route.subList(i, route.size()), first.getRemainingRoute());
+      first.nextNode();
+    }
+    assertNull(first.getNextNode());
+    assertNull(first.getNextNextNode());
+    assertTrue(first.getRemainingRoute().isEmpty());
+
+    // Rerouted from the next node on, still coming from the node before it
+    second.nextNode();
+    Route rest = planner.getNewRoute(route.get(1), route.getDest());
+    assertFalse(second.reroute(planner.getNewRoute(route.get(0), route.getDest())));
+    assertTrue(second.reroute(rest));
+    assertSame(rest, second.getRouteNodes());
+    assertSame(route.get(0), second.getPrevNode());
+    assertSame(route.get(1), second.getNextNode());
+    second.nextNode();
+    assertSame(route.get(1), second.getPrevNode());
+    assertSame(rest.get(1), second.getNextNode());
+  }
+
+  // The first route of 4 nodes or more from a node on the main road network
+  private static Route longRoute(OsmParser parser, RoutePlanner planner) {
+    List<Node> nodes = new ArrayList<>();
+    for (Way road : parser.getRoads().values()) {
+      for (long ref : road.getNodeRefs()) {
+        Node node = parser.getNodes().get(ref);
+        if (planner.isOnMainComponent(node)) {
+          nodes.add(node);
+        }
+      }
+    }
+    for (Node dest : nodes) {
+      Route route = planner.getNewRoute(nodes.get(0), dest);
+      if (route != null && route.size() >= 4) {
+        return route;
+      }
+    }
+    return null;
+  }
+}
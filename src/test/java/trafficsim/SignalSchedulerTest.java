@@ -0,0 +1,128 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static trafficsim.TestJunctions.crossroads;
+import static trafficsim.TestJunctions.queueCars;
+import static trafficsim.TestJunctions.states;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// The scheduler must advance exactly the lights with a change due, soonest first
+public class SignalSchedulerTest {
+
+  // Log entries (change time, intersection) by time, then intersection
+  private static final Comparator<double[]> BY_TIME =
+      Comparator.<double[]>comparingDouble(e -> e[0]).thenComparingDouble(e -> e[1]);
+
+  @Test
+  @DisplayName("Advances every intersection with a change due, soonest first, and no other")
+  void advancesWhatIsDue() {
+    Random rnd = new Random(0);
+    List<double[]> log = new ArrayList<>();
+    List<FakeLights> all = new ArrayList<>();
+    SignalScheduler scheduler = new SignalScheduler();
+    for (int i = 0; i < 100; i++) {
+      FakeLights lights = new FakeLights(i, log);
+      for (int c = rnd.nextInt(20); c > 0; c--) {
+        lights.changes.add(1000 * rnd.nextDouble());
+      }
+      all.add(lights);
+      scheduler.add(lights);
+      scheduler.add(lights); // Already scheduled, so not again
+    }
+    assertEquals(all.size(), scheduler.size());
+    for (double now = 0; now < 1100; now += 20 * rnd.nextDouble()) {
+      // Some changes moved earlier or later, as adaptive controllers do when queues change
+      for (int r = 0; r < 5; r++) {
+        FakeLights lights = all.get(rnd.nextInt(all.size()));
+        lights.changes.add(now + 50 * rnd.nextDouble());
+        if (rnd.nextBoolean()) {
+          lights.changes.pollFirst();
+        }
+        scheduler.reschedule(lights);
+      }
+      List<double[]> expected = new ArrayList<>();
+      for (FakeLights lights : all) {
+        if (lights.getNextSignalChange() < now) {
+          expected.add(new double[] {lights.getNextSignalChange(), lights.id});
+        }
+      }
+      expected.sort(BY_TIME);
+      log.clear();
+      scheduler.advanceTo(now);
+      for (int i = 1; i < log.size(); i++) {
+        assertTrue(log.get(i - 1)[0] <= log.get(i)[0], "advanced out of order at " + now);
+      }
+      log.sort(BY_TIME);
+      assertArrayEquals(expected.toArray(), log.toArray(), "advanced at " + now);
+    }
+
+    scheduler.clear();
+    assertEquals(0, scheduler.size());
+    all.get(0).changes.add(0.0);
+    log.clear();
+    scheduler.advanceTo(Double.POSITIVE_INFINITY);
+    assertEquals(0, log.size());
+  }
+
+  @Test
+  @DisplayName("Lights driven by the scheduler change as lights advanced every step do")
+  void matchesEveryStep() {
+    Random rnd = new Random(1);
+    SignalScheduler scheduler = new SignalScheduler();
+    List<SignalisedIntersection> scheduled = new ArrayList<>();
+    List<SignalisedIntersection> stepped = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      scheduled.add(crossroads(i, 0));
+      stepped.add(crossroads(i, 0));
+      scheduler.add(scheduled.get(i));
+    }
+    double timestep = 0.1;
+    for (int step = 1; step < 4000; step++) {
+      double time = step * timestep;
+      if (rnd.nextInt(50) == 0) {
+        int i = rnd.nextInt(scheduled.size());
+        int approach = rnd.nextInt(4);
+        queueCars(scheduled.get(i), approach, 1);
+        queueCars(stepped.get(i), approach, 1);
+      }
+      scheduler.advanceTo(time);
+      for (int i = 0; i < stepped.size(); i++) {
+        stepped.get(i).advanceSignals(time);
+        assertArrayEquals(states(stepped.get(i)), states(scheduled.get(i)), "at " + time);
+      }
+    }
+  }
+
+  // Lights changing at the times given, logging each time the scheduler advances them
+  private static final class FakeLights extends SignalisedIntersection {
+    final int id;
+    final TreeSet<Double> changes = new TreeSet<>();
+    private final List<double[]> log;
+
+    FakeLights(int id, List<double[]> log) {
+      super(TestJunctions.node(0, 0), new ArrayList<>(), new ArrayList<>());
+      this.id = id;
+      this.log = log;
+    }
+
+    @Override
+    public void advanceSignals(double time) {
+      log.add(new double[] {getNextSignalChange(), id});
+      changes.headSet(time).clear();
+    }
+
+    @Override
+    public double getNextSignalChange() {
+      return changes.isEmpty() ? Double.POSITIVE_INFINITY : changes.first();
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static trafficsim.Intersection.GREEN;
+import static trafficsim.Intersection.MEDIUM_LIGHT;
+import static trafficsim.Intersection.MIN_GREEN;
+import static trafficsim.Intersection.RED;
+import static trafficsim.Intersection.YELLOW;
+import static trafficsim.TestJunctions.YELLOW_TIME;
+import static trafficsim.TestJunctions.crossroads;
+import static trafficsim.TestJunctions.queueCars;
+import static trafficsim.TestJunctions.states;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// The lights of a lit intersection must take its phases of opposing approaches in turn, once
+// started by their first use
+public class SignalisedIntersectionTest {
+
+  @Test
+  @DisplayName("Approaches across from each other make a phase")
+  void opposingApproachesMakePhases() {
+    SignalisedIntersection lit = crossroads(0, 0);
+    lit.advanceSignals(0);
+    assertArrayEquals(new int[][] {{0, 1}, {2, 3}}, lit.getPhases());
+    assertArrayEquals(new double[] {MEDIUM_LIGHT, MEDIUM_LIGHT}, lit.getPeriods());
+  }
+
+  @Test
+  @DisplayName("The phases turn green, yellow and red in order, the same by approach node or index")
+  void phasesTakeTurns() {
+    SignalisedIntersection lit = crossroads(0, 0);
+    double end = MEDIUM_LIGHT; // All red for the first period
+    lit.advanceSignals(end - YELLOW_TIME - 1);
+    assertArrayEquals(new int[] {RED, RED, RED, RED}, states(lit));
+    for (int cycle = 0; cycle < 3; cycle++) {
+      for (int[] green : new int[][] {{0, 1}, {2, 3}}) {
+        int[] red = (green[0] == 0) ? new int[] {2, 3} : new int[] {0, 1};
+        lit.advanceSignals(end + 1);
+        assertEquals(end + MEDIUM_LIGHT - YELLOW_TIME, lit.getNextSignalChange());
+        assertStates(lit, green, GREEN, red, RED);
+        end += MEDIUM_LIGHT;
+        lit.advanceSignals(end - YELLOW_TIME + 1);
+        assertEquals(end, lit.getNextSignalChange());
+        assertStates(lit, green, YELLOW, red, RED);
+      }
+    }
+    int a = 0;
+    for (Node approach : lit.getApproachNodes()) {
+      assertEquals(lit.getState(a++), lit.getState(approach));
+    }
+  }
+
+  @Test
+  @DisplayName("Cars queueing during a green replan the next cycle, not the green under way")
+  void greenKeepsItsPeriod() {
+    SignalisedIntersection lit = crossroads(0, 0);
+    lit.advanceSignals(MEDIUM_LIGHT + 10);
+    double yellow = 2 * MEDIUM_LIGHT - YELLOW_TIME;
+    assertEquals(yellow, lit.getNextSignalChange());
+    queueCars(lit, 2, 10);
+    assertEquals(yellow, lit.getNextSignalChange());
+    lit.advanceSignals(yellow + 1);
+    assertStates(lit, new int[] {0, 1}, YELLOW, new int[] {2, 3}, RED);
+
+    // All the cars queued at phase 1, so it has the green of both phases and phase 0 the least
+    double start = 2 * MEDIUM_LIGHT;
+    lit.advanceSignals(start + 1);
+    assertStates(lit, new int[] {2, 3}, GREEN, new int[] {0, 1}, RED);
+    assertEquals(start + 2 * MEDIUM_LIGHT - YELLOW_TIME, lit.getNextSignalChange());
+    start += 2 * MEDIUM_LIGHT;
+    lit.advanceSignals(start + 1);
+    assertStates(lit, new int[] {0, 1}, GREEN, new int[] {2, 3}, RED);
+    assertEquals(start + MIN_GREEN, lit.getNextSignalChange());
+  }
+
+  @Test
+  @DisplayName("Lights start on first use, all red until then, and start again after a reset")
+  void startsOnFirstUse() {
+    SignalisedIntersection lit = crossroads(0, 0);
+    assertFalse(lit.isStarted());
+    assertArrayEquals(new int[] {RED, RED, RED, RED}, states(lit));
+    assertNotNull(lit.getTimings());
+    assertEquals(MEDIUM_LIGHT, lit.getWaitTime(0, 0));
+    assertFalse(lit.isStarted());
+
+    // Started late, so catching up on the changes since time 0
+    lit.advanceSignals(MEDIUM_LIGHT + 1);
+    assertTrue(lit.isStarted());
+    int[] started = states(lit);
+    assertArrayEquals(new int[] {GREEN, GREEN, RED, RED}, started);
+    lit.advanceSignals(3 * MEDIUM_LIGHT + 1);
+    lit.resetSignals();
+    assertFalse(lit.isStarted());
+    assertArrayEquals(new int[] {RED, RED, RED, RED}, states(lit));
+    lit.advanceSignals(MEDIUM_LIGHT + 1);
+    assertArrayEquals(started, states(lit));
+  }
+
+  @Test
+  @DisplayName("Waits predicted before the lights start are the waits the lights then give")
+  void predictsWaits() {
+    SignalisedIntersection predicted = crossroads(0, 0);
+    SignalTimings timings = predicted.getTimings();
+    SignalisedIntersection lit = crossroads(0, 0);
+    double step = 0.25;
+    int steps = (int) (5 * MEDIUM_LIGHT / step);
+    int[][] states = new int[steps][];
+    for (int i = 0; i < steps; i++) {
+      lit.advanceSignals(i * step);
+      states[i] = states(lit);
+    }
+    for (int a = 0; a < 4; a++) {
+      for (int i = 0; i < steps - 3 * MEDIUM_LIGHT / step; i++) {
+        double arrival = i * step + 0.1;
+        int green = i + 1;
+        while (states[green][a] != GREEN) {
+          green++;
+        }
+        // Turned green after the sample before
+        assertEquals(
+            (green - 0.5) * step - arrival,
+            timings.getWaitTime(a, arrival),
+            step / 2 + 1e-9,
+            "approach " + a + " arriving at " + arrival);
+      }
+    }
+  }
+
+  private static void assertStates(
+      SignalisedIntersection lit, int[] these, int state, int[] others, int otherState) {
+    for (int a : these) {
+      assertEquals(state, lit.getState(a), "approach " + a);
+    }
+    for (int a : others) {
+      assertEquals(otherState, lit.getState(a), "approach " + a);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package trafficsim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static trafficsim.TestJunctions.node;
+import static trafficsim.TestJunctions.queueCars;
+import static trafficsim.TestJunctions.road;
+
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// An all-way stop must let the cars queued at it through one at a time, approach by approach
+public class StopIntersectionTest {
+
+  @Test
+  @DisplayName("Lets cars through one at a time, taking the approaches in turn")
+  void takesApproachesInTurn() {
+    Node center = node(0, 0);
+    double d = 0.001;
+    StopIntersection stop =
+        TestJunctions.stop(
+            center,
+            road(node(d, d), center, node(-d, -d)),
+            road(node(d, -d), center, node(-d, d)));
+    assertEquals(Intersection.ALL_WAY_STOP, stop.getType());
+    queueCars(stop, 0, 2);
+    queueCars(stop, 2, 1);
+    queueCars(stop, 3, 1);
+    Car first = stop.getApproachQueue(0).get(0);
+    Car second = stop.getApproachQueue(0).get(1);
+    Car third = stop.getApproachQueue(2).get(0);
+    Car fourth = stop.getApproachQueue(3).get(0);
+    assertEquals(4, stop.getQueuedTotal());
+
+    // Approach 1 has no cars so is passed over
+    Car[] expected = {first, third, fourth, second};
+    int[] left = {3, 2, 1, 0};
+    for (int i = 0; i < expected.length; i++) {
+      stop.unqueueNext();
+      List<Car> polled = stop.getPolledCars();
+      assertEquals(expected[i], polled.get(polled.size() - 1));
+      assertEquals(left[i], stop.getQueuedTotal());
+    }
+    assertEquals(0, stop.getQueueLength(0));
+    stop.unqueueNext();
+    assertEquals(4, stop.getPolledCars().size());
+
+    for (Car car : expected) {
+      stop.forgetPolled(car);
+    }
+    assertTrue(stop.getPolledCars().isEmpty());
+  }
+}
@@ -0,0 +1,100 @@
+package trafficsim;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Small hand-made junctions for signal tests, with queues filled by hand instead of by cars driving
+final class TestJunctions {
+
+  static final double SPEED = 50; // km/h of the roads
+  static final double YELLOW_TIME = 3.5; // s, yellow at that speed (see getYellowTime())
+
+  private static final AtomicLong nextId = new AtomicLong(1);
+
+  private TestJunctions() {}
+
+  static Node node(double lat, double lon) {
+    return new Node(nextId.getAndIncrement(), lat, lon);
+  }
+
+  // A road through the nodes in order
+  static Way road(Node... nodes) {
+    Way way = new Way(nextId.getAndIncrement(), true);
+    way.setMaxspeedKm(SPEED);
+    way.setRoad();
+    for (Node node : nodes) {
+      way.addNodeRef(node.getId());
+      way.addNode(node);
+      node.addWayRef(way.getId());
+    }
+    return way;
+  }
+
+  // Lit crossroads of 2 roads crossing diagonally, so the approaches across from each other are a
+  // phase: approaches 0 (north east) and 1 (south west) on the first road, 2 (north west) and 3
+  // (south east) on the second
+  static SignalisedIntersection crossroads(double lat, double lon) {
+    Node center = node(lat, lon);
+    double d = 0.001;
+    return lit(
+        center,
+        road(node(lat + d, lon + d), center, node(lat - d, lon - d)),
+        road(node(lat + d, lon - d), center, node(lat - d, lon + d)));
+  }
+
+  // Lit junction at the node, approached from the nodes next to it along each road, in order
+  static SignalisedIntersection lit(Node center, Way... roads) {
+    ArrayList<Node> approaches = new ArrayList<>();
+    ArrayList<Way> ways = new ArrayList<>();
+    approaches(center, roads, approaches, ways);
+    SignalisedIntersection intersection = new SignalisedIntersection(center, approaches, ways);
+    center.setIntersection(intersection);
+    return intersection;
+  }
+
+  // All-way stop at the node, approached from the nodes next to it along each road, in order
+  static StopIntersection stop(Node center, Way... roads) {
+    ArrayList<Node> approaches = new ArrayList<>();
+    ArrayList<Way> ways = new ArrayList<>();
+    approaches(center, roads, approaches, ways);
+    StopIntersection intersection = new StopIntersection(center, approaches, ways);
+    center.setIntersection(intersection);
+    return intersection;
+  }
+
+  private static void approaches(
+      Node center, Way[] roads, ArrayList<Node> approaches, ArrayList<Way> ways) {
+    for (Way road : roads) {
+      Node[] nodes = road.getNodes().toArray(new Node[0]);
+      for (int i = 0; i < nodes.length; i++) {
+        if (nodes[i].equals(center)) {
+          if (i > 0) {
+            approaches.add(nodes[i - 1]);
+            ways.add(road);
+          }
+          if (i + 1 < nodes.length) {
+            approaches.add(nodes[i + 1]);
+            ways.add(road);
+          }
+        }
+      }
+    }
+  }
+
+  // Queues new cars at the approach, counted as Intersection.queue() counts cars coming from it
+  static void queueCars(Intersection intersection, int approach, int n) {
+    for (int i = 0; i < n; i++) {
+      intersection.getApproachQueue(approach).add(new Car(0.0, 0.0));
+      intersection.queueChanged(approach, 1);
+    }
+  }
+
+  // Light state of every approach
+  static int[] states(SignalisedIntersection intersection) {
+    int[] states = new int[intersection.getNumApproaches()];
+    for (int a = 0; a < states.length; a++) {
+      states[a] = intersection.getState(a);
+    }
+    return states;
+  }
+}
@@ -0,0 +1,517 @@
+package trafficsim;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+// A small OSM map for tests, written out as an XML or PBF data file. Coordinates are whole 1e-7
+// degrees, as in real OSM data.
+final class TestMap {
+
+  static final String[] ROAD_TYPES = {"primary", "secondary", "residential", "service"};
+
+  static final class MapNode {
+    long id;
+    long lat7;
+    long lon7;
+    List<String> tags = new ArrayList<>(); // Key, value, key, value...
+  }
+
+  static final class MapWay {
+    long id;
+    Boolean visible; // Not given if null
+    List<Long> refs = new ArrayList<>();
+    List<String> tags = new ArrayList<>();
+  }
+
+  static final class MapRelation {
+    long id;
+    Boolean visible; // Not given if null
+    List<Long> refs = new ArrayList<>();
+    List<String> types = new ArrayList<>();
+    List<String> roles = new ArrayList<>();
+    List<String> tags = new ArrayList<>();
+  }
+
+  long[] bounds; // minlon, minlat, maxlon, maxlat in 1e-7 degrees, or null
+  final List<MapNode> nodes = new ArrayList<>();
+  final List<MapWay> ways = new ArrayList<>();
+  final List<MapRelation> relations = new ArrayList<>();
+
+  // A grid of streets, size by size junctions about 100 m apart with a shape node between each
+  // pair, some of them one way. Also a footpath, a building and a relation, which aren't roads.
+  // Some tags hold characters that need escaping in XML.
+  static TestMap roads(Random rnd, int size) {
+    TestMap map = new TestMap();
+    long lat0 = 377_700_000L;
+    long lon0 = -1_224_200_000L;
+    long step = 9_000; // 1e-7 degrees, about 100 m
+    long[][] grid = new long[2 * size - 1][2 * size - 1];
+    long nextId = 1000;
+    for (int r = 0; r < grid.length; r++) {
+      for (int c = 0; c < grid.length; c++) {
+        MapNode node = new MapNode();
+        node.id = nextId;
+        nextId += 1 + rnd.nextInt(3);
+        node.lat7 = lat0 + r * step / 2 + rnd.nextInt(50);
+        node.lon7 = lon0 + c * step / 2 + rnd.nextInt(50);
+        if (rnd.nextInt(10) == 0) {
+          node.tags.add("name");
+          node.tags.add("Stop & \"Go\" <" + r + "," + c + "> '\u00e9'");
+        }
+        grid[r][c] = node.id;
+        map.nodes.add(node);
+      }
+    }
+    long wayId = 1;
+    for (int line = 0; line < grid.length; line += 2) {
+      for (int dir = 0; dir < 2; dir++) {
+        MapWay way = new MapWay();
+        way.id = wayId++;
+        for (int k = 0; k < grid.length; k++) {
+          way.refs.add((dir == 0) ? grid[line][k] : grid[k][line]);
+        }
+        way.tags.add("highway");
+        way.tags.add(ROAD_TYPES[rnd.nextInt(ROAD_TYPES.length)]);
+        if (rnd.nextInt(4) == 0) {
+          way.tags.add("oneway");
+          way.tags.add("yes");
+        }
+        way.tags.add("name");
+        way.tags.add(((dir == 0) ? "Street " : "Avenue ") + line + "\t\u263a\n");
+        way.visible = rnd.nextBoolean() ? Boolean.TRUE : null;
+        map.ways.add(way);
+      }
+    }
+    MapWay path = new MapWay();
+    path.id = wayId++;
+    path.refs.add(grid[1][1]);
+    path.refs.add(grid[2][2]);
+    path.tags.add("highway");
+    path.tags.add("footway");
+    map.ways.add(path);
+    MapWay building = new MapWay();
+    building.id = wayId++;
+    long[] corners = new long[4];
+    for (int i = 0; i < 4; i++) {
+      MapNode node = new MapNode();
+      node.id = nextId++;
+      node.lat7 = lat0 - step + ((i / 2) * step / 4);
+      node.lon7 = lon0 - step + (((i + 1) / 2 % 2) * step / 4);
+      map.nodes.add(node);
+      corners[i] = node.id;
+      building.refs.add(node.id);
+    }
+    building.refs.add(corners[0]);
+    building.tags.add("building");
+    building.tags.add("yes");
+    building.visible = new Boolean[] {true, false, null}[rnd.nextInt(3)];
+    map.ways.add(building);
+    MapRelation relation = new MapRelation();
+    relation.id = 1;
+    relation.refs.add(map.ways.get(0).id);
+    relation.types.add("way");
+    relation.roles.add("");
+    relation.refs.add(grid[0][0]);
+    relation.types.add("node");
+    relation.roles.add("stop");
+    relation.tags.add("type");
+    relation.tags.add("route");
+    map.relations.add(relation);
+    map.bounds =
+        new long[] {
+          lon0 - step, lat0 - step, lon0 + size * step + step, lat0 + size * step + step
+        };
+    return map;
+  }
+
+  // Writes the map as an XML data file in the directory and reads it with all its ways
+  OsmParser parse(File dir) throws IOException {
+    File file = File.createTempFile("map", ".osm", dir);
+    writeXml(file);
+    OsmParser parser = new OsmParser(file);
+    parser.parse();
+    return parser;
+  }
+
+  void writeXml(File file) throws IOException {
+    try (Writer out =
+        new BufferedWriter(
+            new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8))) {
+      out.write("<?xml version='1.0' encoding='UTF-8'?>\n");
+      out.write("<osm version=\"0.6\" generator=\"test\">\n");
+      if (bounds != null) {
+        out.write(
+            "  <bounds minlat=\""
+                + degrees(bounds[1])
+                + "\" minlon=\""
+                + degrees(bounds[0])
+                + "\" maxlat=\""
+                + degrees(bounds[3])
+                + "\" maxlon=\""
+                + degrees(bounds[2])
+                + "\"/>\n");
+      }
+      for (MapNode node : nodes) {
+        out.write(
+            "  <node id=\""
+                + node.id
+                + "\" lat=\""
+                + degrees(node.lat7)
+                + "\" lon=\""
+                + degrees(node.lon7)
+                + "\" version=\"1\"");
+        if (node.tags.isEmpty()) {
+          out.write("/>\n");
+        } else {
+          out.write(">\n");
+          writeTags(out, node.tags);
+          out.write("  </node>\n");
+        }
+      }
+      for (MapWay way : ways) {
+        out.write("  <way id=\"" + way.id + "\"" + visible(way.visible) + ">\n");
+        for (long ref : way.refs) {
+          out.write("    <nd ref=\"" + ref + "\"/>\n");
+        }
+        writeTags(out, way.tags);
+        out.write("  </way>\n");
+      }
+      for (MapRelation relation : relations) {
+        out.write("  <relation id=\"" + relation.id + "\"" + visible(relation.visible) + ">\n");
+        for (int m = 0; m < relation.refs.size(); m++) {
+          out.write(
+              "    <member type=\""
+                  + relation.types.get(m)
+                  + "\" ref=\""
+                  + relation.refs.get(m)
+                  + "\" role=\""
+                  + escape(relation.roles.get(m))
+                  + "\"/>\n");
+        }
+        writeTags(out, relation.tags);
+        out.write("  </relation>\n");
+      }
+      out.write("</osm>\n");
+    }
+  }
+
+  // Writes the map as a PBF data file with at most blockSize elements per block. Blobs alternate
+  // between zlib compressed and raw, the first block's nodes are plain nodes and the rest dense
+  // nodes, and every other block has coordinate offsets, so each way of coding data is read.
+  void writePbf(File file, int blockSize) throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+      Message header = new Message();
+      if (bounds != null) {
+        Message bbox = new Message();
+        bbox.sint(1, bounds[0] * 100);
+        bbox.sint(2, bounds[2] * 100);
+        bbox.sint(3, bounds[3] * 100);
+        bbox.sint(4, bounds[1] * 100);
+        header.message(1, bbox);
+      }
+      header.string(4, "OsmSchema-V0.6");
+      header.string(4, "DenseNodes");
+      header.string(16, "test");
+      writeBlob(out, "OSMHeader", header, false);
+      int block = 0;
+      for (int from = 0; from < nodes.size(); from += blockSize) {
+        List<MapNode> part = nodes.subList(from, Math.min(nodes.size(), from + blockSize));
+        Strings strings = new Strings();
+        long offset = (block % 2 == 1) ? 300_000_000L : 0;
+        Message group = new Message();
+        if (block == 0) {
+          for (MapNode node : part) {
+            Message m = new Message();
+            m.sint(1, node.id);
+            m.packed(2, strings.keys(node.tags));
+            m.packed(3, strings.values(node.tags));
+            m.sint(8, (node.lat7 * 100 - offset) / 100);
+            m.sint(9, (node.lon7 * 100 - offset) / 100);
+            group.message(1, m);
+          }
+        } else {
+          long[] ids = new long[part.size()];
+          long[] lats = new long[part.size()];
+          long[] lons = new long[part.size()];
+          List<Long> keysValues = new ArrayList<>();
+          for (int i = 0; i < part.size(); i++) {
+            MapNode node = part.get(i);
+            ids[i] = node.id;
+            lats[i] = (node.lat7 * 100 - offset) / 100;
+            lons[i] = (node.lon7 * 100 - offset) / 100;
+            for (String tag : node.tags) {
+              keysValues.add((long) strings.index(tag));
+            }
+            keysValues.add(0L);
+          }
+          Message dense = new Message();
+          dense.deltas(1, ids);
+          dense.deltas(8, lats);
+          dense.deltas(9, lons);
+          dense.packed(10, keysValues);
+          group.message(2, dense);
+        }
+        writeBlock(out, strings, group, offset, block++);
+      }
+      for (int from = 0; from < ways.size(); from += blockSize) {
+        Strings strings = new Strings();
+        Message group = new Message();
+        for (MapWay way : ways.subList(from, Math.min(ways.size(), from + blockSize))) {
+          Message m = new Message();
+          m.varint(1, way.id);
+          m.packed(2, strings.keys(way.tags));
+          m.packed(3, strings.values(way.tags));
+          if (way.visible != null) {
+            m.message(4, info(way.visible));
+          }
+          m.deltas(8, way.refs.stream().mapToLong(Long::longValue).toArray());
+          group.message(3, m);
+        }
+        writeBlock(out, strings, group, 0, block++);
+      }
+      for (int from = 0; from < relations.size(); from += blockSize) {
+        Strings strings = new Strings();
+        Message group = new Message();
+        for (MapRelation relation :
+            relations.subList(from, Math.min(relations.size(), from + blockSize))) {
+          Message m = new Message();
+          m.varint(1, relation.id);
+          m.packed(2, strings.keys(relation.tags));
+          m.packed(3, strings.values(relation.tags));
+          if (relation.visible != null) {
+            m.message(4, info(relation.visible));
+          }
+          List<Long> roles = new ArrayList<>();
+          List<Long> types = new ArrayList<>();
+          List<String> typeNames = Arrays.asList("node", "way", "relation");
+          for (int i = 0; i < relation.refs.size(); i++) {
+            roles.add((long) strings.index(relation.roles.get(i)));
+            types.add((long) typeNames.indexOf(relation.types.get(i)));
+          }
+          m.packed(8, roles);
+          m.deltas(9, relation.refs.stream().mapToLong(Long::longValue).toArray());
+          m.packed(10, types);
+          group.message(4, m);
+        }
+        writeBlock(out, strings, group, 0, block++);
+      }
+    }
+  }
+
+  private static Message info(boolean visible) {
+    Message info = new Message();
+    info.varint(1, 1); // Version
+    info.varint(6, visible ? 1 : 0);
+    return info;
+  }
+
+  private static void writeBlock(
+      DataOutputStream out, Strings strings, Message group, long offset, int block)
+      throws IOException {
+    Message table = new Message();
+    for (String s : strings.strings) {
+      table.bytes(1, s.getBytes(StandardCharsets.UTF_8));
+    }
+    Message primitives = new Message();
+    primitives.message(1, table);
+    primitives.message(2, group);
+    if (offset != 0) {
+      primitives.varint(17, 100);
+      primitives.varint(19, offset);
+      primitives.varint(20, offset);
+    }
+    writeBlob(out, "OSMData", primitives, block % 2 == 0);
+  }
+
+  private static void writeBlob(DataOutputStream out, String type, Message data, boolean zlib)
+      throws IOException {
+    byte[] raw = data.toByteArray();
+    Message blob = new Message();
+    if (zlib) {
+      Deflater deflater = new Deflater();
+      deflater.setInput(raw);
+      deflater.finish();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        compressed.write(buffer, 0, deflater.deflate(buffer));
+      }
+      deflater.end();
+      blob.varint(2, raw.length);
+      blob.bytes(3, compressed.toByteArray());
+    } else {
+      blob.bytes(1, raw);
+    }
+    byte[] blobBytes = blob.toByteArray();
+    Message header = new Message();
+    header.string(1, type);
+    header.varint(3, blobBytes.length);
+    byte[] headerBytes = header.toByteArray();
+    out.writeInt(headerBytes.length);
+    out.write(headerBytes);
+    out.write(blobBytes);
+  }
+
+  // A block's string table; index 0 is the empty string, which ends each dense node's tags
+  private static final class Strings {
+    final List<String> strings = new ArrayList<>(List.of(""));
+    final Map<String, Integer> indices = new HashMap<>(Map.of("", 0));
+
+    int index(String s) {
+      return indices.computeIfAbsent(
+          s,
+          k -> {
+            strings.add(k);
+            return strings.size() - 1;
+          });
+    }
+
+    List<Long> keys(List<String> tags) {
+      List<Long> keys = new ArrayList<>();
+      for (int t = 0; t < tags.size(); t += 2) {
+        keys.add((long) index(tags.get(t)));
+      }
+      return keys;
+    }
+
+    List<Long> values(List<String> tags) {
+      List<Long> values = new ArrayList<>();
+      for (int t = 1; t < tags.size(); t += 2) {
+        values.add((long) index(tags.get(t)));
+      }
+      return values;
+    }
+  }
+
+  // A protocol buffer message being written
+  private static final class Message {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    void varint(int field, long value) {
+      key(field, 0);
+      writeVarint(bytes, value);
+    }
+
+    void sint(int field, long value) {
+      varint(field, (value << 1) ^ (value >> 63));
+    }
+
+    void bytes(int field, byte[] value) {
+      key(field, 2);
+      writeVarint(bytes, value.length);
+      bytes.write(value, 0, value.length);
+    }
+
+    void string(int field, String value) {
+      bytes(field, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void message(int field, Message value) {
+      bytes(field, value.toByteArray());
+    }
+
+    void packed(int field, List<Long> values) {
+      if (values.isEmpty()) {
+        return;
+      }
+      ByteArrayOutputStream packed = new ByteArrayOutputStream();
+      for (long value : values) {
+        writeVarint(packed, value);
+      }
+      bytes(field, packed.toByteArray());
+    }
+
+    // Packed zigzag coded differences from the value before
+    void deltas(int field, long[] values) {
+      ByteArrayOutputStream packed = new ByteArrayOutputStream();
+      long last = 0;
+      for (long value : values) {
+        long delta = value - last;
+        writeVarint(packed, (delta << 1) ^ (delta >> 63));
+        last = value;
+      }
+      bytes(field, packed.toByteArray());
+    }
+
+    byte[] toByteArray() {
+      return bytes.toByteArray();
+    }
+
+    private void key(int field, int wireType) {
+      writeVarint(bytes, ((long) field << 3) | wireType);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+      while ((value & ~0x7FL) != 0) {
+        out.write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      out.write((int) value);
+    }
+  }
+
+  private static String visible(Boolean visible) {
+    return (visible == null) ? "" : " visible=\"" + visible + "\"";
+  }
+
+  private static void writeTags(Writer out, List<String> tags) throws IOException {
+    for (int t = 0; t < tags.size(); t += 2) {
+      out.write(
+          "    <tag k=\"" + escape(tags.get(t)) + "\" v=\"" + escape(tags.get(t + 1)) + "\"/>\n");
+    }
+  }
+
+  static String degrees(long units) {
+    return BigDecimal.valueOf(units, 7).toPlainString();
+  }
+
+  // Escapes as OSM tools do; tabs and newlines as character references, so XML parsers keep them
+  static String escape(String s) {
+    StringBuilder sb = new StringBuilder();
+    for (char ch : s.toCharArray()) {
+      switch (ch) {
+        case '&':
+          sb.append("&amp;");
+          break;
+        case '<':
+          sb.append("&lt;");
+          break;
+        case '>':
+          sb.append("&gt;");
+          break;
+        case '"':
+          sb.append("&quot;");
+          break;
+        case '\'':
+          sb.append("&apos;");
+          break;
+        case '\t':
+          sb.append("&#9;");
+          break;
+        case '\n':
+          sb.append("&#x0A;");
+          break;
+        default:
+          sb.append(ch);
+      }
+    }
+    return sb.toString();
+  }
+}